@@ -2,10 +2,11 @@ package uk.ac.ed.inf.AStarPathFinder;
 
 
 import uk.ac.ed.inf.GeojsonManager;
+import uk.ac.ed.inf.GeometryEngine;
 import uk.ac.ed.inf.LongLat;
 
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Pathfinder using A* algorithm, finds waypoints for a given start and a given goal.
@@ -15,61 +16,85 @@ import java.util.stream.Collectors;
  */
 public class AStarPathfinder {
     private final GeojsonManager geojsonManager;
-    // in the form of graph[ll1][ll2] = distance from ll1 to ll2, +inf if cannot directly go to
-    private final Map<LongLat, Map<LongLat, Double>> waypointGraph;
+    private final List<LongLat> waypoints;
+    // index of every waypoint in waypoints
+    private final Map<LongLat, Integer> waypointIndexes = new HashMap<>();
+    // adjacency lists of the waypoint graph, only edges the drone can actually travel are kept,
+    // waypointNeighbours[i][k] is a neighbour of waypoint i, with edge cost waypointEdgeCosts[i][k]
+    private final int[][] waypointNeighbours;
+    private final double[][] waypointEdgeCosts;
+    // edges connecting points outside the waypoint graph (stops) with every waypoint, cached
+    // since the same shops and delivery locations are queried over and over again
+    private final Map<LongLat, double[]> fromPointEdgeCosts = new ConcurrentHashMap<>();
+    private final Map<LongLat, double[]> toPointEdgeCosts = new ConcurrentHashMap<>();
+    // waypoint graphs already built, reused by pathfinders over the same (unchanged) no fly zones
+    private static final Map<GeometryEngine, int[][]> builtWaypointNeighbours =
+        Collections.synchronizedMap(new WeakHashMap<>());
+    private static final Map<GeometryEngine, double[][]> builtWaypointEdgeCosts =
+        Collections.synchronizedMap(new WeakHashMap<>());
     
     /**
      * Initialises an A* pathfinder.
      * It will create a waypoint graph from the no fly zone polygon vertices, and will try to avoid
      * connecting waypoints/nodes that are hard for the drone to maneuver from and to, since the
      * drone can move only in a stiff manner (limited turning angles and fixed movement distance).
+     * The graph is only built once for the same no fly zones, later pathfinders reuse it.
      *
      * @param geojsonManager the GeojsonManager to be used for this object.
      */
     public AStarPathfinder(GeojsonManager geojsonManager) {
         this.geojsonManager = geojsonManager;
-        List<LongLat> waypoints = geojsonManager.getWaypoints();
+        this.waypoints = geojsonManager.getWaypoints();
+        for (int i = 0; i < waypoints.size(); i++) {
+            waypointIndexes.putIfAbsent(waypoints.get(i), i);
+        }
+        GeometryEngine geometryEngine = geojsonManager.getGeometryEngine();
+        int[][] builtNeighbours = builtWaypointNeighbours.get(geometryEngine);
+        double[][] builtEdgeCosts = builtWaypointEdgeCosts.get(geometryEngine);
+        if (builtNeighbours != null && builtEdgeCosts != null) {
+            this.waypointNeighbours = builtNeighbours;
+            this.waypointEdgeCosts = builtEdgeCosts;
+            return;
+        }
+        int waypointCount = waypoints.size();
+        this.waypointNeighbours = new int[waypointCount][];
+        this.waypointEdgeCosts = new double[waypointCount][];
         
-        Map<LongLat, Map<LongLat, Double>> waypointGraph = new HashMap<>();
-        // populate the adjacency matrix/map
+        // populate the adjacency lists
         // check: DON'T CONNECT any vertices that are not in the clear
-    
-        for (LongLat waypoint : waypoints) {
-            waypointGraph.put(waypoint, new HashMap<>());
-            for (LongLat otherWaypoint : waypoints) {
-                // same waypoint
-                if (waypoint.equals(otherWaypoint)) {
-                    waypointGraph.get(waypoint).put(otherWaypoint, 0.0);
+        for (int i = 0; i < waypointCount; i++) {
+            LongLat waypoint = waypoints.get(i);
+            List<Integer> neighbours = new ArrayList<>();
+            List<Double> edgeCosts = new ArrayList<>();
+            for (int j = 0; j < waypointCount; j++) {
+                LongLat otherWaypoint = waypoints.get(j);
+                // same waypoint, or no direct path between the two
+                if (i == j || geojsonManager.lineCrossesNoFlyZone(waypoint, otherWaypoint)) {
+                    continue;
                 }
-                else {
-                    if (geojsonManager.lineCrossesNoFlyZone(waypoint, otherWaypoint)) {
-                        // no direct path, edge is +inf
-                        waypointGraph.get(waypoint).put(otherWaypoint, Double.POSITIVE_INFINITY);
-                    }
-                    // has a direct path between the two, check if it is hard for drone to move to
-                    else {
-                        // probe the surroundings
-                        if (isHardToMoveTo(waypoint, otherWaypoint)) {
-                            // treat it as if no direct path, edge is +inf
-                            waypointGraph.get(waypoint).put(otherWaypoint, Double.POSITIVE_INFINITY);
-                        }
-                        else {
-                            // edge is the distance
-                            waypointGraph.get(waypoint).put(otherWaypoint,
-                                waypoint.distanceTo(otherWaypoint));
-                        }
-                    }
+                // has a direct path between the two, but treat it as if there isn't one if it is
+                // hard for the drone to move to
+                if (!isHardToMoveTo(waypoint, otherWaypoint)) {
+                    neighbours.add(j);
+                    edgeCosts.add(waypoint.distanceTo(otherWaypoint));
                 }
             }
+            waypointNeighbours[i] = neighbours.stream().mapToInt(Integer::intValue).toArray();
+            waypointEdgeCosts[i] = edgeCosts.stream().mapToDouble(Double::doubleValue).toArray();
         }
-        this.waypointGraph = waypointGraph;
+        builtWaypointNeighbours.put(geometryEngine, waypointNeighbours);
+        builtWaypointEdgeCosts.put(geometryEngine, waypointEdgeCosts);
     }
     
     /**
      * Using straight line probes with the move distance as length to check its surroundings.
-     * Note that going from a vertex into the polygon doesn't count as crossing no fly zone,
-     * which ought not be the case, but without proper point-in-polygon detection, there is a
-     * workaround, which is to lower the number of crossing count.
+     * Only probes properly intersecting a perimeter are counted, probes going from the vertex into
+     * its own polygon are not, since the drone leaves from close to the vertex rather than from the
+     * vertex itself. What is measured is how cluttered the surroundings are, e.g. a narrow gap
+     * between two polygons, which the drone cannot maneuver through with its stiff moves.
+     * This is not about visibility, which lineCrossesNoFlyZone now checks exactly, so it is kept
+     * alongside it: without it, edges through narrow gaps get into the graph and the move
+     * planners get stuck trying to fly them.
      * @param waypoint1 Starting waypoint
      * @param waypoint2 Ending waypoint
      * @return Whether or not it is considered hard to move
@@ -79,7 +104,7 @@ public class AStarPathfinder {
         int crossCount = 0;
         for (int offset = -90; offset <= 90; offset += 10) {
             LongLat pseudoEndLngLat = waypoint1.nextPosition(angle + offset);
-            if (geojsonManager.lineCrossesNoFlyZone(waypoint1, pseudoEndLngLat)) {
+            if (geojsonManager.lineIntersectsNoFlyZonePerimeter(waypoint1, pseudoEndLngLat)) {
                 crossCount += 1;
             }
         }
@@ -87,140 +112,283 @@ public class AStarPathfinder {
     }
     
     /**
-     * Returns a weighted path graph, constructed with nodes from all waypoints plus the starting
-     * and goal node. However, the edge cost is only a heuristic for the actual path cost,
-     * since the drone cannot move in arbitrary straight lines.
-     * @param start the starting location.
-     * @param goal the goal/destination location.
-     * @return A map in the form that pathGraph[point1][point2] is the edge cost of
-     * point1 to point2.
+     * Checks a straight leg by the same rules the paths are found with: it must not cross a no
+     * fly zone, and between two waypoints it must be an edge of the waypoint graph, so not one
+     * isHardToMoveTo leaves out.
+     * @param from The point flown from.
+     * @param to The point flown to.
+     * @return Whether a path found by this pathfinder could go straight from one to the other.
      */
-    private Map<LongLat, Map<LongLat, Double>> getPathGraph(LongLat start, LongLat goal) {
-        List<LongLat> waypoints = geojsonManager.getWaypoints();
-        // make a copy then add start and goal nodes to it
-        Map<LongLat, Map<LongLat, Double>> pathGraph =
-            this.waypointGraph.entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey,
-                e->new HashMap<>(e.getValue())));
-        pathGraph.put(start, new HashMap<>());
-        pathGraph.put(goal, new HashMap<>());
-        for (LongLat waypoint : waypoints) {
-            // connect the start node with others
-            connectWithGraphNode(start, pathGraph, waypoint, start.distanceTo(waypoint),
-                waypoint.distanceTo(start));
-            // connect the goal node with others
-            connectWithGraphNode(waypoint, pathGraph, goal, goal.distanceTo(waypoint),
-                waypoint.distanceTo(goal));
+    public boolean isAdmissibleEdge(LongLat from, LongLat to) {
+        Integer fromIndex = waypointIndexes.get(from);
+        Integer toIndex = waypointIndexes.get(to);
+        if (fromIndex != null && toIndex != null) {
+            // neighbours are added in order of index
+            return Arrays.binarySearch(waypointNeighbours[fromIndex], toIndex) >= 0;
         }
-        // connect start node with goal node
-        double startToGoalDistance = geojsonManager.lineCrossesNoFlyZone(new LongLat[]
-            {start, goal}) ? Double.POSITIVE_INFINITY : start.distanceTo(goal);
-
-        pathGraph.get(start).put(goal, startToGoalDistance);
-        pathGraph.get(goal).put(start, startToGoalDistance);
-        // connect with self
-        pathGraph.get(start).put(start, 0.0);
-        pathGraph.get(goal).put(goal, 0.0);
-        return pathGraph;
+        return !geojsonManager.lineCrossesNoFlyZone(from, to);
     }
     
     /**
-     * Utility method used by getPathGraph, intended to connect the start and goal node to the
-     * existing waypoint graph for use in findPath.
-     * @param nodeToAdd The node to add to the graph.
-     * @param pathGraph The existing graph.
-     * @param waypointInGraph The waypoint of pathGraph which is to be connected with.
-     * @param distanceFromNode Distance from nodeToAdd to waypointInGraph.
-     * @param distanceToNode Distance from waypointInGraph to nodeToAdd.
+     * Computes the cost of the edges connecting a point outside the waypoint graph with every
+     * waypoint. However, the edge cost is only a heuristic for the actual path cost,
+     * since the drone cannot move in arbitrary straight lines.
+     * The result is cached per point and must not be modified.
+     * @param point The point to connect with the waypoint graph.
+     * @param fromPoint True for edges from point to the waypoints, false for the reverse direction.
+     * @return Array where element i is the edge cost between point and waypoint i,
+     * +inf if there is no direct path.
      */
-    private void connectWithGraphNode(LongLat nodeToAdd, Map<LongLat, Map<LongLat, Double>> pathGraph,
-                                      LongLat waypointInGraph,
-                                      double distanceFromNode, double distanceToNode) {
-        if (geojsonManager.lineCrossesNoFlyZone(nodeToAdd, waypointInGraph)) {
-            // no direct path, edge is +inf
-            pathGraph.get(nodeToAdd).put(waypointInGraph, Double.POSITIVE_INFINITY);
-            pathGraph.get(waypointInGraph).put(nodeToAdd, Double.POSITIVE_INFINITY);
+    private double[] getEdgeCostsToWaypoints(LongLat point, boolean fromPoint) {
+        Map<LongLat, double[]> cache = fromPoint ? fromPointEdgeCosts : toPointEdgeCosts;
+        double[] cached = cache.get(point);
+        if (cached != null) {
+            return cached;
         }
-        else {
-            // edge is the distance
-            pathGraph.get(nodeToAdd).put(waypointInGraph, distanceFromNode);
-            pathGraph.get(waypointInGraph).put(nodeToAdd, distanceToNode);
+        double[] edgeCosts = new double[waypoints.size()];
+        for (int i = 0; i < waypoints.size(); i++) {
+            LongLat waypoint = waypoints.get(i);
+            boolean crosses = fromPoint ? geojsonManager.lineCrossesNoFlyZone(point, waypoint) :
+                geojsonManager.lineCrossesNoFlyZone(waypoint, point);
+            edgeCosts[i] = crosses ? Double.POSITIVE_INFINITY :
+                (fromPoint ? point.distanceTo(waypoint) : waypoint.distanceTo(point));
         }
+        cache.put(point, edgeCosts);
+        return edgeCosts;
     }
     
     /**
      * Find a path from start to goal, the returned result is the nodes to visit to reach goal,
      * including goal node itself, but not the start node.
+     * <br><br>
+     * Nodes are indexed with waypoint i being node i, start being node n and goal node n+1,
+     * where n is the number of waypoints. Open set entries carry their own f cost, so updating
+     * a node's g cost never affects entries already queued, outdated entries are skipped when
+     * polled as their node has already been closed.
      * @param start starting point/LongLat
      * @param goal to reach point/LongLat
      * @return result containing the distance/cost, and list of way points in between.
      */
     public PathfinderResult findPath(LongLat start, LongLat goal) {
-        // this would be waypointGraph with start and goal node added
-        Map<LongLat, Map<LongLat, Double>> pathGraph = getPathGraph(start, goal);
-        Map<LongLat, Double> closedSet = new HashMap<>();
+        int waypointCount = waypoints.size();
+        int startNode = waypointCount;
+        int goalNode = waypointCount + 1;
+        // edges connecting start and goal with the waypoint graph
+        double[] startEdgeCosts = getEdgeCostsToWaypoints(start, true);
+        double[] goalEdgeCosts = getEdgeCostsToWaypoints(goal, false);
+        double startToGoalCost = geojsonManager.lineCrossesNoFlyZone(new LongLat[]
+            {start, goal}) ? Double.POSITIVE_INFINITY : start.distanceTo(goal);
+        
+        double[] gCosts = new double[waypointCount + 2];
+        Arrays.fill(gCosts, Double.POSITIVE_INFINITY);
+        // cameFrom[node] is the node travelled from to reach node, used when reconstructing path
+        int[] cameFrom = new int[waypointCount + 2];
+        Arrays.fill(cameFrom, -1);
+        BitSet closedSet = new BitSet(waypointCount + 2);
         // open set is a priority queue based on the f cost of nodes
-        PriorityQueue<LongLat> openSet = new PriorityQueue<>(
-            new AStarNodeComparator(closedSet, goal));
-        closedSet.put(start, 0.0);
-        openSet.add(start);
-        // key is the result of travelling from value, used when reconstructing the path
-        Map<LongLat, LongLat> cameFrom = new HashMap<>();
+        PriorityQueue<AStarNode> openSet = new PriorityQueue<>();
+        gCosts[startNode] = 0.0;
+        openSet.add(new AStarNode(startNode, start.distanceTo(goal)));
         while (!openSet.isEmpty()) {
-            LongLat current = openSet.poll();
-            if (current.equals(goal))
+            int current = openSet.poll().node;
+            if (closedSet.get(current))
+                continue;  // outdated entry, node was already reached with a lower cost
+            closedSet.set(current);
+            if (current == goalNode)
                 break;
-            // for each neighbour node of current node
-            for (LongLat neighbour : pathGraph.get(current).keySet()) {
-                double newCost = closedSet.get(current) + pathGraph.get(current).get(neighbour);
-                if (!closedSet.containsKey(neighbour) || newCost < closedSet.get(neighbour)) {
-                    closedSet.put(neighbour, newCost);
-                    openSet.add(neighbour);
-                    cameFrom.put(neighbour, current);
+            double currentCost = gCosts[current];
+            if (current == startNode) {
+                for (int neighbour = 0; neighbour < waypointCount; neighbour++) {
+                    relax(current, neighbour, currentCost + startEdgeCosts[neighbour],
+                        waypoints.get(neighbour), goal, gCosts, cameFrom, closedSet, openSet);
+                }
+                relax(current, goalNode, currentCost + startToGoalCost, goal, goal, gCosts,
+                    cameFrom, closedSet, openSet);
+            }
+            else {
+                // current is a waypoint, for each of its neighbour nodes
+                int[] neighbours = waypointNeighbours[current];
+                double[] edgeCosts = waypointEdgeCosts[current];
+                for (int k = 0; k < neighbours.length; k++) {
+                    relax(current, neighbours[k], currentCost + edgeCosts[k],
+                        waypoints.get(neighbours[k]), goal, gCosts, cameFrom, closedSet, openSet);
                 }
+                relax(current, goalNode, currentCost + goalEdgeCosts[current], goal, goal, gCosts,
+                    cameFrom, closedSet, openSet);
             }
         }
+        if (cameFrom[goalNode] == -1) {
+            // should not happen, the goal is always reachable via waypoints
+            System.err.printf("NO PATH FOUND FROM %s TO %s\n", start, goal);
+            return new PathfinderResult(Double.POSITIVE_INFINITY,
+                new ArrayList<>(Collections.singletonList(goal)));
+        }
         // reconstruct path, will be singleton list of goal if directly going from start to goal
         List<LongLat> path = new ArrayList<>();
-        LongLat thisNode = goal;
-        while (thisNode != start) {
-            path.add(thisNode);
-            thisNode = cameFrom.get(thisNode);
+        int thisNode = goalNode;
+        while (thisNode != startNode) {
+            path.add(thisNode == goalNode ? goal : waypoints.get(thisNode));
+            thisNode = cameFrom[thisNode];
         }
         Collections.reverse(path);  // it is now in the correct visiting order
-        return new PathfinderResult(closedSet.get(goal), path);
+        return new PathfinderResult(gCosts[goalNode], path);
+    }
+    
+    /**
+     * Finds the shortest paths from source to every one of the targets in a single search, using
+     * Dijkstra's algorithm on the waypoint graph with source and all targets added.
+     * Targets are only ever the end of a path, the drone does not pass through them.
+     * Paths are reconstructed lazily from the returned tree when asked for.
+     * @param source starting point/LongLat
+     * @param targets the points/LongLats to reach.
+     * @return the search tree containing the cost of reaching every target, and their paths.
+     */
+    public ShortestPathTree findPathsFrom(LongLat source, List<LongLat> targets) {
+        int waypointCount = waypoints.size();
+        int sourceNode = waypointCount;
+        int targetCount = targets.size();
+        int nodeCount = waypointCount + 1 + targetCount;  // node of target t is sourceNode + 1 + t
+        double[] sourceEdgeCosts = getEdgeCostsToWaypoints(source, true);
+        double[][] targetEdgeCosts = new double[targetCount][];
+        double[] sourceToTargetCosts = new double[targetCount];
+        for (int t = 0; t < targetCount; t++) {
+            LongLat target = targets.get(t);
+            targetEdgeCosts[t] = getEdgeCostsToWaypoints(target, false);
+            sourceToTargetCosts[t] = geojsonManager.lineCrossesNoFlyZone(source, target) ?
+                Double.POSITIVE_INFINITY : source.distanceTo(target);
+        }
+        
+        double[] gCosts = new double[nodeCount];
+        Arrays.fill(gCosts, Double.POSITIVE_INFINITY);
+        int[] cameFrom = new int[nodeCount];
+        Arrays.fill(cameFrom, -1);
+        BitSet closedSet = new BitSet(nodeCount);
+        PriorityQueue<AStarNode> openSet = new PriorityQueue<>();
+        gCosts[sourceNode] = 0.0;
+        openSet.add(new AStarNode(sourceNode, 0.0));
+        int targetsReached = 0;
+        while (!openSet.isEmpty() && targetsReached < targetCount) {
+            AStarNode currentEntry = openSet.poll();
+            int current = currentEntry.node;
+            if (closedSet.get(current))
+                continue;
+            closedSet.set(current);
+            if (current > sourceNode) {
+                targetsReached += 1;
+                continue;  // targets are not expanded
+            }
+            double currentCost = gCosts[current];
+            if (current == sourceNode) {
+                for (int neighbour = 0; neighbour < waypointCount; neighbour++) {
+                    relax(current, neighbour, currentCost + sourceEdgeCosts[neighbour],
+                        gCosts, cameFrom, closedSet, openSet);
+                }
+                for (int t = 0; t < targetCount; t++) {
+                    relax(current, sourceNode + 1 + t, currentCost + sourceToTargetCosts[t],
+                        gCosts, cameFrom, closedSet, openSet);
+                }
+            }
+            else {
+                int[] neighbours = waypointNeighbours[current];
+                double[] edgeCosts = waypointEdgeCosts[current];
+                for (int k = 0; k < neighbours.length; k++) {
+                    relax(current, neighbours[k], currentCost + edgeCosts[k], gCosts, cameFrom,
+                        closedSet, openSet);
+                }
+                for (int t = 0; t < targetCount; t++) {
+                    relax(current, sourceNode + 1 + t, currentCost + targetEdgeCosts[t][current],
+                        gCosts, cameFrom, closedSet, openSet);
+                }
+            }
+        }
+        return new ShortestPathTree(source, targets, waypoints, gCosts, cameFrom);
+    }
+    
+    /**
+     * Finds the shortest paths between every pair of stops, with one search per stop.
+     * @param stops The points/LongLats to find paths between.
+     * @return List where element i is the search tree from stop i to every stop.
+     */
+    public List<ShortestPathTree> findAllPaths(List<LongLat> stops) {
+        List<ShortestPathTree> trees = new ArrayList<>();
+        for (LongLat stop : stops) {
+            trees.add(findPathsFrom(stop, stops));
+        }
+        return trees;
+    }
+    
+    /**
+     * Relaxes the edge from node to neighbour for Dijkstra's algorithm, where f cost is g cost.
+     * @param node The node being expanded.
+     * @param neighbour The neighbour node of the edge.
+     * @param newCost The g cost of neighbour if reached through node.
+     * @param gCosts The g costs of all nodes.
+     * @param cameFrom The nodes travelled from, to be updated.
+     * @param closedSet The nodes that are already closed.
+     * @param openSet The open set to queue neighbour into.
+     */
+    private static void relax(int node, int neighbour, double newCost, double[] gCosts,
+                              int[] cameFrom, BitSet closedSet, PriorityQueue<AStarNode> openSet) {
+        if (newCost == Double.POSITIVE_INFINITY || closedSet.get(neighbour) ||
+            newCost >= gCosts[neighbour]) {
+            return;
+        }
+        gCosts[neighbour] = newCost;
+        cameFrom[neighbour] = node;
+        openSet.add(new AStarNode(neighbour, newCost));
+    }
+    
+    /**
+     * Relaxes the edge from node to neighbour, queueing neighbour if the new cost is lower.
+     * Edges that cannot be travelled (+inf cost) are never queued.
+     * @param node The node being expanded.
+     * @param neighbour The neighbour node of the edge.
+     * @param newCost The g cost of neighbour if reached through node.
+     * @param neighbourLngLat The position of neighbour, used for the h cost.
+     * @param goal The goal position.
+     * @param gCosts The g costs of all nodes.
+     * @param cameFrom The nodes travelled from, to be updated.
+     * @param closedSet The nodes that are already closed.
+     * @param openSet The open set to queue neighbour into.
+     */
+    private static void relax(int node, int neighbour, double newCost, LongLat neighbourLngLat,
+                              LongLat goal, double[] gCosts, int[] cameFrom, BitSet closedSet,
+                              PriorityQueue<AStarNode> openSet) {
+        if (newCost == Double.POSITIVE_INFINITY || closedSet.get(neighbour) ||
+            newCost >= gCosts[neighbour]) {
+            return;
+        }
+        gCosts[neighbour] = newCost;
+        cameFrom[neighbour] = node;
+        openSet.add(new AStarNode(neighbour, newCost + neighbourLngLat.distanceTo(goal)));
     }
 }
 
 
 /**
- * This comparator compares A* nodes based on their corresponding f cost.
+ * An open set entry of A*, holding the node and its f cost at the time of queueing.
+ * Entries are immutable, a node whose cost is lowered is simply queued again.
  */
-class AStarNodeComparator implements Comparator<LongLat> {
-    private final Map<LongLat, Double> closedSet;
-    private final LongLat goal;
+class AStarNode implements Comparable<AStarNode> {
+    final int node;
+    final double fCost;
     
     /**
-     * The closed set needs to be mutated/updated by the pathfinding algorithm.
-     * @param closedSet the (referenced) closed set which contains the g costs.
-     * @param goal the goal node to which h cost is computed.
+     * @param node The index of the node.
+     * @param fCost The f cost (= g cost + h cost) of the node.
      */
-    public AStarNodeComparator(Map<LongLat, Double> closedSet, LongLat goal) {
-        this.closedSet = closedSet;
-        this.goal = goal;
+    AStarNode(int node, double fCost) {
+        this.node = node;
+        this.fCost = fCost;
     }
     
     /**
-     * Compares priority using the f cost (= g cost + h cost).
-     * Retrieves g cost from closeSet and use euclidean distance between nodes as h cost.
-     * @param longLat1 one element to compare
-     * @param longLat2 the other element to compare
-     * @return negative if longLat1 < longLat2, otherwise positive, or 0 if equal
+     * Compares priority using the f cost.
+     * @param otherNode the other entry to compare
+     * @return negative if this < otherNode, otherwise positive, or 0 if equal
      */
     @Override
-    public int compare(LongLat longLat1, LongLat longLat2) {
-        // g cost from closeSet, h cost is distance
-        double fCost1 = closedSet.get(longLat1) + longLat1.distanceTo(goal);
-        double fCost2 = closedSet.get(longLat2) + longLat2.distanceTo(goal);
-        return Double.compare(fCost1, fCost2);
+    public int compareTo(AStarNode otherNode) {
+        return Double.compare(this.fCost, otherNode.fCost);
     }
 }
@@ -0,0 +1,90 @@
+package uk.ac.ed.inf.AStarPathFinder;
+
+import uk.ac.ed.inf.LongLat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * The result of AStarPathfinder#findPathsFrom. Holds the search tree grown from one source,
+ * from which the cost and path to every target can be retrieved. Paths are only reconstructed
+ * when asked for, and are then kept for later calls.
+ */
+public class ShortestPathTree {
+    public final LongLat source;
+    private final List<LongLat> targets;
+    private final List<LongLat> waypoints;
+    // node i < waypoints.size() is waypoint i, followed by the source node and the target nodes
+    private final double[] gCosts;
+    private final int[] cameFrom;
+    private final PathfinderResult[] paths;  // reconstructed paths, null if not yet asked for
+    
+    /**
+     * @param source The source of the search.
+     * @param targets The targets of the search.
+     * @param waypoints The waypoints of the graph searched.
+     * @param gCosts The cost of reaching every node of the graph.
+     * @param cameFrom The node travelled from to reach every node of the graph, -1 if none.
+     */
+    ShortestPathTree(LongLat source, List<LongLat> targets, List<LongLat> waypoints,
+                     double[] gCosts, int[] cameFrom) {
+        this.source = source;
+        this.targets = targets;
+        this.waypoints = waypoints;
+        this.gCosts = gCosts;
+        this.cameFrom = cameFrom;
+        this.paths = new PathfinderResult[targets.size()];
+    }
+    
+    /**
+     * @param targetIndex The index of the target, as in the list of targets searched for.
+     * @return The cost of reaching the target from source, +inf if not reachable.
+     */
+    public double getDistance(int targetIndex) {
+        return gCosts[waypoints.size() + 1 + targetIndex];
+    }
+    
+    /**
+     * @return The costs of reaching every target from source, in the order of the targets.
+     */
+    public double[] getDistances() {
+        double[] distances = new double[targets.size()];
+        for (int t = 0; t < distances.length; t++) {
+            distances[t] = getDistance(t);
+        }
+        return distances;
+    }
+    
+    /**
+     * The path to the target, same as the result of AStarPathfinder#findPath from source to the
+     * target, i.e. including the target but not the source.
+     * @param targetIndex The index of the target, as in the list of targets searched for.
+     * @return result containing the distance/cost, and list of way points in between.
+     */
+    public PathfinderResult getPath(int targetIndex) {
+        if (paths[targetIndex] != null) {
+            return paths[targetIndex];
+        }
+        int sourceNode = waypoints.size();
+        int targetNode = sourceNode + 1 + targetIndex;
+        LongLat target = targets.get(targetIndex);
+        List<LongLat> path = new ArrayList<>();
+        if (cameFrom[targetNode] == -1) {
+            // should not happen, the target is always reachable via waypoints
+            System.err.printf("NO PATH FOUND FROM %s TO %s\n", source, target);
+            path.add(target);
+        }
+        else {
+            int thisNode = targetNode;
+            while (thisNode != sourceNode) {
+                path.add(thisNode == targetNode ? target : waypoints.get(thisNode));
+                thisNode = cameFrom[thisNode];
+            }
+            Collections.reverse(path);  // it is now in the correct visiting order
+        }
+        paths[targetIndex] = new PathfinderResult(getDistance(targetIndex), path);
+        return paths[targetIndex];
+    }
+}
@@ -1,16 +1,68 @@
 package uk.ac.ed.inf;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 /**
  * The class for entry point of program.
  */
 public class App
 {
+    private static final int DEFAULT_BEAM_WIDTH = 16;
+    private static final int MAX_BEAM_DEPTH = 400;
+    
     /**
-     * @param args The entry point
+     * @param args The entry point: day month year serverPort dbPort, optionally followed by
+     *             --planner=beam and --beam-width=N to use beam search for the moves, and
+     *             --geojson-orders to add per order features to the visualisation geojson, and
+     *             --drones=K to plan for a fleet of K drones instead of a single one, and
+     *             --sorties to let the single drone return to APPLETON TOWER and relaunch as
+     *             often as it takes to deliver every order, and
+     *             --consolidate-stops to let orders share visits to the same location, and
+     *             --clustered-tour to plan the order of deliveries with ClusteredTourPlanner,
+     *             for days with many orders, and
+     *             --estimate-moves to plan with the moves estimated by a calibrated
+     *             MoveEstimator instead of simulating every candidate route, and
+     *             --validate to check the flightpaths before writing them, and
+     *             --archive=FILE to append the flights to a RouteArchive, and
+     *             --bulk-load=DIR to bulk load the output tables from files staged in DIR (which
+     *             the database server must be able to read, only faster than batched inserts for
+     *             loads far larger than a day's plan) and index the tables read, and
+     *             --partitioned to keep the output of every date in the date partitioned
+     *             tables instead of replacing the deliveries and flightpath tables, and
+     *             --http-stats to print the latencies of the webserver's endpoints.
+     *             Or --serve=PORT serverPort dbPort, optionally followed by the same options
+     *             (but --drones, --sorties, --consolidate-stops, --clustered-tour,
+     *             --estimate-moves, --validate and --archive) and
+     *             --threads=N, to run the planning service on PORT instead of planning one day,
+     *             see PlanningService.
+     *             Or --validate=SOURCE serverPort [dbPort], optionally followed by --threads=N,
+     *             to check stored flightpaths instead, SOURCE being db for the flightpath table,
+     *             db:yyyy-mm-dd for the moves of a date in the date partitioned tables,
+     *             a RouteArchive file (*.routes), a visualisation geojson file or a directory
+     *             of them, see FlightpathValidator.
+     *             In every mode, starting the JVM with --add-modules jdk.incubator.vector lets
+     *             segments be checked against the no fly zones with SIMD, see
+     *             SegmentIntersectionKernel.
      */
     public static void main( String[] args )
     {
+        if (args[0].startsWith("--serve=")) {
+            serve(Integer.parseInt(args[0].substring("--serve=".length())), args[1], args[2],
+                args);
+            return;
+        }
+        if (args[0].startsWith("--validate=")) {
+            validate(args[0].substring("--validate=".length()), args);
+            return;
+        }
         String day = args[0];
         String month = args[1];
         String year = args[2];
@@ -19,7 +71,305 @@ public class App
         System.out.printf("running server at %s, running database at %s, for " +
             "%s-%s-%s\n", serverPort, dbPort, day, month, year);
         
-        Drone drone = new Drone("localhost", serverPort, dbPort, day, month, year);
-        drone.performDeliveries();
+        boolean useBeamSearch = false;
+        int beamWidth = DEFAULT_BEAM_WIDTH;
+        boolean writeOrderFeatures = false;
+        int droneCount = 0;  // 0 for the single drone mode
+        boolean multiSortie = false;
+        boolean printHttpStats = false;
+        boolean consolidateStops = false;
+        boolean clusteredTour = false;
+        boolean estimateMoves = false;
+        boolean validateFlightpaths = false;
+        Path routeArchive = null;
+        Path bulkLoadDirectory = null;
+        boolean partitioned = false;
+        for (int i = 5; i < args.length; i++) {
+            if (args[i].equals("--planner=beam")) {
+                useBeamSearch = true;
+            }
+            else if (args[i].startsWith("--beam-width=")) {
+                beamWidth = Integer.parseInt(args[i].substring("--beam-width=".length()));
+            }
+            else if (args[i].startsWith("--drones=")) {
+                droneCount = Integer.parseInt(args[i].substring("--drones=".length()));
+            }
+            else if (args[i].equals("--sorties")) {
+                multiSortie = true;
+            }
+            else if (args[i].equals("--http-stats")) {
+                printHttpStats = true;
+            }
+            else if (args[i].equals("--geojson-orders")) {
+                writeOrderFeatures = true;
+            }
+            else if (args[i].equals("--consolidate-stops")) {
+                consolidateStops = true;
+            }
+            else if (args[i].equals("--clustered-tour")) {
+                clusteredTour = true;
+            }
+            else if (args[i].equals("--estimate-moves")) {
+                estimateMoves = true;
+            }
+            else if (args[i].equals("--validate")) {
+                validateFlightpaths = true;
+            }
+            else if (args[i].startsWith("--archive=")) {
+                routeArchive = Path.of(args[i].substring("--archive=".length()));
+            }
+            else if (args[i].startsWith("--bulk-load=")) {
+                bulkLoadDirectory = Path.of(args[i].substring("--bulk-load=".length()));
+            }
+            else if (args[i].equals("--partitioned")) {
+                partitioned = true;
+            }
+            else {
+                System.err.printf("ignoring unknown option %s\n", args[i]);
+            }
+        }
+        
+        boolean failed = false;
+        try {
+            DBManager dbManager = new DBManager(dbPort);
+            if (bulkLoadDirectory != null) {
+                dbManager.setBulkLoadDirectory(bulkLoadDirectory);
+                dbManager.ensureReadIndexes();
+            }
+            if (partitioned) {
+                dbManager.usePartitionedTables();
+            }
+            Drone drone = new Drone(new PlanningContext("localhost", serverPort, dbManager), day,
+                month, year);
+            if (useBeamSearch) {
+                drone.setMovePlanner(new BeamSearchMovePlanner(drone.getGeojsonManager(),
+                    beamWidth, MAX_BEAM_DEPTH));
+            }
+            drone.setWriteOrderFeatures(writeOrderFeatures);
+            drone.setConsolidateStops(consolidateStops);
+            drone.setClusteredTourPlanning(clusteredTour);
+            drone.setEstimateMoves(estimateMoves);
+            drone.setValidateFlightpaths(validateFlightpaths);
+            drone.setRouteArchive(routeArchive);
+            if (droneCount > 0) {
+                drone.performFleetDeliveries(droneCount);
+            }
+            else if (multiSortie) {
+                drone.performMultiSortieDeliveries();
+            }
+            else {
+                drone.performDeliveries();
+            }
+        }
+        catch (HttpRequestException e) {
+            // menus or no fly zones are needed for anything at all, fatal error
+            System.err.println("Fatal error: " + e.getMessage());
+            failed = true;
+        }
+        catch (DatabaseException e) {
+            System.err.println("Fatal error: " + e.getMessage());
+            e.printStackTrace();
+            failed = true;
+        }
+        if (printHttpStats) {
+            Utils.httpClient.printLatencySummary();
+        }
+        if (failed) {
+            System.exit(1); // Exit the application
+        }
+    }
+    
+    /**
+     * Runs the planning service until the JVM is shut down.
+     * @param servicePort The port to serve plans on.
+     * @param serverPort Port of the webserver.
+     * @param dbPort Port of the database.
+     * @param args All arguments, the options after the first 3 are used.
+     */
+    private static void serve(int servicePort, String serverPort, String dbPort, String[] args) {
+        boolean useBeamSearch = false;
+        int beamWidth = DEFAULT_BEAM_WIDTH;
+        boolean writeOrderFeatures = false;
+        boolean printHttpStats = false;
+        int threadCount = Runtime.getRuntime().availableProcessors();
+        Path bulkLoadDirectory = null;
+        boolean partitioned = false;
+        for (int i = 3; i < args.length; i++) {
+            if (args[i].equals("--planner=beam")) {
+                useBeamSearch = true;
+            }
+            else if (args[i].startsWith("--beam-width=")) {
+                beamWidth = Integer.parseInt(args[i].substring("--beam-width=".length()));
+            }
+            else if (args[i].startsWith("--threads=")) {
+                threadCount = Integer.parseInt(args[i].substring("--threads=".length()));
+            }
+            else if (args[i].equals("--http-stats")) {
+                printHttpStats = true;
+            }
+            else if (args[i].equals("--geojson-orders")) {
+                writeOrderFeatures = true;
+            }
+            else if (args[i].startsWith("--bulk-load=")) {
+                bulkLoadDirectory = Path.of(args[i].substring("--bulk-load=".length()));
+            }
+            else if (args[i].equals("--partitioned")) {
+                partitioned = true;
+            }
+            else {
+                System.err.printf("ignoring unknown option %s\n", args[i]);
+            }
+        }
+        int finalBeamWidth = beamWidth;
+        Function<GeojsonManager, MovePlanner> movePlannerFactory = useBeamSearch ?
+            geojsonManager -> new BeamSearchMovePlanner(geojsonManager, finalBeamWidth,
+                MAX_BEAM_DEPTH) :
+            GreedyMovePlanner::new;
+        
+        PlanningContext context;
+        try {
+            // built up front, so the first plan is as fast as the rest
+            DBManager dbManager = new DBManager(dbPort);
+            if (bulkLoadDirectory != null) {
+                dbManager.setBulkLoadDirectory(bulkLoadDirectory);
+                dbManager.ensureReadIndexes();
+            }
+            if (partitioned) {
+                dbManager.usePartitionedTables();
+            }
+            context = new PlanningContext("localhost", serverPort, dbManager);
+        }
+        catch (HttpRequestException e) {
+            System.err.println("Fatal error: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        catch (DatabaseException e) {
+            System.err.println("Fatal error: " + e.getMessage());
+            e.printStackTrace();
+            System.exit(1);
+            return;
+        }
+        PlanningService service = new PlanningService(context, threadCount, movePlannerFactory,
+            writeOrderFeatures);
+        try {
+            service.start(servicePort);
+        }
+        catch (IOException e) {
+            System.err.printf("cannot serve at port %d\n", servicePort);
+            e.printStackTrace();
+            System.exit(1);
+        }
+        boolean finalPrintHttpStats = printHttpStats;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            service.stop();
+            context.dbManager.close();
+            if (finalPrintHttpStats) {
+                Utils.httpClient.printLatencySummary();
+            }
+        }));
+    }
+    
+    /**
+     * Checks stored flightpaths against the no fly zones, exits with 1 if any move is invalid.
+     * @param source db for the flightpath table, or a visualisation geojson file or directory.
+     * @param args All arguments, serverPort, the optional dbPort and --threads=N are used.
+     */
+    private static void validate(String source, String[] args) {
+        String serverPort = args[1];
+        int threadCount = Runtime.getRuntime().availableProcessors();
+        String dbPort = null;
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].startsWith("--threads=")) {
+                threadCount = Integer.parseInt(args[i].substring("--threads=".length()));
+            }
+            else if (dbPort == null && !args[i].startsWith("--")) {
+                dbPort = args[i];
+            }
+            else {
+                System.err.printf("ignoring unknown option %s\n", args[i]);
+            }
+        }
+        
+        boolean invalid = false;
+        try (FlightpathValidator validator = new FlightpathValidator(
+            new GeojsonManager("localhost", serverPort).getGeometryEngine(), threadCount)) {
+            if (source.equals("db") || source.startsWith("db:")) {
+                if (dbPort == null) {
+                    System.err.println("validating the flightpath table needs the dbPort");
+                    System.exit(1);
+                }
+                DBManager dbManager = new DBManager(dbPort);
+                List<Flightpath> flightpaths = source.equals("db") ?
+                    dbManager.readFlightpath() :
+                    dbManager.readDatedFlightpath(Date.valueOf(source.substring(3)));
+                dbManager.close();
+                invalid = !printValidation(source,
+                    validator.validate(flightpaths, FlightpathValidator.EXACT_TOLERANCE));
+            }
+            else if (source.endsWith(".routes")) {
+                try (RouteArchive archive = new RouteArchive(Path.of(source))) {
+                    for (RouteArchive.ArchivedFlight flight : archive.getFlights()) {
+                        invalid |= !printValidation(String.format("%d drone %d sortie %d",
+                            flight.date, flight.droneId, flight.sortie), validator.validate(
+                            flight.getFlightpaths(), FlightpathValidator.EXACT_TOLERANCE));
+                    }
+                    System.out.printf("%d flights: %s\n", archive.getFlights().size(),
+                        validator.getSummary());
+                }
+            }
+            else {
+                Path sourcePath = Path.of(source);
+                List<Path> files = new ArrayList<>();
+                if (Files.isDirectory(sourcePath)) {
+                    try (Stream<Path> paths = Files.list(sourcePath)) {
+                        paths.filter(path -> path.toString().endsWith(".geojson")).sorted()
+                            .forEach(files::add);
+                    }
+                }
+                else {
+                    files.add(sourcePath);
+                }
+                for (Path file : files) {
+                    List<Flightpath> flightpaths;
+                    try (Reader reader = Files.newBufferedReader(file)) {
+                        flightpaths = FlightpathGeojsonReader.readFlight(reader);
+                    }
+                    invalid |= !printValidation(file.toString(),
+                        validator.validate(flightpaths, FlightpathValidator.GEOJSON_TOLERANCE));
+                }
+                System.out.printf("%d files: %s\n", files.size(), validator.getSummary());
+            }
+        }
+        catch (HttpRequestException e) {
+            System.err.println("Fatal error: " + e.getMessage());
+            invalid = true;
+        }
+        catch (DatabaseException e) {
+            System.err.println("Fatal error: " + e.getMessage());
+            e.printStackTrace();
+            invalid = true;
+        }
+        catch (IOException e) {
+            System.err.printf("cannot read flightpaths from %s\n", source);
+            e.printStackTrace();
+            invalid = true;
+        }
+        if (invalid) {
+            System.exit(1);
+        }
+    }
+    
+    /**
+     * @param name What was validated.
+     * @param report The outcome of validating it.
+     * @return Whether it is valid.
+     */
+    private static boolean printValidation(String name, FlightpathValidator.Report report) {
+        for (FlightpathValidator.Violation violation : report.violations) {
+            System.err.printf("%s: %s\n", name, violation);
+        }
+        System.out.printf("%s: %s\n", name, report);
+        return report.isValid();
     }
 }
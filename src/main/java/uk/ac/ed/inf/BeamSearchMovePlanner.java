@@ -0,0 +1,121 @@
+package uk.ac.ed.inf;
+
+import java.util.*;
+
+/**
+ * A move planner that searches further ahead than the two step greedy search, using beam search
+ * over the graph of positions reachable with the 36 valid move directions. Every layer of the
+ * search is one more move, of which only the beam width most promising positions are kept.
+ * Positions reached before (with fewer or as many moves) are recognised by their quantised
+ * coordinates and not expanded again.
+ */
+public class BeamSearchMovePlanner implements MovePlanner {
+    // positions closer than this on both axes are treated as the same, in degrees
+    private static final double POSITION_QUANTUM = LongLat.MOVE_DISTANCE / 1000;
+    // added to the score of positions without the waypoint in sight
+    private static final double NOT_IN_SIGHT_PENALTY = 1;
+    
+    private final GeojsonManager geojsonManager;
+    private final int beamWidth;
+    private final int maxDepth;
+    private final MovePlanner fallbackPlanner;
+    
+    /**
+     * @param geojsonManager The GeojsonManager holding the no fly zones.
+     * @param beamWidth The number of positions kept for every layer of the search.
+     * @param maxDepth The maximum number of moves searched, the greedy search is used instead
+     *                 if the waypoint cannot be reached with this many moves.
+     */
+    public BeamSearchMovePlanner(GeojsonManager geojsonManager, int beamWidth, int maxDepth) {
+        this.geojsonManager = geojsonManager;
+        this.beamWidth = beamWidth;
+        this.maxDepth = maxDepth;
+        this.fallbackPlanner = new GreedyMovePlanner(geojsonManager);
+    }
+    
+    /**
+     * @param from The position to start moving from.
+     * @param waypoint The waypoint to get close to.
+     * @return The angles of the moves in order, after which the drone is close to the waypoint.
+     */
+    @Override
+    public List<Integer> planMoves(LongLat from, LongLat waypoint) {
+        // transposition table of every position seen so far
+        Set<Long> seenPositions = new HashSet<>();
+        seenPositions.add(quantise(from));
+        List<BeamState> beam = new ArrayList<>();
+        beam.add(new BeamState(from, -999, null, 0));
+        for (int depth = 0; depth < maxDepth && !beam.isEmpty(); depth++) {
+            for (BeamState state : beam) {
+                if (state.position.closeTo(waypoint)) {
+                    return state.getAngles();
+                }
+            }
+            List<BeamState> candidates = new ArrayList<>();
+            for (BeamState state : beam) {
+                for (int angle = 0; angle < 360; angle += 10) {
+                    LongLat nextPosition = state.position.nextPosition(angle);
+                    if (!geojsonManager.isLineConfined(state.position, nextPosition) ||
+                        geojsonManager.lineCrossesNoFlyZone(state.position, nextPosition) ||
+                        !seenPositions.add(quantise(nextPosition))) {
+                        continue;
+                    }
+                    double score = nextPosition.distanceTo(waypoint);
+                    if (geojsonManager.lineIntersectsNoFlyZonePerimeter(nextPosition, waypoint)) {
+                        score += NOT_IN_SIGHT_PENALTY;
+                    }
+                    candidates.add(new BeamState(nextPosition, angle, state, score));
+                }
+            }
+            candidates.sort(Comparator.comparingDouble(candidate -> candidate.score));
+            beam = candidates.subList(0, Math.min(beamWidth, candidates.size()));
+        }
+        for (BeamState state : beam) {
+            if (state.position.closeTo(waypoint)) {
+                return state.getAngles();
+            }
+        }
+        System.err.printf("BEAM SEARCH CANNOT REACH %s, FALLING BACK TO GREEDY\n", waypoint);
+        return fallbackPlanner.planMoves(from, waypoint);
+    }
+    
+    /**
+     * @param position The position to quantise.
+     * @return The key of the position in the transposition table.
+     */
+    private static long quantise(LongLat position) {
+        long lngKey = Math.round(position.longitude / POSITION_QUANTUM);
+        long latKey = Math.round(position.latitude / POSITION_QUANTUM);
+        // both keys fit in 32 bits for any coordinates on earth
+        return (lngKey << 32) | (latKey & 0xffffffffL);
+    }
+    
+    /**
+     * A position in the search, linked to the state it was reached from.
+     */
+    private static class BeamState {
+        final LongLat position;
+        final int angle;  // angle of the move reaching this state
+        final BeamState parent;
+        final double score;
+        
+        BeamState(LongLat position, int angle, BeamState parent, double score) {
+            this.position = position;
+            this.angle = angle;
+            this.parent = parent;
+            this.score = score;
+        }
+        
+        /**
+         * @return The angles of the moves reaching this state from the start of the search.
+         */
+        List<Integer> getAngles() {
+            List<Integer> angles = new ArrayList<>();
+            for (BeamState state = this; state.parent != null; state = state.parent) {
+                angles.add(state.angle);
+            }
+            Collections.reverse(angles);
+            return angles;
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package uk.ac.ed.inf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Orders the deliveries of days with more orders than one flat tour can be optimised for.
+ * Orders are split into spatial clusters of at most CLUSTER_SIZE orders, by halving them at the
+ * median of the wider coordinate of their centres (the midpoint of first pickup and delivery
+ * location) until small enough. The clusters are visited in the order of a tour over their
+ * centres, and the tour within every cluster is optimised on its own, in parallel, as a path from
+ * the centre of the cluster before it to the centre of the cluster after it. The stitched tour is
+ * then refined around every boundary between clusters, and in overlapping windows of
+ * CLUSTER_SIZE orders along the whole tour.
+ * <br><br>
+ * As Drone's 2-opt optimisation, tours are measured in euclidean distance from the delivery
+ * location of an order to the first pickup of the next. Every cluster and window takes constant
+ * time, so planning grows about linearly with the number of orders, only the tour over the
+ * cluster centres grows quadratically, with 1 / CLUSTER_SIZE^2 of the orders.
+ */
+public class ClusteredTourPlanner {
+    private static final int CLUSTER_SIZE = 48;
+    private static final int MAX_SEGMENT_LENGTH = 3;  // nodes relocated at once by local search
+    private static final int MAX_PASSES = 100;  // of local search over a whole path
+    // nodes either side of a boundary between clusters refined together, at most CLUSTER_SIZE / 4
+    // so the windows of two boundaries never overlap
+    private static final int BOUNDARY_WINDOW = 12;
+    private static final double MIN_IMPROVEMENT = 1e-12;  // in degrees, smaller ones are rounding
+    
+    private final int threadCount;
+    
+    /**
+     * @param threadCount The number of threads optimising the tours within clusters.
+     */
+    public ClusteredTourPlanner(int threadCount) {
+        this.threadCount = Math.max(1, threadCount);
+    }
+    
+    /**
+     * @param orders The orders to deliver.
+     * @return The same orders, in the order to deliver them starting from APPLETON TOWER.
+     */
+    public List<DeliveryOrder> planTour(List<DeliveryOrder> orders) {
+        long startTime = System.nanoTime();
+        LongLat[] entries = new LongLat[orders.size()];
+        LongLat[] exits = new LongLat[orders.size()];
+        for (int i = 0; i < orders.size(); i++) {
+            entries[i] = orders.get(i).getPickup1();
+            exits[i] = orders.get(i).deliveryLngLat;
+        }
+        int[] tour = planTour(entries, exits);
+        List<DeliveryOrder> plannedOrders = new ArrayList<>(tour.length);
+        for (int node : tour) {
+            plannedOrders.add(orders.get(node));
+        }
+        System.out.printf("clustered tour of %d orders planned in %.1f ms\n", orders.size(),
+            (System.nanoTime() - startTime) / 1e6);
+        return plannedOrders;
+    }
+    
+    /**
+     * @param entries Where every node of the tour is entered, e.g. the first pickup of an order.
+     * @param exits Where every node is left, e.g. the delivery location of an order.
+     * @return The indices of the nodes, in the order to visit them starting from and returning to
+     * APPLETON TOWER.
+     */
+    public int[] planTour(LongLat[] entries, LongLat[] exits) {
+        int nodeCount = entries.length;
+        Integer[] nodes = new Integer[nodeCount];
+        double[] centreLngs = new double[nodeCount];
+        double[] centreLats = new double[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            nodes[i] = i;
+            centreLngs[i] = (entries[i].longitude + exits[i].longitude) / 2;
+            centreLats[i] = (entries[i].latitude + exits[i].latitude) / 2;
+        }
+        List<int[]> clusters = new ArrayList<>();
+        bisect(nodes, 0, nodeCount, centreLngs, centreLats, clusters);
+        if (clusters.size() <= 1) {
+            int[] all = new int[nodeCount];
+            Arrays.setAll(all, i -> i);
+            return improve(nearestNeighbour(all, Drone.APPLETON_TOWER, entries, exits),
+                Drone.APPLETON_TOWER, Drone.APPLETON_TOWER, entries, exits);
+        }
+        
+        // tour over the cluster centres, entered and left at the same point
+        LongLat[] clusterCentres = new LongLat[clusters.size()];
+        int[] clusterNodes = new int[clusters.size()];
+        for (int c = 0; c < clusters.size(); c++) {
+            double lng = 0, lat = 0;
+            for (int node : clusters.get(c)) {
+                lng += centreLngs[node];
+                lat += centreLats[node];
+            }
+            clusterCentres[c] = new LongLat(lng / clusters.get(c).length,
+                lat / clusters.get(c).length);
+            clusterNodes[c] = c;
+        }
+        int[] clusterOrder = improve(nearestNeighbour(clusterNodes, Drone.APPLETON_TOWER,
+            clusterCentres, clusterCentres), Drone.APPLETON_TOWER, Drone.APPLETON_TOWER,
+            clusterCentres, clusterCentres);
+        
+        int[][] subTours = planSubTours(clusters, clusterOrder, clusterCentres, entries, exits);
+        int[] tour = new int[nodeCount];
+        int[] boundaries = new int[subTours.length - 1];  // index of the first node of a cluster
+        int position = 0;
+        for (int c = 0; c < subTours.length; c++) {
+            if (c > 0) {
+                boundaries[c - 1] = position;
+            }
+            System.arraycopy(subTours[c], 0, tour, position, subTours[c].length);
+            position += subTours[c].length;
+        }
+        for (int boundary : boundaries) {
+            refineWindow(tour, Math.max(0, boundary - BOUNDARY_WINDOW),
+                Math.min(nodeCount, boundary + BOUNDARY_WINDOW), entries, exits);
+        }
+        for (int start = 0; start < nodeCount; start += CLUSTER_SIZE / 2) {
+            refineWindow(tour, start, Math.min(nodeCount, start + CLUSTER_SIZE), entries, exits);
+        }
+        return tour;
+    }
+    
+    /**
+     * Splits the nodes at the median of the wider coordinate of their centres until every part
+     * has at most CLUSTER_SIZE nodes.
+     * @param nodes The nodes, reordered in place.
+     * @param from The index of the first node of the part to split.
+     * @param to The index after the last node of the part to split.
+     * @param centreLngs The longitude of the centre of every node.
+     * @param centreLats The latitude of the centre of every node.
+     * @param clusters The parts are added to this list.
+     */
+    private static void bisect(Integer[] nodes, int from, int to, double[] centreLngs,
+                               double[] centreLats, List<int[]> clusters) {
+        if (to - from <= CLUSTER_SIZE) {
+            int[] cluster = new int[to - from];
+            for (int i = from; i < to; i++) {
+                cluster[i - from] = nodes[i];
+            }
+            clusters.add(cluster);
+            return;
+        }
+        double minLng = Double.POSITIVE_INFINITY, maxLng = Double.NEGATIVE_INFINITY;
+        double minLat = Double.POSITIVE_INFINITY, maxLat = Double.NEGATIVE_INFINITY;
+        for (int i = from; i < to; i++) {
+            minLng = Math.min(minLng, centreLngs[nodes[i]]);
+            maxLng = Math.max(maxLng, centreLngs[nodes[i]]);
+            minLat = Math.min(minLat, centreLats[nodes[i]]);
+            maxLat = Math.max(maxLat, centreLats[nodes[i]]);
+        }
+        double[] coordinates = maxLng - minLng >= maxLat - minLat ? centreLngs : centreLats;
+        Arrays.sort(nodes, from, to, Comparator.comparingDouble(node -> coordinates[node]));
+        int median = (from + to) / 2;
+        bisect(nodes, from, median, centreLngs, centreLats, clusters);
+        bisect(nodes, median, to, centreLngs, centreLats, clusters);
+    }
+    
+    /**
+     * Optimises the path within every cluster on separate threads.
+     * @param clusters The nodes of every cluster.
+     * @param clusterOrder The indices of the clusters, in the order they are visited.
+     * @param clusterCentres The centre of every cluster.
+     * @param entries Where every node is entered.
+     * @param exits Where every node is left.
+     * @return The path within every cluster, in the order the clusters are visited.
+     */
+    private int[][] planSubTours(List<int[]> clusters, int[] clusterOrder,
+                                 LongLat[] clusterCentres, LongLat[] entries, LongLat[] exits) {
+        ExecutorService executor = Executors.newFixedThreadPool(
+            Math.min(threadCount, clusterOrder.length));
+        List<Future<int[]>> futures = new ArrayList<>();
+        for (int c = 0; c < clusterOrder.length; c++) {
+            int[] cluster = clusters.get(clusterOrder[c]);
+            LongLat from = c == 0 ? Drone.APPLETON_TOWER : clusterCentres[clusterOrder[c - 1]];
+            LongLat to = c == clusterOrder.length - 1 ? Drone.APPLETON_TOWER :
+                clusterCentres[clusterOrder[c + 1]];
+            futures.add(executor.submit(() -> improve(
+                nearestNeighbour(cluster, from, entries, exits), from, to, entries, exits)));
+        }
+        int[][] subTours = new int[futures.size()][];
+        try {
+            for (int c = 0; c < futures.size(); c++) {
+                subTours[c] = futures.get(c).get();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while planning the tour", e);
+        }
+        catch (ExecutionException e) {
+            throw new IllegalStateException("cannot plan the tour", e.getCause());
+        }
+        finally {
+            executor.shutdown();
+        }
+        return subTours;
+    }
+    
+    /**
+     * Optimises the nodes tour[from, to) in place, keeping the nodes around them where they are.
+     * @param tour The whole tour.
+     * @param from The index of the first node of the window.
+     * @param to The index after the last node of the window.
+     * @param entries Where every node is entered.
+     * @param exits Where every node is left.
+     */
+    private static void refineWindow(int[] tour, int from, int to, LongLat[] entries,
+                                     LongLat[] exits) {
+        LongLat before = from == 0 ? Drone.APPLETON_TOWER : exits[tour[from - 1]];
+        LongLat after = to == tour.length ? Drone.APPLETON_TOWER : entries[tour[to]];
+        int[] window = improve(Arrays.copyOfRange(tour, from, to), before, after, entries, exits);
+        System.arraycopy(window, 0, tour, from, window.length);
+    }
+    
+    /**
+     * @param nodes The nodes to visit.
+     * @param from Where the path starts.
+     * @param entries Where every node is entered.
+     * @param exits Where every node is left.
+     * @return The nodes in the order of always going to the closest node not visited yet.
+     */
+    static int[] nearestNeighbour(int[] nodes, LongLat from, LongLat[] entries, LongLat[] exits) {
+        int[] path = nodes.clone();
+        LongLat position = from;
+        for (int i = 0; i < path.length; i++) {
+            int closest = i;
+            double closestDistance = position.distanceTo(entries[path[i]]);
+            for (int j = i + 1; j < path.length; j++) {
+                double distance = position.distanceTo(entries[path[j]]);
+                if (distance < closestDistance) {
+                    closest = j;
+                    closestDistance = distance;
+                }
+            }
+            int node = path[closest];
+            path[closest] = path[i];
+            path[i] = node;
+            position = exits[node];
+        }
+        return path;
+    }
+    
+    /**
+     * Local search on a path from a fixed start to a fixed end, relocating segments of up to
+     * MAX_SEGMENT_LENGTH nodes (without reversing them, since entries and exits differ) while
+     * that shortens the path.
+     * @param path The nodes in the order to visit them, modified in place.
+     * @param from Where the path starts.
+     * @param to Where the path ends.
+     * @param entries Where every node is entered.
+     * @param exits Where every node is left.
+     * @return The path.
+     */
+    static int[] improve(int[] path, LongLat from, LongLat to, LongLat[] entries,
+                         LongLat[] exits) {
+        boolean improved = true;
+        for (int pass = 0; improved && pass < MAX_PASSES; pass++) {
+            improved = false;
+            for (int length = 1; length <= MAX_SEGMENT_LENGTH; length++) {
+                for (int i = 0; i + length <= path.length; i++) {
+                    LongLat segmentEntry = entries[path[i]];
+                    LongLat segmentExit = exits[path[i + length - 1]];
+                    LongLat before = i == 0 ? from : exits[path[i - 1]];
+                    LongLat after = i + length == path.length ? to : entries[path[i + length]];
+                    double removalGain = before.distanceTo(segmentEntry) +
+                        segmentExit.distanceTo(after) - before.distanceTo(after);
+                    // insert between path[gap - 1] and path[gap]
+                    for (int gap = 0; gap <= path.length; gap++) {
+                        if (gap >= i && gap <= i + length) {
+                            continue;
+                        }
+                        LongLat gapStart = gap == 0 ? from : exits[path[gap - 1]];
+                        LongLat gapEnd = gap == path.length ? to : entries[path[gap]];
+                        double insertionCost = gapStart.distanceTo(segmentEntry) +
+                            segmentExit.distanceTo(gapEnd) - gapStart.distanceTo(gapEnd);
+                        if (insertionCost < removalGain - MIN_IMPROVEMENT) {
+                            relocate(path, i, length, gap);
+                            improved = true;
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+        return path;
+    }
+    
+    /**
+     * @param path The path, modified in place.
+     * @param start The index of the first node of the segment.
+     * @param length The number of nodes in the segment.
+     * @param gap The segment is moved between path[gap - 1] and path[gap], outside the segment.
+     */
+    private static void relocate(int[] path, int start, int length, int gap) {
+        int[] segment = Arrays.copyOfRange(path, start, start + length);
+        if (gap < start) {
+            System.arraycopy(path, gap, path, gap + length, start - gap);
+            System.arraycopy(segment, 0, path, gap, length);
+        }
+        else {
+            System.arraycopy(path, start + length, path, start, gap - start - length);
+            System.arraycopy(segment, 0, path, gap - length, length);
+        }
+    }
+    
+    /**
+     * @param tour The indices of the nodes in the order they are visited.
+     * @param entries Where every node is entered.
+     * @param exits Where every node is left.
+     * @return The euclidean length of the tour from and back to APPLETON TOWER, including from
+     * the entry to the exit of every node.
+     */
+    static double getTourDistance(int[] tour, LongLat[] entries, LongLat[] exits) {
+        LongLat position = Drone.APPLETON_TOWER;
+        double distance = 0;
+        for (int node : tour) {
+            distance += position.distanceTo(entries[node]) + entries[node].distanceTo(exits[node]);
+            position = exits[node];
+        }
+        return distance + position.distanceTo(Drone.APPLETON_TOWER);
+    }
+}
@@ -0,0 +1,170 @@
+package uk.ac.ed.inf;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A small bounded pool of database connections, opened lazily up to the maximum size.
+ * A thread borrows a connection with acquire and gives it back by closing the PooledConnection,
+ * waiting if all connections are borrowed. Every connection keeps its prepared statements for
+ * reuse, so the same SQL is only ever prepared once per connection.
+ */
+public class DBConnectionPool {
+    private final String jdbcString;
+    private final int maxSize;
+    private final BlockingQueue<PooledConnection> idleConnections = new LinkedBlockingQueue<>();
+    private final List<PooledConnection> allConnections = new ArrayList<>();
+    // incremented whenever the cached prepared statements of all connections become outdated
+    private final AtomicInteger statementGeneration = new AtomicInteger();
+    private volatile boolean closed = false;  // set by closeAll
+    
+    /**
+     * A borrowed connection, with its cache of prepared statements. Only the thread that borrowed
+     * it may use it, until it is closed (given back to the pool).
+     */
+    public class PooledConnection implements AutoCloseable {
+        private final Connection connection;
+        private final Map<String, PreparedStatement> preparedStatements = new HashMap<>();
+        private int cachedGeneration = statementGeneration.get();
+        // whether it is borrowed, so closing it twice only gives it back once
+        private final AtomicBoolean borrowed = new AtomicBoolean(true);
+        
+        private PooledConnection(Connection connection) {
+            this.connection = connection;
+        }
+        
+        /**
+         * @return The underlying connection, must not be closed by the caller.
+         */
+        public Connection getConnection() {
+            return connection;
+        }
+        
+        /**
+         * @param sql The SQL statement.
+         * @return The prepared statement for sql, prepared on first use. It is owned by the pool,
+         * so the caller must not close it, but must close any result set it got from it.
+         * @throws SQLException If the statement cannot be prepared.
+         */
+        public PreparedStatement prepare(String sql) throws SQLException {
+            if (cachedGeneration != statementGeneration.get()) {
+                clearStatementCache();
+                cachedGeneration = statementGeneration.get();
+            }
+            PreparedStatement statement = preparedStatements.get(sql);
+            if (statement == null || statement.isClosed()) {
+                statement = connection.prepareStatement(sql);
+                preparedStatements.put(sql, statement);
+            }
+            else {
+                statement.clearParameters();
+            }
+            return statement;
+        }
+        
+        /**
+         * Closes and forgets the prepared statements of this connection.
+         */
+        private void clearStatementCache() {
+            for (PreparedStatement statement : preparedStatements.values()) {
+                try {
+                    statement.close();
+                }
+                catch (SQLException e) {
+                    // it is being thrown away anyway
+                }
+            }
+            preparedStatements.clear();
+        }
+        
+        /**
+         * Gives the connection back to the pool, unless it was already given back or the pool is
+         * closed.
+         */
+        @Override
+        public void close() {
+            if (borrowed.compareAndSet(true, false) && !closed) {
+                idleConnections.add(this);
+            }
+        }
+    }
+    
+    /**
+     * @param jdbcString The JDBC string of the database.
+     * @param maxSize The maximum number of connections open at the same time.
+     */
+    public DBConnectionPool(String jdbcString, int maxSize) {
+        this.jdbcString = jdbcString;
+        this.maxSize = maxSize;
+    }
+    
+    /**
+     * Borrows a connection, waiting for one to be given back if all are borrowed.
+     * @return The borrowed connection, to be closed when done with it.
+     * @throws SQLException If a new connection is needed but cannot be established.
+     */
+    public PooledConnection acquire() throws SQLException {
+        if (closed) {
+            throw new SQLException("the connection pool is closed");
+        }
+        PooledConnection pooledConnection = idleConnections.poll();
+        if (pooledConnection != null) {
+            pooledConnection.borrowed.set(true);
+            return pooledConnection;
+        }
+        synchronized (allConnections) {
+            if (allConnections.size() < maxSize) {
+                pooledConnection = new PooledConnection(DriverManager.getConnection(jdbcString));
+                allConnections.add(pooledConnection);
+                return pooledConnection;
+            }
+        }
+        try {
+            pooledConnection = idleConnections.take();
+            pooledConnection.borrowed.set(true);
+            return pooledConnection;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("interrupted while waiting for a database connection", e);
+        }
+    }
+    
+    /**
+     * Makes every connection prepare its statements again on next use, needed after tables the
+     * statements use are dropped and created again.
+     */
+    public void invalidateStatementCaches() {
+        statementGeneration.incrementAndGet();
+    }
+    
+    /**
+     * Closes every connection of the pool, borrowed or not, the pool must not be used afterwards.
+     */
+    public void closeAll() {
+        closed = true;
+        synchronized (allConnections) {
+            for (PooledConnection pooledConnection : allConnections) {
+                pooledConnection.clearStatementCache();
+                try {
+                    pooledConnection.connection.close();
+                }
+                catch (SQLException e) {
+                    e.printStackTrace();
+                }
+            }
+            allConnections.clear();
+            idleConnections.clear();
+        }
+    }
+}
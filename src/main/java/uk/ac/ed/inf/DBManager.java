@@ -1,16 +1,59 @@
 package uk.ac.ed.inf;
 
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.ToIntFunction;
 
 /**
  * Database manager responsible for operating with the derby database.
  * Should be instantiated only once for every database.
+ * Connections are borrowed from a small pool for every operation, so the manager can be used by
+ * several threads at the same time.
+ * <br><br>
+ * Output tables are written with batched inserts, or optionally bulk loaded: the rows are staged
+ * to a delimited file that the Derby server imports with SYSCS_UTIL.SYSCS_IMPORT_TABLE, which
+ * needs the file to be readable by the server, i.e. the server to run on the same machine.
+ * <br><br>
+ * In the date partitioned mode, the output goes to the datedDeliveries and datedFlightpath
+ * tables instead, which keep the output of every date: writing a date's plan replaces only the
+ * rows of that date, in one transaction, so plans of several dates can be written concurrently.
+ * The tables are created once, never dropped.
  */
 public class DBManager {
     public static final String JDBC_STRING_TO_FORMAT = "jdbc:derby://localhost:%s/derbyDB";
-    private final Connection dbConn;
+    private static final int POOL_SIZE = 4;
+    private final DBConnectionPool connectionPool;
+    private Path bulkLoadDirectory = null;  // null to write with batched inserts
+    private boolean partitioned = false;  // whether to write to the date partitioned tables
+    // indexes for the read path, named so they are only ever created once
+    private static final String[] readIndexStmts = {
+        "create index ordersDeliveryDateIdx on orders(deliveryDate)",
+        "create index orderDetailsOrderNoIdx on orderDetails(orderNo)"};
+    private static final String[] createDatedTablesStmts = {
+        "create table datedDeliveries(deliveryDate date, " +
+            "orderNo char(8), " +
+            "deliveredTo varchar(19), " +
+            "costInPence int)",
+        // moveNo is the index of the move in the flight log, rows have no order of their own
+        "create table datedFlightpath(deliveryDate date, " +
+            "moveNo integer, " +
+            "orderNo char(8), " +
+            "fromLongitude double, " +
+            "fromLatitude double, " +
+            "angle integer, " +
+            "toLongitude double, " +
+            "toLatitude double, " +
+            "droneId integer)",
+        // added after the table, so tables created before sorties are brought up to date
+        "alter table datedFlightpath add column sortie integer default 0",
+        "create index datedDeliveriesDateIdx on datedDeliveries(deliveryDate)",
+        "create index datedFlightpathDateIdx on datedFlightpath(deliveryDate, moveNo)"};
+    private static final String ALREADY_EXISTS_SQL_STATE = "X0Y32";
     
     private static final String createTableDeliveriesStmt =
         "create table deliveries(orderNo char(8), " +
@@ -22,80 +65,142 @@ public class DBManager {
             "angle integer, " +
             "toLongitude double, " +
             "toLatitude double)";
+    // same as flightpath, with the id of the drone that flew each move in a fleet
+    private static final String createTableFleetFlightpathStmt =
+        "create table flightpath(orderNo char(8), " +
+            "fromLongitude double, " +
+            "fromLatitude double, " +
+            "angle integer, " +
+            "toLongitude double, " +
+            "toLatitude double, " +
+            "droneId integer)";
+    // same as flightpath, with the sortie of the drone each move was part of
+    private static final String createTableSortieFlightpathStmt =
+        "create table flightpath(orderNo char(8), " +
+            "fromLongitude double, " +
+            "fromLatitude double, " +
+            "angle integer, " +
+            "toLongitude double, " +
+            "toLatitude double, " +
+            "sortie integer)";
     
     /**
      * Initialises the database connection for later operations.
      * @param dbPort The database port.
+     * @throws DatabaseException If no connection to the database can be established.
      */
     public DBManager(String dbPort) {
-        String jdbcString = String.format(JDBC_STRING_TO_FORMAT, dbPort);
-        Connection conn = null;
+        this(new DBConnectionPool(String.format(JDBC_STRING_TO_FORMAT, dbPort), POOL_SIZE));
+    }
+    
+    /**
+     * @param connectionPool The pool to borrow connections from, e.g. to an embedded database.
+     * @throws DatabaseException If no connection to the database can be established.
+     */
+    DBManager(DBConnectionPool connectionPool) {
+        this.connectionPool = connectionPool;
+        // establish the first connection now, so a database that is down is found out early
         try {
-            conn = DriverManager.getConnection(jdbcString);
+            connectionPool.acquire().close();  // given back to the pool straight away
         }
         catch (SQLException e) {
-            System.err.println("cannot establish a connection to database");
-            e.printStackTrace();
-            System.exit(-1);
+            throw new DatabaseException("cannot establish a connection to database", e);
         }
-        this.dbConn = conn;
     }
     
     /**
-     * @param tableName the name of table in database.
-     * @param createTableStmt the SQL statement to execute to create the table.
+     * Makes the output tables be bulk loaded from staged files instead of batch inserted, only
+     * the deliveries and flightpath tables, not the date partitioned ones.
+     * This only pays off for large loads: a day's plan of about 1500 moves loads no faster than
+     * it is inserted, while 50000 moves load in about two thirds of the time.
+     * @param bulkLoadDirectory The directory to stage the files in, which the Derby server must be
+     *                          able to read, i.e. one below its derby.system.home under Derby's
+     *                          default security policy, null to go back to batched inserts.
      */
-    private void dropAndCreateTable(String tableName, String createTableStmt) {
-        DatabaseMetaData dbMetadata = null;
-        ResultSet resultSet = null;
+    public void setBulkLoadDirectory(Path bulkLoadDirectory) {
+        this.bulkLoadDirectory = bulkLoadDirectory;
+    }
+    
+    /**
+     * Creates the indexes for looking up orders by date and items by orderNo, if they do not
+     * exist yet. Failing to create them only makes reading slower, so it is not fatal.
+     */
+    public void ensureReadIndexes() {
         try {
-            dbMetadata = this.dbConn.getMetaData();
+            createIfMissing(readIndexStmts);
         }
         catch (SQLException e) {
-            System.err.printf("cannot drop table%s\n", tableName);
+            System.err.println("cannot create indexes for reading orders");
             e.printStackTrace();
-            System.exit(-1);
         }
+    }
+    
+    /**
+     * Switches to writing plans to the date partitioned tables, creating them if they do not
+     * exist yet. Plans must then be written with writeDatedPlan.
+     * @throws DatabaseException If the tables cannot be created.
+     */
+    public void usePartitionedTables() {
         try {
-            resultSet =
-                // just in case the param isn't in upper case as needed
-                dbMetadata.getTables(null, null, tableName.toUpperCase(), null);
+            createIfMissing(createDatedTablesStmts);
+            this.partitioned = true;
         }
         catch (SQLException e) {
-            System.err.println("cannot get metadata for tables");
-            e.printStackTrace();
-            System.exit(-1);
+            throw new DatabaseException("cannot create date partitioned tables", e);
         }
-        Statement statement = null;
-        try {
-            statement = dbConn.createStatement();
-        }
-        catch (SQLException e) {
-            System.err.println("cannot create a statement");
-            e.printStackTrace();
-            System.exit(-1);
-        }
-        try {
-            // if there is such a table, else do nothing, no need to drop
-            if (resultSet.next()) {
-                statement.execute(String.format("drop table %s", tableName));
+    }
+    
+    /**
+     * @return Whether plans are written to the date partitioned tables, with writeDatedPlan.
+     */
+    public boolean isPartitioned() {
+        return partitioned;
+    }
+    
+    /**
+     * @param createStmts Statements creating tables, columns or indexes, those that already
+     *                    exist are left as they are.
+     * @throws SQLException If anything else goes wrong.
+     */
+    private void createIfMissing(String[] createStmts) throws SQLException {
+        try (DBConnectionPool.PooledConnection pooledConnection = connectionPool.acquire();
+             Statement statement = pooledConnection.getConnection().createStatement()) {
+            for (String createStmt : createStmts) {
+                try {
+                    statement.execute(createStmt);
+                }
+                catch (SQLException e) {
+                    if (!ALREADY_EXISTS_SQL_STATE.equals(e.getSQLState())) {
+                        throw e;
+                    }
+                }
             }
         }
-        catch (SQLException e) {
-            System.err.println("cannot execute the drop table statement");
-            e.printStackTrace();
-            System.exit(-1);
-        }
-        
-        // table is now dropped (or doesn't exist in the first place), create table
-        try {
-            Statement stmt = this.dbConn.createStatement();
-            stmt.execute(createTableStmt);
+    }
+    
+    /**
+     * @param tableName the name of table in database.
+     * @param createTableStmt the SQL statement to execute to create the table.
+     * @throws DatabaseException If the table cannot be dropped or created.
+     */
+    private void dropAndCreateTable(String tableName, String createTableStmt) {
+        try (DBConnectionPool.PooledConnection pooledConnection = connectionPool.acquire();
+             Statement statement = pooledConnection.getConnection().createStatement()) {
+            DatabaseMetaData dbMetadata = pooledConnection.getConnection().getMetaData();
+            // just in case the param isn't in upper case as needed
+            try (ResultSet resultSet =
+                     dbMetadata.getTables(null, null, tableName.toUpperCase(), null)) {
+                // if there is such a table, else do nothing, no need to drop
+                if (resultSet.next()) {
+                    statement.execute(String.format("drop table %s", tableName));
+                }
+            }
+            // table is now dropped (or doesn't exist in the first place), create table
+            statement.execute(createTableStmt);
+            connectionPool.invalidateStatementCaches();
         }
         catch (SQLException e) {
-            System.err.println("cannot execute the create table statement");
-            e.printStackTrace();
-            System.exit(-1);
+            throw new DatabaseException("cannot drop and create table " + tableName, e);
         }
     }
     
@@ -119,6 +224,7 @@ public class DBManager {
      * @param month month of date.
      * @param year year of date.
      * @return A list of all orders in the database
+     * @throws DatabaseException If the orders cannot be read.
      */
     public List<DBOrder> getOrdersForDay(String day, String month, String year) {
         // needs to be in this format to construct Date object
@@ -127,23 +233,21 @@ public class DBManager {
         final String query = "select * from orders where deliveryDate=(?)";
         ArrayList<DBOrder> dbOrders = new ArrayList<>();
 
-        try {
-            PreparedStatement psQuery = this.dbConn.prepareStatement(query);
+        try (DBConnectionPool.PooledConnection pooledConnection = connectionPool.acquire()) {
+            PreparedStatement psQuery = pooledConnection.prepare(query);
             psQuery.setDate(1, date);
-            ResultSet resultSet = psQuery.executeQuery();
-            
-            while (resultSet.next()) {
-                String orderNo = resultSet.getString("orderNo");
-                Date deliveryDate = resultSet.getDate("deliveryDate");
-                String customer = resultSet.getString("customer");
-                String deliverTo = resultSet.getString("deliverTo");
-                dbOrders.add(new DBOrder(orderNo, deliveryDate, customer, deliverTo));
+            try (ResultSet resultSet = psQuery.executeQuery()) {
+                while (resultSet.next()) {
+                    String orderNo = resultSet.getString("orderNo");
+                    Date deliveryDate = resultSet.getDate("deliveryDate");
+                    String customer = resultSet.getString("customer");
+                    String deliverTo = resultSet.getString("deliverTo");
+                    dbOrders.add(new DBOrder(orderNo, deliveryDate, customer, deliverTo));
+                }
             }
         }
         catch (SQLException e) {
-            System.err.println("cannot query database for orders for date");
-            e.printStackTrace();
-            System.exit(-1);
+            throw new DatabaseException("cannot query database for orders for date", e);
         }
         return dbOrders;
     }
@@ -155,14 +259,15 @@ public class DBManager {
      */
     public List<String> getOrderItemsForNo(String No) {
         ArrayList<String> items = new ArrayList<>();
-        try {
+        try (DBConnectionPool.PooledConnection pooledConnection = connectionPool.acquire()) {
             PreparedStatement psQuery =
-                dbConn.prepareStatement("select item from orderDetails where orderNo=(?)");
+                pooledConnection.prepare("select item from orderDetails where orderNo=(?)");
             psQuery.setString(1, No);
-            ResultSet resultSet = psQuery.executeQuery();
-            while (resultSet.next()) {
-                String item = resultSet.getString("item");
-                items.add(item);
+            try (ResultSet resultSet = psQuery.executeQuery()) {
+                while (resultSet.next()) {
+                    String item = resultSet.getString("item");
+                    items.add(item);
+                }
             }
         }
         catch (SQLException e) {
@@ -175,47 +280,341 @@ public class DBManager {
     /**
      * Writes the flightpaths to the "flightpath" database table, as asked.
      * @param flightpaths List of Flightpath representing all the moves it made.
+     * @throws DatabaseException If the table cannot be written.
      */
     public void writeFlightpath(List<Flightpath> flightpaths) {
         dropAndCreateTableFlightpath();
-        try {
-            for (Flightpath flightpath : flightpaths) {
-                PreparedStatement ps = this.dbConn.prepareStatement(
-                    "insert into flightpath values (?, ?, ?, ?, ?, ?)");
-                ps.setString(1, flightpath.orderNo);
-                ps.setDouble(2, flightpath.fromLng);
-                ps.setDouble(3, flightpath.fromLat);
-                ps.setInt(4, flightpath.angle);
-                ps.setDouble(5, flightpath.toLng);
-                ps.setDouble(6, flightpath.toLat);
-                ps.execute();
+        insertFlightpaths(flightpaths, "insert into flightpath values (?, ?, ?, ?, ?, ?)", null);
+    }
+    
+    /**
+     * Writes the flightpaths of a fleet of drones to the "flightpath" database table, with an
+     * extra droneId column telling the drones apart.
+     * @param flightpaths List of Flightpath representing all the moves the drones made.
+     * @throws DatabaseException If the table cannot be written.
+     */
+    public void writeFleetFlightpath(List<Flightpath> flightpaths) {
+        this.dropAndCreateTable("flightpath", createTableFleetFlightpathStmt);
+        insertFlightpaths(flightpaths, "insert into flightpath values (?, ?, ?, ?, ?, ?, ?)",
+            flightpath -> flightpath.droneId);
+    }
+    
+    /**
+     * Writes the flightpaths of the sorties of a drone to the "flightpath" database table, with
+     * an extra sortie column telling the sorties apart.
+     * @param flightpaths List of Flightpath representing all the moves of every sortie.
+     * @throws DatabaseException If the table cannot be written.
+     */
+    public void writeSortieFlightpath(List<Flightpath> flightpaths) {
+        this.dropAndCreateTable("flightpath", createTableSortieFlightpathStmt);
+        insertFlightpaths(flightpaths, "insert into flightpath values (?, ?, ?, ?, ?, ?, ?)",
+            flightpath -> flightpath.sortie);
+    }
+    
+    /**
+     * Reads back the "flightpath" database table, with the drone ids if it was written by
+     * writeFleetFlightpath, or the sorties if it was written by writeSortieFlightpath.
+     * The table has no key, rows are read in the order Derby returns them, which is the order
+     * they were inserted in as the table is only ever written in one batch.
+     * @return List of Flightpath in the table, empty if it cannot be read.
+     */
+    public List<Flightpath> readFlightpath() {
+        List<Flightpath> flightpaths = new ArrayList<>();
+        try (DBConnectionPool.PooledConnection pooledConnection = connectionPool.acquire()) {
+            PreparedStatement psQuery = pooledConnection.prepare("select * from flightpath");
+            try (ResultSet resultSet = psQuery.executeQuery()) {
+                boolean tagged = resultSet.getMetaData().getColumnCount() > 6;
+                boolean withDroneId = tagged &&
+                    resultSet.getMetaData().getColumnName(7).equalsIgnoreCase("droneId");
+                while (resultSet.next()) {
+                    // orderNo is a char(8), padded with spaces for the flight back
+                    String orderNo = resultSet.getString("orderNo").trim();
+                    LongLat from = new LongLat(resultSet.getDouble("fromLongitude"),
+                        resultSet.getDouble("fromLatitude"));
+                    LongLat to = new LongLat(resultSet.getDouble("toLongitude"),
+                        resultSet.getDouble("toLatitude"));
+                    int droneId = withDroneId ? resultSet.getInt("droneId") : 0;
+                    int sortie = tagged && !withDroneId ? resultSet.getInt("sortie") : 0;
+                    flightpaths.add(new Flightpath(orderNo, from, resultSet.getInt("angle"), to,
+                        droneId, sortie));
+                }
             }
-            
         }
         catch (SQLException e) {
+            System.err.println("cannot read flightpath table");
             e.printStackTrace();
         }
+        return flightpaths;
+    }
+    
+    /**
+     * Reads back the moves of a date from the datedFlightpath table.
+     * @param deliveryDate The date the plan was written for.
+     * @return List of Flightpath of the date, in the order they were flown.
+     */
+    public List<Flightpath> readDatedFlightpath(Date deliveryDate) {
+        List<Flightpath> flightpaths = new ArrayList<>();
+        try (DBConnectionPool.PooledConnection pooledConnection = connectionPool.acquire()) {
+            PreparedStatement psQuery = pooledConnection.prepare(
+                "select * from datedFlightpath where deliveryDate=(?) order by moveNo");
+            psQuery.setDate(1, deliveryDate);
+            try (ResultSet resultSet = psQuery.executeQuery()) {
+                while (resultSet.next()) {
+                    LongLat from = new LongLat(resultSet.getDouble("fromLongitude"),
+                        resultSet.getDouble("fromLatitude"));
+                    LongLat to = new LongLat(resultSet.getDouble("toLongitude"),
+                        resultSet.getDouble("toLatitude"));
+                    flightpaths.add(new Flightpath(resultSet.getString("orderNo").trim(), from,
+                        resultSet.getInt("angle"), to, resultSet.getInt("droneId"),
+                        resultSet.getInt("sortie")));
+                }
+            }
+        }
+        catch (SQLException e) {
+            System.err.printf("cannot read flightpath of %s\n", deliveryDate);
+            e.printStackTrace();
+        }
+        return flightpaths;
+    }
+    
+    /**
+     * Writes the plan of a date to the date partitioned tables, replacing any plan written for
+     * the date before, in one transaction. Plans of other dates are left as they are.
+     * @param deliveryDate The date planned for.
+     * @param deliveredOrders The orders delivered.
+     * @param flightpaths The moves of the drone, or of every drone of a fleet or every sortie of
+     *                    the drone one after the other.
+     * @throws DatabaseException If the plan cannot be written, the tables are left as they were.
+     */
+    public void writeDatedPlan(Date deliveryDate, List<DeliveryOrder> deliveredOrders,
+                               List<Flightpath> flightpaths) {
+        System.out.printf("Writing %d delivered orders and %d moves of %s to database\n",
+            deliveredOrders.size(), flightpaths.size(), deliveryDate);
+        try (DBConnectionPool.PooledConnection pooledConnection = connectionPool.acquire()) {
+            inTransaction(pooledConnection, () -> {
+                for (String table : new String[]{"datedDeliveries", "datedFlightpath"}) {
+                    PreparedStatement delete = pooledConnection.prepare(
+                        "delete from " + table + " where deliveryDate=(?)");
+                    delete.setDate(1, deliveryDate);
+                    delete.executeUpdate();
+                }
+                PreparedStatement ps = pooledConnection.prepare(
+                    "insert into datedDeliveries values (?, ?, ?, ?)");
+                for (DeliveryOrder order : deliveredOrders) {
+                    ps.setDate(1, deliveryDate);
+                    ps.setString(2, order.orderNo);
+                    ps.setString(3, order.deliverTo);
+                    ps.setInt(4, order.totalCost);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+                ps = pooledConnection.prepare(
+                    "insert into datedFlightpath values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+                for (int i = 0; i < flightpaths.size(); i++) {
+                    Flightpath flightpath = flightpaths.get(i);
+                    ps.setDate(1, deliveryDate);
+                    ps.setInt(2, i);
+                    ps.setString(3, flightpath.orderNo);
+                    ps.setDouble(4, flightpath.fromLng);
+                    ps.setDouble(5, flightpath.fromLat);
+                    ps.setInt(6, flightpath.angle);
+                    ps.setDouble(7, flightpath.toLng);
+                    ps.setDouble(8, flightpath.toLat);
+                    ps.setInt(9, flightpath.droneId);
+                    ps.setInt(10, flightpath.sortie);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            });
+        }
+        catch (SQLException e) {
+            throw new DatabaseException("cannot write plan of " + deliveryDate, e);
+        }
+    }
+    
+    /**
+     * Inserts the flightpaths in one batch within one transaction.
+     * @param flightpaths List of Flightpath to insert.
+     * @param insertStmt The SQL insert statement.
+     * @param tag The value of the extra column telling flights apart, the droneId or sortie,
+     *            null if the table has none.
+     * @throws DatabaseException If the flightpaths cannot be inserted.
+     */
+    private void insertFlightpaths(List<Flightpath> flightpaths, String insertStmt,
+                                   ToIntFunction<Flightpath> tag) {
+        if (bulkLoadDirectory != null) {
+            boolean loaded = bulkLoad("flightpath", writer -> {
+                for (Flightpath flightpath : flightpaths) {
+                    writer.write(quote(flightpath.orderNo) + ',' + flightpath.fromLng + ',' +
+                        flightpath.fromLat + ',' + flightpath.angle + ',' + flightpath.toLng +
+                        ',' + flightpath.toLat +
+                        (tag != null ? "," + tag.applyAsInt(flightpath) : "") + '\n');
+                }
+            });
+            if (loaded) {
+                return;
+            }
+        }
+        try (DBConnectionPool.PooledConnection pooledConnection = connectionPool.acquire()) {
+            inTransaction(pooledConnection, () -> {
+                PreparedStatement ps = pooledConnection.prepare(insertStmt);
+                for (Flightpath flightpath : flightpaths) {
+                    ps.setString(1, flightpath.orderNo);
+                    ps.setDouble(2, flightpath.fromLng);
+                    ps.setDouble(3, flightpath.fromLat);
+                    ps.setInt(4, flightpath.angle);
+                    ps.setDouble(5, flightpath.toLng);
+                    ps.setDouble(6, flightpath.toLat);
+                    if (tag != null) {
+                        ps.setInt(7, tag.applyAsInt(flightpath));
+                    }
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            });
+        }
+        catch (SQLException e) {
+            throw new DatabaseException("cannot insert into table flightpath", e);
+        }
     }
     
     /**
      * Writes the delivered orders to the "delivered" database table, as asked.
      * @param deliveredOrders A list of orders that have been delivered.
+     * @throws DatabaseException If the table cannot be written.
      */
     public void writeDeliveries(List<DeliveryOrder> deliveredOrders) {
         dropAndCreateTableDeliveries();
         System.out.printf("Writing %d delivered orders to database\n", deliveredOrders.size());
+        if (bulkLoadDirectory != null) {
+            boolean loaded = bulkLoad("deliveries", writer -> {
+                for (DeliveryOrder order : deliveredOrders) {
+                    writer.write(quote(order.orderNo) + ',' + quote(order.deliverTo) + ',' +
+                        order.totalCost + '\n');
+                }
+            });
+            if (loaded) {
+                return;
+            }
+        }
+        try (DBConnectionPool.PooledConnection pooledConnection = connectionPool.acquire()) {
+            inTransaction(pooledConnection, () -> {
+                PreparedStatement ps =
+                    pooledConnection.prepare("insert into deliveries values (?, ?, ?)");
+                for (DeliveryOrder order : deliveredOrders) {
+                    ps.setString(1, order.orderNo);
+                    ps.setString(2, order.deliverTo);
+                    ps.setInt(3, order.totalCost);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            });
+        }
+        catch (SQLException e) {
+            throw new DatabaseException("cannot insert into table deliveries", e);
+        }
+    }
+    
+    /**
+     * Writes the rows of a table as comma delimited lines.
+     */
+    private interface RowWriter {
+        void write(Writer writer) throws IOException;
+    }
+    
+    /**
+     * Stages the rows to a file in the bulk load directory and has the server import it into the
+     * table, in one transaction. The file is deleted afterwards.
+     * @param tableName The table to load, already created.
+     * @param rows Writes the rows to stage.
+     * @return Whether the table was loaded, false if the rows could not be staged, in which case
+     *         the table is untouched and the caller should insert them itself.
+     * @throws DatabaseException If the import fails, after rolling it back.
+     */
+    private boolean bulkLoad(String tableName, RowWriter rows) {
+        Path stagedFile = null;
         try {
-            for (DeliveryOrder order : deliveredOrders) {
-                PreparedStatement ps = this.dbConn.prepareStatement(
-                    "insert into deliveries values (?, ?, ?)");
-                ps.setString(1, order.orderNo);
-                ps.setString(2, order.deliverTo);
-                ps.setInt(3, order.totalCost);
-                ps.execute();
+            try {
+                stagedFile = Files.createTempFile(bulkLoadDirectory, tableName, ".csv");
+                try (Writer writer = Files.newBufferedWriter(stagedFile)) {
+                    rows.write(writer);
+                }
             }
+            catch (IOException e) {
+                System.err.printf("cannot stage table %s in %s, inserting in batches instead\n",
+                    tableName, bulkLoadDirectory);
+                e.printStackTrace();
+                return false;
+            }
+            try (DBConnectionPool.PooledConnection pooledConnection = connectionPool.acquire()) {
+                String stagedPath = stagedFile.toAbsolutePath().toString();
+                inTransaction(pooledConnection, () -> {
+                    PreparedStatement ps = pooledConnection.prepare(
+                        "call SYSCS_UTIL.SYSCS_IMPORT_TABLE(null, ?, ?, ',', '\"', 'UTF-8', 0)");
+                    ps.setString(1, tableName.toUpperCase());
+                    ps.setString(2, stagedPath);
+                    ps.execute();
+                });
+            }
+            catch (SQLException e) {
+                throw new DatabaseException("cannot bulk load table " + tableName, e);
+            }
+            return true;
+        }
+        finally {
+            if (stagedFile != null) {
+                try {
+                    Files.deleteIfExists(stagedFile);
+                }
+                catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+    
+    /**
+     * @param value A string column value.
+     * @return The value as a quoted field of a staged file.
+     */
+    private static String quote(String value) {
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+    
+    /**
+     * Database work that can fail.
+     */
+    private interface SQLWork {
+        void run() throws SQLException;
+    }
+    
+    /**
+     * Runs the work in a transaction, committed if the work succeeds and rolled back otherwise.
+     * @param pooledConnection The connection to run the work on.
+     * @param work The work to run.
+     * @throws SQLException If the work fails, after rolling back.
+     */
+    private static void inTransaction(DBConnectionPool.PooledConnection pooledConnection,
+                                      SQLWork work) throws SQLException {
+        Connection connection = pooledConnection.getConnection();
+        connection.setAutoCommit(false);
+        try {
+            work.run();
+            connection.commit();
         }
         catch (SQLException e) {
-            e.printStackTrace();
+            connection.rollback();
+            throw e;
+        }
+        finally {
+            connection.setAutoCommit(true);
         }
     }
+    
+    /**
+     * Closes all connections to the database, the manager must not be used afterwards.
+     */
+    public void close() {
+        connectionPool.closeAll();
+    }
 }
@@ -0,0 +1,103 @@
+package uk.ac.ed.inf;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Times writing a day's output to the database with batched inserts against bulk loading it,
+ * and reading the orders of a day before and after the read indexes exist.
+ * The database is changed as by a normal run: the output tables are replaced and the indexes
+ * are created, so reads are only timed without indexes on the first run against a database.
+ * A write that fails throws a DatabaseException, which ends the benchmark rather than being
+ * timed.
+ */
+public class DBWriteBenchmark {
+    private static final int DEFAULT_MOVES = 1500;
+    private static final int DEFAULT_REPEATS = 5;
+    
+    /**
+     * @param args dbPort stagingDirectory [moves] [repeats], the staging directory must be
+     *             readable by the Derby server.
+     */
+    public static void main(String[] args) {
+        String dbPort = args[0];
+        Path stagingDirectory = Path.of(args[1]);
+        int moveCount = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_MOVES;
+        int repeats = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_REPEATS;
+        List<Flightpath> flightpaths = getRandomFlight(moveCount);
+        // a flight that cannot be staged would be batch inserted, and timed as a bulk load
+        try {
+            Files.delete(Files.createTempFile(stagingDirectory, "flightpath", ".csv"));
+        }
+        catch (IOException e) {
+            System.err.printf("cannot stage files in %s\n", stagingDirectory);
+            e.printStackTrace();
+            System.exit(1);
+        }
+        
+        DBManager dbManager = new DBManager(dbPort);
+        try {
+            for (int i = 0; i < repeats; i++) {
+                dbManager.setBulkLoadDirectory(null);
+                long batchNanos = timeWrite(dbManager, flightpaths);
+                dbManager.setBulkLoadDirectory(stagingDirectory);
+                long bulkNanos = timeWrite(dbManager, flightpaths);
+                System.out.printf("%d moves: batched inserts %.1f ms, bulk load %.1f ms\n",
+                    moveCount, batchNanos / 1e6, bulkNanos / 1e6);
+            }
+            long unindexedNanos = timeRead(dbManager);
+            dbManager.ensureReadIndexes();
+            long indexedNanos = timeRead(dbManager);
+            System.out.printf("orders of a day: %.1f ms before indexes, %.1f ms after\n",
+                unindexedNanos / 1e6, indexedNanos / 1e6);
+        }
+        finally {
+            dbManager.close();
+        }
+    }
+    
+    /**
+     * @param moveCount The number of moves.
+     * @return A flight of random moves from APPLETON TOWER, tagged with a few orderNos.
+     */
+    private static List<Flightpath> getRandomFlight(int moveCount) {
+        Random random = new Random(0);
+        List<Flightpath> flightpaths = new ArrayList<>(moveCount);
+        LongLat position = Drone.APPLETON_TOWER;
+        for (int i = 0; i < moveCount; i++) {
+            int angle = random.nextInt(20) == 0 ? -999 : random.nextInt(36) * 10;
+            LongLat next = position.nextPosition(angle);
+            flightpaths.add(new Flightpath(String.format("%08x", i / 100), position, angle,
+                next));
+            position = next;
+        }
+        return flightpaths;
+    }
+    
+    /**
+     * @param dbManager The database to write to.
+     * @param flightpaths The flight to write.
+     * @return The time taken to replace the flightpath table with the flight, in nanoseconds.
+     */
+    private static long timeWrite(DBManager dbManager, List<Flightpath> flightpaths) {
+        long startTime = System.nanoTime();
+        dbManager.writeFlightpath(flightpaths);
+        return System.nanoTime() - startTime;
+    }
+    
+    /**
+     * @param dbManager The database to read from.
+     * @return The time taken to read the orders of a day with their items, in nanoseconds.
+     */
+    private static long timeRead(DBManager dbManager) {
+        long startTime = System.nanoTime();
+        for (DBOrder order : dbManager.getOrdersForDay("02", "01", "2022")) {
+            dbManager.getOrderItemsForNo(order.orderNo);
+        }
+        return System.nanoTime() - startTime;
+    }
+}
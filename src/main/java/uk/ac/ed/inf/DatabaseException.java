@@ -0,0 +1,19 @@
+package uk.ac.ed.inf;
+
+import java.sql.SQLException;
+
+/**
+ * Thrown when the database cannot be reached or an operation on it fails, so the caller can
+ * decide whether to give up, as the command line does, or carry on serving other requests.
+ */
+public class DatabaseException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+    
+    /**
+     * @param message The description of the failure.
+     * @param cause The failure reported by the database.
+     */
+    public DatabaseException(String message, SQLException cause) {
+        super(message, cause);
+    }
+}
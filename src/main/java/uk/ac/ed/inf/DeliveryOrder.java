@@ -1,6 +1,7 @@
 package uk.ac.ed.inf;
 
 import java.sql.Date;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Objects;
 
@@ -15,6 +16,8 @@ public class DeliveryOrder {
     public final String customer;  // matriculation string
     public final String deliverTo;  // w3w string
     public final List<String> items;  // list of item names, fetched from database
+    public final int[] itemIds;  // ids of the items in Menus
+    public final BitSet shops;  // ids of the shops in Menus to collect items from
     private LongLat pickup1 = null;
     private LongLat pickup2 = null;  // can be from 2 stores max
     public final LongLat deliveryLngLat;
@@ -26,22 +29,41 @@ public class DeliveryOrder {
      * @param customer The customer matriculation string.
      * @param deliverTo The w3w string for delivery location.
      * @param dbManager the DBManager instance to be used to fetch data from database.
-     * @param menus the Menus instance to
+     * @param menus the Menus instance to price the items and locate the shops selling them with.
      * @param what3WordsManager The what3Words manager responsible for translating w3w string to LongLat
      */
     public DeliveryOrder(String orderNo, Date deliveryDate, String customer, String deliverTo,
                          DBManager dbManager, Menus menus, What3WordsManager what3WordsManager) {
+        this(orderNo, deliveryDate, customer, deliverTo, dbManager.getOrderItemsForNo(orderNo),
+            menus, what3WordsManager);
+    }
+    
+    /**
+     * For orders not (yet) in the database, whose items are already known.
+     * @param orderNo The orderNo associated with the delivery.
+     * @param deliveryDate The date of the delivery order.
+     * @param customer The customer matriculation string.
+     * @param deliverTo The w3w string for delivery location.
+     * @param items The names of the ordered items, all on the menus, from 1 or 2 shops.
+     * @param menus the Menus instance to price the items and locate the shops selling them with.
+     * @param what3WordsManager The what3Words manager responsible for translating w3w string to LongLat
+     */
+    public DeliveryOrder(String orderNo, Date deliveryDate, String customer, String deliverTo,
+                         List<String> items, Menus menus, What3WordsManager what3WordsManager) {
         this.orderNo = orderNo;
         this.deliveryDate = deliveryDate;
         this.customer = customer;
         this.deliverTo = deliverTo;
         this.deliveryLngLat = what3WordsManager.getLongLatFromWords(deliverTo);
-        this.items = dbManager.getOrderItemsForNo(orderNo);
-        this.totalCost = menus.getDeliveryCost(items);
-        List<String> locations = menus.getItemsLocations(items);
-        this.pickup1 = what3WordsManager.getLongLatFromWords(locations.get(0));
-        if (locations.size() == 2) {
-            this.pickup2 = what3WordsManager.getLongLatFromWords(locations.get(1));
+        this.items = items;
+        this.itemIds = menus.getItemIds(items);
+        this.totalCost = menus.getDeliveryCost(itemIds);
+        this.shops = menus.getShopSet(itemIds);
+        // shop locations are resolved once by Menus, no need to ask the webserver again
+        int[] pickupShops = menus.getPickupShops(itemIds);
+        this.pickup1 = menus.getShopLngLat(pickupShops[0]);
+        if (pickupShops.length == 2) {
+            this.pickup2 = menus.getShopLngLat(pickupShops[1]);
         }
     }
     
@@ -0,0 +1,39 @@
+package uk.ac.ed.inf;
+
+import java.util.List;
+
+/**
+ * The outcome of planning a drone's deliveries: which of the placed orders it delivers, and the
+ * moves it makes to do so. This is what gets written to the database.
+ */
+public class DeliveryPlan {
+    public final List<DeliveryOrder> placedOrders;
+    public final List<DeliveryOrder> deliveredOrders;  // in the order they are delivered
+    public final List<Flightpath> flightpaths;
+    
+    /**
+     * @param placedOrders All orders placed.
+     * @param deliveredOrders The orders delivered, in the order they are delivered.
+     * @param flightpaths The moves made to deliver them, starting and ending at APPLETON TOWER.
+     */
+    public DeliveryPlan(List<DeliveryOrder> placedOrders, List<DeliveryOrder> deliveredOrders,
+                        List<Flightpath> flightpaths) {
+        this.placedOrders = placedOrders;
+        this.deliveredOrders = deliveredOrders;
+        this.flightpaths = flightpaths;
+    }
+    
+    /**
+     * @return The total cost in pence of all orders placed.
+     */
+    public int getValuePlaced() {
+        return placedOrders.stream().mapToInt(o -> o.totalCost).sum();
+    }
+    
+    /**
+     * @return The total cost in pence of the orders delivered.
+     */
+    public int getValueDelivered() {
+        return deliveredOrders.stream().mapToInt(o -> o.totalCost).sum();
+    }
+}
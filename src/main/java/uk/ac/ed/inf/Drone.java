@@ -1,13 +1,20 @@
 package uk.ac.ed.inf;
 
 
-import com.mapbox.geojson.Feature;
-import com.mapbox.geojson.FeatureCollection;
-import com.mapbox.geojson.LineString;
-import com.mapbox.geojson.Point;
 import uk.ac.ed.inf.AStarPathFinder.AStarPathfinder;
+import uk.ac.ed.inf.AStarPathFinder.ShortestPathTree;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Date;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 
 /**
@@ -16,14 +23,33 @@ import java.util.*;
 public class Drone {
     private final String day, month, year;
     
-    private static final LongLat APPLETON_TOWER = new LongLat(-3.186874, 55.944494);
-    private static final int MAX_MOVES = 1500;  // as required
+    static final LongLat APPLETON_TOWER = LongLat.of(-3.186874, 55.944494);
+    static final int MAX_MOVES = 1500;  // as required
+    private static final int CALIBRATION_LEGS = 40;  // simulated to calibrate the move estimator
     
     private final DBManager dbManager;
     private final Menus menus;
     private final What3WordsManager what3WordsManager;
     private final GeojsonManager geojsonManager;
     private final AStarPathfinder pathfinder;
+    private final PathSmoother pathSmoother;
+    private MovePlanner movePlanner;
+    // moves planned so far, from -> waypoint -> angles, reused whenever the drone heads for the
+    // same waypoint from exactly the same position again, e.g. in the unchanged part of a route
+    // simulated again after dropping an order, routes may be simulated on several threads
+    private final Map<LongLat, Map<LongLat, List<Integer>>> plannedMoves =
+        new ConcurrentHashMap<>();
+    private final AtomicInteger movePlansReused = new AtomicInteger();
+    private final AtomicInteger movePlansMade = new AtomicInteger();
+    private boolean writeOrderFeatures = false;  // extra features in the visualisation geojson
+    private StopConsolidator stopConsolidator = null;  // null if orders never share visits
+    private boolean validateFlightpaths = false;  // check the flightpaths before writing them
+    private Path routeArchive = null;  // null if flights are not archived
+    private ClusteredTourPlanner clusteredTourPlanner = null;  // null for the flat 2-opt tour
+    private boolean tourPlanned = false;  // whether the clustered tour has been planned yet
+    private MoveEstimator moveEstimator = null;  // null to plan with euclidean distances only
+    // routes simulated at once while dropping orders, 1 to simulate them one at a time
+    private int speculativeRoutes = Runtime.getRuntime().availableProcessors();
     
     private final List<DeliveryOrder> allOrders = new ArrayList<>();
     
@@ -43,28 +69,130 @@ public class Drone {
     public Drone(
         String server, String serverPort, String dbPort, String day, String month,
         String year) {
+        this(new PlanningContext(server, serverPort, new DBManager(dbPort)), day, month, year);
+    }
+    
+    /**
+     * A drone planning with an already built context, which may be shared with other drones.
+     * @param context The menus, no fly zones, pathfinder and database to plan with.
+     * @param day Day of date to plan delivery.
+     * @param month Month of date to plan delivery.
+     * @param year Year of date to plan delivery.
+     */
+    public Drone(PlanningContext context, String day, String month, String year) {
         this.day = day;
         this.month = month;
         this.year = year;
         
-        this.dbManager = new DBManager(dbPort);
-        
-        this.menus = new Menus(server, serverPort);
-        this.what3WordsManager = new What3WordsManager(server, serverPort);
-        this.geojsonManager = new GeojsonManager(server, serverPort);
-        this.pathfinder = new AStarPathfinder(geojsonManager);
+        this.dbManager = context.dbManager;
+        this.what3WordsManager = context.what3WordsManager;
+        this.menus = context.menus;
+        this.geojsonManager = context.geojsonManager;
+        this.pathfinder = context.pathfinder;
+        this.pathSmoother = context.pathSmoother;
+        this.movePlanner = new GreedyMovePlanner(geojsonManager);
+    }
+    
+    /**
+     * Replaces the default two step greedy move planner.
+     * @param movePlanner The move planner to generate the drone's moves with.
+     */
+    public void setMovePlanner(MovePlanner movePlanner) {
+        this.movePlanner = movePlanner;
+        this.plannedMoves.clear();
+    }
+    
+    /**
+     * @param writeOrderFeatures Whether the visualisation geojson should also have a feature for
+     *                           every order segment and every hover, besides the whole flight.
+     */
+    public void setWriteOrderFeatures(boolean writeOrderFeatures) {
+        this.writeOrderFeatures = writeOrderFeatures;
+    }
+    
+    /**
+     * Consolidated flights have visits shared by several orders, so their flightpath is not
+     * suitable for OnlineTourPlanner, which expects a visit per order.
+     * @param consolidateStops Whether consecutive orders with a shop or delivery location in
+     *                         common may share the visit, see StopConsolidator.
+     */
+    public void setConsolidateStops(boolean consolidateStops) {
+        this.stopConsolidator = consolidateStops ? new StopConsolidator(this) : null;
+    }
+    
+    /**
+     * @param validateFlightpaths Whether to check the flightpaths with FlightpathValidator
+     *                            before writing them, printing any violations found.
+     */
+    public void setValidateFlightpaths(boolean validateFlightpaths) {
+        this.validateFlightpaths = validateFlightpaths;
+    }
+    
+    /**
+     * @param routeArchive The RouteArchive file to append the flights to when they are written to
+     *                     the database, null to not archive them.
+     */
+    public void setRouteArchive(Path routeArchive) {
+        this.routeArchive = routeArchive;
+    }
+    
+    /**
+     * @param clusteredTourPlanning Whether to order the deliveries with ClusteredTourPlanner,
+     *                              which scales to days with thousands of orders, instead of
+     *                              random swaps over one flat tour.
+     */
+    public void setClusteredTourPlanning(boolean clusteredTourPlanning) {
+        this.clusteredTourPlanner = clusteredTourPlanning ?
+            new ClusteredTourPlanner(Runtime.getRuntime().availableProcessors()) : null;
+    }
+    
+    /**
+     * @param estimateMoves Whether to plan with the moves estimated by a MoveEstimator calibrated
+     *                      on the day's locations, both to order the deliveries and to drop
+     *                      orders until the estimate fits in MAX_MOVES before simulating.
+     */
+    public void setEstimateMoves(boolean estimateMoves) {
+        this.moveEstimator = estimateMoves ? new MoveEstimator(this) : null;
+    }
+    
+    /**
+     * Dropping orders until the route fits in MAX_MOVES gives the same routes whether or not they
+     * are simulated ahead, so this only changes how long planning takes, not the plan.
+     * @param speculativeRoutes How many of the next routes to simulate at once on separate
+     *                          threads, 1 to simulate them one at a time.
+     */
+    public void setSpeculativeRoutes(int speculativeRoutes) {
+        this.speculativeRoutes = Math.max(1, speculativeRoutes);
+    }
+    
+    /**
+     * @return The GeojsonManager of the drone, needed to construct move planners.
+     */
+    public GeojsonManager getGeojsonManager() {
+        return geojsonManager;
     }
 
     /**
-     * Populates the field allOrders as well as ordersToDeliver, which can be mutated later
+     * Populates the field allOrders as well as ordersToDeliver, which can be mutated later.
+     * Orders whose delivery location cannot be looked up are left out, rather than failing the
+     * whole day's plan.
      */
-    private void getAllOrders() {
+    void getAllOrders() {
         List<DBOrder> dbOrders = dbManager.getOrdersForDay(day, month, year);
         for (DBOrder dbOrder : dbOrders) {
-            this.allOrders.add(new DeliveryOrder(dbOrder.orderNo, dbOrder.deliveryDate,
-                dbOrder.customer, dbOrder.deliverTo, dbManager, menus, what3WordsManager));
-            this.ordersToDeliver.add(new DeliveryOrder(dbOrder.orderNo, dbOrder.deliveryDate,
-                dbOrder.customer, dbOrder.deliverTo, dbManager, menus, what3WordsManager));
+            DeliveryOrder order;
+            try {
+                order = new DeliveryOrder(dbOrder.orderNo, dbOrder.deliveryDate,
+                    dbOrder.customer, dbOrder.deliverTo, dbManager, menus, what3WordsManager);
+            }
+            catch (HttpRequestException e) {
+                System.err.printf("cannot locate order %s, leaving it out: %s\n", dbOrder.orderNo,
+                    e.getMessage());
+                continue;
+            }
+            // orders are never modified, so both lists can share them
+            this.allOrders.add(order);
+            this.ordersToDeliver.add(order);
         }
     }
     
@@ -74,7 +202,7 @@ public class Drone {
     private void Tsp2OptOptimisation() {
         List<DeliveryOrder> toDeliver = new ArrayList<>(this.ordersToDeliver);
         List<DeliveryOrder> tentativeToDeliver;
-        double currentTripDistance = getTripDistance(toDeliver);
+        double currentTripDistance = getTripCost(toDeliver);
         Random random = new Random();
         for (int i = 0; i < 200; i++) {
             int order1Index = random.nextInt(toDeliver.size());
@@ -84,7 +212,7 @@ public class Drone {
             tentativeToDeliver = new ArrayList<>(toDeliver);
             tentativeToDeliver.set(order1Index, order2);
             tentativeToDeliver.set(order2Index, order1);
-            double newTripDistance = getTripDistance(tentativeToDeliver);
+            double newTripDistance = getTripCost(tentativeToDeliver);
             if (newTripDistance < currentTripDistance) {
                 // accept new trip
                 toDeliver = tentativeToDeliver;
@@ -115,6 +243,18 @@ public class Drone {
         this.ordersToDeliver = optimised;
     }
     
+    /**
+     * @param ordersToDeliver The orders to deliver, in order.
+     * @return The estimated moves of the trip if moves are estimated, otherwise its euclidean
+     * distance.
+     */
+    private double getTripCost(List<DeliveryOrder> ordersToDeliver) {
+        if (moveEstimator != null) {
+            return moveEstimator.estimateRouteMoves(ordersToDeliver);
+        }
+        return getTripDistance(ordersToDeliver);
+    }
+    
     /**
      * @param ordersToDeliver The list of orders to calculate total trip (euclidean) distance
      * @return The total trip (euclidean) distance
@@ -143,6 +283,14 @@ public class Drone {
      * treat it as TSP and use TSP heuristics.
      */
     private void planDelivery() {
+        if (clusteredTourPlanner != null) {
+            // dropping orders leaves the rest of the tour in a good order, plan it only once
+            if (!tourPlanned) {
+                this.ordersToDeliver = clusteredTourPlanner.planTour(this.ordersToDeliver);
+                tourPlanned = true;
+            }
+            return;
+        }
         // TspGreedyOptimisation();  // it seems 2 opt is performing better
         Tsp2OptOptimisation();
     }
@@ -185,60 +333,198 @@ public class Drone {
      * @return List of Flightpath that can be written to database.
      */
     private List<Flightpath> tryDeliveringOrders() {
+        return simulateStops(getStops(this.ordersToDeliver), APPLETON_TOWER, 0);
+    }
+    
+    /**
+     * @param route The orders to deliver, in order.
+     * @return The stops to visit, shared by orders if stops are consolidated.
+     */
+    private List<RouteStop> getStops(List<DeliveryOrder> route) {
+        if (stopConsolidator != null) {
+            return stopConsolidator.consolidate(route);
+        }
+        return RouteStop.ofRoute(route);
+    }
+    
+    /**
+     * Maneuvers a drone to deliver the orders of a route in the given order, starting and ending
+     * at APPLETON TOWER, without checking for MAX_MOVE. Does not change the state of this drone,
+     * so routes of a fleet can be simulated on separate threads at the same time.
+     *
+     * @param route The orders to deliver, in the order to deliver them.
+     * @param droneId The id of the drone flying the route, to tag its flightpath with.
+     * @return List of Flightpath that can be written to database.
+     */
+    List<Flightpath> simulateRoute(List<DeliveryOrder> route, int droneId) {
+        return simulateRoute(route, APPLETON_TOWER, droneId);
+    }
+    
+    /**
+     * Same as simulateRoute(route, droneId), but starting from where the drone already is, e.g.
+     * after having delivered earlier orders, and ending at APPLETON TOWER.
+     *
+     * @param route The orders to deliver, in the order to deliver them.
+     * @param start The position of the drone before delivering the route.
+     * @param droneId The id of the drone flying the route, to tag its flightpath with.
+     * @return List of Flightpath, starting at start.
+     */
+    List<Flightpath> simulateRoute(List<DeliveryOrder> route, LongLat start, int droneId) {
+        return simulateStops(RouteStop.ofRoute(route), start, droneId);
+    }
+    
+    /**
+     * Maneuvers a drone to hover at every stop in the given order, starting from start and ending
+     * at APPLETON TOWER, without checking for MAX_MOVE.
+     *
+     * @param stops The stops to visit, in order.
+     * @param start The position of the drone before visiting the stops.
+     * @param droneId The id of the drone flying the route, to tag its flightpath with.
+     * @return List of Flightpath, starting at start.
+     */
+    List<Flightpath> simulateStops(List<RouteStop> stops, LongLat start, int droneId) {
         List<Flightpath> flightpaths = new ArrayList<>();
-        LongLat currentLngLat = APPLETON_TOWER;  // starting point, as required
+        LongLat currentLngLat = start;
         List<LongLat> allWaypoints = new ArrayList<>();
         List<Boolean> needToHover = new ArrayList<>();  // corresponds to each in allWaypoints
         List<String> orderNos = new ArrayList<>();  // corresponds to each in allWaypoints
     
-        for (DeliveryOrder order : this.ordersToDeliver) {
-            //allWaypoints.addAll(this.pathfinder.findPath(currentLngLat, order.pickup1).waypoints);
-            List<LongLat> pickup1Waypoints =
-                this.pathfinder.findPath(currentLngLat, order.getPickup1()).waypoints;
-            processPathfinderWaypoints(allWaypoints, needToHover, orderNos, order,
-                pickup1Waypoints);
-            currentLngLat = order.getPickup1();
-            if (order.getPickup2() != null) {
-                List<LongLat> pickup2Waypoints = this.pathfinder.findPath(currentLngLat,
-                    order.getPickup2()).waypoints;
-                processPathfinderWaypoints(allWaypoints, needToHover, orderNos, order, pickup2Waypoints);
-                currentLngLat = order.getPickup2();
+        int predictedMoves = 0;  // predicted from the waypoints, to compare with actual moves
+    
+        for (RouteStop stop : stops) {
+            List<LongLat> stopWaypoints = getLegWaypoints(currentLngLat, stop.location);
+            predictedMoves += PathSmoother.predictMoveCount(currentLngLat, stopWaypoints) +
+                stop.orders.size();
+            processPathfinderWaypoints(allWaypoints, needToHover, orderNos, stop.getOrderNo(),
+                stopWaypoints);
+            // every other order served gets a hover of its own, the drone is there already
+            for (DeliveryOrder order : stop.orders.subList(1, stop.orders.size())) {
+                processPathfinderWaypoints(allWaypoints, needToHover, orderNos, order.orderNo,
+                    List.of(stop.location));
             }
-            List<LongLat> deliveryWaypoints =
-                pathfinder.findPath(currentLngLat, order.deliveryLngLat).waypoints;
-            processPathfinderWaypoints(allWaypoints, needToHover, orderNos, order, deliveryWaypoints);
-            currentLngLat = order.deliveryLngLat;
+            currentLngLat = stop.location;
         }
-        List<LongLat> appletonWaypoints = pathfinder.findPath(currentLngLat, APPLETON_TOWER).waypoints;
+        List<LongLat> appletonWaypoints = getLegWaypoints(currentLngLat, APPLETON_TOWER);
+        predictedMoves += PathSmoother.predictMoveCount(currentLngLat, appletonWaypoints);
         // no need to hover, getting back to APPLETON TOWER
         for (LongLat appletonWaypoint : appletonWaypoints) {
             needToHover.add(false);
             orderNos.add("");
             allWaypoints.add(appletonWaypoint);
         }
-        currentLngLat = APPLETON_TOWER;  // starting at appleton tower as asked
+        currentLngLat = start;
         for (int i = 0; i < allWaypoints.size(); i++) {
             String orderNo = orderNos.get(i);
             boolean toHover = needToHover.get(i);
             LongLat waypoint = allWaypoints.get(i);
             // actually get the movements needed to be closeTo the waypoint
             currentLngLat = doMoveToWaypoint(flightpaths, currentLngLat, orderNo, waypoint,
-                toHover);
+                toHover, droneId);
         }
         System.out.printf("try delivering order has %d way points in total\n", allWaypoints.size());
+        System.out.printf("predicted %d moves, actual %d moves\n", predictedMoves,
+            flightpaths.size());
         return flightpaths;
     }
     
+    /**
+     * @param from The position to start the leg from.
+     * @param to The position to end the leg at.
+     * @return The number of moves predicted for the leg, not including hovering at its end.
+     */
+    int predictLegMoves(LongLat from, LongLat to) {
+        return PathSmoother.predictMoveCount(from, getLegWaypoints(from, to));
+    }
+    
+    /**
+     * Same as predictLegMoves for every leg between the locations, with one pathfinder search
+     * per location instead of one per leg.
+     * @param locations The locations to fly between, without duplicates.
+     * @return The predicted moves of every leg, from -> to -> moves, legs from a location to
+     * itself left out.
+     */
+    Map<LongLat, Map<LongLat, Integer>> predictAllLegMoves(List<LongLat> locations) {
+        Map<LongLat, Map<LongLat, Integer>> legMoves = new HashMap<>();
+        List<ShortestPathTree> trees = pathfinder.findAllPaths(locations);
+        for (int i = 0; i < locations.size(); i++) {
+            LongLat from = locations.get(i);
+            Map<LongLat, Integer> fromMoves = legMoves.computeIfAbsent(from, k -> new HashMap<>());
+            for (int j = 0; j < locations.size(); j++) {
+                if (i != j) {
+                    fromMoves.put(locations.get(j), PathSmoother.predictMoveCount(from,
+                        pathSmoother.smooth(from, trees.get(i).getPath(j).waypoints)));
+                }
+            }
+        }
+        return legMoves;
+    }
+    
+    /**
+     * @param from The position to start the leg from.
+     * @param to The position to end the leg at.
+     * @return The number of moves the drone actually makes to fly the leg, without hovering.
+     */
+    int simulateLegMoves(LongLat from, LongLat to) {
+        List<Flightpath> flightpaths = new ArrayList<>();
+        LongLat currentLngLat = from;
+        for (LongLat waypoint : getLegWaypoints(from, to)) {
+            currentLngLat = doMoveToWaypoint(flightpaths, currentLngLat, "", waypoint, false, 0);
+        }
+        return flightpaths.size();
+    }
+    
+    /**
+     * Flies a single leg the way simulateStops does, so legs of a flight can be planned again one
+     * at a time.
+     * @param flightpaths The flightpath list to add the moves to.
+     * @param currentLngLat Where the drone is, close to from.
+     * @param from The stop the leg starts at, which the pathfinder searches from.
+     * @param to The stop to fly to.
+     * @param orderNo The orderNo to tag the moves with.
+     * @param toHover Whether to hover at the end of the leg.
+     * @param droneId The id of the drone moving.
+     * @return The position of the drone at the end of the leg.
+     */
+    LongLat flyLeg(List<Flightpath> flightpaths, LongLat currentLngLat, LongLat from, LongLat to,
+                   String orderNo, boolean toHover, int droneId) {
+        List<LongLat> waypoints = getLegWaypoints(from, to);
+        for (int i = 0; i < waypoints.size(); i++) {
+            currentLngLat = doMoveToWaypoint(flightpaths, currentLngLat, orderNo,
+                waypoints.get(i), toHover && i == waypoints.size() - 1, droneId);
+        }
+        return currentLngLat;
+    }
+    
+    /**
+     * @param from The position before the move.
+     * @param to The position after the move.
+     * @return Whether the drone may make the move, i.e. it stays in the confinement area and does
+     * not cross a no fly zone, as the move planners check.
+     */
+    boolean isMoveAllowed(LongLat from, LongLat to) {
+        return geojsonManager.isLineConfined(from, to) &&
+            !geojsonManager.lineCrossesNoFlyZone(from, to);
+    }
+    
+    /**
+     * @param from The position to start the leg from.
+     * @param to The position to end the leg at.
+     * @return The smoothed waypoints of the leg, as found by the pathfinder, ending with to.
+     */
+    List<LongLat> getLegWaypoints(LongLat from, LongLat to) {
+        return pathSmoother.smooth(from, pathfinder.findPath(from, to).waypoints);
+    }
+    
     /**
      * @param allWaypoints Add waypoints to this list.
      * @param needToHover Add boolean to indicate whether or not to hover at corresponding waypoint.
      * @param orderNos List of orderNo of deliveries, corresponding to each waypoint
-     * @param order The delivery order associated with the movement/waypoint
+     * @param orderNo The orderNo of the delivery order associated with the movement/waypoint
      * @param waypointsList List of waypoints as returned by pathfinder#findPath.
      */
     private static void processPathfinderWaypoints(List<LongLat> allWaypoints,
                                                    List<Boolean> needToHover, List<String> orderNos,
-                                                   DeliveryOrder order, List<LongLat> waypointsList) {
+                                                   String orderNo, List<LongLat> waypointsList) {
         for (int i = 0; i < waypointsList.size(); i++) {
             if (i == waypointsList.size() - 1) {
                 // last point, is pickup location, need to hover
@@ -247,7 +533,7 @@ public class Drone {
             else {
                 needToHover.add(false);
             }
-            orderNos.add(order.orderNo);
+            orderNos.add(orderNo);
             allWaypoints.add(waypointsList.get(i));
         }
     }
@@ -258,107 +544,379 @@ public class Drone {
      * @param orderNo The orderNo. of delivery order associated with this flightpath.
      * @param waypoint The waypoint to go to.
      * @param toHover Whether or not drone needs to hover after reaching the final waypoint
+     * @param droneId The id of the drone moving.
      * @return The position LongLat after actually moving the drone to the waypoint.
      */
     private LongLat doMoveToWaypoint(List<Flightpath> flightpaths, LongLat currentLngLat,
-                                     String orderNo, LongLat waypoint, boolean toHover) {
-        while (!currentLngLat.closeTo(waypoint)) {
-            double bestDistance = Double.POSITIVE_INFINITY;
-            int selectedAngle1 = -999;
-            int selectedAngle2 = -999;
-            for (int angle1 = 0; angle1 < 360; angle1 += 10) {
-                for (int angle2 = 0; angle2 < 360; angle2 += 10) {
-                    LongLat tentativePosition1 = currentLngLat.nextPosition(angle1);
-                    LongLat tentativePosition2 = tentativePosition1.nextPosition(angle2);
-                    if (!(tentativePosition1.isConfined() && tentativePosition2.isConfined())) {
-                        // if we are close to the confinement border, there is a risk of getting
-                        // outside when we are doing 2 step movements
-                        System.out.println("Almost got out of the confinement area");
-                        continue;
-                    }
-                    // the result of 2 step greedy search needs to be not blocked by no fly zone
-                    // or it might get stuck/blocked by zone, like 1 step greedy
-                    if (!geojsonManager.lineCrossesNoFlyZone(currentLngLat, tentativePosition1) &&
-                        !geojsonManager.lineCrossesNoFlyZone(tentativePosition1,
-                            tentativePosition2)) {
-                        if (!geojsonManager.lineCrossesNoFlyZone(tentativePosition2, waypoint)) {
-                            double distanceToWaypoint = tentativePosition2.distanceTo(waypoint);
-                            if (distanceToWaypoint < bestDistance) {
-                                bestDistance = distanceToWaypoint;
-                                selectedAngle1 = angle1;
-                                selectedAngle2 = angle2;
-                            }
-                        }
-                    }
-                }
-            }
-            if (selectedAngle1 == -999) {
-                System.err.println("SHOULD NOT HAPPEN, 2 STEP GREEDY CANNOT FIND STEPS");
-            }
-            LongLat next1LngLat = currentLngLat.nextPosition(selectedAngle1);
-            LongLat next2LngLat = next1LngLat.nextPosition(selectedAngle2);
-            flightpaths.add(new Flightpath(orderNo, currentLngLat, selectedAngle1, next1LngLat));
-            flightpaths.add(new Flightpath(orderNo, next1LngLat, selectedAngle2, next2LngLat));
-            currentLngLat = next2LngLat;
+                                     String orderNo, LongLat waypoint, boolean toHover,
+                                     int droneId) {
+        for (int angle : planMoves(currentLngLat, waypoint)) {
+            LongLat nextLngLat = currentLngLat.nextPosition(angle);
+            flightpaths.add(new Flightpath(orderNo, currentLngLat, angle, nextLngLat, droneId));
+            currentLngLat = nextLngLat;
         }
         // check if drone needs to hover
         if (toHover) {
-            flightpaths.add(new Flightpath(orderNo, currentLngLat, -999, currentLngLat));
+            flightpaths.add(new Flightpath(orderNo, currentLngLat, -999, currentLngLat, droneId));
         }
         return currentLngLat;
     }
     
+    /**
+     * Planning moves takes most of the time of simulating a route, but the moves only depend on
+     * where the drone is exactly, so they are planned once for every position and waypoint.
+     * @param currentLngLat Starting point LongLat.
+     * @param waypoint The waypoint to go to.
+     * @return The angles of the moves getting close to the waypoint, as planned by movePlanner.
+     */
+    private List<Integer> planMoves(LongLat currentLngLat, LongLat waypoint) {
+        Map<LongLat, List<Integer>> waypointMoves =
+            plannedMoves.computeIfAbsent(currentLngLat, k -> new ConcurrentHashMap<>());
+        List<Integer> angles = waypointMoves.get(waypoint);
+        if (angles != null) {
+            movePlansReused.incrementAndGet();
+            return angles;
+        }
+        angles = movePlanner.planMoves(currentLngLat, waypoint);
+        waypointMoves.putIfAbsent(waypoint, angles);
+        movePlansMade.incrementAndGet();
+        return angles;
+    }
+    
     /**
      * The driving method of drone, which starts off everything else.
      * Call this method in program entry point.
      */
     public void performDeliveries() {
+        DeliveryPlan plan = planDeliveries();
+        writeDeliveryPlan(plan);
+    }
+    
+    /**
+     * Plans the deliveries of the orders placed for the date of this drone, without writing
+     * anything.
+     * @return The orders delivered and the moves made.
+     */
+    public DeliveryPlan planDeliveries() {
         getAllOrders();
+        return planLoadedDeliveries();
+    }
+    
+    /**
+     * Plans the deliveries of the given orders instead of those in the database, without writing
+     * anything.
+     * @param orders The orders placed.
+     * @return The orders delivered and the moves made.
+     */
+    public DeliveryPlan planDeliveries(List<DeliveryOrder> orders) {
+        this.allOrders.addAll(orders);
+        this.ordersToDeliver.addAll(orders);
+        return planLoadedDeliveries();
+    }
+    
+    /**
+     * Plans the deliveries of allOrders, dropping orders until the moves fit in MAX_MOVES.
+     * @return The orders delivered and the moves made.
+     */
+    private DeliveryPlan planLoadedDeliveries() {
+        if (this.ordersToDeliver.isEmpty()) {
+            // nothing to deliver, the drone stays put
+            return new DeliveryPlan(this.allOrders, this.ordersToDeliver, new ArrayList<>());
+        }
+        if (moveEstimator != null) {
+            calibrateMoveEstimator();
+        }
         planDelivery();  // performed TSP greedy optimisation here
+        if (moveEstimator != null) {
+            dropOrdersByEstimate();
+        }
 
         List<Flightpath> flightpaths = tryDeliveringOrders();
+        int movesSaved = stopConsolidator != null ? stopConsolidator.getPredictedMovesSaved() : 0;
+        int simulatedRoutes = 1;
         while (flightpaths.size() > MAX_MOVES) {
             System.out.printf("cannot finish delivery, need %d moves\n", flightpaths.size());
             System.out.println("reducing orders and retrying");
             // remove most cost ineffective order and re-plan TSP
             // don't really need to remove the one with lowest value
+            // the next routes do not depend on how this one flies, so several are planned ahead
+            List<List<DeliveryOrder>> routes = new ArrayList<>();
+            List<List<RouteStop>> routeStops = new ArrayList<>();
+            List<Integer> routeMovesSaved = new ArrayList<>();
+            while (routes.size() < speculativeRoutes && !this.ordersToDeliver.isEmpty()) {
+                removeMostCostIneffectiveOrder();
+                planDelivery();  // this results in mutated this.ordersToDeliver
+                routes.add(new ArrayList<>(this.ordersToDeliver));
+                // the consolidator is not thread safe, consolidate here rather than in parallel
+                routeStops.add(getStops(this.ordersToDeliver));
+                routeMovesSaved.add(
+                    stopConsolidator != null ? stopConsolidator.getPredictedMovesSaved() : 0);
+            }
+            List<List<Flightpath>> routeFlightpaths = simulateAllStops(routeStops);
+            simulatedRoutes += routes.size();
+            // the first route that fits is the one simulating a route at a time would stop at
+            int chosen = 0;
+            while (chosen < routes.size() - 1 &&
+                routeFlightpaths.get(chosen).size() > MAX_MOVES) {
+                chosen++;
+            }
+            this.ordersToDeliver = routes.get(chosen);
+            flightpaths = routeFlightpaths.get(chosen);
+            movesSaved = routeMovesSaved.get(chosen);
+        }
+        System.out.printf("moves to %d waypoints planned, %d reused\n", movePlansMade.get(),
+            movePlansReused.get());
+        if (moveEstimator != null) {
+            System.out.printf("simulated %d routes, estimated %d moves, actual %d moves\n",
+                simulatedRoutes, moveEstimator.estimateRouteMoves(this.ordersToDeliver),
+                flightpaths.size());
+        }
+        if (stopConsolidator != null) {
+            System.out.printf("sharing visits between orders saved %d moves (predicted)\n",
+                movesSaved);
+        }
+        return new DeliveryPlan(this.allOrders, this.ordersToDeliver, flightpaths);
+    }
+    
+    /**
+     * Simulates the routes on separate threads, as simulateStops from APPLETON TOWER. They share
+     * the moves already planned, so the legs the routes have in common are planned only once.
+     * @param routeStops The stops of every route.
+     * @return The flightpaths of every route, in the same order.
+     */
+    private List<List<Flightpath>> simulateAllStops(List<List<RouteStop>> routeStops) {
+        if (routeStops.size() == 1) {
+            return List.of(simulateStops(routeStops.get(0), APPLETON_TOWER, 0));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(routeStops.size());
+        List<Future<List<Flightpath>>> futures = new ArrayList<>();
+        for (List<RouteStop> stops : routeStops) {
+            futures.add(executor.submit(() -> simulateStops(stops, APPLETON_TOWER, 0)));
+        }
+        List<List<Flightpath>> routeFlightpaths = new ArrayList<>();
+        try {
+            for (Future<List<Flightpath>> future : futures) {
+                routeFlightpaths.add(future.get());
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while simulating routes", e);
+        }
+        catch (ExecutionException e) {
+            throw new IllegalStateException("cannot simulate routes", e.getCause());
+        }
+        finally {
+            executor.shutdown();
+        }
+        return routeFlightpaths;
+    }
+    
+    /**
+     * Calibrates the move estimator on legs between the locations of the orders to deliver.
+     */
+    private void calibrateMoveEstimator() {
+        Set<LongLat> locations = new LinkedHashSet<>();
+        locations.add(APPLETON_TOWER);
+        for (DeliveryOrder order : this.ordersToDeliver) {
+            locations.add(order.getPickup1());
+            if (order.getPickup2() != null) {
+                locations.add(order.getPickup2());
+            }
+            locations.add(order.deliveryLngLat);
+        }
+        moveEstimator.calibrate(new ArrayList<>(locations), CALIBRATION_LEGS);
+        System.out.printf("move estimator calibrated: %s\n", moveEstimator.getCalibration());
+    }
+    
+    /**
+     * Drops orders as when the simulated moves are over MAX_MOVES, but while the estimated moves
+     * are, without simulating the route every time.
+     */
+    private void dropOrdersByEstimate() {
+        int estimatedMoves = moveEstimator.estimateRouteMoves(this.ordersToDeliver);
+        while (estimatedMoves > MAX_MOVES && this.ordersToDeliver.size() > 1) {
             removeMostCostIneffectiveOrder();
-            
-            planDelivery();  // this results in mutated this.ordersToDeliver
-            flightpaths = tryDeliveringOrders();
+            planDelivery();
+            estimatedMoves = moveEstimator.estimateRouteMoves(this.ordersToDeliver);
         }
+        System.out.printf("estimated %d moves (+-%d) for %d orders before simulating\n",
+            estimatedMoves, moveEstimator.getRouteErrorBound(this.ordersToDeliver),
+            this.ordersToDeliver.size());
+    }
+    
+    /**
+     * Writes a plan of this drone to the database and the flightpath visualisation geojson file.
+     * @param plan The plan to write.
+     */
+    public void writeDeliveryPlan(DeliveryPlan plan) {
+        List<Flightpath> flightpaths = plan.flightpaths;
         System.out.printf("Completed delivery with %d moves\n", flightpaths.size());
-        int totalValuePlaced = this.allOrders.stream().mapToInt(o -> o.totalCost).sum();
-        int totalValueDelivered = this.ordersToDeliver.stream().mapToInt(o -> o.totalCost).sum();
+        int totalValuePlaced = plan.getValuePlaced();
+        int totalValueDelivered = plan.getValueDelivered();
         float percentageValue = (float) totalValueDelivered / totalValuePlaced;
         System.out.printf(
             "Total value of placed order: %d, of delivered order: %d, Percentage monetary value: %f\n",
             totalValuePlaced, totalValueDelivered, percentageValue);
-        System.out.printf("Total No. of orders %d, delivered %d\n", this.allOrders.size(),
-            this.ordersToDeliver.size());
+        System.out.printf("Total No. of orders %d, delivered %d\n", plan.placedOrders.size(),
+            plan.deliveredOrders.size());
         
-        dbManager.writeDeliveries(this.ordersToDeliver);
-        dbManager.writeFlightpath(flightpaths);
+        if (validateFlightpaths) {
+            validate(flightpaths);
+        }
+        writeToDatabase(plan.deliveredOrders, flightpaths, dbManager::writeFlightpath);
+        archive(flightpaths);
         
-        List<Point> pathPoints = new ArrayList<>();
-        if (flightpaths.get(0).fromLng != APPLETON_TOWER.longitude ||
-            flightpaths.get(0).fromLat != APPLETON_TOWER.latitude) {
+        if (!flightpaths.isEmpty() && (flightpaths.get(0).fromLng != APPLETON_TOWER.longitude ||
+            flightpaths.get(0).fromLat != APPLETON_TOWER.latitude)) {
             // should not happen
             System.err.println("ERROR!! FLIGHT PATH NOT STARTING AT APPLETON TOWER");
         }
-        // add first starting point, should be APPLETON TOWER
-        pathPoints.add(flightpaths.get(0).getFromLongLat().toPoint());
-        for (Flightpath flightpath : flightpaths) {
-            // every next ToLongLat should be the same as the previous FromLongLat
-            // this way there should be no duplicate points
-            pathPoints.add(flightpath.getToLongLat().toPoint());
+        // write the flightpath visualisation geojson file
+        geojsonManager.writeFlightpathGeojsonFile(day, month, year, flightpaths,
+            writeOrderFeatures);
+    }
+    
+    /**
+     * Same as performDeliveries, but for a fleet of identical drones launching from APPLETON
+     * TOWER, so orders do not need to be dropped as long as there are enough drones.
+     * The flightpaths of all drones are written to database tagged with the drone ids, and each
+     * drone gets its own visualisation geojson file.
+     * @param droneCount The number of drones in the fleet.
+     */
+    public void performFleetDeliveries(int droneCount) {
+        getAllOrders();
+        FleetPlanner.FleetPlan plan = new FleetPlanner(this, droneCount).plan(this.allOrders);
+        
+        List<DeliveryOrder> deliveredOrders = new ArrayList<>();
+        List<Flightpath> allFlightpaths = new ArrayList<>();
+        for (int droneId = 0; droneId < plan.routes.size(); droneId++) {
+            List<Flightpath> flightpaths = plan.flightpaths.get(droneId);
+            System.out.printf("Drone %d delivers %d orders with %d moves\n", droneId,
+                plan.routes.get(droneId).size(), flightpaths.size());
+            deliveredOrders.addAll(plan.routes.get(droneId));
+            allFlightpaths.addAll(flightpaths);
+            geojsonManager.writeFleetFlightpathGeojsonFile(droneId, day, month, year, flightpaths,
+                writeOrderFeatures);
         }
+        int totalValuePlaced = this.allOrders.stream().mapToInt(o -> o.totalCost).sum();
+        int totalValueDelivered = deliveredOrders.stream().mapToInt(o -> o.totalCost).sum();
+        float percentageValue = (float) totalValueDelivered / totalValuePlaced;
+        System.out.printf(
+            "Total value of placed order: %d, of delivered order: %d, Percentage monetary value: %f\n",
+            totalValuePlaced, totalValueDelivered, percentageValue);
+        System.out.printf("Total No. of orders %d, delivered %d by %d drones\n",
+            this.allOrders.size(), deliveredOrders.size(), plan.routes.size());
         
-        // write the flightpath visualisation geojson file
-        LineString pathLine = LineString.fromLngLats(pathPoints);
-        String pathGeojsonString =
-            FeatureCollection.fromFeature(Feature.fromGeometry(pathLine)).toJson();
-        geojsonManager.writeGeojsonFile(day, month, year, pathGeojsonString);
+        if (validateFlightpaths) {
+            validate(allFlightpaths);
+        }
+        writeToDatabase(deliveredOrders, allFlightpaths, dbManager::writeFleetFlightpath);
+        archive(allFlightpaths);
+    }
+    
+    /**
+     * Same as performDeliveries, but the drone returns to APPLETON TOWER and relaunches whenever
+     * the orders left do not fit in MAX_MOVES, so every order of the day is delivered. Sorties
+     * are planned together by FleetPlanner to need as few relaunches and moves as possible, and
+     * flown in decreasing order of the value they deliver.
+     * The flightpaths of all sorties are written to database tagged with the sorties, and each
+     * sortie gets its own visualisation geojson file.
+     */
+    public void performMultiSortieDeliveries() {
+        getAllOrders();
+        FleetPlanner.FleetPlan plan = FleetPlanner.forSorties(this).plan(this.allOrders);
+        List<Integer> byValue = new ArrayList<>();
+        for (int k = 0; k < plan.routes.size(); k++) {
+            byValue.add(k);
+        }
+        byValue.sort(Comparator.comparingInt((Integer k) ->
+            plan.routes.get(k).stream().mapToInt(o -> o.totalCost).sum()).reversed());
+        
+        List<DeliveryOrder> deliveredOrders = new ArrayList<>();
+        List<Flightpath> allFlightpaths = new ArrayList<>();
+        for (int sortie = 0; sortie < byValue.size(); sortie++) {
+            int k = byValue.get(sortie);
+            List<Flightpath> flightpaths = new ArrayList<>();
+            for (Flightpath flightpath : plan.flightpaths.get(k)) {
+                flightpaths.add(flightpath.asSortie(sortie));
+            }
+            System.out.printf("Sortie %d delivers %d orders with %d moves\n", sortie,
+                plan.routes.get(k).size(), flightpaths.size());
+            deliveredOrders.addAll(plan.routes.get(k));
+            allFlightpaths.addAll(flightpaths);
+            geojsonManager.writeSortieFlightpathGeojsonFile(sortie, day, month, year, flightpaths,
+                writeOrderFeatures);
+        }
+        int totalValuePlaced = this.allOrders.stream().mapToInt(o -> o.totalCost).sum();
+        int totalValueDelivered = deliveredOrders.stream().mapToInt(o -> o.totalCost).sum();
+        float percentageValue = (float) totalValueDelivered / totalValuePlaced;
+        System.out.printf(
+            "Total value of placed order: %d, of delivered order: %d, Percentage monetary value: %f\n",
+            totalValuePlaced, totalValueDelivered, percentageValue);
+        System.out.printf("Total No. of orders %d, delivered %d in %d sorties with %d moves\n",
+            this.allOrders.size(), deliveredOrders.size(), byValue.size(),
+            allFlightpaths.size());
+        
+        if (validateFlightpaths) {
+            validate(allFlightpaths);
+        }
+        writeToDatabase(deliveredOrders, allFlightpaths, dbManager::writeSortieFlightpath);
+        archive(allFlightpaths);
+    }
+    
+    /**
+     * Writes the plan to the date partitioned tables if the database uses them, otherwise
+     * replaces the deliveries and flightpath tables.
+     * @param deliveredOrders The orders delivered.
+     * @param flightpaths The moves of the drone, or of every drone of a fleet or every sortie of
+     *                    the drone one after the other.
+     * @param flightpathWriter The DBManager method replacing the flightpath table, with the
+     *                         drone ids or sorties if the moves are of a fleet or of sorties.
+     */
+    private void writeToDatabase(List<DeliveryOrder> deliveredOrders,
+                                 List<Flightpath> flightpaths,
+                                 Consumer<List<Flightpath>> flightpathWriter) {
+        if (dbManager.isPartitioned()) {
+            dbManager.writeDatedPlan(Date.valueOf(year + "-" + month + "-" + day),
+                deliveredOrders, flightpaths);
+            return;
+        }
+        dbManager.writeDeliveries(deliveredOrders);
+        flightpathWriter.accept(flightpaths);
+    }
+    
+    /**
+     * Appends the flightpaths to the route archive, if there is one.
+     * @param flightpaths The moves of the drone, or of every drone of a fleet one after the other.
+     */
+    private void archive(List<Flightpath> flightpaths) {
+        if (routeArchive == null) {
+            return;
+        }
+        try {
+            RouteArchive.append(routeArchive, Integer.parseInt(year + month + day), flightpaths);
+        }
+        catch (IOException | IllegalArgumentException e) {
+            System.err.printf("cannot archive the flightpaths to %s\n", routeArchive);
+            e.printStackTrace();
+        }
+    }
+    
+    /**
+     * Checks the flightpaths, printing every violation found and how long checking took.
+     * @param flightpaths The moves of the drone, or of every drone of a fleet one after the other.
+     */
+    private void validate(List<Flightpath> flightpaths) {
+        try (FlightpathValidator validator = new FlightpathValidator(
+            geojsonManager.getGeometryEngine(), Runtime.getRuntime().availableProcessors())) {
+            FlightpathValidator.Report report =
+                validator.validate(flightpaths, FlightpathValidator.EXACT_TOLERANCE);
+            for (FlightpathValidator.Violation violation : report.violations) {
+                System.err.printf("INVALID FLIGHTPATH, %s\n", violation);
+            }
+            System.out.printf("Validated flightpath: %s\n", report);
+        }
     }
     
     /**
@@ -0,0 +1,523 @@
+package uk.ac.ed.inf;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Plans the deliveries of a day for a fleet of drones all launching from and returning to
+ * APPLETON TOWER, each limited to MAX_MOVES moves. Orders are split into routes with the savings
+ * algorithm (Clarke and Wright), using the move counts predicted from the pathfinder's paths,
+ * then every route is improved with local search, and all routes are simulated in parallel.
+ * Routes found over budget after simulation give away orders to routes with moves to spare,
+ * orders are only dropped if no drone of the fleet can take them.
+ * <br><br>
+ * Planned for sorties instead, the routes are flown one after the other by the same drone,
+ * relaunching from APPLETON TOWER, so there are as many routes as it takes to deliver every
+ * order. Routes are then dissolved into the others where their orders fit, and single orders are
+ * moved between routes while that saves moves, so the day needs as few relaunches and moves as
+ * the predictions allow.
+ */
+public class FleetPlanner {
+    // routes are planned with some moves to spare, since predicted move counts are optimistic
+    private static final double PLANNING_BUDGET_FRACTION = 0.95;
+    private static final int HOVER_MOVES = 1;
+    
+    private final Drone drone;
+    private final int droneCount;
+    private final boolean sorties;  // whether the routes are sorties of one drone
+    private final String flightName;  // for printing, drone or sortie
+    private final int planningBudget;
+    // predicted moves of every leg planned so far, from -> to -> moves
+    private final Map<LongLat, Map<LongLat, Integer>> legMoves = new HashMap<>();
+    // orders already moved between routes once, they are dropped rather than moved again
+    private final Set<DeliveryOrder> movedOrders = new HashSet<>();
+    
+    /**
+     * The result of planning, routes[k] is flown by drone k, or as sortie k, producing
+     * flightpaths[k].
+     */
+    public static class FleetPlan {
+        public final List<List<DeliveryOrder>> routes;
+        public final List<List<Flightpath>> flightpaths;
+        public final List<DeliveryOrder> droppedOrders;
+        
+        FleetPlan(List<List<DeliveryOrder>> routes, List<List<Flightpath>> flightpaths,
+                  List<DeliveryOrder> droppedOrders) {
+            this.routes = routes;
+            this.flightpaths = flightpaths;
+            this.droppedOrders = droppedOrders;
+        }
+    }
+    
+    /**
+     * @param drone The drone used to predict and simulate moves, the same for every route since
+     *              the drones of the fleet are identical.
+     * @param droneCount The number of drones in the fleet.
+     */
+    public FleetPlanner(Drone drone, int droneCount) {
+        this(drone, droneCount, false);
+    }
+    
+    /**
+     * @param drone The drone used to predict and simulate moves.
+     * @param droneCount The number of drones in the fleet.
+     * @param sorties Whether the routes are sorties of one drone instead.
+     */
+    private FleetPlanner(Drone drone, int droneCount, boolean sorties) {
+        this.drone = drone;
+        this.droneCount = droneCount;
+        this.sorties = sorties;
+        this.flightName = sorties ? "sortie" : "drone";
+        this.planningBudget = (int) (Drone.MAX_MOVES * PLANNING_BUDGET_FRACTION);
+    }
+    
+    /**
+     * @param drone The drone flying every sortie, also used to predict and simulate moves.
+     * @return A planner splitting the day into as many sorties of the drone as it takes to
+     * deliver every order, routes[k] being sortie k.
+     */
+    public static FleetPlanner forSorties(Drone drone) {
+        return new FleetPlanner(drone, Integer.MAX_VALUE, true);
+    }
+    
+    /**
+     * @param orders The orders of the day.
+     * @return The routes of the drones and their flightpaths, each route within MAX_MOVES.
+     */
+    public FleetPlan plan(List<DeliveryOrder> orders) {
+        List<DeliveryOrder> droppedOrders = new ArrayList<>();
+        predictAllLegMoves(orders);
+        List<List<DeliveryOrder>> routes = buildSavingsRoutes(orders);
+        System.out.printf("savings algorithm found %d routes for %d orders\n", routes.size(),
+            orders.size());
+        if (routes.size() > droneCount) {
+            System.out.printf("need at least %d drones to deliver every order, have %d\n",
+                routes.size(), droneCount);
+            routes = fitRoutesToFleet(routes, droppedOrders);
+        }
+        if (sorties) {
+            eliminateRoutes(routes);
+            relocateOrders(routes);
+            System.out.printf("joined into %d sorties of %d predicted moves in total\n",
+                routes.size(), routes.stream().mapToInt(this::getRouteMoves).sum());
+        }
+        for (List<DeliveryOrder> route : routes) {
+            improveRoute(route);
+        }
+        
+        List<List<Flightpath>> flightpaths = new ArrayList<>(Collections.nCopies(routes.size(),
+            null));
+        Set<Integer> toSimulate = new TreeSet<>();
+        for (int k = 0; k < routes.size(); k++) {
+            toSimulate.add(k);
+        }
+        while (!toSimulate.isEmpty()) {
+            simulateRoutes(routes, flightpaths, toSimulate);
+            toSimulate.clear();
+            int simulatedCount = routes.size();  // rebalancing may add sorties, simulated next
+            for (int k = 0; k < simulatedCount; k++) {
+                if (flightpaths.get(k).size() > Drone.MAX_MOVES) {
+                    System.out.printf("%s %d cannot finish its route, needs %d moves\n",
+                        flightName, k, flightpaths.get(k).size());
+                    toSimulate.addAll(rebalanceRoute(k, routes, flightpaths, droppedOrders));
+                }
+            }
+        }
+        return new FleetPlan(routes, flightpaths, droppedOrders);
+    }
+    
+    /**
+     * Predicts the moves of every leg between APPLETON TOWER and the stops of the orders up
+     * front, since the savings algorithm needs nearly all of them, with one pathfinder search
+     * per location.
+     * @param orders The orders of the day.
+     */
+    private void predictAllLegMoves(List<DeliveryOrder> orders) {
+        Set<LongLat> locations = new LinkedHashSet<>();
+        locations.add(Drone.APPLETON_TOWER);
+        for (RouteStop stop : RouteStop.ofRoute(orders)) {
+            locations.add(stop.location);
+        }
+        long startTime = System.nanoTime();
+        drone.predictAllLegMoves(new ArrayList<>(locations)).forEach((from, toMoves) ->
+            legMoves.computeIfAbsent(from, key -> new HashMap<>()).putAll(toMoves));
+        System.out.printf("predicted the legs between %d locations in %.1f ms\n",
+            locations.size(), (System.nanoTime() - startTime) / 1e6);
+    }
+    
+    /**
+     * @param from The position to start the leg from.
+     * @param to The position to end the leg at.
+     * @return The predicted number of moves for the leg, not including hovering.
+     */
+    private int getLegMoves(LongLat from, LongLat to) {
+        return legMoves.computeIfAbsent(from, key -> new HashMap<>())
+            .computeIfAbsent(to, key -> drone.predictLegMoves(from, to));
+    }
+    
+    /**
+     * @param order The order to deliver.
+     * @return The predicted number of moves from the first pickup of the order to its delivery,
+     * including all hovering.
+     */
+    private int getOrderMoves(DeliveryOrder order) {
+        int moves = HOVER_MOVES;  // at first pickup
+        LongLat lastPickup = order.getPickup1();
+        if (order.getPickup2() != null) {
+            moves += getLegMoves(lastPickup, order.getPickup2()) + HOVER_MOVES;
+            lastPickup = order.getPickup2();
+        }
+        return moves + getLegMoves(lastPickup, order.deliveryLngLat) + HOVER_MOVES;
+    }
+    
+    /**
+     * @param route The orders to deliver in order.
+     * @return The predicted number of moves for the whole route, from and back to APPLETON TOWER.
+     */
+    private int getRouteMoves(List<DeliveryOrder> route) {
+        if (route.isEmpty()) {
+            return 0;  // not flown at all
+        }
+        int moves = 0;
+        LongLat currentPosition = Drone.APPLETON_TOWER;
+        for (DeliveryOrder order : route) {
+            moves += getLegMoves(currentPosition, order.getPickup1()) + getOrderMoves(order);
+            currentPosition = order.deliveryLngLat;
+        }
+        return moves + getLegMoves(currentPosition, Drone.APPLETON_TOWER);
+    }
+    
+    /**
+     * Clarke and Wright savings algorithm. Every order starts in a route of its own, then routes
+     * are joined end to start in decreasing order of the moves saved by not returning to
+     * APPLETON TOWER in between, as long as the joined route stays within the planning budget.
+     * @param orders The orders to split into routes.
+     * @return The routes, as few as the savings algorithm manages.
+     */
+    private List<List<DeliveryOrder>> buildSavingsRoutes(List<DeliveryOrder> orders) {
+        int orderCount = orders.size();
+        List<List<DeliveryOrder>> routeOf = new ArrayList<>();
+        int[] routeMoves = new int[orderCount];  // valid for the first order of every route
+        List<int[]> savings = new ArrayList<>();  // {from order, to order, moves saved}
+        for (int i = 0; i < orderCount; i++) {
+            routeOf.add(new ArrayList<>(Collections.singletonList(orders.get(i))));
+            routeMoves[i] = getRouteMoves(routeOf.get(i));
+        }
+        for (int i = 0; i < orderCount; i++) {
+            LongLat delivery = orders.get(i).deliveryLngLat;
+            for (int j = 0; j < orderCount; j++) {
+                if (i == j) {
+                    continue;
+                }
+                LongLat pickup = orders.get(j).getPickup1();
+                int saving = getLegMoves(delivery, Drone.APPLETON_TOWER) +
+                    getLegMoves(Drone.APPLETON_TOWER, pickup) - getLegMoves(delivery, pickup);
+                savings.add(new int[] {i, j, saving});
+            }
+        }
+        savings.sort((saving1, saving2) -> Integer.compare(saving2[2], saving1[2]));
+        
+        Map<DeliveryOrder, Integer> orderIndices = new HashMap<>();
+        for (int i = 0; i < orderCount; i++) {
+            orderIndices.put(orders.get(i), i);
+        }
+        for (int[] saving : savings) {
+            List<DeliveryOrder> route1 = routeOf.get(saving[0]);
+            List<DeliveryOrder> route2 = routeOf.get(saving[1]);
+            // can only join the end of one route to the start of another
+            if (route1 == route2 || route1.get(route1.size() - 1) != orders.get(saving[0]) ||
+                route2.get(0) != orders.get(saving[1])) {
+                continue;
+            }
+            int first1 = orderIndices.get(route1.get(0));
+            int joinedMoves = routeMoves[first1] + routeMoves[saving[1]] - saving[2];
+            if (joinedMoves > planningBudget) {
+                continue;
+            }
+            route1.addAll(route2);
+            for (DeliveryOrder order : route2) {
+                routeOf.set(orderIndices.get(order), route1);
+            }
+            routeMoves[first1] = joinedMoves;
+        }
+        
+        List<List<DeliveryOrder>> routes = new ArrayList<>();
+        for (int i = 0; i < orderCount; i++) {
+            if (routeOf.get(i).get(0) == orders.get(i)) {
+                routes.add(routeOf.get(i));
+            }
+        }
+        return routes;
+    }
+    
+    /**
+     * Keeps the routes of highest monetary value, one per drone, and inserts the orders of the
+     * other routes into them where there are moves to spare.
+     * @param routes The routes, more than there are drones.
+     * @param droppedOrders Orders that cannot be inserted anywhere are added to this list.
+     * @return One route per drone.
+     */
+    private List<List<DeliveryOrder>> fitRoutesToFleet(List<List<DeliveryOrder>> routes,
+                                                       List<DeliveryOrder> droppedOrders) {
+        List<List<DeliveryOrder>> sortedRoutes = new ArrayList<>(routes);
+        sortedRoutes.sort(Comparator.comparingInt(
+            (List<DeliveryOrder> route) -> route.stream().mapToInt(o -> o.totalCost).sum())
+            .reversed());
+        List<List<DeliveryOrder>> keptRoutes = new ArrayList<>(
+            sortedRoutes.subList(0, droneCount));
+        List<DeliveryOrder> spilledOrders = new ArrayList<>();
+        for (List<DeliveryOrder> route : sortedRoutes.subList(droneCount, sortedRoutes.size())) {
+            spilledOrders.addAll(route);
+        }
+        spilledOrders.sort(Comparator.comparingInt((DeliveryOrder o) -> o.totalCost).reversed());
+        for (DeliveryOrder order : spilledOrders) {
+            if (insertCheapest(order, keptRoutes, -1, null) == -1) {
+                System.out.printf("no drone can take order %s, dropping it\n", order.orderNo);
+                droppedOrders.add(order);
+            }
+        }
+        return keptRoutes;
+    }
+    
+    /**
+     * Dissolves routes into the others as long as all their orders fit elsewhere within the
+     * planning budget, trying the routes with fewest orders first, since every route takes a
+     * relaunch from APPLETON TOWER.
+     * @param routes The routes, modified in place.
+     */
+    private void eliminateRoutes(List<List<DeliveryOrder>> routes) {
+        boolean eliminated = true;
+        while (eliminated && routes.size() > 1) {
+            eliminated = false;
+            List<List<DeliveryOrder>> bySize = new ArrayList<>(routes);
+            bySize.sort(Comparator.comparingInt(List::size));
+            for (List<DeliveryOrder> route : bySize) {
+                List<List<DeliveryOrder>> others = new ArrayList<>(routes);
+                others.removeIf(other -> other == route);
+                List<List<DeliveryOrder>> before = new ArrayList<>();
+                for (List<DeliveryOrder> other : others) {
+                    before.add(new ArrayList<>(other));
+                }
+                boolean fits = true;
+                for (DeliveryOrder order : route) {
+                    if (insertCheapest(order, others, -1, null) == -1) {
+                        fits = false;
+                        break;
+                    }
+                }
+                if (fits) {
+                    routes.removeIf(other -> other == route);
+                    eliminated = true;
+                    break;
+                }
+                for (int k = 0; k < others.size(); k++) {
+                    others.get(k).clear();
+                    others.get(k).addAll(before.get(k));
+                }
+            }
+        }
+    }
+    
+    /**
+     * Moves single orders to the route they add the fewest predicted moves to, as long as that
+     * saves moves overall. Routes left empty are removed.
+     * @param routes The routes, modified in place.
+     */
+    private void relocateOrders(List<List<DeliveryOrder>> routes) {
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            for (int k = 0; k < routes.size(); k++) {
+                List<DeliveryOrder> route = routes.get(k);
+                for (int i = 0; i < route.size(); i++) {
+                    int[] routeMoves = new int[routes.size()];
+                    for (int j = 0; j < routes.size(); j++) {
+                        routeMoves[j] = getRouteMoves(routes.get(j));
+                    }
+                    DeliveryOrder order = route.remove(i);
+                    int savedMoves = routeMoves[k] - getRouteMoves(route);
+                    int newRoute = insertCheapest(order, routes, k, null);
+                    if (newRoute == -1) {
+                        route.add(i, order);
+                        continue;
+                    }
+                    if (getRouteMoves(routes.get(newRoute)) - routeMoves[newRoute] < savedMoves) {
+                        improved = true;
+                        i--;
+                        continue;
+                    }
+                    routes.get(newRoute).remove(order);
+                    route.add(i, order);
+                }
+            }
+            routes.removeIf(List::isEmpty);
+        }
+    }
+    
+    /**
+     * Inserts the order where it adds the fewest predicted moves, among the routes that stay
+     * within the planning budget.
+     * @param order The order to insert.
+     * @param routes The routes to insert into.
+     * @param excludedRoute The index of a route not to insert into, -1 if none.
+     * @param actualMoves The actual number of moves of every route if already simulated, used
+     *                    instead of the prediction for the route's moves before insertion.
+     *                    null to use predictions only.
+     * @return The index of the route the order is inserted into, -1 if it fits nowhere.
+     */
+    private int insertCheapest(DeliveryOrder order, List<List<DeliveryOrder>> routes,
+                                    int excludedRoute, int[] actualMoves) {
+        int bestRoute = -1;
+        int bestPosition = -1;
+        int bestAddedMoves = Integer.MAX_VALUE;
+        for (int k = 0; k < routes.size(); k++) {
+            if (k == excludedRoute) {
+                continue;
+            }
+            List<DeliveryOrder> route = routes.get(k);
+            int routeMoves = getRouteMoves(route);
+            int baseMoves = actualMoves == null ? routeMoves : Math.max(routeMoves, actualMoves[k]);
+            for (int position = 0; position <= route.size(); position++) {
+                route.add(position, order);
+                int addedMoves = getRouteMoves(route) - routeMoves;
+                route.remove(position);
+                if (baseMoves + addedMoves <= planningBudget && addedMoves < bestAddedMoves) {
+                    bestRoute = k;
+                    bestPosition = position;
+                    bestAddedMoves = addedMoves;
+                }
+            }
+        }
+        if (bestRoute != -1) {
+            routes.get(bestRoute).add(bestPosition, order);
+        }
+        return bestRoute;
+    }
+    
+    /**
+     * Local search on the order of deliveries within a route, relocating single orders and
+     * swapping pairs of orders while that reduces the predicted moves.
+     * @param route The route to improve, modified in place.
+     */
+    private void improveRoute(List<DeliveryOrder> route) {
+        int currentMoves = getRouteMoves(route);
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            for (int i = 0; i < route.size(); i++) {
+                for (int j = 0; j < route.size(); j++) {
+                    if (i == j) {
+                        continue;
+                    }
+                    // relocate order i to position j
+                    DeliveryOrder order = route.remove(i);
+                    route.add(j, order);
+                    int newMoves = getRouteMoves(route);
+                    if (newMoves < currentMoves) {
+                        currentMoves = newMoves;
+                        improved = true;
+                        continue;
+                    }
+                    route.remove(j);
+                    route.add(i, order);
+                    // swap orders i and j
+                    Collections.swap(route, i, j);
+                    newMoves = getRouteMoves(route);
+                    if (newMoves < currentMoves) {
+                        currentMoves = newMoves;
+                        improved = true;
+                        continue;
+                    }
+                    Collections.swap(route, i, j);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Moves the most cost ineffective order of an over budget route to another route with moves
+     * to spare, or to a new sortie if planning for sorties, or drops it if there is none.
+     * @param k The index of the over budget route.
+     * @param routes All routes, modified in place.
+     * @param flightpaths The simulated flightpaths of all routes.
+     * @param droppedOrders The order is added to this list if it is dropped.
+     * @return The indices of the routes that changed and need simulating again.
+     */
+    private List<Integer> rebalanceRoute(int k, List<List<DeliveryOrder>> routes,
+                                         List<List<Flightpath>> flightpaths,
+                                         List<DeliveryOrder> droppedOrders) {
+        List<DeliveryOrder> route = routes.get(k);
+        int routeMoves = getRouteMoves(route);
+        DeliveryOrder mostIneffectiveOrder = null;
+        double lowestRatio = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < route.size(); i++) {
+            DeliveryOrder order = route.remove(i);
+            // monetary value per move saved by not delivering the order in this route
+            double ratio = (double) order.totalCost / Math.max(routeMoves - getRouteMoves(route), 1);
+            route.add(i, order);
+            if (ratio < lowestRatio) {
+                lowestRatio = ratio;
+                mostIneffectiveOrder = order;
+            }
+        }
+        route.remove(mostIneffectiveOrder);
+        int[] actualMoves = new int[routes.size()];
+        for (int i = 0; i < routes.size(); i++) {
+            // sorties added by earlier rebalancing are not simulated yet, predictions do then
+            actualMoves[i] = flightpaths.get(i) == null ? 0 : flightpaths.get(i).size();
+        }
+        boolean firstMove = movedOrders.add(mostIneffectiveOrder);
+        int newRoute = firstMove ? insertCheapest(mostIneffectiveOrder, routes, k, actualMoves) :
+            -1;
+        if (newRoute == -1 && firstMove && sorties) {
+            newRoute = routes.size();
+            routes.add(new ArrayList<>(Collections.singletonList(mostIneffectiveOrder)));
+            flightpaths.add(null);  // simulated next
+        }
+        if (newRoute == -1) {
+            System.out.printf("no %s can take order %s, dropping it\n", flightName,
+                mostIneffectiveOrder.orderNo);
+            droppedOrders.add(mostIneffectiveOrder);
+            return Collections.singletonList(k);
+        }
+        System.out.printf("moving order %s from %s %d to %s %d\n",
+            mostIneffectiveOrder.orderNo, flightName, k, flightName, newRoute);
+        return Arrays.asList(k, newRoute);
+    }
+    
+    /**
+     * Simulates the routes on separate threads, one drone per route.
+     * @param routes All routes.
+     * @param flightpaths The flightpaths of all routes, the simulated ones are replaced.
+     * @param toSimulate The indices of the routes to simulate.
+     */
+    private void simulateRoutes(List<List<DeliveryOrder>> routes,
+                                List<List<Flightpath>> flightpaths, Set<Integer> toSimulate) {
+        int threadCount = Math.max(1, Math.min(toSimulate.size(),
+            Runtime.getRuntime().availableProcessors()));
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        Map<Integer, Future<List<Flightpath>>> futures = new TreeMap<>();
+        for (int k : toSimulate) {
+            List<DeliveryOrder> route = new ArrayList<>(routes.get(k));
+            futures.put(k, executor.submit(() -> drone.simulateRoute(route, k)));
+        }
+        try {
+            for (Map.Entry<Integer, Future<List<Flightpath>>> entry : futures.entrySet()) {
+                flightpaths.set(entry.getKey(), entry.getValue().get());
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while simulating the routes", e);
+        }
+        catch (ExecutionException e) {
+            throw new IllegalStateException("cannot simulate the routes", e.getCause());
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -9,6 +9,8 @@ public class Flightpath {
     public final double fromLng, fromLat;
     public final int angle;
     public final double toLng, toLat;
+    public final int droneId;  // which drone of the fleet flew this, 0 if there is only one
+    public final int sortie;  // which flight of the drone this is part of, 0 if it flies once
     
     /**
      * @param orderNo the order to which the drone is associated when this flightpath took place.
@@ -17,12 +19,54 @@ public class Flightpath {
      * @param to The position of drone flying to.
      */
     public Flightpath(String orderNo, LongLat from, int angle, LongLat to) {
+        this(orderNo, from, angle, to, 0);
+    }
+    
+    /**
+     * @param orderNo the order to which the drone is associated when this flightpath took place.
+     * @param from The position of drone flying from.
+     * @param angle the angle in which drone was flying.
+     * @param to The position of drone flying to.
+     * @param droneId The id of the drone within its fleet.
+     */
+    public Flightpath(String orderNo, LongLat from, int angle, LongLat to, int droneId) {
+        this(orderNo, from, angle, to, droneId, 0);
+    }
+    
+    /**
+     * @param orderNo the order to which the drone is associated when this flightpath took place.
+     * @param from The position of drone flying from.
+     * @param angle the angle in which drone was flying.
+     * @param to The position of drone flying to.
+     * @param droneId The id of the drone within its fleet.
+     * @param sortie The index of the drone's flight from APPLETON TOWER back to it, in the day.
+     */
+    public Flightpath(String orderNo, LongLat from, int angle, LongLat to, int droneId,
+                      int sortie) {
         this.orderNo = orderNo;
         this.fromLng = from.longitude;
         this.fromLat = from.latitude;
         this.angle = angle;
         this.toLng = to.longitude;
         this.toLat = to.latitude;
+        this.droneId = droneId;
+        this.sortie = sortie;
+    }
+    
+    /**
+     * @param sortie The index of the flight within the day.
+     * @return The same move, flown by the only drone as the given sortie.
+     */
+    public Flightpath asSortie(int sortie) {
+        return new Flightpath(orderNo, getFromLongLat(), angle, getToLongLat(), 0, sortie);
+    }
+    
+    /**
+     * @param other Another move.
+     * @return Whether the moves are part of the same flight, i.e. of the same drone and sortie.
+     */
+    public boolean isSameFlight(Flightpath other) {
+        return droneId == other.droneId && sortie == other.sortie;
     }
     
     public LongLat getFromLongLat() {
@@ -0,0 +1,48 @@
+package uk.ac.ed.inf;
+
+import com.google.gson.stream.JsonReader;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming reader of the flight in a visualisation geojson, as written by
+ * FlightpathGeojsonWriter, turning the LineString of the whole flight back into a flight log.
+ * Consecutive equal points are a hover, any other pair of points a move at the angle closest to
+ * its direction. The geojson does not keep orderNos, so all moves are tagged with "".
+ * Should not be instantiated, methods are all static.
+ */
+public class FlightpathGeojsonReader {
+    private static final int HOVER_ANGLE = -999;
+    
+    /**
+     * @param reader The visualisation geojson, the first LineString in it is the flight.
+     * @return The flight log, empty if there is no LineString.
+     * @throws IOException If the document cannot be read.
+     */
+    public static List<Flightpath> readFlight(Reader reader) throws IOException {
+        double[][] found = new double[1][];
+        GeojsonWalker.walk(new JsonReader(reader), GeojsonWalker::readPositions,
+            (type, line) -> {
+                if ("LineString".equals(type) && line != null) {
+                    found[0] = line;
+                    return true;
+                }
+                return false;
+            });
+        double[] line = found[0];
+        List<Flightpath> flightpaths = new ArrayList<>();
+        if (line == null) {
+            return flightpaths;
+        }
+        for (int i = 2; i + 1 < line.length; i += 2) {
+            LongLat from = new LongLat(line[i - 2], line[i - 1]);
+            LongLat to = new LongLat(line[i], line[i + 1]);
+            int angle = from.equals(to) ? HOVER_ANGLE : from.degreeTo(to);
+            flightpaths.add(new Flightpath("", from, angle, to));
+        }
+        return flightpaths;
+    }
+}
@@ -0,0 +1,150 @@
+package uk.ac.ed.inf;
+
+import com.google.gson.stream.JsonWriter;
+import com.mapbox.geojson.utils.GeoJsonUtils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes the flight visualisation geojson straight from the flight log, one coordinate at a time,
+ * so no document (or list of points) the size of the flight is ever held in memory.
+ * The output is the same as the mapbox serialisation of a FeatureCollection holding one
+ * LineString of the whole flight. Optionally, one LineString per order (split at hovers) and one
+ * Point per hover follow, each with the orderNo as property.
+ */
+public class FlightpathGeojsonWriter implements AutoCloseable {
+    private static final int HOVER_ANGLE = -999;
+    private static final int BUFFER_SIZE = 1 << 16;
+    
+    private final JsonWriter jsonWriter;
+    
+    /**
+     * Opens the file and writes the start of the FeatureCollection.
+     * @param path The file to write, replaced if it already exists.
+     * @throws IOException If the file cannot be opened or written.
+     */
+    public FlightpathGeojsonWriter(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.jsonWriter = new JsonWriter(new BufferedWriter(
+            Channels.newWriter(channel, StandardCharsets.UTF_8), BUFFER_SIZE));
+        jsonWriter.beginObject();
+        jsonWriter.name("type").value("FeatureCollection");
+        jsonWriter.name("features").beginArray();
+    }
+    
+    /**
+     * Writes the LineString feature of the whole flight.
+     * @param flightpaths The flight log, every move starting where the previous ended.
+     * @throws IOException If the file cannot be written.
+     */
+    public void writeFlight(Iterable<Flightpath> flightpaths) throws IOException {
+        beginFeature("LineString");
+        boolean first = true;
+        for (Flightpath flightpath : flightpaths) {
+            if (first) {
+                // add first starting point, should be APPLETON TOWER
+                writeCoordinate(flightpath.fromLng, flightpath.fromLat);
+                first = false;
+            }
+            // every next ToLongLat should be the same as the previous FromLongLat
+            // this way there should be no duplicate points
+            writeCoordinate(flightpath.toLng, flightpath.toLat);
+        }
+        endFeature(null);
+    }
+    
+    /**
+     * Writes one LineString feature for every stretch of the flight between hovers that belongs
+     * to the same order, and one Point feature for every hover.
+     * @param flightpaths The flight log, every move starting where the previous ended.
+     * @throws IOException If the file cannot be written.
+     */
+    public void writeOrderFeatures(Iterable<Flightpath> flightpaths) throws IOException {
+        String segmentOrderNo = null;  // null when no segment is being written
+        for (Flightpath flightpath : flightpaths) {
+            if (flightpath.angle == HOVER_ANGLE) {
+                if (segmentOrderNo != null) {
+                    endFeature(segmentOrderNo);
+                    segmentOrderNo = null;
+                }
+                beginFeature("Point");
+                jsonWriter.value(GeoJsonUtils.trim(flightpath.fromLng));
+                jsonWriter.value(GeoJsonUtils.trim(flightpath.fromLat));
+                endFeature(flightpath.orderNo);
+                continue;
+            }
+            if (segmentOrderNo != null && !segmentOrderNo.equals(flightpath.orderNo)) {
+                endFeature(segmentOrderNo);
+                segmentOrderNo = null;
+            }
+            if (segmentOrderNo == null) {
+                beginFeature("LineString");
+                writeCoordinate(flightpath.fromLng, flightpath.fromLat);
+                segmentOrderNo = flightpath.orderNo;
+            }
+            writeCoordinate(flightpath.toLng, flightpath.toLat);
+        }
+        if (segmentOrderNo != null) {
+            endFeature(segmentOrderNo);
+        }
+    }
+    
+    /**
+     * Writes everything up to and including the start of the geometry's coordinates.
+     * @param geometryType The geojson type of the geometry of the feature.
+     * @throws IOException If the file cannot be written.
+     */
+    private void beginFeature(String geometryType) throws IOException {
+        jsonWriter.beginObject();
+        jsonWriter.name("type").value("Feature");
+        jsonWriter.name("geometry").beginObject();
+        jsonWriter.name("type").value(geometryType);
+        jsonWriter.name("coordinates").beginArray();
+    }
+    
+    /**
+     * Writes everything from the end of the geometry's coordinates to the end of the feature.
+     * @param orderNo The orderNo property of the feature, null if it has no properties.
+     * @throws IOException If the file cannot be written.
+     */
+    private void endFeature(String orderNo) throws IOException {
+        jsonWriter.endArray();
+        jsonWriter.endObject();
+        jsonWriter.name("properties").beginObject();
+        if (orderNo != null) {
+            jsonWriter.name("orderNo").value(orderNo);
+        }
+        jsonWriter.endObject();
+        jsonWriter.endObject();
+    }
+    
+    /**
+     * @param lng The longitude, rounded the same way as mapbox does.
+     * @param lat The latitude, rounded the same way as mapbox does.
+     * @throws IOException If the file cannot be written.
+     */
+    private void writeCoordinate(double lng, double lat) throws IOException {
+        jsonWriter.beginArray();
+        jsonWriter.value(GeoJsonUtils.trim(lng));
+        jsonWriter.value(GeoJsonUtils.trim(lat));
+        jsonWriter.endArray();
+    }
+    
+    /**
+     * Writes the end of the FeatureCollection and closes the file.
+     * @throws IOException If the file cannot be written.
+     */
+    @Override
+    public void close() throws IOException {
+        jsonWriter.endArray();
+        jsonWriter.endObject();
+        jsonWriter.close();
+    }
+}
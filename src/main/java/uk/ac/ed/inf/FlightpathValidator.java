@@ -0,0 +1,245 @@
+package uk.ac.ed.inf;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks a finished flight log move by move: every angle is a multiple of 10 in [0, 350] or a
+ * hover, every move goes MOVE_DISTANCE in its direction (or nowhere for a hover), starts where
+ * the previous move ended, never crosses a no fly zone and stays within the confinement area.
+ * Every flight (the moves of one drone) must start at APPLETON TOWER, end close to it and stay
+ * within MAX_MOVES, and the orderNo a move is tagged with may only change after a hover, which
+ * holds for visits shared by several orders too.
+ * <br><br>
+ * Moves only depend on the move before them, so the log is split into chunks checked in
+ * parallel. Safe to use from several threads.
+ */
+public class FlightpathValidator implements AutoCloseable {
+    private static final int HOVER_ANGLE = -999;
+    private static final int CHUNK_SIZE = 512;  // moves checked by one task
+    // positions closer than this, in degrees, along both axes are the same
+    public static final double EXACT_TOLERANCE = 1e-12;
+    // mapbox rounds the coordinates written to geojson to 7 decimal places
+    public static final double GEOJSON_TOLERANCE = 1e-6;
+    
+    private final GeometryEngine geometryEngine;
+    private final ExecutorService executor;
+    private final AtomicLong totalMoves = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong totalViolations = new AtomicLong();
+    
+    /**
+     * A problem with one move of the flight log.
+     */
+    public static class Violation {
+        public final int moveIndex;  // index of the move in the flight log
+        public final String problem;
+        
+        Violation(int moveIndex, String problem) {
+            this.moveIndex = moveIndex;
+            this.problem = problem;
+        }
+        
+        @Override
+        public String toString() {
+            return String.format("move %d: %s", moveIndex, problem);
+        }
+    }
+    
+    /**
+     * The outcome of checking one flight log.
+     */
+    public static class Report {
+        public final List<Violation> violations;  // ordered by move index
+        public final int moveCount;
+        public final long elapsedNanos;
+        
+        Report(List<Violation> violations, int moveCount, long elapsedNanos) {
+            this.violations = violations;
+            this.moveCount = moveCount;
+            this.elapsedNanos = elapsedNanos;
+        }
+        
+        /**
+         * @return Whether no move violates anything.
+         */
+        public boolean isValid() {
+            return violations.isEmpty();
+        }
+        
+        @Override
+        public String toString() {
+            return String.format("%d moves checked in %.2f ms (%.0f moves/s), %d violations",
+                moveCount, elapsedNanos / 1e6, moveCount / Math.max(elapsedNanos / 1e9, 1e-9),
+                violations.size());
+        }
+    }
+    
+    /**
+     * @param geometryEngine The no fly zones and confinement area to check against.
+     * @param threadCount The number of threads checking chunks of moves.
+     */
+    public FlightpathValidator(GeometryEngine geometryEngine, int threadCount) {
+        this.geometryEngine = geometryEngine;
+        this.executor = Executors.newFixedThreadPool(Math.max(1, threadCount));
+    }
+    
+    /**
+     * @param flightpaths The flight log, the moves of every drone in a fleet, or of every sortie
+     *                    of a drone, one after the other.
+     * @param tolerance How far apart, in degrees, positions that should be the same may be, e.g.
+     *                  EXACT_TOLERANCE for flight logs from memory or database and
+     *                  GEOJSON_TOLERANCE for those read from geojson.
+     * @return The violations found, with the time taken.
+     */
+    public Report validate(List<Flightpath> flightpaths, double tolerance) {
+        long startTime = System.nanoTime();
+        List<Violation> violations = new ArrayList<>(checkFlightLengths(flightpaths));
+        List<Future<List<Violation>>> chunks = new ArrayList<>();
+        for (int start = 0; start < flightpaths.size(); start += CHUNK_SIZE) {
+            int chunkStart = start;
+            int chunkEnd = Math.min(flightpaths.size(), start + CHUNK_SIZE);
+            chunks.add(executor.submit(() ->
+                checkMoves(flightpaths, chunkStart, chunkEnd, tolerance)));
+        }
+        try {
+            for (Future<List<Violation>> chunk : chunks) {
+                violations.addAll(chunk.get());
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while validating flightpaths", e);
+        }
+        catch (ExecutionException e) {
+            throw new IllegalStateException("cannot validate flightpaths", e.getCause());
+        }
+        violations.sort((v1, v2) -> Integer.compare(v1.moveIndex, v2.moveIndex));
+        long elapsedNanos = System.nanoTime() - startTime;
+        totalMoves.addAndGet(flightpaths.size());
+        totalNanos.addAndGet(elapsedNanos);
+        totalViolations.addAndGet(violations.size());
+        return new Report(violations, flightpaths.size(), elapsedNanos);
+    }
+    
+    /**
+     * @return The moves checked, violations found and throughput over every validation so far.
+     */
+    public String getSummary() {
+        return String.format("%d moves checked in %.2f ms (%.0f moves/s), %d violations",
+            totalMoves.get(), totalNanos.get() / 1e6,
+            totalMoves.get() / Math.max(totalNanos.get() / 1e9, 1e-9), totalViolations.get());
+    }
+    
+    /**
+     * @param flightpaths The flight log.
+     * @return A violation at the last move of every flight going over MAX_MOVES.
+     */
+    private static List<Violation> checkFlightLengths(List<Flightpath> flightpaths) {
+        List<Violation> violations = new ArrayList<>();
+        int flightStart = 0;
+        for (int i = 0; i < flightpaths.size(); i++) {
+            if (isFlightEnd(flightpaths, i) && i + 1 - flightStart > Drone.MAX_MOVES) {
+                violations.add(new Violation(i, String.format(
+                    "drone %d sortie %d makes %d moves, over %d", flightpaths.get(i).droneId,
+                    flightpaths.get(i).sortie, i + 1 - flightStart, Drone.MAX_MOVES)));
+            }
+            if (isFlightEnd(flightpaths, i)) {
+                flightStart = i + 1;
+            }
+        }
+        return violations;
+    }
+    
+    /**
+     * @param flightpaths The flight log.
+     * @param start The index of the first move to check.
+     * @param end The index after the last move to check.
+     * @param tolerance How far apart positions that should be the same may be.
+     * @return The violations of the moves in [start, end), in order.
+     */
+    private List<Violation> checkMoves(List<Flightpath> flightpaths, int start, int end,
+                                       double tolerance) {
+        List<Violation> violations = new ArrayList<>();
+        for (int i = start; i < end; i++) {
+            Flightpath move = flightpaths.get(i);
+            LongLat from = move.getFromLongLat();
+            LongLat to = move.getToLongLat();
+            boolean flightStart = i == 0 || !flightpaths.get(i - 1).isSameFlight(move);
+            if (flightStart) {
+                if (!isSamePosition(from, Drone.APPLETON_TOWER, tolerance)) {
+                    violations.add(new Violation(i, "flight does not start at APPLETON TOWER"));
+                }
+            }
+            else {
+                Flightpath previous = flightpaths.get(i - 1);
+                if (!isSamePosition(from, previous.getToLongLat(), tolerance)) {
+                    violations.add(new Violation(i, "does not start where the last move ended"));
+                }
+                if (!move.orderNo.equals(previous.orderNo) && previous.angle != HOVER_ANGLE) {
+                    violations.add(new Violation(i, String.format(
+                        "changes from order %s to %s without hovering", previous.orderNo,
+                        move.orderNo)));
+                }
+            }
+            if (isFlightEnd(flightpaths, i) && !to.closeTo(Drone.APPLETON_TOWER)) {
+                violations.add(new Violation(i, "flight does not end close to APPLETON TOWER"));
+            }
+            
+            if (move.angle == HOVER_ANGLE) {
+                if (!isSamePosition(from, to, tolerance)) {
+                    violations.add(new Violation(i, "moves while hovering"));
+                }
+            }
+            else if (move.angle < 0 || move.angle > 350 || move.angle % 10 != 0) {
+                violations.add(new Violation(i, String.format("illegal angle %d", move.angle)));
+                continue;  // cannot tell where it should have gone
+            }
+            else if (!isSamePosition(from.nextPosition(move.angle), to, tolerance)) {
+                violations.add(new Violation(i, String.format(
+                    "does not move %s degrees at angle %d", LongLat.MOVE_DISTANCE, move.angle)));
+            }
+            if (geometryEngine.lineCrossesNoFlyZone(from, to)) {
+                violations.add(new Violation(i, "crosses a no fly zone"));
+            }
+            if (!geometryEngine.isLineConfined(from, to)) {
+                violations.add(new Violation(i, "leaves the confinement area"));
+            }
+        }
+        return violations;
+    }
+    
+    /**
+     * @param flightpaths The flight log.
+     * @param i The index of a move.
+     * @return Whether the move is the last of its drone's flight, or of the drone's sortie.
+     */
+    private static boolean isFlightEnd(List<Flightpath> flightpaths, int i) {
+        return i == flightpaths.size() - 1 ||
+            !flightpaths.get(i + 1).isSameFlight(flightpaths.get(i));
+    }
+    
+    /**
+     * @param position A position.
+     * @param other Another position.
+     * @param tolerance How far apart the positions may be along each axis.
+     * @return Whether the positions are the same, give or take the tolerance.
+     */
+    private static boolean isSamePosition(LongLat position, LongLat other, double tolerance) {
+        return Math.abs(position.longitude - other.longitude) <= tolerance &&
+            Math.abs(position.latitude - other.latitude) <= tolerance;
+    }
+    
+    /**
+     * Stops the threads, the validator must not be used afterwards.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
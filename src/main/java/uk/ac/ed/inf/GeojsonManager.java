@@ -1,13 +1,15 @@
 package uk.ac.ed.inf;
 
-import com.mapbox.geojson.Feature;
-import com.mapbox.geojson.FeatureCollection;
 import com.mapbox.geojson.Point;
 import com.mapbox.geojson.Polygon;
 
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Reader;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -19,9 +21,14 @@ public class GeojsonManager {
     private final String port;
     //public static final HttpClient client = HttpClient.newHttpClient();
     private static final String noFlyZoneEndpoint = "http://%s:%s/buildings/no-fly-zones.geojson";
-    private final List<Polygon> noFlyZones;
-    private final List<LongLat[]> noFlyZonePerimeters;
+    private final NoFlyZoneData noFlyZoneData;
     private final List<LongLat> waypoints;  // way points are vertices of no fly zones
+    // the geojson files of the repository, next to the build output unless configured
+    private static final Path dataDirectory = getDataDirectory();
+    // the confinement area polygon is read from this file, relative to the data directory
+    private static final Path confinementZoneFile = dataDirectory.resolve(
+        System.getProperty("ilp.confinementZone", "confinement-zone.geojson"));
+    private final GeometryEngine geometryEngine;
     
     
     /**
@@ -31,31 +38,139 @@ public class GeojsonManager {
     public GeojsonManager(String server, String port) {
         this.server = server;
         this.port = port;
-        this.noFlyZones = getNoFlyZones();
-        this.noFlyZonePerimeters = getNoFlyZonePerimeters();
-        this.waypoints = getWaypoints();
+        // everything derived from the no fly zones is reused while they are unchanged on server
+        this.noFlyZoneData = HttpContentCache.fetchParsed(server, port,
+            String.format(noFlyZoneEndpoint, server, port), NoFlyZoneData::new);
+        this.waypoints = noFlyZoneData.waypoints;
+        this.geometryEngine = noFlyZoneData.geometryEngine;
     }
     
     /**
-     * Perform an HTTP request to server and marshall its response, constructing a list of Polygons.
-     * @return A list of polygons representing the no fly zone
+     * The no fly zones streamed from the webserver's response, and the structures derived from
+     * them. Only the packed rings are needed for planning, the mapbox polygons and perimeter line
+     * segments are only built if asked for.
      */
-    public List<Polygon> getNoFlyZones() {
-        if (this.noFlyZones != null) {
+    private static class NoFlyZoneData {
+        final List<double[]> noFlyZoneRings;
+        final List<LongLat> waypoints;
+        final GeometryEngine geometryEngine;
+        private List<Polygon> noFlyZones;
+        private List<LongLat[]> noFlyZonePerimeters;
+        
+        /**
+         * Reads the outer rings of the no fly zones and builds the structures derived.
+         * @param reader The no fly zones geojson.
+         * @throws IOException If the geojson cannot be read.
+         */
+        NoFlyZoneData(Reader reader) throws IOException {
+            this.noFlyZoneRings = GeojsonPolygonReader.readOuterRings(reader);
+            this.waypoints = new ArrayList<>();
+            for (double[] ring : noFlyZoneRings) {
+                // the last point is the same as first
+                for (int i = 0; i + 2 < ring.length; i += 2) {
+                    waypoints.add(LongLat.of(ring[i], ring[i + 1]));
+                }
+            }
+            this.geometryEngine = new GeometryEngine(noFlyZoneRings, getConfinementRing());
+        }
+        
+        /**
+         * @return The no fly zones as mapbox polygons, built on first use.
+         */
+        synchronized List<Polygon> getNoFlyZones() {
+            if (noFlyZones == null) {
+                List<Polygon> polygons = new ArrayList<>();
+                for (double[] ring : noFlyZoneRings) {
+                    List<Point> points = new ArrayList<>();
+                    for (int i = 0; i + 1 < ring.length; i += 2) {
+                        points.add(Point.fromLngLat(ring[i], ring[i + 1]));
+                    }
+                    polygons.add(Polygon.fromLngLats(List.of(points)));
+                }
+                noFlyZones = Collections.unmodifiableList(polygons);
+            }
             return noFlyZones;
         }
-        final String noFlyZoneURL = String.format(noFlyZoneEndpoint, server, port);
-        String responseStr = Utils.sendHttpRequest(server, port, noFlyZoneURL);
-    
-        FeatureCollection featureCollection = FeatureCollection.fromJson(responseStr);
-        List<Polygon> noFlyZones = new ArrayList<>();
-        // should not produce null pointer here
-        assert featureCollection.features() != null;
-        for (Feature feature : featureCollection.features()) {
-            Polygon zone = (Polygon) feature.geometry();
-            noFlyZones.add(zone);
+        
+        /**
+         * @return The line segments of the no fly zones' perimeters, built on first use.
+         */
+        synchronized List<LongLat[]> getNoFlyZonePerimeters() {
+            if (noFlyZonePerimeters == null) {
+                List<LongLat[]> lineSegments = new ArrayList<>();
+                for (double[] ring : noFlyZoneRings) {
+                    for (int i = 0; i + 3 < ring.length; i += 2) {
+                        lineSegments.add(new LongLat[] {new LongLat(ring[i], ring[i + 1]),
+                            new LongLat(ring[i + 2], ring[i + 3])});
+                    }
+                }
+                noFlyZonePerimeters = lineSegments;
+            }
+            return noFlyZonePerimeters;
+        }
+    }
+    
+    /**
+     * @return The directory given by -Dilp.dataDir, or else the testing directory of the
+     * repository the classes were built in, so it does not depend on the working directory.
+     */
+    private static Path getDataDirectory() {
+        String configured = System.getProperty("ilp.dataDir");
+        if (configured != null) {
+            return Path.of(configured).toAbsolutePath();
+        }
+        try {
+            // target/classes or the jar in target, both two levels below the repository
+            Path buildOutput = Path.of(GeojsonManager.class.getProtectionDomain().getCodeSource()
+                .getLocation().toURI());
+            return buildOutput.getParent().getParent().resolve("testing");
+        }
+        catch (URISyntaxException | RuntimeException e) {
+            return Path.of("testing").toAbsolutePath();
         }
-        return noFlyZones;
+    }
+    
+    /**
+     * Reads the confinement area from the confinement zone file, falls back to the default
+     * rectangular area (as in LongLat#isConfined) if the file is missing or cannot be read.
+     * @return The packed ring of the confinement area polygon.
+     */
+    private static double[] getConfinementRing() {
+        if (!Files.exists(confinementZoneFile)) {
+            System.err.printf("confinement zone %s is missing, using default area " +
+                "(set -Dilp.dataDir or -Dilp.confinementZone)\n", confinementZoneFile);
+        }
+        else {
+            try (Reader reader = Files.newBufferedReader(confinementZoneFile)) {
+                return GeojsonPolygonReader.readOuterRings(reader).get(0);
+            }
+            catch (IOException | RuntimeException e) {
+                System.err.printf("cannot read confinement zone from %s, using default area\n",
+                    confinementZoneFile);
+                e.printStackTrace();
+            }
+        }
+        return new double[] {
+            LongLat.LONGITUDE_CONFINEMENT_MIN, LongLat.LATITUDE_CONFINEMENT_MAX,
+            LongLat.LONGITUDE_CONFINEMENT_MAX, LongLat.LATITUDE_CONFINEMENT_MAX,
+            LongLat.LONGITUDE_CONFINEMENT_MAX, LongLat.LATITUDE_CONFINEMENT_MIN,
+            LongLat.LONGITUDE_CONFINEMENT_MIN, LongLat.LATITUDE_CONFINEMENT_MIN,
+            LongLat.LONGITUDE_CONFINEMENT_MIN, LongLat.LATITUDE_CONFINEMENT_MAX};
+    }
+    
+    /**
+     * @return A list of polygons representing the no fly zone, must not be modified.
+     */
+    public List<Polygon> getNoFlyZones() {
+        return noFlyZoneData.getNoFlyZones();
+    }
+    
+    /**
+     * @return The packed outer ring {lng0, lat0, lng1, lat1, ...} of every no fly zone, closed,
+     * must not be modified.
+     */
+    public List<double[]> getNoFlyZoneRings() {
+        return noFlyZoneData.noFlyZoneRings;
     }
     
     /**
@@ -63,11 +178,7 @@ public class GeojsonManager {
      * @return A list of perimeter line segments represented as a size 2 array of LongLat.
      */
     public List<LongLat[]> getNoFlyZonePerimeters() {
-        if (this.noFlyZonePerimeters != null) {
-            return this.noFlyZonePerimeters;
-        }
-        List<Polygon> noFlyZones = getNoFlyZones();
-        return Utils.getLineSegmentsFromPolygonList(noFlyZones);
+        return noFlyZoneData.getNoFlyZonePerimeters();
     }
     
     /**
@@ -75,48 +186,18 @@ public class GeojsonManager {
      * @return A list of LongLat which represent each of the vertices of the no fly zone polygon.
      */
     public List<LongLat> getWaypoints() {
-        if (this.waypoints != null) {
-            return this.waypoints;
-        }
-        List<LongLat> waypoints = new ArrayList<>();
-        List<Polygon> polygons = getNoFlyZones();
-        for (Polygon polygon : polygons) {
-            List<Point> coordinates = polygon.outer().coordinates();
-            // the last point is the same as first
-            for (Point point : coordinates.subList(0, coordinates.size() - 1)) {
-                LongLat lngLat = new LongLat(point);
-                waypoints.add(lngLat);
-            }
-        }
         return waypoints;
     }
     
     /**
      * Checks if a line segment is crossing the defined no fly zone. Starting and/or ending right
-     * on the polygons' perimeters does NOT count as crossing.
+     * on the polygons' perimeters does NOT count as crossing, nor does running along them.
      * @param lineStart Starting position of line segment.
      * @param lineEnd Ending position of line segment.
      * @return Whether the line crosses the no fly zone.
      */
     public boolean lineCrossesNoFlyZone(LongLat lineStart, LongLat lineEnd) {
-        for (LongLat[] perimeter : this.noFlyZonePerimeters) {
-            // if the line given is actually right along a perimeter segment, no intersection
-            if ((lineStart.equals(perimeter[0]) && lineEnd.equals(perimeter[1])) ||
-                (lineStart.equals(perimeter[1]) && lineEnd.equals(perimeter[0]))) {
-                return false;
-            }
-        }
-        // the line isn't a segment of the perimeters
-        // then if both start and end of line segment are vertices, definitely crossed
-        if (this.waypoints.contains(lineStart) && this.waypoints.contains(lineEnd))
-            return true;
-        // normal check
-        for (LongLat[] perimeter : this.noFlyZonePerimeters) {
-            if (Utils.lineSegmentIntersects(new LongLat[] {lineStart, lineEnd}, perimeter)) {
-                return true;
-            }
-        }
-        return false;
+        return geometryEngine.lineCrossesNoFlyZone(lineStart, lineEnd);
     }
     
     /**
@@ -127,19 +208,102 @@ public class GeojsonManager {
         return lineCrossesNoFlyZone(line[0], line[1]);
     }
     
+    /**
+     * Line of sight check towards a waypoint, which the drone only needs to get close to, so a
+     * line just grazing the inside of a no fly zone at a vertex waypoint still counts as in sight.
+     * @param lineStart Starting position of line segment.
+     * @param lineEnd Ending position of line segment, the waypoint.
+     * @return Whether the line properly intersects the perimeter of the no fly zone.
+     */
+    public boolean lineIntersectsNoFlyZonePerimeter(LongLat lineStart, LongLat lineEnd) {
+        return geometryEngine.lineIntersectsNoFlyZonePerimeter(lineStart, lineEnd);
+    }
+    
+    /**
+     * @param point The point to check.
+     * @return Whether the point is <i>strictly</i> within the confinement area.
+     */
+    public boolean isConfined(LongLat point) {
+        return geometryEngine.isConfined(point);
+    }
     
     /**
+     * @param lineStart Starting position of line segment.
+     * @param lineEnd Ending position of line segment.
+     * @return Whether the whole line segment is <i>strictly</i> within the confinement area.
+     */
+    public boolean isLineConfined(LongLat lineStart, LongLat lineEnd) {
+        return geometryEngine.isLineConfined(lineStart, lineEnd);
+    }
+    
+    /**
+     * @return The geometry engine holding the no fly zones and confinement area.
+     */
+    public GeometryEngine getGeometryEngine() {
+        return geometryEngine;
+    }
+    
+    
+    /**
+     * Streams the flight visualisation geojson to file, see FlightpathGeojsonWriter.
      * @param day 2 character day of date, e.g. 02 or 29.
      * @param month 2 character month of date, e.g. 02 or 11.
      * @param year 4 character year of date, e.g. 2022 or 2023.
-     * @param content The Json content to be written to file.
+     * @param flightpaths The flight log to visualise.
+     * @param withOrderFeatures Whether to also write a feature per order segment and per hover.
      */
-    public void writeGeojsonFile(String day, String month, String year, String content) {
+    public void writeFlightpathGeojsonFile(String day, String month, String year,
+                                           List<Flightpath> flightpaths,
+                                           boolean withOrderFeatures) {
         String fileName = String.format("drone-%s-%s-%s.geojson", day, month, year);
-        try {
-            FileWriter fileWriter = new FileWriter(fileName);
-            fileWriter.write(content);
-            fileWriter.close();
+        writeFlightpathGeojsonFile(fileName, flightpaths, withOrderFeatures);
+    }
+    
+    /**
+     * Streams the flight visualisation geojson of one drone of a fleet to file.
+     * @param droneId The id of the drone within its fleet.
+     * @param day 2 character day of date, e.g. 02 or 29.
+     * @param month 2 character month of date, e.g. 02 or 11.
+     * @param year 4 character year of date, e.g. 2022 or 2023.
+     * @param flightpaths The flight log of the drone.
+     * @param withOrderFeatures Whether to also write a feature per order segment and per hover.
+     */
+    public void writeFleetFlightpathGeojsonFile(int droneId, String day, String month,
+                                                String year, List<Flightpath> flightpaths,
+                                                boolean withOrderFeatures) {
+        String fileName = String.format("drone%d-%s-%s-%s.geojson", droneId, day, month, year);
+        writeFlightpathGeojsonFile(fileName, flightpaths, withOrderFeatures);
+    }
+    
+    /**
+     * Streams the flight visualisation geojson of one sortie of the drone to file.
+     * @param sortie The index of the sortie within the day.
+     * @param day 2 character day of date, e.g. 02 or 29.
+     * @param month 2 character month of date, e.g. 02 or 11.
+     * @param year 4 character year of date, e.g. 2022 or 2023.
+     * @param flightpaths The flight log of the sortie.
+     * @param withOrderFeatures Whether to also write a feature per order segment and per hover.
+     */
+    public void writeSortieFlightpathGeojsonFile(int sortie, String day, String month,
+                                                 String year, List<Flightpath> flightpaths,
+                                                 boolean withOrderFeatures) {
+        String fileName = String.format("drone-sortie%d-%s-%s-%s.geojson", sortie, day, month,
+            year);
+        writeFlightpathGeojsonFile(fileName, flightpaths, withOrderFeatures);
+    }
+    
+    /**
+     * @param fileName The file to write to.
+     * @param flightpaths The flight log to visualise.
+     * @param withOrderFeatures Whether to also write a feature per order segment and per hover.
+     */
+    private void writeFlightpathGeojsonFile(String fileName, List<Flightpath> flightpaths,
+                                            boolean withOrderFeatures) {
+        try (FlightpathGeojsonWriter writer = new FlightpathGeojsonWriter(Path.of(fileName))) {
+            writer.writeFlight(flightpaths);
+            if (withOrderFeatures) {
+                writer.writeOrderFeatures(flightpaths);
+            }
         }
         catch (IOException e) {
             e.printStackTrace();
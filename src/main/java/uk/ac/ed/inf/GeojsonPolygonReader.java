@@ -0,0 +1,58 @@
+package uk.ac.ed.inf;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming reader of the polygons in a geojson document, decoding coordinates straight into
+ * packed rings {lng0, lat0, lng1, lat1, ...} (as used by GeometryEngine) without building any
+ * intermediate objects, so memory use does not grow with the size of the document beyond the
+ * rings themselves. Only the outer ring of every Polygon is kept, in document order.
+ * Should not be instantiated, methods are all static.
+ */
+public class GeojsonPolygonReader {
+    
+    /**
+     * @param reader The geojson document, a FeatureCollection, Feature or Polygon.
+     * @return The packed outer ring of every polygon in the document.
+     * @throws IOException If the document cannot be read.
+     */
+    public static List<double[]> readOuterRings(Reader reader) throws IOException {
+        List<double[]> rings = new ArrayList<>();
+        GeojsonWalker.walk(new JsonReader(reader), GeojsonPolygonReader::readPolygonOuterRing,
+            (type, outerRing) -> {
+                if ("Polygon".equals(type) && outerRing != null) {
+                    rings.add(outerRing);
+                }
+                else if (type != null && !type.equals("Feature") &&
+                    !type.equals("FeatureCollection")) {
+                    System.err.printf(
+                        "ignoring geojson geometry of type %s, only polygons are used\n", type);
+                }
+                return false;
+            });
+        return rings;
+    }
+    
+    /**
+     * @param jsonReader The reader positioned at the start of the coordinates.
+     * @return The packed outer ring if the coordinates are nested as those of a polygon,
+     * otherwise null, the coordinates are skipped either way.
+     * @throws IOException If the coordinates cannot be read.
+     */
+    private static double[] readPolygonOuterRing(JsonReader jsonReader) throws IOException {
+        jsonReader.beginArray();  // the rings
+        double[] outerRing = null;
+        if (jsonReader.hasNext() && jsonReader.peek() == JsonToken.BEGIN_ARRAY) {
+            outerRing = GeojsonWalker.readPositions(jsonReader);
+        }
+        // holes are not no fly zone boundaries the drone cares about
+        GeojsonWalker.skipRest(jsonReader);
+        return outerRing;
+    }
+}
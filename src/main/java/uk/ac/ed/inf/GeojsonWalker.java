@@ -0,0 +1,144 @@
+package uk.ac.ed.inf;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Streaming walk over the objects of a geojson document, FeatureCollections, Features and
+ * geometries, shared by the readers of no fly zones and flights. Coordinates are decoded straight
+ * into packed arrays {lng0, lat0, lng1, lat1, ...} without building any intermediate objects.
+ * Should not be instantiated, methods are all static.
+ */
+public class GeojsonWalker {
+    
+    /**
+     * Decodes the coordinates of a geometry, whose type may only be known after them.
+     */
+    public interface CoordinatesReader {
+        /**
+         * @param jsonReader The reader positioned at the start of the coordinates.
+         * @return The packed coordinates, null if they are not nested as expected. The
+         * coordinates are read or skipped either way.
+         * @throws IOException If the coordinates cannot be read.
+         */
+        double[] read(JsonReader jsonReader) throws IOException;
+    }
+    
+    /**
+     * Takes the objects of the document as they end.
+     */
+    public interface ObjectHandler {
+        /**
+         * @param type The type of the object, null if it has none.
+         * @param coordinates The decoded coordinates of the object, null if it has none or they
+         *                    are not nested as expected.
+         * @return Whether the walk is done, the rest of the document is then skipped.
+         */
+        boolean handle(String type, double[] coordinates);
+    }
+    
+    /**
+     * Walks a geojson object and the objects nested in it, handing every one of them to the
+     * handler in document order, nested objects before the object they are in.
+     * @param jsonReader The reader positioned at the start of the object.
+     * @param coordinatesReader Decodes the coordinates of every object.
+     * @param handler Takes the objects.
+     * @return Whether the handler is done with the document.
+     * @throws IOException If the object cannot be read.
+     */
+    public static boolean walk(JsonReader jsonReader, CoordinatesReader coordinatesReader,
+                               ObjectHandler handler) throws IOException {
+        String type = null;
+        double[] coordinates = null;
+        boolean done = false;  // the handler is done with a nested object
+        jsonReader.beginObject();
+        while (jsonReader.hasNext()) {
+            String name = jsonReader.nextName();
+            if (done) {
+                jsonReader.skipValue();
+                continue;
+            }
+            switch (name) {
+                case "type":
+                    type = jsonReader.nextString();
+                    break;
+                case "features":
+                    jsonReader.beginArray();
+                    while (jsonReader.hasNext()) {
+                        if (done) {
+                            jsonReader.skipValue();
+                        }
+                        else {
+                            done = walk(jsonReader, coordinatesReader, handler);
+                        }
+                    }
+                    jsonReader.endArray();
+                    break;
+                case "geometry":
+                    if (jsonReader.peek() == JsonToken.NULL) {
+                        jsonReader.nextNull();
+                    }
+                    else {
+                        done = walk(jsonReader, coordinatesReader, handler);
+                    }
+                    break;
+                case "coordinates":
+                    // "type" may come before or after, so the coordinates are read either way
+                    coordinates = coordinatesReader.read(jsonReader);
+                    break;
+                default:
+                    jsonReader.skipValue();
+            }
+        }
+        jsonReader.endObject();
+        return done || handler.handle(type, coordinates);
+    }
+    
+    /**
+     * @param jsonReader The reader positioned at the start of an array of positions, such as the
+     *                   coordinates of a line string or a ring of a polygon.
+     * @return The packed positions, without altitudes, or null if the array is nested less or
+     * more deeply, it is skipped either way.
+     * @throws IOException If the array cannot be read.
+     */
+    public static double[] readPositions(JsonReader jsonReader) throws IOException {
+        jsonReader.beginArray();  // the positions
+        double[] positions = new double[64];
+        int size = 0;
+        while (jsonReader.hasNext()) {
+            if (jsonReader.peek() != JsonToken.BEGIN_ARRAY) {
+                return skipRest(jsonReader);  // a single position
+            }
+            jsonReader.beginArray();  // a position
+            if (jsonReader.peek() != JsonToken.NUMBER) {
+                skipRest(jsonReader);  // an array of arrays of positions
+                return skipRest(jsonReader);
+            }
+            if (size + 2 > positions.length) {
+                positions = Arrays.copyOf(positions, positions.length * 2);
+            }
+            positions[size++] = jsonReader.nextDouble();
+            positions[size++] = jsonReader.nextDouble();
+            skipRest(jsonReader);  // altitude, if any
+        }
+        jsonReader.endArray();
+        return Arrays.copyOf(positions, size);
+    }
+    
+    /**
+     * Skips the remaining values of the current array and ends it.
+     * @param jsonReader The reader within an array.
+     * @return null, for convenience.
+     * @throws IOException If the array cannot be read.
+     */
+    public static double[] skipRest(JsonReader jsonReader) throws IOException {
+        while (jsonReader.hasNext()) {
+            jsonReader.skipValue();
+        }
+        jsonReader.endArray();
+        return null;
+    }
+}
@@ -0,0 +1,441 @@
+package uk.ac.ed.inf;
+
+import com.mapbox.geojson.Point;
+import com.mapbox.geojson.Polygon;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Geometry checks against the no fly zones and the confinement area, i.e. whether a point is
+ * inside a polygon and whether a line segment crosses into one.
+ * <br><br>
+ * Polygons are stored as rings of packed coordinates, {lng0, lat0, lng1, lat1, ...}, with the
+ * last point being the same as the first. All perimeter edges are kept in primitive arrays and
+ * indexed by a uniform grid, so a check only looks at the edges near the point or segment.
+ * The edges of the no fly zones come first, so when the CPU has SIMD lanes, a segment is tested
+ * against all of them at once with a SegmentIntersectionKernel instead, which is faster than
+ * walking the grid for all but the shortest segments.
+ */
+public class GeometryEngine {
+    private static final int GRID_SIZE = 32;  // number of cells along each axis
+    // points closer than this to a perimeter, in degrees, are treated as being on it
+    private static final double ON_PERIMETER_TOLERANCE = 1e-10;
+    
+    private final int zoneCount;  // polygons [0, zoneCount) are no fly zones, the next confinement
+    private final int zoneEdgeCount;  // edges [0, zoneEdgeCount) are those of no fly zones
+    private final SegmentIntersectionKernel kernel = SegmentIntersectionKernel.create();
+    private final double[][] polygonBounds;  // {minLng, minLat, maxLng, maxLat} of every polygon
+    // perimeter edge i goes from (edgeLng1[i], edgeLat1[i]) to (edgeLng2[i], edgeLat2[i])
+    private final double[] edgeLng1, edgeLat1, edgeLng2, edgeLat2;
+    private final int[] edgePolygon;  // polygon each edge belongs to
+    private final double gridMinLng, gridMinLat, cellWidth, cellHeight;
+    private final int[][] cellEdges;  // edges overlapping each cell, cell index is row * size + col
+    
+    /**
+     * @param zoneRings The rings of the no fly zone polygons.
+     * @param confinementRing The ring of the confinement area polygon.
+     */
+    public GeometryEngine(List<double[]> zoneRings, double[] confinementRing) {
+        List<double[]> rings = new ArrayList<>(zoneRings);
+        rings.add(confinementRing);
+        this.zoneCount = zoneRings.size();
+        this.polygonBounds = new double[rings.size()][];
+        int edgeCount = 0;
+        for (double[] ring : rings) {
+            edgeCount += ring.length / 2 - 1;
+        }
+        this.zoneEdgeCount = edgeCount - (confinementRing.length / 2 - 1);
+        edgeLng1 = new double[edgeCount];
+        edgeLat1 = new double[edgeCount];
+        edgeLng2 = new double[edgeCount];
+        edgeLat2 = new double[edgeCount];
+        edgePolygon = new int[edgeCount];
+        double minLng = Double.POSITIVE_INFINITY, minLat = Double.POSITIVE_INFINITY;
+        double maxLng = Double.NEGATIVE_INFINITY, maxLat = Double.NEGATIVE_INFINITY;
+        int edge = 0;
+        for (int polygon = 0; polygon < rings.size(); polygon++) {
+            double[] ring = rings.get(polygon);
+            double[] bounds = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+                Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+            for (int i = 0; i < ring.length / 2; i++) {
+                bounds[0] = Math.min(bounds[0], ring[2 * i]);
+                bounds[1] = Math.min(bounds[1], ring[2 * i + 1]);
+                bounds[2] = Math.max(bounds[2], ring[2 * i]);
+                bounds[3] = Math.max(bounds[3], ring[2 * i + 1]);
+                if (i < ring.length / 2 - 1) {
+                    edgeLng1[edge] = ring[2 * i];
+                    edgeLat1[edge] = ring[2 * i + 1];
+                    edgeLng2[edge] = ring[2 * i + 2];
+                    edgeLat2[edge] = ring[2 * i + 3];
+                    edgePolygon[edge] = polygon;
+                    edge++;
+                }
+            }
+            polygonBounds[polygon] = bounds;
+            minLng = Math.min(minLng, bounds[0]);
+            minLat = Math.min(minLat, bounds[1]);
+            maxLng = Math.max(maxLng, bounds[2]);
+            maxLat = Math.max(maxLat, bounds[3]);
+        }
+        this.gridMinLng = minLng;
+        this.gridMinLat = minLat;
+        // never 0 wide, so that cells can always be computed
+        this.cellWidth = Math.max(maxLng - minLng, Double.MIN_NORMAL) / GRID_SIZE;
+        this.cellHeight = Math.max(maxLat - minLat, Double.MIN_NORMAL) / GRID_SIZE;
+        
+        // register every edge with all cells its bounding box overlaps
+        List<List<Integer>> cells = new ArrayList<>();
+        for (int cell = 0; cell < GRID_SIZE * GRID_SIZE; cell++) {
+            cells.add(new ArrayList<>());
+        }
+        for (int e = 0; e < edgeCount; e++) {
+            int minCol = column(Math.min(edgeLng1[e], edgeLng2[e]));
+            int maxCol = column(Math.max(edgeLng1[e], edgeLng2[e]));
+            int minRow = row(Math.min(edgeLat1[e], edgeLat2[e]));
+            int maxRow = row(Math.max(edgeLat1[e], edgeLat2[e]));
+            for (int r = minRow; r <= maxRow; r++) {
+                for (int c = minCol; c <= maxCol; c++) {
+                    cells.get(r * GRID_SIZE + c).add(e);
+                }
+            }
+        }
+        this.cellEdges = new int[cells.size()][];
+        for (int cell = 0; cell < cells.size(); cell++) {
+            cellEdges[cell] = cells.get(cell).stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+    
+    /**
+     * @param polygon A mapbox polygon.
+     * @return The packed ring of the polygon's outer perimeter.
+     */
+    public static double[] toRing(Polygon polygon) {
+        List<Point> coordinates = polygon.outer().coordinates();
+        double[] ring = new double[coordinates.size() * 2];
+        for (int i = 0; i < coordinates.size(); i++) {
+            ring[2 * i] = coordinates.get(i).longitude();
+            ring[2 * i + 1] = coordinates.get(i).latitude();
+        }
+        return ring;
+    }
+    
+    /**
+     * @param longitude Longitude of a point.
+     * @return The grid column containing the longitude, clamped into the grid.
+     */
+    private int column(double longitude) {
+        int col = (int) Math.floor((longitude - gridMinLng) / cellWidth);
+        return Math.max(0, Math.min(GRID_SIZE - 1, col));
+    }
+    
+    /**
+     * @param latitude Latitude of a point.
+     * @return The grid row containing the latitude, clamped into the grid.
+     */
+    private int row(double latitude) {
+        int r = (int) Math.floor((latitude - gridMinLat) / cellHeight);
+        return Math.max(0, Math.min(GRID_SIZE - 1, r));
+    }
+    
+    /**
+     * Finds the cells a line segment passes through, row by row, padded by one column on each
+     * side so that no edge touching the segment is missed due to rounding.
+     * @param start Start of the line segment.
+     * @param end End of the line segment.
+     * @return Indices of the cells.
+     */
+    private int[] getCellsOnSegment(LongLat start, LongLat end) {
+        int minRow = row(Math.min(start.latitude, end.latitude));
+        int maxRow = row(Math.max(start.latitude, end.latitude));
+        double deltaLng = end.longitude - start.longitude;
+        double deltaLat = end.latitude - start.latitude;
+        int[] cells = new int[(maxRow - minRow + 1) * GRID_SIZE];
+        int cellCount = 0;
+        for (int r = minRow; r <= maxRow; r++) {
+            double rowLngMin, rowLngMax;
+            if (deltaLat == 0 || minRow == maxRow) {
+                rowLngMin = Math.min(start.longitude, end.longitude);
+                rowLngMax = Math.max(start.longitude, end.longitude);
+            }
+            else {
+                // the part of the segment within this row's band of latitudes, the first and
+                // last row take everything beyond them, as clamped rows do
+                double bandMin = r == minRow ? Double.NEGATIVE_INFINITY :
+                    gridMinLat + r * cellHeight;
+                double bandMax = r == maxRow ? Double.POSITIVE_INFINITY :
+                    gridMinLat + (r + 1) * cellHeight;
+                double t1 = Math.max(0, Math.min(1, (bandMin - start.latitude) / deltaLat));
+                double t2 = Math.max(0, Math.min(1, (bandMax - start.latitude) / deltaLat));
+                double lng1 = start.longitude + t1 * deltaLng;
+                double lng2 = start.longitude + t2 * deltaLng;
+                rowLngMin = Math.min(lng1, lng2);
+                rowLngMax = Math.max(lng1, lng2);
+            }
+            int minCol = Math.max(0, column(rowLngMin) - 1);
+            int maxCol = Math.min(GRID_SIZE - 1, column(rowLngMax) + 1);
+            for (int c = minCol; c <= maxCol; c++) {
+                cells[cellCount++] = r * GRID_SIZE + c;
+            }
+        }
+        return Arrays.copyOf(cells, cellCount);
+    }
+    
+    /**
+     * Whether the two line segments properly intersect, same as Utils#lineSegmentIntersects.
+     * @param edge The perimeter edge to check.
+     * @param startLng Longitude of the start of the other line segment.
+     * @param startLat Latitude of the start of the other line segment.
+     * @param endLng Longitude of the end of the other line segment.
+     * @param endLat Latitude of the end of the other line segment.
+     * @return True if there is a point strictly within both line segments.
+     */
+    private boolean edgeIntersects(int edge, double startLng, double startLat, double endLng,
+                                   double endLat) {
+        return ScalarSegmentKernel.intersects(edgeLng1[edge], edgeLat1[edge], edgeLng2[edge],
+            edgeLat2[edge], startLng, startLat, endLng - startLng, endLat - startLat);
+    }
+    
+    /**
+     * @param edge The perimeter edge to check.
+     * @param startLng Longitude of the start of the segment.
+     * @param startLat Latitude of the start of the segment.
+     * @param deltaLng Longitude of the end of the segment minus that of its start.
+     * @param deltaLat Latitude of the end of the segment minus that of its start.
+     * @return Where along the segment, from 0 to 1, it properly intersects the edge, or -1 if it
+     * does not.
+     */
+    private double getCrossing(int edge, double startLng, double startLat, double deltaLng,
+                               double deltaLat) {
+        double sLng = edgeLng2[edge] - edgeLng1[edge];
+        double sLat = edgeLat2[edge] - edgeLat1[edge];
+        double rsCross = deltaLng * sLat - deltaLat * sLng;
+        if (rsCross == 0) {
+            return -1;
+        }
+        double qpLng = edgeLng1[edge] - startLng;
+        double qpLat = edgeLat1[edge] - startLat;
+        double t = (qpLng * sLat - qpLat * sLng) / rsCross;
+        double u = (qpLng * deltaLat - qpLat * deltaLng) / rsCross;
+        return 0 < t && t < 1 && 0 < u && u < 1 ? t : -1;
+    }
+    
+    /**
+     * @param edge The perimeter edge to check.
+     * @param lng Longitude of the point.
+     * @param lat Latitude of the point.
+     * @return Whether the point lies on the edge.
+     */
+    private boolean isOnEdge(int edge, double lng, double lat) {
+        double sLng = edgeLng2[edge] - edgeLng1[edge];
+        double sLat = edgeLat2[edge] - edgeLat1[edge];
+        double pLng = lng - edgeLng1[edge];
+        double pLat = lat - edgeLat1[edge];
+        double lengthSquared = sLng * sLng + sLat * sLat;
+        double dot = pLng * sLng + pLat * sLat;
+        if (dot < 0 || dot > lengthSquared) {
+            return Math.hypot(pLng, pLat) <= ON_PERIMETER_TOLERANCE ||
+                Math.hypot(lng - edgeLng2[edge], lat - edgeLat2[edge]) <= ON_PERIMETER_TOLERANCE;
+        }
+        double cross = pLng * sLat - pLat * sLng;
+        return Math.abs(cross) <= ON_PERIMETER_TOLERANCE * Math.sqrt(lengthSquared);
+    }
+    
+    /**
+     * Ray casting point-in-polygon test, casting the ray eastwards along the point's grid row.
+     * Every edge is counted only in the cell its crossing with the ray falls into, so edges
+     * registered with several cells are not counted twice. Only polygons whose bounds contain the
+     * point are cast against, one at a time, there is rarely more than one.
+     * @param lng Longitude of the point.
+     * @param lat Latitude of the point.
+     * @param zones True to check the no fly zones, false to check the confinement area.
+     * @return Whether the point is strictly inside any of the polygons checked, points on a
+     * perimeter are not inside.
+     */
+    private boolean isStrictlyInside(double lng, double lat, boolean zones) {
+        boolean onPerimeterChecked = false;
+        for (int polygon = 0; polygon < polygonBounds.length; polygon++) {
+            double[] bounds = polygonBounds[polygon];
+            if ((polygon < zoneCount) != zones || lng <= bounds[0] || lng >= bounds[2] ||
+                lat <= bounds[1] || lat >= bounds[3]) {
+                continue;
+            }
+            if (!onPerimeterChecked) {
+                if (isOnPerimeter(lng, lat, zones)) {
+                    return false;
+                }
+                onPerimeterChecked = true;
+            }
+            if (countRayCrossings(lng, lat, polygon) % 2 == 1) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * @param lng Longitude of the point.
+     * @param lat Latitude of the point.
+     * @param zones True to check the no fly zones, false to check the confinement area.
+     * @return Whether the point is on the perimeter of any of the polygons checked.
+     */
+    private boolean isOnPerimeter(double lng, double lat, boolean zones) {
+        int r = row(lat);
+        int startCol = column(lng);
+        // the point may lie on an edge registered only with neighbouring cells
+        for (int neighbourRow = Math.max(0, r - 1); neighbourRow <= Math.min(GRID_SIZE - 1, r + 1);
+             neighbourRow++) {
+            for (int c = Math.max(0, startCol - 1); c <= Math.min(GRID_SIZE - 1, startCol + 1); c++) {
+                for (int e : cellEdges[neighbourRow * GRID_SIZE + c]) {
+                    if ((edgePolygon[e] < zoneCount) == zones && isOnEdge(e, lng, lat)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * @param lng Longitude of the point.
+     * @param lat Latitude of the point.
+     * @param polygon The polygon to cast against.
+     * @return The number of edges of the polygon the eastward ray from the point crosses.
+     */
+    private int countRayCrossings(double lng, double lat, int polygon) {
+        int r = row(lat);
+        int crossings = 0;
+        for (int c = column(lng); c < GRID_SIZE; c++) {
+            for (int e : cellEdges[r * GRID_SIZE + c]) {
+                if (edgePolygon[e] != polygon || (edgeLat1[e] > lat) == (edgeLat2[e] > lat)) {
+                    continue;
+                }
+                double crossingLng = edgeLng1[e] + (lat - edgeLat1[e]) *
+                    (edgeLng2[e] - edgeLng1[e]) / (edgeLat2[e] - edgeLat1[e]);
+                // keep rounding from pushing the crossing into a cell the edge isn't in
+                crossingLng = Math.max(Math.min(edgeLng1[e], edgeLng2[e]),
+                    Math.min(Math.max(edgeLng1[e], edgeLng2[e]), crossingLng));
+                if (crossingLng > lng && column(crossingLng) == c) {
+                    crossings++;
+                }
+            }
+        }
+        return crossings;
+    }
+    
+    /**
+     * @param point The point to check.
+     * @return Whether the point is strictly inside a no fly zone.
+     */
+    public boolean isInNoFlyZone(LongLat point) {
+        return isStrictlyInside(point.longitude, point.latitude, true);
+    }
+    
+    /**
+     * @param point The point to check.
+     * @return Whether the point is strictly within the confinement area.
+     */
+    public boolean isConfined(LongLat point) {
+        return isStrictlyInside(point.longitude, point.latitude, false);
+    }
+    
+    /**
+     * Checks if a line segment goes through the inside of a no fly zone. Starting, ending or
+     * running along the polygons' perimeters does NOT count as crossing, but going from one vertex
+     * to another through the inside of a polygon does.
+     * <br><br>
+     * The segment is split wherever it properly intersects a perimeter edge and at every polygon
+     * vertex lying on it, it crosses if any of its pieces has its middle inside a polygon. A proper
+     * intersection alone is not enough, rounding finds those along edges and at vertices too.
+     * @param lineStart Starting position of line segment.
+     * @param lineEnd Ending position of line segment.
+     * @return Whether the line crosses the no fly zone.
+     */
+    public boolean lineCrossesNoFlyZone(LongLat lineStart, LongLat lineEnd) {
+        double deltaLng = lineEnd.longitude - lineStart.longitude;
+        double deltaLat = lineEnd.latitude - lineStart.latitude;
+        double lengthSquared = deltaLng * deltaLng + deltaLat * deltaLat;
+        if (lengthSquared == 0) {
+            return isInNoFlyZone(lineStart);
+        }
+        List<Double> splits = new ArrayList<>();
+        splits.add(0.0);
+        splits.add(1.0);
+        for (int cell : getCellsOnSegment(lineStart, lineEnd)) {
+            for (int e : cellEdges[cell]) {
+                if (edgePolygon[e] >= zoneCount) {
+                    continue;
+                }
+                double crossing = getCrossing(e, lineStart.longitude, lineStart.latitude,
+                    deltaLng, deltaLat);
+                if (crossing >= 0) {
+                    splits.add(crossing);
+                }
+                // a vertex lying on the segment, where it may enter or leave a polygon
+                double vertexLng = edgeLng1[e] - lineStart.longitude;
+                double vertexLat = edgeLat1[e] - lineStart.latitude;
+                double t = (vertexLng * deltaLng + vertexLat * deltaLat) / lengthSquared;
+                double cross = vertexLng * deltaLat - vertexLat * deltaLng;
+                if (t > 0 && t < 1 &&
+                    Math.abs(cross) <= ON_PERIMETER_TOLERANCE * Math.sqrt(lengthSquared)) {
+                    splits.add(t);
+                }
+            }
+        }
+        splits.sort(null);
+        for (int i = 0; i < splits.size() - 1; i++) {
+            double middle = (splits.get(i) + splits.get(i + 1)) / 2;
+            if (splits.get(i + 1) - splits.get(i) > 0 && isStrictlyInside(
+                lineStart.longitude + middle * deltaLng, lineStart.latitude + middle * deltaLat,
+                true)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * A weaker check than lineCrossesNoFlyZone, only a proper intersection with a perimeter edge
+     * counts, so a line ending at a vertex from a direction just grazing the inside does not.
+     * @param lineStart Starting position of line segment.
+     * @param lineEnd Ending position of line segment.
+     * @return Whether the line segment properly intersects the perimeter of a no fly zone.
+     */
+    public boolean lineIntersectsNoFlyZonePerimeter(LongLat lineStart, LongLat lineEnd) {
+        if (kernel.getLaneCount() > 1) {
+            return kernel.firstIntersection(edgeLng1, edgeLat1, edgeLng2, edgeLat2, 0,
+                zoneEdgeCount, lineStart.longitude, lineStart.latitude, lineEnd.longitude,
+                lineEnd.latitude) >= 0;
+        }
+        for (int cell : getCellsOnSegment(lineStart, lineEnd)) {
+            for (int e : cellEdges[cell]) {
+                if (edgePolygon[e] < zoneCount && edgeIntersects(e, lineStart.longitude,
+                    lineStart.latitude, lineEnd.longitude, lineEnd.latitude)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * @param lineStart Starting position of line segment.
+     * @param lineEnd Ending position of line segment.
+     * @return Whether the whole line segment is strictly within the confinement area.
+     */
+    public boolean isLineConfined(LongLat lineStart, LongLat lineEnd) {
+        if (!isConfined(lineStart) || !isConfined(lineEnd)) {
+            return false;
+        }
+        for (int cell : getCellsOnSegment(lineStart, lineEnd)) {
+            for (int e : cellEdges[cell]) {
+                if (edgePolygon[e] >= zoneCount && edgeIntersects(e, lineStart.longitude,
+                    lineStart.latitude, lineEnd.longitude, lineEnd.latitude)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,70 @@
+package uk.ac.ed.inf;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The default move planner, a two step greedy search which repeatedly commits to the pair of moves
+ * that gets closest to the waypoint while still having it in sight.
+ */
+public class GreedyMovePlanner implements MovePlanner {
+    private final GeojsonManager geojsonManager;
+    
+    /**
+     * @param geojsonManager The GeojsonManager holding the no fly zones.
+     */
+    public GreedyMovePlanner(GeojsonManager geojsonManager) {
+        this.geojsonManager = geojsonManager;
+    }
+    
+    /**
+     * @param from The position to start moving from.
+     * @param waypoint The waypoint to get close to.
+     * @return The angles of the moves in order, always an even number of them.
+     */
+    @Override
+    public List<Integer> planMoves(LongLat from, LongLat waypoint) {
+        List<Integer> angles = new ArrayList<>();
+        LongLat currentLngLat = from;
+        while (!currentLngLat.closeTo(waypoint)) {
+            double bestDistance = Double.POSITIVE_INFINITY;
+            int selectedAngle1 = -999;
+            int selectedAngle2 = -999;
+            for (int angle1 = 0; angle1 < 360; angle1 += 10) {
+                for (int angle2 = 0; angle2 < 360; angle2 += 10) {
+                    LongLat tentativePosition1 = currentLngLat.nextPosition(angle1);
+                    LongLat tentativePosition2 = tentativePosition1.nextPosition(angle2);
+                    if (!(geojsonManager.isLineConfined(currentLngLat, tentativePosition1) &&
+                        geojsonManager.isLineConfined(tentativePosition1, tentativePosition2))) {
+                        // if we are close to the confinement border, there is a risk of getting
+                        // outside when we are doing 2 step movements
+                        System.out.println("Almost got out of the confinement area");
+                        continue;
+                    }
+                    // the result of 2 step greedy search needs to be not blocked by no fly zone
+                    // or it might get stuck/blocked by zone, like 1 step greedy
+                    if (!geojsonManager.lineCrossesNoFlyZone(currentLngLat, tentativePosition1) &&
+                        !geojsonManager.lineCrossesNoFlyZone(tentativePosition1,
+                            tentativePosition2)) {
+                        if (!geojsonManager.lineIntersectsNoFlyZonePerimeter(tentativePosition2,
+                            waypoint)) {
+                            double distanceToWaypoint = tentativePosition2.distanceTo(waypoint);
+                            if (distanceToWaypoint < bestDistance) {
+                                bestDistance = distanceToWaypoint;
+                                selectedAngle1 = angle1;
+                                selectedAngle2 = angle2;
+                            }
+                        }
+                    }
+                }
+            }
+            if (selectedAngle1 == -999) {
+                System.err.println("SHOULD NOT HAPPEN, 2 STEP GREEDY CANNOT FIND STEPS");
+            }
+            angles.add(selectedAngle1);
+            angles.add(selectedAngle2);
+            currentLngLat = currentLngLat.nextPosition(selectedAngle1).nextPosition(selectedAngle2);
+        }
+        return angles;
+    }
+}
@@ -0,0 +1,320 @@
+package uk.ac.ed.inf;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Local cache of the content fetched from the webserver, revalidated with conditional GET
+ * requests. The body of every response is streamed to disk and stored together with its ETag and
+ * Last-Modified validators, which are sent back as If-None-Match and If-Modified-Since the next
+ * time the same URL is requested, so unchanged content is not transferred again.
+ * Parsed content is also kept in memory, keyed by the hash of the body it was parsed from, so
+ * objects derived from unchanged content can be reused without parsing it again, and content
+ * that changed is always parsed again, whatever validators the webserver sends.
+ * Bodies are never held in memory as a whole, parsers read them as a stream.
+ * Should not be instantiated, methods are all static.
+ */
+public class HttpContentCache {
+    // the cache can be disabled with -Dilp.httpCache=false, then every request is unconditional
+    private static final boolean ENABLED =
+        Boolean.parseBoolean(System.getProperty("ilp.httpCache", "true"));
+    private static final Path CACHE_DIRECTORY = getCacheDirectory();
+    private static final String ETAG = "etag";
+    private static final String LAST_MODIFIED = "lastModified";
+    private static final String SHA256 = "sha256";
+    
+    // URL -> the last content parsed for it, with the hash of the body it was parsed from
+    private static final Map<String, ParsedContent> parsedContents = new ConcurrentHashMap<>();
+    
+    /**
+     * Parses a body read as a stream.
+     * @param <T> The type of the parsed content.
+     */
+    public interface StreamParser<T> {
+        T parse(Reader reader) throws IOException;
+    }
+    
+    /**
+     * Content of a URL, as fetched from the webserver or the cache.
+     */
+    public static class Content {
+        public final Path bodyPath;  // where the body is stored
+        // the SHA-256 hash of the body, equal versions mean equal bodies
+        public final String version;
+        // whether the webserver answered 304 Not Modified, so the body came from the cache
+        public final boolean notModified;
+        
+        Content(Path bodyPath, String version, boolean notModified) {
+            this.bodyPath = bodyPath;
+            this.version = version;
+            this.notModified = notModified;
+        }
+    }
+    
+    /**
+     * Content parsed from a version of a URL's body.
+     */
+    private static class ParsedContent {
+        final String version;
+        final Object value;
+        
+        ParsedContent(String version, Object value) {
+            this.version = version;
+            this.value = value;
+        }
+    }
+    
+    /**
+     * Performs a conditional HTTP request if the URL has been cached before, streaming a new body
+     * to the cache. If the webserver cannot be reached, the cached body is used as is, if there
+     * is one, but an error status from the webserver is thrown like any other.
+     * The cache is used even if disabled for fetchParsed.
+     * @param server The server name.
+     * @param port The port of server.
+     * @param URL The URL endpoint to reach.
+     * @return The content of the URL.
+     * @throws HttpRequestException If the content can neither be fetched nor found in the cache.
+     */
+    public static Content fetch(String server, String port, String URL) {
+        String key = sha256(URL);
+        Path bodyPath = CACHE_DIRECTORY.resolve(key + ".body");
+        Path metadataPath = CACHE_DIRECTORY.resolve(key + ".properties");
+        Properties metadata = readMetadata(bodyPath, metadataPath);
+        
+        HttpRequest.Builder requestBuilder = HttpRequest.newBuilder().uri(URI.create(URL));
+        if (metadata.getProperty(ETAG) != null) {
+            requestBuilder.header("If-None-Match", metadata.getProperty(ETAG));
+        }
+        if (metadata.getProperty(LAST_MODIFIED) != null) {
+            requestBuilder.header("If-Modified-Since", metadata.getProperty(LAST_MODIFIED));
+        }
+        HttpResponse<InputStream> response;
+        try {
+            response = Utils.httpClient.send(requestBuilder,
+                HttpResponse.BodyHandlers.ofInputStream());
+        }
+        catch (HttpRequestException e) {
+            // an error status is an answer, only fall back if there was no answer at all
+            if (e.statusCode != -1 || metadata.isEmpty()) {
+                throw e;
+            }
+            // degrade to the last known content rather than failing the whole plan
+            System.err.printf("%s, using cached content from %s\n", e.getMessage(),
+                metadata.getProperty(LAST_MODIFIED, "an earlier run"));
+            return new Content(bodyPath, getVersion(metadata), true);
+        }
+        int statusCode = response.statusCode();
+        try (InputStream body = response.body()) {
+            if (statusCode == 304 && !metadata.isEmpty()) {
+                return new Content(bodyPath, getVersion(metadata), true);
+            }
+            if (statusCode != 200) {
+                throw new HttpRequestException(URL, statusCode, String.format(
+                    "got status code %d for URL %s from %s at port %s, expecting 200 OK " +
+                        "or 304", statusCode, URL, server, port), null);
+            }
+            Properties newMetadata = new Properties();
+            response.headers().firstValue("ETag").ifPresent(
+                etag -> newMetadata.setProperty(ETAG, etag));
+            response.headers().firstValue("Last-Modified").ifPresent(
+                lastModified -> newMetadata.setProperty(LAST_MODIFIED, lastModified));
+            writeCacheEntry(bodyPath, metadataPath, body, newMetadata);
+            return new Content(bodyPath, getVersion(newMetadata), false);
+        }
+        catch (IOException e) {
+            throw new HttpRequestException(URL, -1, "cannot store body of " + URL, e);
+        }
+    }
+    
+    /**
+     * Fetches the content of a URL and parses it, unless the same version of the content has
+     * already been parsed before, in which case the earlier result is returned.
+     * The result is shared between all callers and must not be modified.
+     * @param server The server name.
+     * @param port The port of server.
+     * @param URL The URL endpoint to reach.
+     * @param parser Parses the body of the content.
+     * @param <T> The type of the parsed content.
+     * @return The parsed content of the URL.
+     * @throws HttpRequestException If the content cannot be fetched.
+     * @throws UncheckedIOException If the content cannot be read.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T fetchParsed(String server, String port, String URL,
+                                    StreamParser<T> parser) {
+        if (!ENABLED) {
+            // nothing is stored, parse straight from the response
+            HttpResponse<InputStream> response = Utils.httpClient.send(
+                HttpRequest.newBuilder().uri(URI.create(URL)),
+                HttpResponse.BodyHandlers.ofInputStream());
+            try (Reader reader = new BufferedReader(
+                new InputStreamReader(response.body(), StandardCharsets.UTF_8))) {
+                if (response.statusCode() != 200) {
+                    throw new HttpRequestException(URL, response.statusCode(), String.format(
+                        "got status code %d for URL %s from %s at port %s, expecting 200 OK",
+                        response.statusCode(), URL, server, port), null);
+                }
+                return parser.parse(reader);
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException("cannot read body of " + URL, e);
+            }
+        }
+        Content content = fetch(server, port, URL);
+        ParsedContent parsed = parsedContents.get(URL);
+        if (parsed == null || !parsed.version.equals(content.version)) {
+            try (Reader reader = Files.newBufferedReader(content.bodyPath,
+                StandardCharsets.UTF_8)) {
+                parsed = new ParsedContent(content.version, parser.parse(reader));
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException("cannot read body of " + URL, e);
+            }
+            parsedContents.put(URL, parsed);
+        }
+        return (T) parsed.value;
+    }
+    
+    /**
+     * @return The directory given by -Dilp.httpCacheDir, or else the ilp-cache directory in the
+     * build directory the classes were built in, so it does not depend on the working directory.
+     */
+    private static Path getCacheDirectory() {
+        String configured = System.getProperty("ilp.httpCacheDir");
+        if (configured != null) {
+            return Path.of(configured).toAbsolutePath();
+        }
+        try {
+            // target/classes or the jar in target, either way the cache goes in target
+            Path buildOutput = Path.of(HttpContentCache.class.getProtectionDomain()
+                .getCodeSource().getLocation().toURI());
+            return buildOutput.getParent().resolve("ilp-cache");
+        }
+        catch (URISyntaxException | RuntimeException e) {
+            return Path.of(".ilp-cache").toAbsolutePath();
+        }
+    }
+    
+    /**
+     * @param bodyPath The path the cached body is stored at.
+     * @param metadataPath The path the validators of the cached body are stored at.
+     * @return The validators of the cached body, empty if there is no usable cache entry.
+     */
+    private static Properties readMetadata(Path bodyPath, Path metadataPath) {
+        Properties metadata = new Properties();
+        if (!Files.exists(bodyPath) || !Files.exists(metadataPath)) {
+            return metadata;
+        }
+        try (InputStream inputStream = Files.newInputStream(metadataPath)) {
+            metadata.load(inputStream);
+            if (metadata.getProperty(SHA256) == null) {
+                metadata.clear();  // written by an older version, cannot tell its version
+            }
+        }
+        catch (IOException e) {
+            System.err.printf("cannot read cache entry %s, ignoring it\n", metadataPath);
+            metadata.clear();
+        }
+        return metadata;
+    }
+    
+    /**
+     * Streams a body into the cache, hashing it on the way. Its validators are only stored if
+     * the webserver gave any, otherwise the body is fetched in full again next time.
+     * @param bodyPath The path to store the body at.
+     * @param metadataPath The path to store the validators of the body at.
+     * @param body The body to store.
+     * @param metadata The validators of the body, the hash of the body is added to them.
+     * @throws IOException If the body cannot be stored.
+     */
+    private static void writeCacheEntry(Path bodyPath, Path metadataPath, InputStream body,
+                                        Properties metadata) throws IOException {
+        // drop the old entry first, so the body and validators never mismatch
+        Files.deleteIfExists(metadataPath);
+        Files.createDirectories(CACHE_DIRECTORY);
+        Path temporaryPath = Files.createTempFile(CACHE_DIRECTORY, "download", ".body");
+        try {
+            MessageDigest digest = newSha256Digest();
+            Files.copy(new DigestInputStream(body, digest), temporaryPath,
+                StandardCopyOption.REPLACE_EXISTING);
+            metadata.setProperty(SHA256, toHex(digest.digest()));
+            Files.move(temporaryPath, bodyPath, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally {
+            Files.deleteIfExists(temporaryPath);
+        }
+        if (metadata.getProperty(ETAG) == null && metadata.getProperty(LAST_MODIFIED) == null) {
+            return;  // cannot be revalidated
+        }
+        try (OutputStream outputStream = Files.newOutputStream(metadataPath)) {
+            metadata.store(outputStream, null);
+        }
+        catch (IOException e) {
+            // not fatal, the body is just fetched in full again next time
+            System.err.printf("cannot write cache entry %s\n", metadataPath);
+        }
+    }
+    
+    /**
+     * The hash rather than the ETag, since a webserver may send the same ETag for changed content
+     * and parsed content must never be reused for a body it was not parsed from.
+     * @param metadata The validators and hash of the body.
+     * @return The version of the body, the hash of the body.
+     */
+    private static String getVersion(Properties metadata) {
+        return metadata.getProperty(SHA256, "");
+    }
+    
+    /**
+     * @param text The text to hash.
+     * @return The SHA-256 hash of the text in hex.
+     */
+    private static String sha256(String text) {
+        return toHex(newSha256Digest().digest(text.getBytes(StandardCharsets.UTF_8)));
+    }
+    
+    /**
+     * @return A new SHA-256 message digest.
+     */
+    private static MessageDigest newSha256Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    /**
+     * @param bytes The bytes.
+     * @return The bytes in hex.
+     */
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
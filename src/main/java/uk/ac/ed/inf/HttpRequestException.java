@@ -0,0 +1,30 @@
+package uk.ac.ed.inf;
+
+/**
+ * Thrown when a request to the webserver fails for good, i.e. after all retries, so the caller
+ * can decide whether to carry on without the response or give up.
+ */
+public class HttpRequestException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+    private final String url;
+    public final int statusCode;  // -1 if no response was received at all
+    
+    /**
+     * @param url The URL requested.
+     * @param statusCode The status code of the last response, -1 if there was none.
+     * @param message The description of the failure.
+     * @param cause The exception of the last attempt, null if it got a response.
+     */
+    public HttpRequestException(String url, int statusCode, String message, Throwable cause) {
+        super(message, cause);
+        this.url = url;
+        this.statusCode = statusCode;
+    }
+    
+    /**
+     * @return The URL requested.
+     */
+    public String getUrl() {
+        return url;
+    }
+}
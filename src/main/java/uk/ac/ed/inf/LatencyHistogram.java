@@ -0,0 +1,57 @@
+package uk.ac.ed.inf;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of request latencies with power of 2 millisecond buckets, bucket 0 holds latencies
+ * under 1ms and bucket i latencies in [2^(i-1), 2^i) ms. Safe to record into from many threads.
+ */
+public class LatencyHistogram {
+    private static final int BUCKET_COUNT = 32;
+    
+    private final AtomicLongArray bucketCounts = new AtomicLongArray(BUCKET_COUNT);
+    
+    /**
+     * @param nanos The latency to record, in nanoseconds.
+     */
+    public void record(long nanos) {
+        long millis = nanos / 1_000_000;
+        int bucket = Math.min(64 - Long.numberOfLeadingZeros(millis), BUCKET_COUNT - 1);
+        bucketCounts.incrementAndGet(bucket);
+    }
+    
+    /**
+     * @return The number of latencies recorded.
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            count += bucketCounts.get(i);
+        }
+        return count;
+    }
+    
+    /**
+     * @param percentile The percentile, between 0 and 100.
+     * @return The upper bound in ms of the bucket holding the percentile, 0 if nothing recorded.
+     */
+    public long getPercentileMillis(double percentile) {
+        long count = getCount();
+        long rank = (long) Math.ceil(count * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += bucketCounts.get(i);
+            if (seen >= rank && seen > 0) {
+                return 1L << i;
+            }
+        }
+        return 0;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("n=%d p50<%dms p90<%dms p99<%dms max<%dms", getCount(),
+            getPercentileMillis(50), getPercentileMillis(90), getPercentileMillis(99),
+            getPercentileMillis(100));
+    }
+}
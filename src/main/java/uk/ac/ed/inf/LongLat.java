@@ -2,26 +2,35 @@ package uk.ac.ed.inf;
 
 import com.mapbox.geojson.Point;
 
-import java.util.Objects;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Represents a point with its longitude and latitude
+ * <br><br>
+ * LongLats are the keys of most maps used in planning, so the hash is computed once up front.
+ * The fixed locations (waypoints, shops, delivery locations and APPLETON TOWER) are canonical
+ * instances, see LongLat#of, so comparing two of them is usually a reference comparison.
  */
 public class LongLat {
     public final double longitude;
     public final double latitude;
+    private final int hash;
+    
+    // one instance for every fixed location seen, only ever grows by the locations of the map
+    private static final Map<LongLat, LongLat> canonicalInstances = new ConcurrentHashMap<>();
     
     // drone confinement area constants
-    private static final double LONGITUDE_CONFINEMENT_MIN = -3.192473;
-    private static final double LONGITUDE_CONFINEMENT_MAX = -3.184319;
-    private static final double LATITUDE_CONFINEMENT_MIN = 55.942617;
-    private static final double LATITUDE_CONFINEMENT_MAX = 55.946233;
+    static final double LONGITUDE_CONFINEMENT_MIN = -3.192473;
+    static final double LONGITUDE_CONFINEMENT_MAX = -3.184319;
+    static final double LATITUDE_CONFINEMENT_MIN = 55.942617;
+    static final double LATITUDE_CONFINEMENT_MAX = 55.946233;
     
     // used as part of the definition of 2 points being close to each other, in degrees
-    private static final double DISTANCE_TOLERANCE = 0.00015;
+    public static final double DISTANCE_TOLERANCE = 0.00015;
     
     // distance of every move for the drone, in degrees
-    private static final double MOVE_DISTANCE = 0.00015;
+    public static final double MOVE_DISTANCE = 0.00015;
     
     /**
      * Construct a point with given longitude and latitude.
@@ -31,6 +40,7 @@ public class LongLat {
     public LongLat(double longitude, double latitude) {
         this.longitude = longitude;
         this.latitude = latitude;
+        this.hash = hash(longitude, latitude);
     }
     
     /**
@@ -38,8 +48,37 @@ public class LongLat {
      * @param point A mapbox Point instance.
      */
     public LongLat(Point point) {
-        this.longitude = point.longitude();
-        this.latitude = point.latitude();
+        this(point.longitude(), point.latitude());
+    }
+    
+    /**
+     * The canonical instance of a fixed location, for points that are looked up over and over.
+     * @param longitude longitude of the point.
+     * @param latitude  latitude of the point.
+     * @return The one instance of LongLat with the given coordinates, created on first use.
+     */
+    public static LongLat of(double longitude, double latitude) {
+        return canonical(new LongLat(longitude, latitude));
+    }
+    
+    /**
+     * @param point A point.
+     * @return The canonical instance equal to the point, the point itself if there was none.
+     */
+    public static LongLat canonical(LongLat point) {
+        LongLat existing = canonicalInstances.putIfAbsent(point, point);
+        return existing == null ? point : existing;
+    }
+    
+    /**
+     * Same as Objects.hash(longitude, latitude), without boxing, so hash based collections
+     * iterate in the same order as before the hash was cached.
+     * @param longitude longitude of the point.
+     * @param latitude  latitude of the point.
+     * @return The hash code of a point with the coordinates.
+     */
+    private static int hash(double longitude, double latitude) {
+        return 31 * (31 + Double.hashCode(longitude)) + Double.hashCode(latitude);
     }
     
     /**
@@ -85,13 +124,13 @@ public class LongLat {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         LongLat longLat = (LongLat) o;
-        return Double.compare(longLat.longitude, longitude) == 0 &&
+        return hash == longLat.hash && Double.compare(longLat.longitude, longitude) == 0 &&
             Double.compare(longLat.latitude, latitude) == 0;
     }
     
     @Override
     public int hashCode() {
-        return Objects.hash(longitude, latitude);
+        return hash;
     }
     
     @Override
@@ -104,6 +143,8 @@ public class LongLat {
     
     /**
      * Whether or not the point is <i>strictly</i> within the defined confinement area.
+     * This is the rectangular default area, see GeojsonManager#isConfined for the area loaded
+     * from the confinement zone file.
      * @return True if within confinement, false if not.
      */
     public boolean isConfined() {
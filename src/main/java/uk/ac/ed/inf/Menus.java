@@ -1,10 +1,12 @@
 package uk.ac.ed.inf;
 
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
 
-import java.lang.reflect.Type;
+import java.io.IOException;
+import java.io.Reader;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -12,6 +14,9 @@ import java.util.Map;
 /**
  * Responsible for marshalling, processing and retrieving data for order items.
  * Should only be instantiated once per drone/webserver.
+ * Items and shops are interned to dense int ids when the menus are loaded, so that pricing and
+ * pickup resolution are array lookups. Item ids and shop ids follow the order in which they
+ * appear in the menus.
  */
 public class Menus {
     private static final int DELIVERY_CHARGE = 50;  // +50p for every delivery
@@ -22,30 +27,204 @@ public class Menus {
     
     // according to a piazza question, "each item is sold by exactly one shop".
     // so using item names as keys should not be a problem
-    private final Map<String, Integer> itemPenceMap = new HashMap<>();  // price of item
-    private final Map<String, String> itemLocationMap = new HashMap<>();  // where is the item sold
+    private final Map<String, Integer> itemIds;
+    private final int[] itemPence;  // price of item, indexed by item id
+    private final int[] itemShops;  // which shop the item is sold by, indexed by item id
+    private final String[] shopLocations;  // w3w location of shop, indexed by shop id
+    private final LongLat[] shopLngLats;  // indexed by shop id
     
     /**
      * @param server Server name.
      * @param port Port of server.
+     * @param what3WordsManager The what3Words manager used to locate every shop once.
      */
-    public Menus(String server, String port) {
-        String responseStr = Utils.sendHttpRequest(server, port,
-            String.format(menusEndpoint, server, port));
-
-        // perform deserialization of the response
-        Type menuEntryListType = new TypeToken<List<MenuEntry>>() {}.getType();
-        ArrayList<MenuEntry> menuEntries = new Gson().fromJson(responseStr, menuEntryListType);
-        for (MenuEntry entry : menuEntries) {
-            String location = entry.location;
-            for (MenuEntry.MenuItem menuItem : entry.menu) {
-                // store price of each item
-                itemPenceMap.put(menuItem.item, menuItem.pence);
-                // store location (w3w) of item
-                itemLocationMap.put(menuItem.item, location);
+    public Menus(String server, String port, What3WordsManager what3WordsManager) {
+        // stream the response into the catalogue, unless the menus are unchanged since last time
+        MenuCatalogue catalogue = HttpContentCache.fetchParsed(server, port,
+            String.format(menusEndpoint, server, port), MenuCatalogue::new);
+        this.itemIds = catalogue.itemIds;
+        this.itemPence = catalogue.itemPence;
+        this.itemShops = catalogue.itemShops;
+        this.shopLocations = catalogue.shopLocations;
+        this.shopLngLats = new LongLat[shopLocations.length];
+        for (int shopId = 0; shopId < shopLocations.length; shopId++) {
+            shopLngLats[shopId] = what3WordsManager.getLongLatFromWords(shopLocations[shopId]);
+        }
+    }
+    
+    /**
+     * The interned items and shops of menus.json, read straight off the stream without
+     * deserializing the menus into objects first. Never modified once read.
+     */
+    private static class MenuCatalogue {
+        final Map<String, Integer> itemIds = new HashMap<>();
+        final int[] itemPence;
+        final int[] itemShops;
+        final String[] shopLocations;
+        
+        /**
+         * @param reader The menus json, an array of shops with name, location and menu.
+         * @throws IOException If the json cannot be read.
+         */
+        MenuCatalogue(Reader reader) throws IOException {
+            Map<String, Integer> shopIds = new HashMap<>();  // keyed by w3w location
+            List<Integer> pence = new ArrayList<>();
+            List<Integer> shops = new ArrayList<>();
+            List<String> locations = new ArrayList<>();
+            List<String> entryItems = new ArrayList<>();
+            List<Integer> entryPence = new ArrayList<>();
+            JsonReader jsonReader = new JsonReader(reader);
+            jsonReader.beginArray();
+            while (jsonReader.hasNext()) {
+                // the location may come after the menu, so the items are interned afterwards
+                String location = null;
+                entryItems.clear();
+                entryPence.clear();
+                jsonReader.beginObject();
+                while (jsonReader.hasNext()) {
+                    switch (jsonReader.nextName()) {
+                        case "location":
+                            location = jsonReader.nextString();
+                            break;
+                        case "menu":
+                            readMenu(jsonReader, entryItems, entryPence);
+                            break;
+                        default:
+                            jsonReader.skipValue();
+                    }
+                }
+                jsonReader.endObject();
+                Integer shopId = shopIds.get(location);
+                if (shopId == null) {
+                    shopId = locations.size();
+                    shopIds.put(location, shopId);
+                    locations.add(location);
+                }
+                for (int i = 0; i < entryItems.size(); i++) {
+                    Integer itemId = itemIds.get(entryItems.get(i));
+                    if (itemId == null) {
+                        itemIds.put(entryItems.get(i), pence.size());
+                        pence.add(entryPence.get(i));
+                        shops.add(shopId);
+                    }
+                    else {
+                        // same as before interning, the last entry of an item wins
+                        pence.set(itemId, entryPence.get(i));
+                        shops.set(itemId, shopId);
+                    }
+                }
+            }
+            jsonReader.endArray();
+            this.itemPence = pence.stream().mapToInt(Integer::intValue).toArray();
+            this.itemShops = shops.stream().mapToInt(Integer::intValue).toArray();
+            this.shopLocations = locations.toArray(new String[0]);
+        }
+        
+        /**
+         * Reads the items of a shop's menu.
+         * @param jsonReader The reader positioned at the start of the menu array.
+         * @param items The list to add the item names to.
+         * @param pence The list to add the item prices to, in the same order.
+         * @throws IOException If the menu cannot be read.
+         */
+        private static void readMenu(JsonReader jsonReader, List<String> items,
+                                     List<Integer> pence) throws IOException {
+            jsonReader.beginArray();
+            while (jsonReader.hasNext()) {
+                String item = null;
+                int itemPence = 0;
+                jsonReader.beginObject();
+                while (jsonReader.hasNext()) {
+                    switch (jsonReader.nextName()) {
+                        case "item":
+                            item = jsonReader.nextString();
+                            break;
+                        case "pence":
+                            itemPence = jsonReader.nextInt();
+                            break;
+                        default:
+                            jsonReader.skipValue();
+                    }
+                }
+                jsonReader.endObject();
+                items.add(item);
+                pence.add(itemPence);
             }
+            jsonReader.endArray();
         }
     }
+    
+    /**
+     * @param items List of item names.
+     * @return The ids of the items, in the same order.
+     */
+    public int[] getItemIds(List<String> items) {
+        int[] ids = new int[items.size()];
+        for (int i = 0; i < ids.length; i++) {
+            // shouldn't get null as a result if item is valid
+            ids[i] = itemIds.get(items.get(i));
+        }
+        return ids;
+    }
+    
+    /**
+     * @param item The name of an item.
+     * @return Whether any shop sells the item.
+     */
+    public boolean isOnMenu(String item) {
+        return itemIds.containsKey(item);
+    }
+    
+    /**
+     * @return The price in pence of every item, indexed by item id. Must not be modified.
+     */
+    public int[] getItemPence() {
+        return itemPence;
+    }
+    
+    /**
+     * @return The id of the shop selling every item, indexed by item id. Must not be modified.
+     */
+    public int[] getItemShops() {
+        return itemShops;
+    }
+    
+    /**
+     * @return The number of distinct shops in the menus.
+     */
+    public int getShopCount() {
+        return shopLngLats.length;
+    }
+    
+    /**
+     * @param shopId The id of the shop.
+     * @return The location of the shop.
+     */
+    public LongLat getShopLngLat(int shopId) {
+        return shopLngLats[shopId];
+    }
+    
+    /**
+     * @param shopId The id of the shop.
+     * @return The w3w location string of the shop.
+     */
+    public String getShopLocation(int shopId) {
+        return shopLocations[shopId];
+    }
+    
+    /**
+     * Calculates cost in pence of having all of these items delivered by drone,
+     * including the standard delivery charge of 50p per delivery.
+     * @param itemIds array of item ids for which to calculate the total cost in pence.
+     * @return the delivery cost of the provided items.
+     */
+    public int getDeliveryCost(int[] itemIds) {
+        int cost = DELIVERY_CHARGE;
+        for (int itemId : itemIds) {
+            cost += itemPence[itemId];
+        }
+        return cost;
+    }
 
     /**
      * Calculates cost in pence of having all of these items delivered by drone,
@@ -54,11 +233,38 @@ public class Menus {
      * @return the delivery cost of the provided list of items.
      */
     public int getDeliveryCost(List<String> items) {
-        int cost = DELIVERY_CHARGE;
-        for (String item : items) {
-            cost += this.itemPenceMap.get(item);
+        return getDeliveryCost(getItemIds(items));
+    }
+    
+    /**
+     * @param itemIds The ids of items, intended to be the items from one order.
+     * @return The set of ids of the shops selling the items.
+     */
+    public BitSet getShopSet(int[] itemIds) {
+        BitSet shops = new BitSet(shopLngLats.length);
+        for (int itemId : itemIds) {
+            shops.set(itemShops[itemId]);
         }
-        return cost;
+        return shops;
+    }
+    
+    /**
+     * @param itemIds The ids of items, intended to be the items from one order.
+     * @return The ids of the shops selling the items, in the order they are first needed by the
+     * items. There should be either 1 or 2 of them, if used with items from one order.
+     */
+    public int[] getPickupShops(int[] itemIds) {
+        BitSet seen = new BitSet(shopLngLats.length);
+        int[] shops = new int[itemIds.length];
+        int shopCount = 0;
+        for (int itemId : itemIds) {
+            int shopId = itemShops[itemId];
+            if (!seen.get(shopId)) {
+                seen.set(shopId);
+                shops[shopCount++] = shopId;
+            }
+        }
+        return Arrays.copyOf(shops, shopCount);
     }
     
     /**
@@ -68,12 +274,8 @@ public class Menus {
      */
     public List<String> getItemsLocations(List<String> items) {
         ArrayList<String> locations = new ArrayList<>();
-        for (String item : items) {
-            // shouldn't get null as a result if item is valid
-            String location = itemLocationMap.get(item);
-            if (!locations.contains(location)) {
-                locations.add(location);
-            }
+        for (int shopId : getPickupShops(getItemIds(items))) {
+            locations.add(shopLocations[shopId]);
         }
         return locations;
     }
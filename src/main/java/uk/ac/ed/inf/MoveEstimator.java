@@ -0,0 +1,238 @@
+package uk.ac.ed.inf;
+
+import java.util.*;
+
+/**
+ * Estimates the moves of a leg from the path the pathfinder finds for it, without simulating the
+ * moves: moves = a * length / MOVE_DISTANCE + b * turns + c, where length is the length of the
+ * smoothed path and turns the number of waypoints the drone turns at on the way. The straight
+ * line prediction of PathSmoother underestimates legs near no fly zones, since the drone only
+ * gets close to every waypoint with moves at fixed angles, and every turn costs moves.
+ * <br><br>
+ * The coefficients are fitted by least squares to legs of the day that are actually simulated,
+ * and the residuals of those legs give the error of the estimates. Estimating a leg takes a map
+ * lookup once its path is known, so thousands of candidate routes can be compared per second.
+ */
+public class MoveEstimator {
+    private static final int HOVER_MOVES = 1;
+    private static final double ERROR_QUANTILE = 0.95;  // of the legs within the leg error bound
+    private static final double Z_95 = 1.96;  // of the normal distribution, for route bounds
+    
+    private final Drone drone;
+    // until calibrated, the straight line prediction: 1 move per MOVE_DISTANCE
+    private double[] coefficients = {1, 0, 0};
+    // features of every leg estimated so far, from -> to -> {length / MOVE_DISTANCE, turns, 1}
+    private final Map<LongLat, Map<LongLat, double[]>> legFeatures = new HashMap<>();
+    private final List<double[]> sampleFeatures = new ArrayList<>();
+    private final List<Integer> sampleMoves = new ArrayList<>();
+    private double rootMeanSquareError = 0;
+    private int legErrorBound = 0;  // moves, at ERROR_QUANTILE
+    private String calibration = "not calibrated";
+    
+    /**
+     * @param drone The drone used to find and simulate the paths of legs.
+     */
+    public MoveEstimator(Drone drone) {
+        this.drone = drone;
+    }
+    
+    /**
+     * Simulates legs between the locations and fits the coefficients to them, adding to the legs
+     * simulated by earlier calibrations.
+     * @param locations The locations the drone flies between, e.g. the shops and delivery
+     *                  locations of the day and APPLETON TOWER.
+     * @param legCount The number of legs to simulate, chosen at random (with a fixed seed) if
+     *                 there are more pairs of locations.
+     */
+    public void calibrate(List<LongLat> locations, int legCount) {
+        List<LongLat[]> legs = new ArrayList<>();
+        for (LongLat from : locations) {
+            for (LongLat to : locations) {
+                if (!from.equals(to)) {
+                    legs.add(new LongLat[]{from, to});
+                }
+            }
+        }
+        Collections.shuffle(legs, new Random(0));
+        for (LongLat[] leg : legs.subList(0, Math.min(legCount, legs.size()))) {
+            sampleFeatures.add(getFeatures(leg[0], leg[1]));
+            sampleMoves.add(drone.simulateLegMoves(leg[0], leg[1]));
+        }
+        fit();
+    }
+    
+    /**
+     * Fits the coefficients to the simulated legs by solving the normal equations, then computes
+     * the errors of the fitted estimates.
+     */
+    private void fit() {
+        int featureCount = coefficients.length;
+        if (sampleMoves.size() < featureCount) {
+            return;  // too few legs to fit, keep the straight line prediction
+        }
+        double[][] normal = new double[featureCount][featureCount + 1];  // [X^T X | X^T y]
+        for (int i = 0; i < sampleMoves.size(); i++) {
+            double[] features = sampleFeatures.get(i);
+            for (int row = 0; row < featureCount; row++) {
+                for (int column = 0; column < featureCount; column++) {
+                    normal[row][column] += features[row] * features[column];
+                }
+                normal[row][featureCount] += features[row] * sampleMoves.get(i);
+            }
+        }
+        double[] fitted = solve(normal);
+        if (fitted == null) {
+            System.err.println("cannot fit the move estimator, the legs are too much alike");
+            return;
+        }
+        double[] straightLineErrors = new double[sampleMoves.size()];
+        double[] errors = new double[sampleMoves.size()];
+        double squareErrorSum = 0;
+        for (int i = 0; i < sampleMoves.size(); i++) {
+            straightLineErrors[i] = Math.abs(sampleFeatures.get(i)[0] - sampleMoves.get(i));
+            errors[i] = Math.abs(dot(fitted, sampleFeatures.get(i)) - sampleMoves.get(i));
+            squareErrorSum += errors[i] * errors[i];
+        }
+        this.coefficients = fitted;
+        this.rootMeanSquareError = Math.sqrt(squareErrorSum / sampleMoves.size());
+        this.legErrorBound = (int) Math.ceil(getQuantile(errors, ERROR_QUANTILE));
+        this.calibration = String.format("moves = %.3f * length + %.2f * turns + %.2f from %d " +
+                "legs, mean error %.2f moves (straight line %.2f), %.0f%% of legs within %d",
+            fitted[0], fitted[1], fitted[2], sampleMoves.size(), getMean(errors),
+            getMean(straightLineErrors), ERROR_QUANTILE * 100, legErrorBound);
+    }
+    
+    /**
+     * Gaussian elimination with partial pivoting.
+     * @param augmented The augmented matrix [A | b] of a square system, modified in place.
+     * @return The solution x of A x = b, null if A is singular.
+     */
+    private static double[] solve(double[][] augmented) {
+        int n = augmented.length;
+        for (int pivot = 0; pivot < n; pivot++) {
+            int best = pivot;
+            for (int row = pivot + 1; row < n; row++) {
+                if (Math.abs(augmented[row][pivot]) > Math.abs(augmented[best][pivot])) {
+                    best = row;
+                }
+            }
+            double[] swap = augmented[pivot];
+            augmented[pivot] = augmented[best];
+            augmented[best] = swap;
+            if (Math.abs(augmented[pivot][pivot]) < 1e-9) {
+                return null;
+            }
+            for (int row = pivot + 1; row < n; row++) {
+                double factor = augmented[row][pivot] / augmented[pivot][pivot];
+                for (int column = pivot; column <= n; column++) {
+                    augmented[row][column] -= factor * augmented[pivot][column];
+                }
+            }
+        }
+        double[] solution = new double[n];
+        for (int row = n - 1; row >= 0; row--) {
+            double sum = augmented[row][n];
+            for (int column = row + 1; column < n; column++) {
+                sum -= augmented[row][column] * solution[column];
+            }
+            solution[row] = sum / augmented[row][row];
+        }
+        return solution;
+    }
+    
+    /**
+     * @param from The position to start the leg from.
+     * @param to The position to end the leg at.
+     * @return The features of the leg, {length / MOVE_DISTANCE, turns, 1}.
+     */
+    private double[] getFeatures(LongLat from, LongLat to) {
+        return legFeatures.computeIfAbsent(from, k -> new HashMap<>()).computeIfAbsent(to, k -> {
+            List<LongLat> waypoints = drone.getLegWaypoints(from, to);
+            double length = 0;
+            LongLat previous = from;
+            for (LongLat waypoint : waypoints) {
+                length += previous.distanceTo(waypoint);
+                previous = waypoint;
+            }
+            return new double[]{length / LongLat.MOVE_DISTANCE, waypoints.size() - 1, 1};
+        });
+    }
+    
+    /**
+     * @param from The position to start the leg from.
+     * @param to The position to end the leg at.
+     * @return The estimated moves of the leg, not including hovering at its end.
+     */
+    public int estimateLegMoves(LongLat from, LongLat to) {
+        if (from.closeTo(to)) {
+            return 0;
+        }
+        return (int) Math.max(0, Math.round(dot(coefficients, getFeatures(from, to))));
+    }
+    
+    /**
+     * @param route The orders to deliver, in order.
+     * @return The estimated moves of delivering the orders one after the other, starting and
+     * ending at APPLETON TOWER, hovering included.
+     */
+    public int estimateRouteMoves(List<DeliveryOrder> route) {
+        int moves = 0;
+        LongLat currentPosition = Drone.APPLETON_TOWER;
+        for (RouteStop stop : RouteStop.ofRoute(route)) {
+            moves += estimateLegMoves(currentPosition, stop.location) + HOVER_MOVES;
+            currentPosition = stop.location;
+        }
+        return moves + estimateLegMoves(currentPosition, Drone.APPLETON_TOWER);
+    }
+    
+    /**
+     * Assumes the errors of the legs are independent and normally distributed, so this is a
+     * rough bound only.
+     * @param route The orders to deliver, in order.
+     * @return The number of moves the estimate of the route is off by at most, about 95% of the
+     * time.
+     */
+    public int getRouteErrorBound(List<DeliveryOrder> route) {
+        int legCount = RouteStop.ofRoute(route).size() + 1;
+        return (int) Math.ceil(Z_95 * rootMeanSquareError * Math.sqrt(legCount));
+    }
+    
+    /**
+     * @return The fitted coefficients and the errors of the estimates, for printing.
+     */
+    public String getCalibration() {
+        return calibration;
+    }
+    
+    /**
+     * @param a A vector.
+     * @param b A vector of the same length.
+     * @return The dot product of the vectors.
+     */
+    private static double dot(double[] a, double[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+    
+    /**
+     * @param values The values.
+     * @return The mean of the values.
+     */
+    private static double getMean(double[] values) {
+        return Arrays.stream(values).average().orElse(0);
+    }
+    
+    /**
+     * @param values The values, sorted in place.
+     * @param quantile The quantile, in [0, 1].
+     * @return The smallest value at least the given fraction of the values are at most.
+     */
+    private static double getQuantile(double[] values, double quantile) {
+        Arrays.sort(values);
+        int index = (int) Math.ceil(quantile * values.length) - 1;
+        return values[Math.max(0, Math.min(values.length - 1, index))];
+    }
+}
@@ -0,0 +1,18 @@
+package uk.ac.ed.inf;
+
+import java.util.List;
+
+/**
+ * Plans the actual moves of the drone from its position to a waypoint. A move is a straight line
+ * of the move distance in a direction that is a multiple of 10 degrees, see LongLat#nextPosition.
+ */
+public interface MovePlanner {
+    /**
+     * Plans the moves to get close to the waypoint. Every move must stay within confinement and
+     * must not cross the no fly zone.
+     * @param from The position to start moving from.
+     * @param waypoint The waypoint to get close to.
+     * @return The angles of the moves in order, after which the drone is close to the waypoint.
+     */
+    List<Integer> planMoves(LongLat from, LongLat waypoint);
+}
@@ -0,0 +1,315 @@
+package uk.ac.ed.inf;
+
+import java.util.*;
+
+/**
+ * Inserts orders arriving after a day has been planned into the planned tour, without planning
+ * the day again. The cheapest position for a new order is found from the predicted moves of the
+ * legs it adds and removes, so quoting an order only needs the pathfinder for the legs to and
+ * from the new order's stops. Accepting an order keeps the flightpath up to the insertion point
+ * as it is, plans the legs of the new order and the leg from it to the next stop, and replays the
+ * moves of the rest of the tour from there, see replayLeg.
+ * Safe to use from several threads, inserts are applied one at a time.
+ */
+public class OnlineTourPlanner {
+    private static final int HOVER_MOVES = 1;
+    // positions tried by simulation before giving up on an order predicted to fit
+    private static final int MAX_SIMULATED_POSITIONS = 3;
+    
+    private final Drone drone;
+    private final List<DeliveryOrder> placedOrders;
+    private final List<DeliveryOrder> tour;  // the orders delivered, in order
+    private List<Flightpath> flightpaths;
+    // predicted moves of every leg evaluated so far, from -> to -> moves
+    private final Map<LongLat, Map<LongLat, Integer>> legMoves = new HashMap<>();
+    
+    /**
+     * The cheapest feasible position of an order in the tour, if there is one.
+     */
+    public static class Quote {
+        public final boolean feasible;
+        public final int position;  // index in the tour the order would be delivered at
+        public final int predictedMoves;  // of the whole flight with the order inserted
+        
+        Quote(boolean feasible, int position, int predictedMoves) {
+            this.feasible = feasible;
+            this.position = position;
+            this.predictedMoves = predictedMoves;
+        }
+    }
+    
+    /**
+     * The orders and flight of the plan at some point, to go back to if the orders inserted since
+     * cannot be written.
+     */
+    public static class Checkpoint {
+        private final List<DeliveryOrder> placedOrders;
+        private final List<DeliveryOrder> tour;
+        private final List<Flightpath> flightpaths;
+        
+        Checkpoint(List<DeliveryOrder> placedOrders, List<DeliveryOrder> tour,
+                   List<Flightpath> flightpaths) {
+            this.placedOrders = placedOrders;
+            this.tour = tour;
+            this.flightpaths = flightpaths;
+        }
+    }
+    
+    /**
+     * A position in the tour with the number of moves inserting an order there is predicted to
+     * add.
+     */
+    private static class Insertion {
+        final int position;
+        final int extraMoves;
+        
+        Insertion(int position, int extraMoves) {
+            this.position = position;
+            this.extraMoves = extraMoves;
+        }
+    }
+    
+    /**
+     * @param drone The drone that planned the day, used to predict and simulate moves.
+     * @param plan The plan of the day, as planned by drone.
+     */
+    public OnlineTourPlanner(Drone drone, DeliveryPlan plan) {
+        this.drone = drone;
+        this.placedOrders = new ArrayList<>(plan.placedOrders);
+        this.tour = new ArrayList<>(plan.deliveredOrders);
+        this.flightpaths = plan.flightpaths;
+    }
+    
+    /**
+     * @return The drone of the day, whose plan this is.
+     */
+    public Drone getDrone() {
+        return drone;
+    }
+    
+    /**
+     * @return The current plan of the day, with every order accepted so far.
+     */
+    public synchronized DeliveryPlan getPlan() {
+        return new DeliveryPlan(new ArrayList<>(placedOrders), new ArrayList<>(tour),
+            flightpaths);
+    }
+    
+    /**
+     * @return The current plan, to roll back to. The flightpaths are never changed in place, only
+     * replaced, so they are not copied.
+     */
+    public synchronized Checkpoint checkpoint() {
+        return new Checkpoint(new ArrayList<>(placedOrders), new ArrayList<>(tour), flightpaths);
+    }
+    
+    /**
+     * Undoes every insert since the checkpoint was taken.
+     * @param checkpoint A checkpoint of this plan.
+     */
+    public synchronized void rollback(Checkpoint checkpoint) {
+        placedOrders.clear();
+        placedOrders.addAll(checkpoint.placedOrders);
+        tour.clear();
+        tour.addAll(checkpoint.tour);
+        flightpaths = checkpoint.flightpaths;
+    }
+    
+    /**
+     * @param order An order.
+     * @return Whether the order is delivered in the current plan.
+     */
+    public synchronized boolean contains(DeliveryOrder order) {
+        return tour.contains(order);
+    }
+    
+    /**
+     * Finds where the order would be inserted, without changing the plan.
+     * @param order The new order.
+     * @return The cheapest position for the order, not feasible if the flight is predicted to go
+     * over MAX_MOVES wherever it is inserted.
+     * @throws IllegalArgumentException If the order is already in the tour.
+     */
+    public synchronized Quote quote(DeliveryOrder order) {
+        List<Insertion> insertions = getFeasibleInsertions(order);
+        if (insertions.isEmpty()) {
+            return new Quote(false, -1, -1);
+        }
+        Insertion cheapest = insertions.get(0);
+        return new Quote(true, cheapest.position, flightpaths.size() + cheapest.extraMoves);
+    }
+    
+    /**
+     * Inserts the order at the cheapest position the simulated flight stays within MAX_MOVES at,
+     * trying the few cheapest positions predicted to fit.
+     * @param order The new order.
+     * @return Whether the order was inserted, the plan is unchanged if it was not.
+     * @throws IllegalArgumentException If the order is already in the tour.
+     */
+    public synchronized boolean insert(DeliveryOrder order) {
+        List<Insertion> insertions = getFeasibleInsertions(order);
+        for (Insertion insertion : insertions.subList(0,
+            Math.min(MAX_SIMULATED_POSITIONS, insertions.size()))) {
+            int position = insertion.position;
+            List<Flightpath> newFlightpaths = simulateInsertion(order, position);
+            if (newFlightpaths.size() <= Drone.MAX_MOVES) {
+                tour.add(position, order);
+                placedOrders.add(order);
+                flightpaths = newFlightpaths;
+                return true;
+            }
+            System.out.printf("order %s at position %d needs %d moves, predicted %d\n",
+                order.orderNo, position, newFlightpaths.size(),
+                flightpaths.size() + insertion.extraMoves);
+        }
+        return false;
+    }
+    
+    /**
+     * The moves before the insertion point stay the same. The legs to the stops of the new order
+     * and from its delivery to the next stop are planned, the legs after that are replayed.
+     * @param order The new order.
+     * @param position The index in the tour to deliver the order at.
+     * @return The flight with the order inserted.
+     */
+    private List<Flightpath> simulateInsertion(DeliveryOrder order, int position) {
+        int unchangedMoves = getOrderStart(position);
+        List<Flightpath> newFlightpaths = new ArrayList<>(flightpaths.subList(0, unchangedMoves));
+        LongLat currentLngLat = unchangedMoves == 0 ? Drone.APPLETON_TOWER :
+            flightpaths.get(unchangedMoves - 1).getToLongLat();
+        LongLat previousStop = position == 0 ? Drone.APPLETON_TOWER :
+            tour.get(position - 1).deliveryLngLat;
+        List<RouteStop> stopsToPlan = RouteStop.ofRoute(List.of(order));
+        List<RouteStop> stopsToReplay = RouteStop.ofRoute(tour.subList(position, tour.size()));
+        int replayFrom = unchangedMoves;
+        if (!stopsToReplay.isEmpty()) {
+            // the leg from the new order to the next stop replaces the leg to it from previousStop
+            stopsToPlan.add(stopsToReplay.remove(0));
+            while (flightpaths.get(replayFrom).angle != -999) {
+                replayFrom++;
+            }
+            replayFrom++;
+        }
+        for (RouteStop stop : stopsToPlan) {
+            currentLngLat = drone.flyLeg(newFlightpaths, currentLngLat, previousStop,
+                stop.location, stop.getOrderNo(), true, 0);
+            previousStop = stop.location;
+        }
+        
+        // the old legs end with the hover at their stop, the flight back does not hover
+        for (int i = 0; i <= stopsToReplay.size(); i++) {
+            boolean flightBack = i == stopsToReplay.size();
+            int legEnd = replayFrom;
+            while (legEnd < flightpaths.size() &&
+                (flightBack || flightpaths.get(legEnd).angle != -999)) {
+                legEnd++;
+            }
+            legEnd = flightBack ? legEnd : legEnd + 1;
+            RouteStop stop = flightBack ? null : stopsToReplay.get(i);
+            LongLat stopLocation = flightBack ? Drone.APPLETON_TOWER : stop.location;
+            LongLat replayedLngLat = replayLeg(newFlightpaths, currentLngLat,
+                flightpaths.subList(replayFrom, legEnd), stopLocation);
+            if (replayedLngLat == null) {
+                replayedLngLat = drone.flyLeg(newFlightpaths, currentLngLat, previousStop,
+                    stopLocation, flightBack ? "" : stop.getOrderNo(), !flightBack, 0);
+            }
+            currentLngLat = replayedLngLat;
+            previousStop = stopLocation;
+            replayFrom = legEnd;
+        }
+        return newFlightpaths;
+    }
+    
+    /**
+     * Replays the moves of a leg of the old flight, the same angles in the same order, from where
+     * the drone is now. The drone is close to where it was at the start of the leg in the old
+     * flight, but not exactly there, so the leg is only replayed if it still gets close to its
+     * stop without crossing a no fly zone or leaving the confinement area. Replaying needs no
+     * pathfinding or move planning, which is what makes accepting an order fast.
+     * @param newFlightpaths The flightpath list to add the moves to, if the leg is replayed.
+     * @param currentLngLat Where the drone is.
+     * @param leg The moves of the leg in the old flight.
+     * @param stopLocation The location the leg has to get close to.
+     * @return The position of the drone at the end of the leg, null if it cannot be replayed.
+     */
+    private LongLat replayLeg(List<Flightpath> newFlightpaths, LongLat currentLngLat,
+                              List<Flightpath> leg, LongLat stopLocation) {
+        List<Flightpath> replayed = new ArrayList<>(leg.size());
+        for (Flightpath flightpath : leg) {
+            LongLat nextLngLat = currentLngLat.nextPosition(flightpath.angle);
+            if (flightpath.angle != -999 && !drone.isMoveAllowed(currentLngLat, nextLngLat)) {
+                return null;
+            }
+            replayed.add(new Flightpath(flightpath.orderNo, currentLngLat, flightpath.angle,
+                nextLngLat, flightpath.droneId, flightpath.sortie));
+            currentLngLat = nextLngLat;
+        }
+        if (!currentLngLat.closeTo(stopLocation)) {
+            return null;
+        }
+        newFlightpaths.addAll(replayed);
+        return currentLngLat;
+    }
+    
+    /**
+     * @param order The new order.
+     * @return The positions the order is predicted to fit at, cheapest first.
+     * @throws IllegalArgumentException If the order is already in the tour.
+     */
+    private List<Insertion> getFeasibleInsertions(DeliveryOrder order) {
+        if (tour.contains(order)) {
+            throw new IllegalArgumentException(String.format("order %s is already delivered",
+                order.orderNo));
+        }
+        int orderMoves = HOVER_MOVES;  // at first pickup
+        LongLat lastPickup = order.getPickup1();
+        if (order.getPickup2() != null) {
+            orderMoves += getLegMoves(lastPickup, order.getPickup2()) + HOVER_MOVES;
+            lastPickup = order.getPickup2();
+        }
+        orderMoves += getLegMoves(lastPickup, order.deliveryLngLat) + HOVER_MOVES;
+        
+        List<Insertion> insertions = new ArrayList<>();
+        for (int position = 0; position <= tour.size(); position++) {
+            LongLat previous = position == 0 ? Drone.APPLETON_TOWER :
+                tour.get(position - 1).deliveryLngLat;
+            LongLat next = position == tour.size() ? Drone.APPLETON_TOWER :
+                tour.get(position).getPickup1();
+            int extraMoves = getLegMoves(previous, order.getPickup1()) + orderMoves +
+                getLegMoves(order.deliveryLngLat, next) - getLegMoves(previous, next);
+            if (flightpaths.size() + extraMoves <= Drone.MAX_MOVES) {
+                insertions.add(new Insertion(position, extraMoves));
+            }
+        }
+        insertions.sort(Comparator.comparingInt(insertion -> insertion.extraMoves));
+        return insertions;
+    }
+    
+    /**
+     * @param position An index in the tour, up to its size.
+     * @return The index of the first flightpath of the order at position, or of the flight back
+     * to APPLETON TOWER if position is the size of the tour.
+     */
+    private int getOrderStart(int position) {
+        if (position == 0) {
+            return 0;
+        }
+        // every move towards an order is tagged with its orderNo, up to its delivery hover
+        String previousOrderNo = tour.get(position - 1).orderNo;
+        int start = flightpaths.size();
+        while (start > 0 && !flightpaths.get(start - 1).orderNo.equals(previousOrderNo)) {
+            start--;
+        }
+        return start;
+    }
+    
+    /**
+     * @param from The position to start the leg from.
+     * @param to The position to end the leg at.
+     * @return The predicted number of moves for the leg, not including hovering.
+     */
+    private int getLegMoves(LongLat from, LongLat to) {
+        return legMoves.computeIfAbsent(from, key -> new HashMap<>())
+            .computeIfAbsent(to, key -> drone.predictLegMoves(from, to));
+    }
+}
@@ -0,0 +1,182 @@
+package uk.ac.ed.inf;
+
+import uk.ac.ed.inf.AStarPathFinder.AStarPathfinder;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Post-processes the waypoints found by the pathfinder before the drone moves to them.
+ * Waypoints are vertices of no fly zones, which the drone can only get close to with many small
+ * corrective moves, since any of its moves that touches a perimeter is rejected.
+ * The smoother adjusts the intermediate waypoints of a path to cut down the number of moves,
+ * the final waypoint (pickup or delivery location) is never altered.
+ */
+public class PathSmoother {
+    // how far a waypoint is pushed away from its no fly zone vertex, in degrees
+    private static final double VERTEX_OFFSET = 0.00003;
+    
+    private final GeojsonManager geojsonManager;
+    private final AStarPathfinder pathfinder;
+    // outward unit vector (as LongLat) of every convex no fly zone vertex
+    private final Map<LongLat, LongLat> vertexOutwardDirections = new HashMap<>();
+    
+    /**
+     * @param geojsonManager The GeojsonManager holding the no fly zones.
+     * @param pathfinder The pathfinder the paths are found with, whose rules skipped waypoints
+     *                   must follow.
+     */
+    public PathSmoother(GeojsonManager geojsonManager, AStarPathfinder pathfinder) {
+        this.geojsonManager = geojsonManager;
+        this.pathfinder = pathfinder;
+        for (double[] ring : geojsonManager.getNoFlyZoneRings()) {
+            // the last point is the same as first
+            List<LongLat> vertices = new ArrayList<>();
+            for (int j = 0; j + 2 < ring.length; j += 2) {
+                vertices.add(LongLat.of(ring[j], ring[j + 1]));
+            }
+            double signedArea = 0;
+            for (int i = 0; i < vertices.size(); i++) {
+                signedArea += vertices.get(i).crossProduct(vertices.get((i + 1) % vertices.size()));
+            }
+            for (int i = 0; i < vertices.size(); i++) {
+                LongLat previous = vertices.get((i - 1 + vertices.size()) % vertices.size());
+                LongLat vertex = vertices.get(i);
+                LongLat next = vertices.get((i + 1) % vertices.size());
+                double turn = vertex.minus(previous).crossProduct(next.minus(vertex));
+                // only convex vertices, shortest paths never bend around reflex ones
+                if (turn * signedArea <= 0) {
+                    continue;
+                }
+                // the exterior bisector points away from both neighbouring vertices
+                LongLat toPrevious = previous.minus(vertex);
+                LongLat toNext = next.minus(vertex);
+                double previousLength = vertex.distanceTo(previous);
+                double nextLength = vertex.distanceTo(next);
+                double directionLng = -(toPrevious.longitude / previousLength +
+                    toNext.longitude / nextLength);
+                double directionLat = -(toPrevious.latitude / previousLength +
+                    toNext.latitude / nextLength);
+                double directionLength = Math.hypot(directionLng, directionLat);
+                if (directionLength > 0) {
+                    vertexOutwardDirections.put(vertex, new LongLat(
+                        directionLng / directionLength, directionLat / directionLength));
+                }
+            }
+        }
+    }
+    
+    /**
+     * Smooths the path from start through the given waypoints, in three passes: waypoints that
+     * can be skipped because the one after is in sight are removed, vertices are pushed outwards
+     * so the drone does not need to hug the perimeter, and leg ends are snapped onto the lattice
+     * of whole moves in a valid direction where close enough.
+     * @param start The starting point of the path.
+     * @param waypoints The waypoints as returned by pathfinder#findPath, ending with the goal.
+     * @return The adjusted waypoints, ending with the same goal.
+     */
+    public List<LongLat> smooth(LongLat start, List<LongLat> waypoints) {
+        List<LongLat> smoothed = skipWaypointsInSight(start, waypoints);
+        LongLat previous = start;
+        for (int i = 0; i < smoothed.size() - 1; i++) {
+            LongLat next = smoothed.get(i + 1);
+            LongLat adjusted = offsetFromVertex(previous, smoothed.get(i), next);
+            adjusted = snapToMoveLattice(previous, adjusted, next);
+            smoothed.set(i, adjusted);
+            previous = adjusted;
+        }
+        return smoothed;
+    }
+    
+    /**
+     * @param start The starting point of the path.
+     * @param waypoints The waypoints of the path, ending with the goal.
+     * @return The waypoints without those whose next waypoint is already in sight, and the
+     * pathfinder could have gone to directly.
+     */
+    private List<LongLat> skipWaypointsInSight(LongLat start, List<LongLat> waypoints) {
+        List<LongLat> kept = new ArrayList<>();
+        LongLat previous = start;
+        for (int i = 0; i < waypoints.size() - 1; i++) {
+            // not just in sight, the leg must not go through a gap the pathfinder avoids
+            if (pathfinder.isAdmissibleEdge(previous, waypoints.get(i + 1))) {
+                continue;  // the one after can be flown to directly
+            }
+            kept.add(waypoints.get(i));
+            previous = waypoints.get(i);
+        }
+        kept.add(waypoints.get(waypoints.size() - 1));
+        return kept;
+    }
+    
+    /**
+     * @param previous The point flown from.
+     * @param waypoint The waypoint to adjust.
+     * @param next The point flown to afterwards.
+     * @return The waypoint pushed out from its vertex, or waypoint itself if it is not a convex
+     * vertex or the pushed out point cannot be flown through.
+     */
+    private LongLat offsetFromVertex(LongLat previous, LongLat waypoint, LongLat next) {
+        LongLat direction = vertexOutwardDirections.get(waypoint);
+        if (direction == null) {
+            return waypoint;
+        }
+        LongLat offset = new LongLat(waypoint.longitude + VERTEX_OFFSET * direction.longitude,
+            waypoint.latitude + VERTEX_OFFSET * direction.latitude);
+        return isFlyableVia(previous, offset, next) ? offset : waypoint;
+    }
+    
+    /**
+     * @param previous The point flown from.
+     * @param waypoint The waypoint to adjust.
+     * @param next The point flown to afterwards.
+     * @return The point a whole number of moves away from previous in the valid direction closest
+     * to waypoint, if it is close to waypoint and can be flown through, otherwise waypoint itself.
+     */
+    private LongLat snapToMoveLattice(LongLat previous, LongLat waypoint, LongLat next) {
+        int angle = previous.degreeTo(waypoint);
+        long moveCount = Math.round(previous.distanceTo(waypoint) / LongLat.MOVE_DISTANCE);
+        if (moveCount == 0) {
+            return waypoint;
+        }
+        LongLat snapped = new LongLat(
+            previous.longitude + moveCount * LongLat.MOVE_DISTANCE * Math.cos(Math.toRadians(angle)),
+            previous.latitude + moveCount * LongLat.MOVE_DISTANCE * Math.sin(Math.toRadians(angle)));
+        if (snapped.distanceTo(waypoint) < LongLat.DISTANCE_TOLERANCE / 2 &&
+            isFlyableVia(previous, snapped, next)) {
+            return snapped;
+        }
+        return waypoint;
+    }
+    
+    /**
+     * @param previous The point flown from.
+     * @param via The point flown through.
+     * @param next The point flown to afterwards.
+     * @return Whether both legs are clear of no fly zones and via is within confinement.
+     */
+    private boolean isFlyableVia(LongLat previous, LongLat via, LongLat next) {
+        return geojsonManager.isConfined(via) && !geojsonManager.lineCrossesNoFlyZone(previous, via) &&
+            !geojsonManager.lineCrossesNoFlyZone(via, next);
+    }
+    
+    /**
+     * Predicts the number of moves needed to fly through the waypoints, assuming every leg is
+     * flown in straight moves until within the distance tolerance of its waypoint.
+     * @param start The starting point.
+     * @param waypoints The waypoints to fly through.
+     * @return The predicted number of moves, not including any hovering.
+     */
+    public static int predictMoveCount(LongLat start, List<LongLat> waypoints) {
+        int moveCount = 0;
+        LongLat previous = start;
+        for (LongLat waypoint : waypoints) {
+            double distance = previous.distanceTo(waypoint) - LongLat.DISTANCE_TOLERANCE;
+            moveCount += (int) Math.ceil(Math.max(distance, 0) / LongLat.MOVE_DISTANCE);
+            previous = waypoint;
+        }
+        return moveCount;
+    }
+}
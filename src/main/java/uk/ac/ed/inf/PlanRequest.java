@@ -0,0 +1,19 @@
+package uk.ac.ed.inf;
+
+import java.util.List;
+
+
+/**
+ * For marshalling the json body of an ad-hoc plan request to the planning service.
+ */
+public class PlanRequest {
+    String date;  // yyyy-mm-dd, optional
+    List<Order> orders;
+    
+    static class Order {
+        String orderNo;
+        String customer;
+        String deliverTo;  // w3w string
+        List<String> items;
+    }
+}
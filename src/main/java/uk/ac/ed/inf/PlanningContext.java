@@ -0,0 +1,49 @@
+package uk.ac.ed.inf;
+
+import uk.ac.ed.inf.AStarPathFinder.AStarPathfinder;
+
+/**
+ * Everything a drone needs to plan deliveries that does not depend on the date planned for: the
+ * menus, the no fly zones, the pathfinder graph and the database. Immutable and safe to share
+ * between drones planning on several threads at the same time, so it only needs to be built once
+ * for many plans.
+ */
+public class PlanningContext {
+    public final String server;
+    public final String serverPort;
+    public final DBManager dbManager;
+    public final What3WordsManager what3WordsManager;
+    public final Menus menus;
+    public final GeojsonManager geojsonManager;
+    public final AStarPathfinder pathfinder;
+    public final PathSmoother pathSmoother;
+    
+    /**
+     * Fetches the menus and no fly zones and builds the pathfinder graph.
+     * @param server Server name.
+     * @param serverPort Port of server.
+     * @param dbManager The database to read orders from and write plans to.
+     * @throws HttpRequestException If the menus or no fly zones cannot be fetched.
+     */
+    public PlanningContext(String server, String serverPort, DBManager dbManager) {
+        this.server = server;
+        this.serverPort = serverPort;
+        this.dbManager = dbManager;
+        this.what3WordsManager = new What3WordsManager(server, serverPort);
+        this.menus = new Menus(server, serverPort, what3WordsManager);
+        this.geojsonManager = new GeojsonManager(server, serverPort);
+        this.pathfinder = new AStarPathfinder(geojsonManager);
+        this.pathSmoother = new PathSmoother(geojsonManager, pathfinder);
+    }
+    
+    /**
+     * Builds the context again from the webserver's current content, sharing the database.
+     * Content that has not changed since is not parsed again, nor is the pathfinder graph built
+     * again if the no fly zones are unchanged, see HttpContentCache.
+     * @return A new context, this one is left as it is for plans still using it.
+     * @throws HttpRequestException If the menus or no fly zones cannot be fetched.
+     */
+    public PlanningContext refreshed() {
+        return new PlanningContext(server, serverPort, dbManager);
+    }
+}
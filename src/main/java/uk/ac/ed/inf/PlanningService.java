@@ -0,0 +1,492 @@
+package uk.ac.ed.inf;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonWriter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+/**
+ * Long-running planning service, keeping the menus, no fly zones, pathfinder graph and caches of
+ * a PlanningContext warm across plans, so a plan only pays for the planning itself.
+ * Plans are requested over a local HTTP API and run concurrently on a pool of worker threads:
+ * <ul>
+ *     <li>GET /plan?date=yyyy-mm-dd plans the orders placed for the date, and writes the
+ *     deliveries and flightpath tables and the geojson file as the command line does, unless
+ *     write=false is given.</li>
+ *     <li>POST /plan with a PlanRequest as body plans the given orders, which need not be in the
+ *     database, nothing is written.</li>
+ *     <li>POST /plan/insert?date=yyyy-mm-dd with a PlanRequest as body inserts the orders, one
+ *     by one, into the last plan got from GET /plan for the date, see OnlineTourPlanner. With
+ *     commit=false the orders are only quoted, each against the current plan, otherwise the plan
+ *     is updated and written unless write=false is given. Only the plans of the dates planned
+ *     most recently are kept, 7 unless set with the system property ilp.service.maxDayPlans.</li>
+ * </ul>
+ * The first two answer with the plan as json: the totals, the deliveries and flightpath rows.
+ * Plans are written before answering, and a failing database is answered with 503, the service
+ * carrying on with other requests. Orders whose insert cannot be written are rolled back out of
+ * the plan, so the request can be retried.
+ * The context is rebuilt from the webserver when it is older than the refresh interval, which is
+ * cheap as long as the webserver's content is unchanged.
+ */
+public class PlanningService {
+    private static final long DEFAULT_REFRESH_MILLIS = 60_000;
+    private static final int DEFAULT_MAX_DAY_PLANS = 7;
+    
+    private final Function<GeojsonManager, MovePlanner> movePlannerFactory;
+    private final boolean writeOrderFeatures;
+    private final long refreshMillis;
+    private final ExecutorService workers;
+    private final Object writeLock = new Object();  // plans writing the same tables take turns
+    // with date partitioned tables, only plans of the same date take turns
+    private final Map<LocalDate, Object> dateWriteLocks = new ConcurrentHashMap<>();
+    // the last plan of the dates planned most recently, for orders arriving later to be inserted
+    // into, each holds a drone with its caches so the least recently used are dropped
+    private final Map<LocalDate, OnlineTourPlanner> dayPlans;
+    private PlanningContext context;
+    private long contextBuiltMillis;
+    private HttpServer server;
+    
+    /**
+     * @param context The context to start with.
+     * @param threadCount The number of plans run at the same time.
+     * @param movePlannerFactory Creates the move planner of every plan's drone.
+     * @param writeOrderFeatures Whether written geojson files get features per order.
+     */
+    public PlanningService(PlanningContext context, int threadCount,
+                           Function<GeojsonManager, MovePlanner> movePlannerFactory,
+                           boolean writeOrderFeatures) {
+        this.context = context;
+        this.contextBuiltMillis = System.currentTimeMillis();
+        this.movePlannerFactory = movePlannerFactory;
+        this.writeOrderFeatures = writeOrderFeatures;
+        this.refreshMillis = Long.getLong("ilp.service.refreshMs", DEFAULT_REFRESH_MILLIS);
+        int maxDayPlans = Integer.getInteger("ilp.service.maxDayPlans", DEFAULT_MAX_DAY_PLANS);
+        this.dayPlans = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<LocalDate, OnlineTourPlanner> eldest) {
+                return size() > maxDayPlans;
+            }
+        });
+        this.workers = Executors.newFixedThreadPool(Math.max(1, threadCount));
+    }
+    
+    /**
+     * Starts listening on localhost, the service runs until stopped.
+     * @param port The port to listen on.
+     * @throws IOException If the port cannot be bound.
+     */
+    public void start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        server.createContext("/plan", this::handlePlan);
+        server.createContext("/plan/insert", this::handleInsert);
+        server.setExecutor(workers);
+        server.start();
+        System.out.printf("planning service listening at http://localhost:%d/plan\n", port);
+    }
+    
+    /**
+     * Stops listening, letting the plans in progress finish first.
+     */
+    public void stop() {
+        if (server != null) {
+            server.stop(1);
+        }
+        workers.shutdown();
+    }
+    
+    /**
+     * @return The current context, rebuilt first if it is older than the refresh interval. If it
+     * cannot be rebuilt, the old one is used until the next interval.
+     */
+    private synchronized PlanningContext getContext() {
+        long now = System.currentTimeMillis();
+        if (now - contextBuiltMillis >= refreshMillis) {
+            contextBuiltMillis = now;
+            try {
+                context = context.refreshed();
+            }
+            catch (HttpRequestException e) {
+                System.err.printf("cannot refresh planning context, keeping the old one: %s\n",
+                    e.getMessage());
+            }
+        }
+        return context;
+    }
+    
+    /**
+     * @param date The date of a plan to write.
+     * @return The lock to hold while writing the plan, the same for every date unless the
+     * database keeps the plans of each date apart.
+     */
+    private Object getWriteLock(LocalDate date) {
+        if (context.dbManager.isPartitioned()) {
+            return dateWriteLocks.computeIfAbsent(date, key -> new Object());
+        }
+        return writeLock;
+    }
+    
+    /**
+     * Handles a request to /plan, see the class description.
+     * @param exchange The request and its response.
+     * @throws IOException If the response cannot be sent.
+     */
+    private void handlePlan(HttpExchange exchange) throws IOException {
+        long startNanos = System.nanoTime();
+        try {
+            DeliveryPlan plan;
+            LocalDate date;
+            if (exchange.getRequestMethod().equals("GET")) {
+                Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+                date = parseDate(query.get("date"));
+                Drone drone = newDrone(getContext(), date);
+                plan = drone.planDeliveries();
+                if (!"false".equals(query.get("write"))) {
+                    synchronized (getWriteLock(date)) {
+                        drone.writeDeliveryPlan(plan);
+                    }
+                }
+                dayPlans.put(date, new OnlineTourPlanner(drone, plan));
+            }
+            else if (exchange.getRequestMethod().equals("POST")) {
+                PlanRequest request = readPlanRequest(exchange);
+                date = request.date == null ? LocalDate.now() : parseDate(request.date);
+                PlanningContext planningContext = getContext();
+                List<DeliveryOrder> orders = toDeliveryOrders(planningContext, request, date);
+                plan = newDrone(planningContext, date).planDeliveries(orders);
+            }
+            else {
+                sendError(exchange, 405, "only GET and POST are supported");
+                return;
+            }
+            long planMillis = (System.nanoTime() - startNanos) / 1_000_000;
+            System.out.printf("planned %d of %d orders for %s in %d ms\n",
+                plan.deliveredOrders.size(), plan.placedOrders.size(), date, planMillis);
+            sendPlan(exchange, date, plan, planMillis);
+        }
+        catch (IllegalArgumentException e) {
+            sendError(exchange, 400, e.getMessage());
+        }
+        catch (HttpRequestException e) {
+            sendError(exchange, 502, e.getMessage());
+        }
+        catch (DatabaseException e) {
+            // most likely the database is down or busy, the service carries on meanwhile
+            e.printStackTrace();
+            sendError(exchange, 503, e.getMessage());
+        }
+        catch (RuntimeException e) {
+            e.printStackTrace();
+            sendError(exchange, 500, e.toString());
+        }
+    }
+    
+    /**
+     * Handles a request to /plan/insert, see the class description. Answers with whether every
+     * order is accepted, where it is inserted and the moves of the plan afterwards.
+     * @param exchange The request and its response.
+     * @throws IOException If the response cannot be sent.
+     */
+    private void handleInsert(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("POST")) {
+                sendError(exchange, 405, "only POST is supported");
+                return;
+            }
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            LocalDate date = parseDate(query.get("date"));
+            boolean commit = !"false".equals(query.get("commit"));
+            OnlineTourPlanner dayPlan = dayPlans.get(date);
+            if (dayPlan == null) {
+                sendError(exchange, 404, "no plan for " + date + ", GET /plan?date=" + date +
+                    " first");
+                return;
+            }
+            PlanRequest request = readPlanRequest(exchange);
+            List<DeliveryOrder> orders = toDeliveryOrders(getContext(), request, date);
+            // the outcome is small, written out once every order has been dealt with
+            StringWriter response = new StringWriter();
+            // other inserts into the day wait until these orders are written or rolled back
+            synchronized (dayPlan) {
+                for (DeliveryOrder order : orders) {
+                    if (dayPlan.contains(order)) {
+                        throw new IllegalArgumentException(String.format(
+                            "order %s is already in the plan", order.orderNo));
+                    }
+                }
+                OnlineTourPlanner.Checkpoint checkpoint = dayPlan.checkpoint();
+                try {
+                    insertOrders(dayPlan, orders, commit, new JsonWriter(response));
+                    // written before answering, so a failed write is answered with an error
+                    if (commit && !"false".equals(query.get("write"))) {
+                        synchronized (getWriteLock(date)) {
+                            dayPlan.getDrone().writeDeliveryPlan(dayPlan.getPlan());
+                        }
+                    }
+                }
+                catch (DatabaseException e) {
+                    // the orders were not written, so they are not accepted and can be retried
+                    dayPlan.rollback(checkpoint);
+                    throw e;
+                }
+            }
+            byte[] responseBytes = response.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, responseBytes.length);
+            try (OutputStream responseBody = exchange.getResponseBody()) {
+                responseBody.write(responseBytes);
+            }
+        }
+        catch (IllegalArgumentException e) {
+            sendError(exchange, 400, e.getMessage());
+        }
+        catch (HttpRequestException e) {
+            sendError(exchange, 502, e.getMessage());
+        }
+        catch (DatabaseException e) {
+            // most likely the database is down or busy, the service carries on meanwhile
+            e.printStackTrace();
+            sendError(exchange, 503, e.getMessage());
+        }
+        catch (RuntimeException e) {
+            e.printStackTrace();
+            sendError(exchange, 500, e.toString());
+        }
+    }
+    
+    /**
+     * Quotes or inserts the orders one by one, writing the outcome of every order.
+     * @param dayPlan The plan to insert the orders into.
+     * @param orders The orders, none of them in the plan yet.
+     * @param commit Whether to insert the orders, otherwise they are only quoted.
+     * @param jsonWriter Where to write the outcomes, as a json array.
+     * @throws IOException If the outcomes cannot be written.
+     */
+    private static void insertOrders(OnlineTourPlanner dayPlan, List<DeliveryOrder> orders,
+                                     boolean commit, JsonWriter jsonWriter) throws IOException {
+        jsonWriter.beginArray();
+        for (DeliveryOrder order : orders) {
+            long startNanos = System.nanoTime();
+            OnlineTourPlanner.Quote quote = dayPlan.quote(order);
+            boolean accepted = quote.feasible && (!commit || dayPlan.insert(order));
+            jsonWriter.beginObject();
+            jsonWriter.name("orderNo").value(order.orderNo);
+            jsonWriter.name("accepted").value(accepted);
+            jsonWriter.name("position").value(quote.position);
+            jsonWriter.name("predictedMoves").value(quote.predictedMoves);
+            jsonWriter.name("moves").value(dayPlan.getPlan().flightpaths.size());
+            jsonWriter.name("millis").value((System.nanoTime() - startNanos) / 1_000_000);
+            jsonWriter.endObject();
+        }
+        jsonWriter.endArray();
+    }
+    
+    /**
+     * @param exchange The request with a PlanRequest as body.
+     * @return The plan request.
+     * @throws IllegalArgumentException If the body is not a plan request with orders.
+     * @throws IOException If the body cannot be read.
+     */
+    private static PlanRequest readPlanRequest(HttpExchange exchange) throws IOException {
+        PlanRequest request;
+        try (Reader reader = new InputStreamReader(exchange.getRequestBody(),
+            StandardCharsets.UTF_8)) {
+            request = new Gson().fromJson(reader, PlanRequest.class);
+        }
+        catch (JsonParseException e) {
+            throw new IllegalArgumentException("malformed plan request: " + e.getMessage());
+        }
+        if (request == null || request.orders == null) {
+            throw new IllegalArgumentException("plan request has no orders");
+        }
+        return request;
+    }
+    
+    /**
+     * @param planningContext The context to plan with.
+     * @param date The date to plan for.
+     * @return A new drone planning for the date.
+     */
+    private Drone newDrone(PlanningContext planningContext, LocalDate date) {
+        Drone drone = new Drone(planningContext, String.format("%02d", date.getDayOfMonth()),
+            String.format("%02d", date.getMonthValue()), String.format("%04d", date.getYear()));
+        drone.setMovePlanner(movePlannerFactory.apply(planningContext.geojsonManager));
+        drone.setWriteOrderFeatures(writeOrderFeatures);
+        return drone;
+    }
+    
+    /**
+     * Checks the ad-hoc orders against the menus, and locates them.
+     * @param planningContext The context to price and locate the orders with.
+     * @param request The plan request.
+     * @param date The delivery date of the orders.
+     * @return The orders of the request.
+     * @throws IllegalArgumentException If an order cannot be delivered by a drone at all.
+     */
+    private static List<DeliveryOrder> toDeliveryOrders(PlanningContext planningContext,
+                                                        PlanRequest request, LocalDate date) {
+        Menus menus = planningContext.menus;
+        List<DeliveryOrder> orders = new ArrayList<>();
+        for (int i = 0; i < request.orders.size(); i++) {
+            PlanRequest.Order order = request.orders.get(i);
+            String orderNo = order.orderNo != null ? order.orderNo : String.format("adhoc%03d", i);
+            if (order.deliverTo == null || order.deliverTo.split("\\.").length != 3) {
+                throw new IllegalArgumentException(String.format(
+                    "order %s has no w3w location to deliver to", orderNo));
+            }
+            if (order.items == null || order.items.isEmpty()) {
+                throw new IllegalArgumentException(String.format("order %s has no items",
+                    orderNo));
+            }
+            for (String item : order.items) {
+                if (!menus.isOnMenu(item)) {
+                    throw new IllegalArgumentException(String.format(
+                        "item %s of order %s is not on the menus", item, orderNo));
+                }
+            }
+            // the drone can carry items from at most 2 shops
+            if (menus.getShopSet(menus.getItemIds(order.items)).cardinality() > 2) {
+                throw new IllegalArgumentException(String.format(
+                    "order %s has items from more than 2 shops", orderNo));
+            }
+            try {
+                orders.add(new DeliveryOrder(orderNo, Date.valueOf(date), order.customer,
+                    order.deliverTo, order.items, menus, planningContext.what3WordsManager));
+            }
+            catch (HttpRequestException e) {
+                if (e.statusCode == 404) {
+                    throw new IllegalArgumentException(String.format(
+                        "cannot locate %s of order %s", order.deliverTo, orderNo));
+                }
+                throw e;
+            }
+        }
+        return orders;
+    }
+    
+    /**
+     * Sends the plan as json.
+     * @param exchange The request and its response.
+     * @param date The date planned for.
+     * @param plan The plan.
+     * @param planMillis How long planning took.
+     * @throws IOException If the response cannot be sent.
+     */
+    private static void sendPlan(HttpExchange exchange, LocalDate date, DeliveryPlan plan,
+                                 long planMillis) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, 0);  // chunked, the size is not known up front
+        try (JsonWriter jsonWriter = new JsonWriter(new OutputStreamWriter(
+            exchange.getResponseBody(), StandardCharsets.UTF_8))) {
+            jsonWriter.beginObject();
+            jsonWriter.name("date").value(date.toString());
+            jsonWriter.name("ordersPlaced").value(plan.placedOrders.size());
+            jsonWriter.name("ordersDelivered").value(plan.deliveredOrders.size());
+            jsonWriter.name("valuePlaced").value(plan.getValuePlaced());
+            jsonWriter.name("valueDelivered").value(plan.getValueDelivered());
+            jsonWriter.name("moves").value(plan.flightpaths.size());
+            jsonWriter.name("planMillis").value(planMillis);
+            // same rows as the deliveries and flightpath tables
+            jsonWriter.name("deliveries").beginArray();
+            for (DeliveryOrder order : plan.deliveredOrders) {
+                jsonWriter.beginObject();
+                jsonWriter.name("orderNo").value(order.orderNo);
+                jsonWriter.name("deliveredTo").value(order.deliverTo);
+                jsonWriter.name("costInPence").value(order.totalCost);
+                jsonWriter.endObject();
+            }
+            jsonWriter.endArray();
+            jsonWriter.name("flightpath").beginArray();
+            for (Flightpath flightpath : plan.flightpaths) {
+                jsonWriter.beginObject();
+                jsonWriter.name("orderNo").value(flightpath.orderNo);
+                jsonWriter.name("fromLongitude").value(flightpath.fromLng);
+                jsonWriter.name("fromLatitude").value(flightpath.fromLat);
+                jsonWriter.name("angle").value(flightpath.angle);
+                jsonWriter.name("toLongitude").value(flightpath.toLng);
+                jsonWriter.name("toLatitude").value(flightpath.toLat);
+                jsonWriter.endObject();
+            }
+            jsonWriter.endArray();
+            jsonWriter.endObject();
+        }
+    }
+    
+    /**
+     * @param exchange The request and its response.
+     * @param statusCode The error status code.
+     * @param message The description of the error, sent as json.
+     * @throws IOException If the response cannot be sent.
+     */
+    private static void sendError(HttpExchange exchange, int statusCode, String message)
+        throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(statusCode, 0);
+        try (JsonWriter jsonWriter = new JsonWriter(new OutputStreamWriter(
+            exchange.getResponseBody(), StandardCharsets.UTF_8))) {
+            jsonWriter.beginObject();
+            jsonWriter.name("error").value(message);
+            jsonWriter.endObject();
+        }
+    }
+    
+    /**
+     * @param date A date as yyyy-mm-dd.
+     * @return The date.
+     * @throws IllegalArgumentException If the date is missing or not a valid date.
+     */
+    private static LocalDate parseDate(String date) {
+        if (date == null) {
+            throw new IllegalArgumentException("no date given, expecting date=yyyy-mm-dd");
+        }
+        try {
+            return LocalDate.parse(date);
+        }
+        catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("invalid date " + date + ", expecting yyyy-mm-dd");
+        }
+    }
+    
+    /**
+     * @param rawQuery The query string of a URI, may be null.
+     * @return The parameters of the query, decoded.
+     */
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> parameters = new HashMap<>();
+        if (rawQuery == null) {
+            return parameters;
+        }
+        for (String parameter : rawQuery.split("&")) {
+            int equals = parameter.indexOf('=');
+            if (equals > 0) {
+                parameters.put(URLDecoder.decode(parameter.substring(0, equals),
+                    StandardCharsets.UTF_8), URLDecoder.decode(parameter.substring(equals + 1),
+                    StandardCharsets.UTF_8));
+            }
+        }
+        return parameters;
+    }
+}
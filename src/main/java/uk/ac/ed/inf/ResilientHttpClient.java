@@ -0,0 +1,287 @@
+package uk.ac.ed.inf;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * HTTP client for the webserver that does not hang or give up on the first hiccup.
+ * Every request has connect and request timeouts, failed attempts (no response, 408, 429 or 5xx)
+ * are retried a bounded number of times with jittered exponential backoff, and optionally a
+ * duplicate (hedged) request is sent when the first has not answered after a delay, the first
+ * response of the two being used. Latencies of every attempt are recorded per endpoint.
+ * Errors are thrown as HttpRequestException once all attempts have failed.
+ */
+public class ResilientHttpClient {
+    private final HttpClient client;
+    private final Duration requestTimeout;
+    private final int maxAttempts;
+    private final long backoffMillis;  // base delay, doubled for every retry
+    private final long maxBackoffMillis;
+    private final long hedgeAfterMillis;  // 0 disables hedging
+    // endpoint -> latencies of all attempts to it
+    private final Map<String, LatencyHistogram> latencyHistograms = new ConcurrentHashMap<>();
+    
+    /**
+     * @param connectTimeout Timeout for establishing a connection.
+     * @param requestTimeout Timeout for getting the response of a single attempt.
+     * @param maxAttempts The maximum number of attempts per request, at least 1.
+     * @param backoffMillis The base delay before retrying, doubled for every retry.
+     * @param maxBackoffMillis The maximum delay before retrying.
+     * @param hedgeAfterMillis Send a hedged duplicate if an attempt takes longer than this,
+     *                         0 to never hedge.
+     */
+    public ResilientHttpClient(Duration connectTimeout, Duration requestTimeout, int maxAttempts,
+                               long backoffMillis, long maxBackoffMillis, long hedgeAfterMillis) {
+        this.client = HttpClient.newBuilder().connectTimeout(connectTimeout).build();
+        this.requestTimeout = requestTimeout;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.backoffMillis = backoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.hedgeAfterMillis = hedgeAfterMillis;
+    }
+    
+    /**
+     * Configured with the system properties ilp.http.connectTimeoutMs (default 2000),
+     * ilp.http.requestTimeoutMs (5000), ilp.http.maxAttempts (4), ilp.http.backoffMs (100),
+     * ilp.http.maxBackoffMs (2000) and ilp.http.hedgeAfterMs (0, no hedging).
+     * @return A client configured from system properties.
+     */
+    public static ResilientHttpClient fromSystemProperties() {
+        return new ResilientHttpClient(
+            Duration.ofMillis(Long.getLong("ilp.http.connectTimeoutMs", 2000)),
+            Duration.ofMillis(Long.getLong("ilp.http.requestTimeoutMs", 5000)),
+            Integer.getInteger("ilp.http.maxAttempts", 4),
+            Long.getLong("ilp.http.backoffMs", 100),
+            Long.getLong("ilp.http.maxBackoffMs", 2000),
+            Long.getLong("ilp.http.hedgeAfterMs", 0));
+    }
+    
+    /**
+     * Sends the request, retrying on failure.
+     * @param requestBuilder The request to send, its timeout is set by this client.
+     * @return The response, with a status code that is neither retryable nor a client error,
+     * e.g. 200 or 304.
+     * @throws HttpRequestException If all attempts failed, or the server answered with a client
+     * error (4xx other than 408 and 429) which is pointless to retry.
+     */
+    public HttpResponse<String> send(HttpRequest.Builder requestBuilder) {
+        return send(requestBuilder, HttpResponse.BodyHandlers.ofString());
+    }
+    
+    /**
+     * Sends the request, retrying on failure. Bodies of responses not returned are closed if they
+     * are streams, so e.g. BodyHandlers#ofInputStream can be used to stream the body.
+     * @param requestBuilder The request to send, its timeout is set by this client.
+     * @param bodyHandler Handles the body of every response.
+     * @param <T> The type of the response body.
+     * @return The response, with a status code that is neither retryable nor a client error,
+     * e.g. 200 or 304.
+     * @throws HttpRequestException If all attempts failed, or the server answered with a client
+     * error (4xx other than 408 and 429) which is pointless to retry.
+     */
+    public <T> HttpResponse<T> send(HttpRequest.Builder requestBuilder,
+                                    HttpResponse.BodyHandler<T> bodyHandler) {
+        HttpRequest request = requestBuilder.timeout(requestTimeout).build();
+        String url = request.uri().toString();
+        String endpoint = getEndpoint(request.uri());
+        int statusCode = -1;
+        Throwable lastError = null;
+        for (int attempt = 0; attempt < maxAttempts; attempt++) {
+            if (attempt > 0) {
+                sleepBeforeRetry(attempt);
+            }
+            try {
+                HttpResponse<T> response = sendHedged(request, bodyHandler, endpoint);
+                statusCode = response.statusCode();
+                lastError = null;
+                if (!isRetryable(statusCode)) {
+                    if (statusCode >= 400) {
+                        discardBody(response);
+                        throw new HttpRequestException(url, statusCode,
+                            String.format("got status code %d for URL %s", statusCode, url), null);
+                    }
+                    return response;
+                }
+                discardBody(response);
+            }
+            catch (IOException e) {
+                lastError = e;
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new HttpRequestException(url, statusCode, "interrupted requesting " + url, e);
+            }
+            System.err.printf("attempt %d of %d for URL %s failed: %s\n", attempt + 1, maxAttempts,
+                url, lastError != null ? lastError : "status code " + statusCode);
+        }
+        throw new HttpRequestException(url, statusCode,
+            String.format("giving up on URL %s after %d attempts", url, maxAttempts), lastError);
+    }
+    
+    /**
+     * Sends one attempt of the request, and a duplicate if hedging is enabled and the first has
+     * not answered in time. Whichever gets a response first wins.
+     * @param request The request.
+     * @param bodyHandler Handles the body of every response.
+     * @param endpoint The endpoint to record the latency under.
+     * @param <T> The type of the response body.
+     * @return The first response received.
+     * @throws IOException If no attempt got a response.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    private <T> HttpResponse<T> sendHedged(HttpRequest request,
+                                           HttpResponse.BodyHandler<T> bodyHandler,
+                                           String endpoint)
+        throws IOException, InterruptedException {
+        CompletableFuture<HttpResponse<T>> first = sendTimed(request, bodyHandler, endpoint);
+        CompletableFuture<HttpResponse<T>> winner = first;
+        if (hedgeAfterMillis > 0) {
+            try {
+                return first.get(hedgeAfterMillis, TimeUnit.MILLISECONDS);
+            }
+            catch (TimeoutException e) {
+                winner = firstSuccessful(first, sendTimed(request, bodyHandler, endpoint));
+            }
+            catch (ExecutionException e) {
+                throw toIOException(e);
+            }
+        }
+        try {
+            return winner.get();
+        }
+        catch (ExecutionException e) {
+            throw toIOException(e);
+        }
+    }
+    
+    /**
+     * @param request The request.
+     * @param bodyHandler Handles the body of the response.
+     * @param endpoint The endpoint to record the latency under.
+     * @param <T> The type of the response body.
+     * @return The future response, its latency recorded when it completes.
+     */
+    private <T> CompletableFuture<HttpResponse<T>> sendTimed(
+        HttpRequest request, HttpResponse.BodyHandler<T> bodyHandler, String endpoint) {
+        long startNanos = System.nanoTime();
+        return client.sendAsync(request, bodyHandler)
+            .whenComplete((response, error) -> latencyHistograms
+                .computeIfAbsent(endpoint, key -> new LatencyHistogram())
+                .record(System.nanoTime() - startNanos));
+    }
+    
+    /**
+     * @param first A future response.
+     * @param second Another future response.
+     * @param <T> The type of the response body.
+     * @return A future completing with the first response, or failing if both fail. The body of
+     * the other response is discarded.
+     */
+    private static <T> CompletableFuture<HttpResponse<T>> firstSuccessful(
+        CompletableFuture<HttpResponse<T>> first, CompletableFuture<HttpResponse<T>> second) {
+        CompletableFuture<HttpResponse<T>> result = new CompletableFuture<>();
+        AtomicInteger failures = new AtomicInteger();
+        for (CompletableFuture<HttpResponse<T>> future : List.of(first, second)) {
+            future.whenComplete((response, error) -> {
+                if (error == null) {
+                    if (!result.complete(response)) {
+                        discardBody(response);  // lost the race
+                    }
+                }
+                else if (failures.incrementAndGet() == 2) {
+                    result.completeExceptionally(error);
+                }
+            });
+        }
+        return result;
+    }
+    
+    /**
+     * Closes the body of a response that is not going to be used, if it is a stream.
+     * @param response The response.
+     */
+    private static void discardBody(HttpResponse<?> response) {
+        if (response.body() instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) response.body()).close();
+            }
+            catch (Exception e) {
+                // it is being thrown away anyway
+            }
+        }
+    }
+    
+    /**
+     * @param e The failure of a future response.
+     * @return The failure as IOException, which is what HttpClient#send would have thrown.
+     */
+    private static IOException toIOException(ExecutionException e) {
+        Throwable cause = e.getCause();
+        return cause instanceof IOException ? (IOException) cause : new IOException(cause);
+    }
+    
+    /**
+     * @param statusCode The status code of a response.
+     * @return Whether the request may succeed if tried again.
+     */
+    private static boolean isRetryable(int statusCode) {
+        return statusCode == 408 || statusCode == 429 || statusCode >= 500;
+    }
+    
+    /**
+     * Sleeps for a random time up to the exponential backoff of the attempt ("full jitter"),
+     * so retries of many requests failing together do not hit the server together again.
+     * @param attempt The attempt about to be made, from 1.
+     */
+    private void sleepBeforeRetry(int attempt) {
+        long backoff = Math.min(maxBackoffMillis, backoffMillis << Math.min(attempt - 1, 20));
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(backoff + 1));
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * @param uri The URI requested.
+     * @return The endpoint the URI belongs to, the server and the first segment of the path,
+     * e.g. localhost:9898/words for every w3w lookup.
+     */
+    private static String getEndpoint(URI uri) {
+        String path = uri.getPath() == null ? "" : uri.getPath();
+        int secondSlash = path.indexOf('/', 1);
+        return uri.getHost() + ":" + uri.getPort() +
+            (secondSlash == -1 ? path : path.substring(0, secondSlash));
+    }
+    
+    /**
+     * @return The latency histogram of every endpoint requested so far, sorted by endpoint.
+     */
+    public Map<String, LatencyHistogram> getLatencyHistograms() {
+        return new TreeMap<>(latencyHistograms);
+    }
+    
+    /**
+     * Prints the latencies of every endpoint requested so far.
+     */
+    public void printLatencySummary() {
+        for (Map.Entry<String, LatencyHistogram> entry : getLatencyHistograms().entrySet()) {
+            System.out.printf("latency of %s: %s\n", entry.getKey(), entry.getValue());
+        }
+    }
+}
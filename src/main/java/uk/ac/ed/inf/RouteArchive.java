@@ -0,0 +1,302 @@
+package uk.ac.ed.inf;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Append-only binary archive of flights, read through a memory mapping of the whole file.
+ * Every move of a drone is exactly LongLat#nextPosition of the previous position, so a flight is
+ * stored as its exact starting point and one byte per move (the angle / 10, or 255 to hover),
+ * with the moves at which the orderNo changes. A day of 1500 moves takes about 1.6 KB.
+ * <br><br>
+ * The file starts with the magic bytes "ILPR" and a version byte, followed by one record per
+ * flight: date as yyyymmdd (int), droneId (int), sortie (int), start longitude and latitude
+ * (double), move count (int), order count (int), for every order the index of its first move
+ * (int) and its orderNo (8 bytes ASCII, space padded), then the move bytes.
+ * Sorties of a drone are appended as flights of their own. Version 1 archives have no sortie in
+ * their records, their flights are read as sortie 0, and flights can no longer be appended to
+ * them.
+ */
+public class RouteArchive implements AutoCloseable {
+    private static final byte[] MAGIC = "ILPR".getBytes(StandardCharsets.US_ASCII);
+    private static final byte VERSION = 2;
+    private static final byte VERSION_WITHOUT_SORTIES = 1;
+    private static final int HOVER_ANGLE = -999;
+    private static final byte HOVER_BYTE = (byte) 255;
+    private static final int ORDER_NO_LENGTH = 8;  // as the orderNo column, char(8)
+    
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final byte version;  // of the file, VERSION or VERSION_WITHOUT_SORTIES
+    private final List<ArchivedFlight> flights = new ArrayList<>();
+    
+    /**
+     * A flight in the archive, its moves are only decoded when iterated over.
+     */
+    public class ArchivedFlight implements Iterable<Flightpath> {
+        public final int date;  // yyyymmdd
+        public final int droneId;
+        public final int sortie;  // as Flightpath#sortie, 0 in version 1 archives
+        public final int moveCount;
+        private final double startLng, startLat;
+        private final int[] orderStarts;  // index of the first move of every order, ascending
+        private final String[] orderNos;
+        private final int movesOffset;  // position of the first move byte in the file
+        
+        ArchivedFlight(int date, int droneId, int sortie, int moveCount, double startLng,
+                       double startLat, int[] orderStarts, String[] orderNos, int movesOffset) {
+            this.date = date;
+            this.droneId = droneId;
+            this.sortie = sortie;
+            this.moveCount = moveCount;
+            this.startLng = startLng;
+            this.startLat = startLat;
+            this.orderStarts = orderStarts;
+            this.orderNos = orderNos;
+            this.movesOffset = movesOffset;
+        }
+        
+        /**
+         * @return The orderNos of the flight, in the order they are flown to.
+         */
+        public List<String> getOrderNos() {
+            return Arrays.asList(orderNos);
+        }
+        
+        /**
+         * @return The moves, replayed from the start one at a time.
+         */
+        @Override
+        public Iterator<Flightpath> iterator() {
+            return new Iterator<>() {
+                private LongLat position = new LongLat(startLng, startLat);
+                private int move = 0;
+                private int order = -1;
+                
+                @Override
+                public boolean hasNext() {
+                    return move < moveCount;
+                }
+                
+                @Override
+                public Flightpath next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    while (order + 1 < orderStarts.length && orderStarts[order + 1] <= move) {
+                        order++;
+                    }
+                    byte angleByte = buffer.get(movesOffset + move);
+                    int angle = angleByte == HOVER_BYTE ? HOVER_ANGLE : angleByte * 10;
+                    LongLat to = position.nextPosition(angle);
+                    Flightpath flightpath = new Flightpath(order < 0 ? "" : orderNos[order],
+                        position, angle, to, droneId, sortie);
+                    position = to;
+                    move++;
+                    return flightpath;
+                }
+            };
+        }
+        
+        /**
+         * @return All moves of the flight.
+         */
+        public List<Flightpath> getFlightpaths() {
+            List<Flightpath> flightpaths = new ArrayList<>(moveCount);
+            for (Flightpath flightpath : this) {
+                flightpaths.add(flightpath);
+            }
+            return flightpaths;
+        }
+    }
+    
+    /**
+     * Maps the archive and reads the headers of all flights in it, the moves are not decoded.
+     * @param path The archive file, at most 2 GB.
+     * @throws IOException If the file cannot be read or is not an archive.
+     */
+    public RouteArchive(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        if (channel.size() > Integer.MAX_VALUE) {
+            channel.close();
+            throw new IOException(String.format("%s is too large to map at once", path));
+        }
+        this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        try {
+            byte[] magic = new byte[MAGIC.length];
+            buffer.get(magic);
+            this.version = buffer.get();
+            if (!Arrays.equals(magic, MAGIC) ||
+                (version != VERSION && version != VERSION_WITHOUT_SORTIES)) {
+                throw new IOException(String.format("%s is not a route archive", path));
+            }
+            while (buffer.hasRemaining()) {
+                flights.add(readFlightHeader());
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e instanceof IOException ? (IOException) e :
+                new IOException(String.format("%s is truncated or corrupt", path), e);
+        }
+    }
+    
+    /**
+     * Reads the header of the flight at the buffer's position and skips its moves.
+     * @return The flight.
+     */
+    private ArchivedFlight readFlightHeader() {
+        int date = buffer.getInt();
+        int droneId = buffer.getInt();
+        int sortie = version == VERSION_WITHOUT_SORTIES ? 0 : buffer.getInt();
+        double startLng = buffer.getDouble();
+        double startLat = buffer.getDouble();
+        int moveCount = buffer.getInt();
+        int orderCount = buffer.getInt();
+        int[] orderStarts = new int[orderCount];
+        String[] orderNos = new String[orderCount];
+        byte[] orderNo = new byte[ORDER_NO_LENGTH];
+        for (int i = 0; i < orderCount; i++) {
+            orderStarts[i] = buffer.getInt();
+            buffer.get(orderNo);
+            orderNos[i] = new String(orderNo, StandardCharsets.US_ASCII).trim();
+        }
+        int movesOffset = buffer.position();
+        buffer.position(movesOffset + moveCount);
+        return new ArchivedFlight(date, droneId, sortie, moveCount, startLng, startLat,
+            orderStarts, orderNos, movesOffset);
+    }
+    
+    /**
+     * @return Every flight in the archive, in the order they were appended.
+     */
+    public List<ArchivedFlight> getFlights() {
+        return flights;
+    }
+    
+    /**
+     * Appends the flights of a day to the archive, one record per drone and sortie, creating the
+     * file if it does not exist.
+     * @param path The archive file.
+     * @param date The date of the flights, as yyyymmdd.
+     * @param flightpaths The moves of the drone, or of every drone of a fleet one after the other.
+     * @throws IOException If the file cannot be written, or is not an archive of this version.
+     * @throws IllegalArgumentException If a move is not LongLat#nextPosition of the previous one,
+     * so the flight could not be replayed exactly, nothing is written then.
+     */
+    public static void append(Path path, int date, List<Flightpath> flightpaths)
+        throws IOException {
+        List<ByteBuffer> records = new ArrayList<>();
+        int flightStart = 0;
+        for (int i = 1; i <= flightpaths.size(); i++) {
+            if (i == flightpaths.size() ||
+                !flightpaths.get(i).isSameFlight(flightpaths.get(i - 1))) {
+                records.add(encodeFlight(date, flightpaths.subList(flightStart, i)));
+                flightStart = i;
+            }
+        }
+        if (Files.exists(path) && Files.size(path) > 0) {
+            byte[] header;
+            try (InputStream in = Files.newInputStream(path)) {
+                header = in.readNBytes(MAGIC.length + 1);
+            }
+            // records of another version would be read with the wrong layout
+            if (header.length < MAGIC.length + 1 ||
+                !Arrays.equals(header, 0, MAGIC.length, MAGIC, 0, MAGIC.length) ||
+                header[MAGIC.length] != VERSION) {
+                throw new IOException(String.format(
+                    "%s is not a version %d route archive, cannot append to it", path, VERSION));
+            }
+        }
+        try (FileChannel out = FileChannel.open(path, StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            if (out.size() == 0) {
+                ByteBuffer header = ByteBuffer.allocate(MAGIC.length + 1);
+                header.put(MAGIC).put(VERSION).flip();
+                out.write(header);
+            }
+            for (ByteBuffer record : records) {
+                while (record.hasRemaining()) {
+                    out.write(record);
+                }
+            }
+        }
+    }
+    
+    /**
+     * @param date The date of the flight, as yyyymmdd.
+     * @param flight The moves of one drone, at least one.
+     * @return The record of the flight, ready to be written.
+     * @throws IllegalArgumentException If the flight cannot be replayed exactly.
+     */
+    private static ByteBuffer encodeFlight(int date, List<Flightpath> flight) {
+        List<Integer> orderStarts = new ArrayList<>();
+        List<String> orderNos = new ArrayList<>();
+        byte[] moves = new byte[flight.size()];
+        LongLat position = flight.get(0).getFromLongLat();
+        for (int i = 0; i < flight.size(); i++) {
+            Flightpath flightpath = flight.get(i);
+            if (i == 0 || !flightpath.orderNo.equals(flight.get(i - 1).orderNo)) {
+                if (flightpath.orderNo.length() > ORDER_NO_LENGTH) {
+                    throw new IllegalArgumentException(String.format(
+                        "orderNo %s is longer than %d", flightpath.orderNo, ORDER_NO_LENGTH));
+                }
+                orderStarts.add(i);
+                orderNos.add(flightpath.orderNo);
+            }
+            if (flightpath.angle != HOVER_ANGLE &&
+                (flightpath.angle < 0 || flightpath.angle > 350 || flightpath.angle % 10 != 0)) {
+                throw new IllegalArgumentException(String.format("move %d has angle %d", i,
+                    flightpath.angle));
+            }
+            LongLat to = position.nextPosition(flightpath.angle);
+            if (!position.equals(flightpath.getFromLongLat()) ||
+                !to.equals(flightpath.getToLongLat())) {
+                throw new IllegalArgumentException(String.format(
+                    "move %d cannot be replayed from the previous moves", i));
+            }
+            moves[i] = flightpath.angle == HOVER_ANGLE ? HOVER_BYTE :
+                (byte) (flightpath.angle / 10);
+            position = to;
+        }
+        ByteBuffer record = ByteBuffer.allocate(5 * Integer.BYTES + 2 * Double.BYTES +
+            orderStarts.size() * (Integer.BYTES + ORDER_NO_LENGTH) + moves.length);
+        record.putInt(date);
+        record.putInt(flight.get(0).droneId);
+        record.putInt(flight.get(0).sortie);
+        record.putDouble(flight.get(0).fromLng);
+        record.putDouble(flight.get(0).fromLat);
+        record.putInt(moves.length);
+        record.putInt(orderStarts.size());
+        for (int i = 0; i < orderStarts.size(); i++) {
+            record.putInt(orderStarts.get(i));
+            byte[] orderNo = Arrays.copyOf(orderNos.get(i).getBytes(StandardCharsets.US_ASCII),
+                ORDER_NO_LENGTH);
+            Arrays.fill(orderNo, orderNos.get(i).length(), ORDER_NO_LENGTH, (byte) ' ');
+            record.put(orderNo);
+        }
+        record.put(moves);
+        return record.flip();
+    }
+    
+    /**
+     * Closes the file, flights of the archive must not be iterated over afterwards.
+     * @throws IOException If the file cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,60 @@
+package uk.ac.ed.inf;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A location the drone flies to once, to pick up or deliver the items of one or more orders.
+ * It hovers there once for every order served, each hover tagged with the orderNo of its order,
+ * so every order has its own hover at each of its locations. The moves towards the stop are
+ * tagged with the orderNo of the first order served.
+ */
+public class RouteStop {
+    public final LongLat location;
+    public final List<DeliveryOrder> orders;  // the orders served, at least one
+    
+    /**
+     * @param location The location to hover at.
+     * @param orders The orders served at the location, at least one.
+     */
+    public RouteStop(LongLat location, List<DeliveryOrder> orders) {
+        this.location = location;
+        this.orders = orders;
+    }
+    
+    /**
+     * @return The orderNo to tag the moves towards this stop and the first hover at it with.
+     */
+    public String getOrderNo() {
+        return orders.get(0).orderNo;
+    }
+    
+    /**
+     * @param order An order.
+     * @return The locations the order is picked up at and delivered to, in that order.
+     */
+    public static List<LongLat> getLocations(DeliveryOrder order) {
+        List<LongLat> locations = new ArrayList<>();
+        locations.add(order.getPickup1());
+        if (order.getPickup2() != null) {
+            locations.add(order.getPickup2());
+        }
+        locations.add(order.deliveryLngLat);
+        return locations;
+    }
+    
+    /**
+     * @param route The orders to deliver, in order.
+     * @return The stops of the orders, each order visiting its pickups then its delivery location
+     * on its own.
+     */
+    public static List<RouteStop> ofRoute(List<DeliveryOrder> route) {
+        List<RouteStop> stops = new ArrayList<>();
+        for (DeliveryOrder order : route) {
+            for (LongLat location : getLocations(order)) {
+                stops.add(new RouteStop(location, List.of(order)));
+            }
+        }
+        return stops;
+    }
+}
@@ -0,0 +1,59 @@
+package uk.ac.ed.inf;
+
+/**
+ * Tests the edges one at a time, the reference for every other SegmentIntersectionKernel.
+ */
+public class ScalarSegmentKernel implements SegmentIntersectionKernel {
+    
+    @Override
+    public int firstIntersection(double[] lng1, double[] lat1, double[] lng2, double[] lat2,
+                                 int from, int to, double startLng, double startLat,
+                                 double endLng, double endLat) {
+        double rLng = endLng - startLng;
+        double rLat = endLat - startLat;
+        for (int i = from; i < to; i++) {
+            if (intersects(lng1[i], lat1[i], lng2[i], lat2[i], startLng, startLat, rLng, rLat)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Represents the segment as p + t * r and the edge as q + u * s, where t and u are scalars,
+     * they intersect if both t and u are strictly within (0, 1).
+     * @param edgeLng1 Longitude of the start of the edge.
+     * @param edgeLat1 Latitude of the start of the edge.
+     * @param edgeLng2 Longitude of the end of the edge.
+     * @param edgeLat2 Latitude of the end of the edge.
+     * @param startLng Longitude of the start of the segment.
+     * @param startLat Latitude of the start of the segment.
+     * @param rLng Longitude of the end of the segment minus that of its start.
+     * @param rLat Latitude of the end of the segment minus that of its start.
+     * @return True if there is a point strictly within both the edge and the segment.
+     */
+    static boolean intersects(double edgeLng1, double edgeLat1, double edgeLng2, double edgeLat2,
+                              double startLng, double startLat, double rLng, double rLat) {
+        double sLng = edgeLng2 - edgeLng1;
+        double sLat = edgeLat2 - edgeLat1;
+        double rsCross = rLng * sLat - rLat * sLng;
+        if (rsCross != 0) {
+            double qpLng = edgeLng1 - startLng;
+            double qpLat = edgeLat1 - startLat;
+            double t = (qpLng * sLat - qpLat * sLng) / rsCross;
+            double u = (qpLng * rLat - qpLat * rLng) / rsCross;
+            return 0 < t && t < 1 && 0 < u && u < 1;
+        }
+        return false;
+    }
+    
+    @Override
+    public int getLaneCount() {
+        return 1;
+    }
+    
+    @Override
+    public String getName() {
+        return "scalar";
+    }
+}
@@ -0,0 +1,58 @@
+package uk.ac.ed.inf;
+
+/**
+ * Tests one line segment against a batch of edges stored in packed arrays, edge i going from
+ * (lng1[i], lat1[i]) to (lng2[i], lat2[i]), for a proper intersection as in
+ * Utils#lineSegmentIntersects. Implementations must give exactly the same results.
+ */
+public interface SegmentIntersectionKernel {
+    String VECTOR_MODULE = "jdk.incubator.vector";
+    
+    /**
+     * @param lng1 Longitudes of the starts of the edges.
+     * @param lat1 Latitudes of the starts of the edges.
+     * @param lng2 Longitudes of the ends of the edges.
+     * @param lat2 Latitudes of the ends of the edges.
+     * @param from The index of the first edge to test.
+     * @param to The index after the last edge to test.
+     * @param startLng Longitude of the start of the segment.
+     * @param startLat Latitude of the start of the segment.
+     * @param endLng Longitude of the end of the segment.
+     * @param endLat Latitude of the end of the segment.
+     * @return The index of the first edge in [from, to) with a point strictly within both it and
+     * the segment, -1 if there is none.
+     */
+    int firstIntersection(double[] lng1, double[] lat1, double[] lng2, double[] lat2, int from,
+                          int to, double startLng, double startLat, double endLng, double endLat);
+    
+    /**
+     * @return The number of edges tested at once.
+     */
+    int getLaneCount();
+    
+    /**
+     * @return A short description of the kernel, for printing.
+     */
+    String getName();
+    
+    /**
+     * The vector kernel is only used if the jdk.incubator.vector module was added when starting
+     * the JVM (java --add-modules jdk.incubator.vector), the CPU has SIMD lanes for doubles and
+     * the system property ilp.vectorKernel is not false.
+     * @return The fastest kernel available.
+     */
+    static SegmentIntersectionKernel create() {
+        if (Boolean.parseBoolean(System.getProperty("ilp.vectorKernel", "true")) &&
+            ModuleLayer.boot().findModule(VECTOR_MODULE).isPresent()) {
+            try {
+                // loaded by name, so the vector API is never touched without the module
+                return (SegmentIntersectionKernel) Class.forName("uk.ac.ed.inf.VectorSegmentKernel")
+                    .getDeclaredConstructor().newInstance();
+            }
+            catch (ReflectiveOperationException | LinkageError e) {
+                System.err.printf("cannot use the vector kernel, using the scalar one: %s\n", e);
+            }
+        }
+        return new ScalarSegmentKernel();
+    }
+}
@@ -0,0 +1,157 @@
+package uk.ac.ed.inf;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks that the scalar and vector SegmentIntersectionKernels agree exactly on random segments
+ * against the perimeters of the no fly zones, and times them against each other and against
+ * GeometryEngine, which walks its grid instead of using a kernel when there are no SIMD lanes.
+ * Segments are either as long as two moves, as checked when planning moves, or lines of sight
+ * between two random points of the confinement area.
+ * Run with java --add-modules jdk.incubator.vector, otherwise only the scalar kernel is timed.
+ */
+public class SegmentKernelBenchmark {
+    private static final int DEFAULT_SEGMENTS = 200000;
+    private static final int REPEATS = 5;
+    // the confinement area
+    private static final double MIN_LNG = -3.192473, MAX_LNG = -3.184319;
+    private static final double MIN_LAT = 55.942617, MAX_LAT = 55.946233;
+    
+    /**
+     * @param args noFlyZonesGeojson [segments]
+     */
+    public static void main(String[] args) {
+        List<double[]> rings;
+        try (Reader reader = Files.newBufferedReader(Path.of(args[0]))) {
+            rings = GeojsonPolygonReader.readOuterRings(reader);
+        }
+        catch (IOException e) {
+            System.err.printf("cannot read the no fly zones from %s\n", args[0]);
+            e.printStackTrace();
+            return;
+        }
+        int segmentCount = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_SEGMENTS;
+        int edgeCount = 0;
+        for (double[] ring : rings) {
+            edgeCount += ring.length / 2 - 1;
+        }
+        double[] lng1 = new double[edgeCount], lat1 = new double[edgeCount];
+        double[] lng2 = new double[edgeCount], lat2 = new double[edgeCount];
+        int edge = 0;
+        for (double[] ring : rings) {
+            for (int i = 0; i + 3 < ring.length; i += 2) {
+                lng1[edge] = ring[i];
+                lat1[edge] = ring[i + 1];
+                lng2[edge] = ring[i + 2];
+                lat2[edge] = ring[i + 3];
+                edge++;
+            }
+        }
+        GeometryEngine geometryEngine = new GeometryEngine(rings, new double[]{MIN_LNG, MIN_LAT,
+            MAX_LNG, MIN_LAT, MAX_LNG, MAX_LAT, MIN_LNG, MAX_LAT, MIN_LNG, MIN_LAT});
+        SegmentIntersectionKernel scalar = new ScalarSegmentKernel();
+        SegmentIntersectionKernel best = SegmentIntersectionKernel.create();
+        System.out.printf("%d no fly zone edges, fastest kernel available: %s\n", edgeCount,
+            best.getName());
+        
+        for (boolean sightLines : new boolean[]{false, true}) {
+            double[][] segments = getRandomSegments(segmentCount, sightLines);
+            int mismatches = 0;
+            int intersecting = 0;
+            for (double[] s : segments) {
+                int expected = scalar.firstIntersection(lng1, lat1, lng2, lat2, 0, edgeCount,
+                    s[0], s[1], s[2], s[3]);
+                int actual = best.firstIntersection(lng1, lat1, lng2, lat2, 0, edgeCount,
+                    s[0], s[1], s[2], s[3]);
+                boolean engine = geometryEngine.lineIntersectsNoFlyZonePerimeter(
+                    new LongLat(s[0], s[1]), new LongLat(s[2], s[3]));
+                if (expected != actual || engine != (expected >= 0)) {
+                    mismatches++;
+                }
+                intersecting += expected >= 0 ? 1 : 0;
+            }
+            System.out.printf("%s: %d segments, %d intersecting, %d mismatches\n",
+                sightLines ? "lines of sight" : "two moves", segments.length, intersecting,
+                mismatches);
+            for (int repeat = 0; repeat < REPEATS; repeat++) {
+                long scalarNanos = timeKernel(scalar, segments, lng1, lat1, lng2, lat2);
+                long bestNanos = timeKernel(best, segments, lng1, lat1, lng2, lat2);
+                long engineNanos = timeEngine(geometryEngine, segments);
+                System.out.printf("  scalar %.1f ns, %s %.1f ns, GeometryEngine %.1f ns " +
+                        "per segment\n", (double) scalarNanos / segments.length, best.getName(),
+                    (double) bestNanos / segments.length, (double) engineNanos / segments.length);
+            }
+        }
+    }
+    
+    /**
+     * @param segmentCount The number of segments.
+     * @param sightLines True for lines between two random points, false for segments two moves
+     *                   long from a random point.
+     * @return The segments, {startLng, startLat, endLng, endLat}.
+     */
+    private static double[][] getRandomSegments(int segmentCount, boolean sightLines) {
+        Random random = new Random(0);
+        double[][] segments = new double[segmentCount][];
+        for (int i = 0; i < segmentCount; i++) {
+            double lng = MIN_LNG + random.nextDouble() * (MAX_LNG - MIN_LNG);
+            double lat = MIN_LAT + random.nextDouble() * (MAX_LAT - MIN_LAT);
+            LongLat end = new LongLat(lng, lat).nextPosition(random.nextInt(36) * 10)
+                .nextPosition(random.nextInt(36) * 10);
+            if (sightLines) {
+                end = new LongLat(MIN_LNG + random.nextDouble() * (MAX_LNG - MIN_LNG),
+                    MIN_LAT + random.nextDouble() * (MAX_LAT - MIN_LAT));
+            }
+            segments[i] = new double[]{lng, lat, end.longitude, end.latitude};
+        }
+        return segments;
+    }
+    
+    /**
+     * @param kernel The kernel to time.
+     * @param segments The segments to test.
+     * @param lng1 Longitudes of the starts of the edges.
+     * @param lat1 Latitudes of the starts of the edges.
+     * @param lng2 Longitudes of the ends of the edges.
+     * @param lat2 Latitudes of the ends of the edges.
+     * @return The time taken to test every segment against every edge, in nanoseconds.
+     */
+    private static long timeKernel(SegmentIntersectionKernel kernel, double[][] segments,
+                                   double[] lng1, double[] lat1, double[] lng2, double[] lat2) {
+        long startTime = System.nanoTime();
+        int found = 0;
+        for (double[] s : segments) {
+            found += kernel.firstIntersection(lng1, lat1, lng2, lat2, 0, lng1.length, s[0], s[1],
+                s[2], s[3]);
+        }
+        long elapsedNanos = System.nanoTime() - startTime;
+        if (found == Integer.MIN_VALUE) {
+            System.out.println();  // keeps the loop from being optimised away
+        }
+        return elapsedNanos;
+    }
+    
+    /**
+     * @param geometryEngine The geometry engine holding the no fly zones.
+     * @param segments The segments to check.
+     * @return The time taken to check every segment with GeometryEngine, in nanoseconds.
+     */
+    private static long timeEngine(GeometryEngine geometryEngine, double[][] segments) {
+        long startTime = System.nanoTime();
+        int found = 0;
+        for (double[] s : segments) {
+            found += geometryEngine.lineIntersectsNoFlyZonePerimeter(new LongLat(s[0], s[1]),
+                new LongLat(s[2], s[3])) ? 1 : 0;
+        }
+        long elapsedNanos = System.nanoTime() - startTime;
+        if (found == Integer.MIN_VALUE) {
+            System.out.println();
+        }
+        return elapsedNanos;
+    }
+}
@@ -0,0 +1,256 @@
+package uk.ac.ed.inf;
+
+import java.util.*;
+
+/**
+ * Turns a route of orders into stops, letting consecutive orders that share a shop or a delivery
+ * location share the visit too, so the drone flies there once instead of once per order. It
+ * still hovers there once for every order served, see RouteStop.
+ * Such orders are carried together: their stops (every distinct location) are visited in the
+ * order predicted to take the fewest moves, as long as each order is picked up at all its shops
+ * before being delivered. A group of orders grows by the next order in the route as long as it
+ * shares a location with the group and carrying it along is predicted to save moves over
+ * delivering it after the group.
+ */
+public class StopConsolidator {
+    private static final int HOVER_MOVES = 1;
+    // the visit orders of a group's locations are searched exhaustively, so groups are capped
+    private static final int MAX_GROUP_LOCATIONS = 8;
+    
+    private final Drone drone;
+    // predicted moves of every leg evaluated so far, from -> to -> moves
+    private final Map<LongLat, Map<LongLat, Integer>> legMoves = new HashMap<>();
+    private int predictedMovesSaved = 0;
+    
+    /**
+     * A location to visit for a group of orders, with what has to happen there.
+     */
+    private static class Node {
+        final LongLat location;
+        final List<DeliveryOrder> orders = new ArrayList<>();  // served here, in route order
+        final Set<DeliveryOrder> pickups = new HashSet<>();  // orders picked up here
+        final Set<DeliveryOrder> deliveries = new HashSet<>();  // orders delivered here
+        
+        Node(LongLat location) {
+            this.location = location;
+        }
+    }
+    
+    /**
+     * @param drone The drone used to predict the moves of legs.
+     */
+    public StopConsolidator(Drone drone) {
+        this.drone = drone;
+    }
+    
+    /**
+     * @param route The orders to deliver, in order.
+     * @return The stops to visit to deliver them, with shared visits where they save moves.
+     */
+    public List<RouteStop> consolidate(List<DeliveryOrder> route) {
+        predictedMovesSaved = 0;
+        List<RouteStop> stops = new ArrayList<>();
+        LongLat previous = Drone.APPLETON_TOWER;
+        int i = 0;
+        while (i < route.size()) {
+            List<DeliveryOrder> group = new ArrayList<>(List.of(route.get(i)));
+            List<RouteStop> groupStops = RouteStop.ofRoute(group);
+            int end = i + 1;  // index of the first order after the group
+            while (end < route.size() && sharesLocation(group, route.get(end)) &&
+                getLocations(group, route.get(end)).size() <= MAX_GROUP_LOCATIONS) {
+                DeliveryOrder order = route.get(end);
+                LongLat next = getNextLocation(route, end + 1);
+                List<RouteStop> separateStops = new ArrayList<>(groupStops);
+                separateStops.addAll(RouteStop.ofRoute(List.of(order)));
+                List<DeliveryOrder> newGroup = new ArrayList<>(group);
+                newGroup.add(order);
+                List<RouteStop> sharedStops = getCheapestSharedStops(previous, newGroup, next);
+                if (getStopsMoves(previous, sharedStops, next) >=
+                    getStopsMoves(previous, separateStops, next)) {
+                    break;
+                }
+                group = newGroup;
+                groupStops = sharedStops;
+                end++;
+            }
+            LongLat next = getNextLocation(route, end);
+            predictedMovesSaved += getStopsMoves(previous, RouteStop.ofRoute(group), next) -
+                getStopsMoves(previous, groupStops, next);
+            stops.addAll(groupStops);
+            previous = groupStops.get(groupStops.size() - 1).location;
+            i = end;
+        }
+        return stops;
+    }
+    
+    /**
+     * @return The number of moves the last consolidation is predicted to have saved.
+     */
+    public int getPredictedMovesSaved() {
+        return predictedMovesSaved;
+    }
+    
+    /**
+     * @param route The orders to deliver, in order.
+     * @param index An index in the route, up to its size.
+     * @return Where the drone goes to start the order at index, APPLETON TOWER past the end.
+     */
+    private static LongLat getNextLocation(List<DeliveryOrder> route, int index) {
+        return index < route.size() ? route.get(index).getPickup1() : Drone.APPLETON_TOWER;
+    }
+    
+    /**
+     * @param group Orders carried together.
+     * @param other Another order.
+     * @return Whether the other order has a shop or its delivery location in common with any
+     * order of the group.
+     */
+    private static boolean sharesLocation(List<DeliveryOrder> group, DeliveryOrder other) {
+        for (DeliveryOrder order : group) {
+            if (order.shops.intersects(other.shops) ||
+                order.deliveryLngLat.equals(other.deliveryLngLat)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * @param group Orders carried together.
+     * @param other Another order.
+     * @return The distinct shop and delivery locations of the group and the other order.
+     */
+    private static Set<LongLat> getLocations(List<DeliveryOrder> group, DeliveryOrder other) {
+        Set<LongLat> locations = new HashSet<>();
+        for (DeliveryOrder order : group) {
+            locations.addAll(RouteStop.getLocations(order));
+        }
+        locations.addAll(RouteStop.getLocations(other));
+        return locations;
+    }
+    
+    /**
+     * Tries every order of visiting the distinct locations of the orders in which each order is
+     * picked up before it is delivered.
+     * @param previous Where the drone comes from.
+     * @param group The orders carried together, in route order.
+     * @param next Where the drone goes to afterwards.
+     * @return The stops predicted to take the fewest moves.
+     */
+    private List<RouteStop> getCheapestSharedStops(LongLat previous, List<DeliveryOrder> group,
+                                                   LongLat next) {
+        Map<LongLat, Node> nodes = new LinkedHashMap<>();
+        for (DeliveryOrder o : group) {
+            List<LongLat> pickups = new ArrayList<>();
+            pickups.add(o.getPickup1());
+            if (o.getPickup2() != null) {
+                pickups.add(o.getPickup2());
+            }
+            for (LongLat pickup : pickups) {
+                Node node = nodes.computeIfAbsent(pickup, Node::new);
+                node.pickups.add(o);
+                if (!node.orders.contains(o)) {
+                    node.orders.add(o);
+                }
+            }
+            Node node = nodes.computeIfAbsent(o.deliveryLngLat, Node::new);
+            node.deliveries.add(o);
+            if (!node.orders.contains(o)) {
+                node.orders.add(o);
+            }
+        }
+        List<Node> bestSequence = new ArrayList<>();
+        int[] bestMoves = {Integer.MAX_VALUE};
+        searchSequences(previous, new ArrayList<>(nodes.values()), new ArrayList<>(), 0, next,
+            bestSequence, bestMoves);
+        List<RouteStop> stops = new ArrayList<>();
+        for (Node node : bestSequence) {
+            stops.add(new RouteStop(node.location, node.orders));
+        }
+        return stops;
+    }
+    
+    /**
+     * Depth first search over the orders of visiting the nodes, abandoning partial sequences that
+     * already take more moves than the best found.
+     * @param current Where the drone is after the partial sequence.
+     * @param remaining The nodes not visited yet.
+     * @param sequence The partial sequence.
+     * @param moves The moves of the partial sequence.
+     * @param next Where the drone goes to after the last node.
+     * @param bestSequence The best complete sequence found so far.
+     * @param bestMoves The moves of the best complete sequence, a single element array.
+     */
+    private void searchSequences(LongLat current, List<Node> remaining, List<Node> sequence,
+                                 int moves, LongLat next, List<Node> bestSequence,
+                                 int[] bestMoves) {
+        if (moves >= bestMoves[0]) {
+            return;
+        }
+        if (remaining.isEmpty()) {
+            int totalMoves = moves + getLegMoves(current, next);
+            if (totalMoves < bestMoves[0]) {
+                bestMoves[0] = totalMoves;
+                bestSequence.clear();
+                bestSequence.addAll(sequence);
+            }
+            return;
+        }
+        for (int i = 0; i < remaining.size(); i++) {
+            Node node = remaining.get(i);
+            List<Node> newRemaining = new ArrayList<>(remaining);
+            newRemaining.remove(i);
+            if (hasPickupsLeft(node.deliveries, newRemaining)) {
+                continue;  // orders must be picked up at all their shops before delivery
+            }
+            sequence.add(node);
+            searchSequences(node.location, newRemaining, sequence,
+                moves + getLegMoves(current, node.location) + HOVER_MOVES * node.orders.size(),
+                next, bestSequence, bestMoves);
+            sequence.remove(sequence.size() - 1);
+        }
+    }
+    
+    /**
+     * @param orders Some orders.
+     * @param nodes The nodes not visited yet.
+     * @return Whether any of the orders is still to be picked up at one of the nodes.
+     */
+    private static boolean hasPickupsLeft(Set<DeliveryOrder> orders, List<Node> nodes) {
+        for (Node node : nodes) {
+            for (DeliveryOrder order : orders) {
+                if (node.pickups.contains(order)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * @param previous Where the drone comes from.
+     * @param stops The stops to visit.
+     * @param next Where the drone goes to afterwards.
+     * @return The predicted moves from previous through the stops to next, including a hover for
+     * every order served at every stop.
+     */
+    private int getStopsMoves(LongLat previous, List<RouteStop> stops, LongLat next) {
+        int moves = 0;
+        LongLat current = previous;
+        for (RouteStop stop : stops) {
+            moves += getLegMoves(current, stop.location) + HOVER_MOVES * stop.orders.size();
+            current = stop.location;
+        }
+        return moves + getLegMoves(current, next);
+    }
+    
+    /**
+     * @param from The position to start the leg from.
+     * @param to The position to end the leg at.
+     * @return The predicted number of moves for the leg, not including hovering.
+     */
+    private int getLegMoves(LongLat from, LongLat to) {
+        return legMoves.computeIfAbsent(from, key -> new HashMap<>())
+            .computeIfAbsent(to, key -> drone.predictLegMoves(from, to));
+    }
+}
@@ -0,0 +1,71 @@
+package uk.ac.ed.inf;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Times ClusteredTourPlanner on random days of growing size, against the same local search on
+ * one flat tour for the days small enough for it, printing the time per order to show how
+ * planning scales and the tour lengths to show what clustering costs.
+ */
+public class TourPlanningBenchmark {
+    private static final int DEFAULT_MAX_ORDERS = 16000;
+    private static final int MAX_FLAT_ORDERS = 2000;  // flat local search takes minutes beyond
+    private static final int SHOP_COUNT = 8;
+    // the confinement area
+    private static final double MIN_LNG = -3.192473, MAX_LNG = -3.184319;
+    private static final double MIN_LAT = 55.942617, MAX_LAT = 55.946233;
+    
+    /**
+     * @param args [maxOrders] [threads], the number of orders doubles from 250 up to maxOrders.
+     */
+    public static void main(String[] args) {
+        int maxOrders = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_MAX_ORDERS;
+        int threadCount = args.length > 1 ? Integer.parseInt(args[1]) :
+            Runtime.getRuntime().availableProcessors();
+        ClusteredTourPlanner planner = new ClusteredTourPlanner(threadCount);
+        Random random = new Random(0);
+        LongLat[] shops = new LongLat[SHOP_COUNT];
+        for (int i = 0; i < SHOP_COUNT; i++) {
+            shops[i] = getRandomLongLat(random);
+        }
+        planner.planTour(shops, shops);  // warm up
+        
+        for (int orderCount = 250; orderCount <= maxOrders; orderCount *= 2) {
+            LongLat[] pickups = new LongLat[orderCount];
+            LongLat[] deliveries = new LongLat[orderCount];
+            for (int i = 0; i < orderCount; i++) {
+                pickups[i] = shops[random.nextInt(SHOP_COUNT)];
+                deliveries[i] = getRandomLongLat(random);
+            }
+            long startTime = System.nanoTime();
+            int[] tour = planner.planTour(pickups, deliveries);
+            long clusteredNanos = System.nanoTime() - startTime;
+            System.out.printf("%d orders: clustered %.1f ms (%.1f us per order), length %.4f",
+                orderCount, clusteredNanos / 1e6, clusteredNanos / 1e3 / orderCount,
+                ClusteredTourPlanner.getTourDistance(tour, pickups, deliveries));
+            if (orderCount <= MAX_FLAT_ORDERS) {
+                int[] all = new int[orderCount];
+                Arrays.setAll(all, i -> i);
+                startTime = System.nanoTime();
+                int[] flatTour = ClusteredTourPlanner.improve(
+                    ClusteredTourPlanner.nearestNeighbour(all, Drone.APPLETON_TOWER, pickups,
+                        deliveries), Drone.APPLETON_TOWER, Drone.APPLETON_TOWER, pickups,
+                    deliveries);
+                long flatNanos = System.nanoTime() - startTime;
+                System.out.printf(", flat %.1f ms, length %.4f", flatNanos / 1e6,
+                    ClusteredTourPlanner.getTourDistance(flatTour, pickups, deliveries));
+            }
+            System.out.println();
+        }
+    }
+    
+    /**
+     * @param random The random number generator.
+     * @return A point in the confinement area.
+     */
+    private static LongLat getRandomLongLat(Random random) {
+        return new LongLat(MIN_LNG + random.nextDouble() * (MAX_LNG - MIN_LNG),
+            MIN_LAT + random.nextDouble() * (MAX_LAT - MIN_LAT));
+    }
+}
@@ -4,7 +4,6 @@ import com.mapbox.geojson.Point;
 import com.mapbox.geojson.Polygon;
 
 import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.util.ArrayList;
@@ -16,7 +15,7 @@ import java.util.List;
  */
 public class Utils {
     
-    public static final HttpClient client = HttpClient.newHttpClient();
+    public static final ResilientHttpClient httpClient = ResilientHttpClient.fromSystemProperties();
     
     /**
      * @param line1Start starting point of first line segment.
@@ -74,36 +73,23 @@ public class Utils {
     }
     
     /**
-     * Performs HTTP request, will exit the program if errors encountered.
+     * Performs HTTP request, with timeouts and retries, see ResilientHttpClient.
      * @param server The server name.
      * @param port The port of server.
      * @param URL The URL endpoint to reach.
      * @return A String HTTP response from server.
+     * @throws HttpRequestException If no 200 OK response could be got from the server.
      */
     public static String sendHttpRequest(String server, String port, String URL) {
-        HttpRequest request = HttpRequest.newBuilder().uri(URI.create(URL)).build();
-        String responseStr = "";
-        try {
-            HttpResponse<String> response = client.send(request,
-                HttpResponse.BodyHandlers.ofString());
-            int statusCode = response.statusCode();
-            if (!(statusCode == 200)) {
-                // may be the server or bad request, fatal error
-                System.err.printf("got status code %d for URL %s, expecting 200 OK",
-                    statusCode, URL);
-                System.exit(1); // Exit the application
-            }
-            responseStr = response.body();
-        }
-        catch (java.net.ConnectException e) {
-            System.err.println("Fatal error: Unable to connect to " +
-                server + " at port " + port + ".");
-            System.exit(1); // Exit the application
-        }
-        catch (Exception e) {
-            e.printStackTrace();
-            System.exit(1); // Exit the application
+        HttpRequest.Builder requestBuilder = HttpRequest.newBuilder().uri(URI.create(URL));
+        HttpResponse<String> response = httpClient.send(requestBuilder);
+        int statusCode = response.statusCode();
+        if (!(statusCode == 200)) {
+            // may be the server or bad request
+            throw new HttpRequestException(URL, statusCode, String.format(
+                "got status code %d for URL %s from %s at port %s, expecting 200 OK",
+                statusCode, URL, server, port), null);
         }
-        return responseStr;
+        return response.body();
     }
 }
@@ -0,0 +1,70 @@
+package uk.ac.ed.inf;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Tests as many edges at once as the CPU has SIMD lanes for doubles, with the vector API of the
+ * jdk.incubator.vector module, see SegmentIntersectionKernel#create. Every lane does the same
+ * arithmetic in the same order as ScalarSegmentKernel, without fused multiply-adds, so the results
+ * are exactly the same.
+ */
+public class VectorSegmentKernel implements SegmentIntersectionKernel {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    
+    /**
+     * @throws UnsupportedOperationException If the CPU has no SIMD lanes for doubles, the vector
+     * API would only be slower then.
+     */
+    public VectorSegmentKernel() {
+        if (SPECIES.length() < 2) {
+            throw new UnsupportedOperationException("no SIMD lanes for doubles");
+        }
+    }
+    
+    @Override
+    public int firstIntersection(double[] lng1, double[] lat1, double[] lng2, double[] lat2,
+                                 int from, int to, double startLng, double startLat,
+                                 double endLng, double endLat) {
+        double rLng = endLng - startLng;
+        double rLat = endLat - startLat;
+        int i = from;
+        for (int bound = from + SPECIES.loopBound(to - from); i < bound; i += SPECIES.length()) {
+            DoubleVector edgeLng1 = DoubleVector.fromArray(SPECIES, lng1, i);
+            DoubleVector edgeLat1 = DoubleVector.fromArray(SPECIES, lat1, i);
+            DoubleVector sLng = DoubleVector.fromArray(SPECIES, lng2, i).sub(edgeLng1);
+            DoubleVector sLat = DoubleVector.fromArray(SPECIES, lat2, i).sub(edgeLat1);
+            DoubleVector rsCross = sLat.mul(rLng).sub(sLng.mul(rLat));
+            DoubleVector qpLng = edgeLng1.sub(startLng);
+            DoubleVector qpLat = edgeLat1.sub(startLat);
+            DoubleVector t = qpLng.mul(sLat).sub(qpLat.mul(sLng)).div(rsCross);
+            DoubleVector u = qpLng.mul(rLat).sub(qpLat.mul(rLng)).div(rsCross);
+            // lanes with parallel lines divide by 0, they are masked out
+            VectorMask<Double> intersecting = rsCross.compare(VectorOperators.NE, 0)
+                .and(t.compare(VectorOperators.GT, 0)).and(t.compare(VectorOperators.LT, 1))
+                .and(u.compare(VectorOperators.GT, 0)).and(u.compare(VectorOperators.LT, 1));
+            if (intersecting.anyTrue()) {
+                return i + intersecting.firstTrue();
+            }
+        }
+        for (; i < to; i++) {
+            if (ScalarSegmentKernel.intersects(lng1[i], lat1[i], lng2[i], lat2[i], startLng,
+                startLat, rLng, rLat)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    @Override
+    public int getLaneCount() {
+        return SPECIES.length();
+    }
+    
+    @Override
+    public String getName() {
+        return String.format("vector (%d lanes)", SPECIES.length());
+    }
+}
@@ -36,6 +36,6 @@ public class What3WordsManager {
         String responseStr = Utils.sendHttpRequest(server, port, w3wURL);
         Type w3wDetailType = new TypeToken<W3WDetail>() {}.getType();
         W3WDetail w3WDetail = new Gson().fromJson(responseStr, w3wDetailType);
-        return new LongLat(w3WDetail.coordinates.lng, w3WDetail.coordinates.lat);
+        return LongLat.of(w3WDetail.coordinates.lng, w3WDetail.coordinates.lat);
     }
 }
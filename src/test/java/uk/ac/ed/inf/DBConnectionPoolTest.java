@@ -0,0 +1,103 @@
+package uk.ac.ed.inf;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * Borrows connections to an in-memory embedded Derby database from a pool of 2.
+ */
+public class DBConnectionPoolTest {
+    private static final long WAIT_MILLIS = 200;  // an acquire still waiting after it is blocked
+    
+    private TestDatabase database;
+    private DBConnectionPool pool;
+    private ExecutorService executor;
+    
+    /**
+     * Creates the database and a pool of 2 connections to it.
+     * @throws SQLException If the database cannot be created.
+     */
+    @Before
+    public void openPool() throws SQLException {
+        database = new TestDatabase("connectionPool");
+        pool = database.newConnectionPool();
+        executor = Executors.newSingleThreadExecutor();
+    }
+    
+    /**
+     * Closes the pool and drops the database.
+     */
+    @After
+    public void closePool() {
+        executor.shutdownNow();
+        pool.closeAll();
+        database.close();
+    }
+    
+    /**
+     * @param acquire A pending acquire.
+     * @throws Exception If the acquire failed.
+     */
+    private static void assertBlocked(Future<DBConnectionPool.PooledConnection> acquire)
+        throws Exception {
+        try {
+            acquire.get(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            fail("expected the acquire to wait for a connection to be given back");
+        }
+        catch (TimeoutException e) {
+            // still waiting, as expected
+        }
+    }
+    
+    @Test
+    public void acquireWaitsForConnectionToBeGivenBack() throws Exception {
+        DBConnectionPool.PooledConnection first = pool.acquire();
+        DBConnectionPool.PooledConnection second = pool.acquire();
+        Future<DBConnectionPool.PooledConnection> third = executor.submit(pool::acquire);
+        assertBlocked(third);
+        second.close();
+        assertSame(second, third.get(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+        first.close();
+        assertSame(first, pool.acquire());
+    }
+    
+    @Test
+    public void closingTwiceGivesBackOnce() throws Exception {
+        DBConnectionPool.PooledConnection first = pool.acquire();
+        pool.acquire();
+        first.close();
+        first.close();
+        assertSame(first, pool.acquire());
+        // had it been given back twice, it would be handed out again here
+        assertBlocked(executor.submit(pool::acquire));
+    }
+    
+    @Test
+    public void preparedStatementsAreReusedUntilInvalidated() throws SQLException {
+        try (DBConnectionPool.PooledConnection connection = pool.acquire()) {
+            PreparedStatement statement = connection.prepare("select * from orders");
+            assertSame(statement, connection.prepare("select * from orders"));
+            pool.invalidateStatementCaches();
+            assertNotSame(statement, connection.prepare("select * from orders"));
+        }
+    }
+    
+    @Test(expected = SQLException.class)
+    public void closedPoolRefusesToLend() throws SQLException {
+        pool.closeAll();
+        pool.acquire();
+    }
+}
@@ -0,0 +1,240 @@
+package uk.ac.ed.inf;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Writes plans to an in-memory embedded Derby database and reads them back, with orders built
+ * from a local webserver serving the menus and w3w locations from the test resources.
+ */
+public class DBManagerTest {
+    private static final Date DATE = Date.valueOf("2022-01-02");
+    private static final Date OTHER_DATE = Date.valueOf("2022-01-03");
+    private static final LongLat START = new LongLat(-3.186874, 55.944494);
+    
+    private static TestWebserver webserver;
+    private static PlanningContext context;
+    
+    @Rule
+    public TemporaryFolder stagingDirectory = new TemporaryFolder();
+    private TestDatabase database;
+    private DBManager dbManager;
+    
+    /**
+     * Starts the webserver, and builds the context from it.
+     * @throws IOException If the server cannot be started.
+     */
+    @BeforeClass
+    public static void startServer() throws IOException {
+        webserver = new TestWebserver();
+        context = new PlanningContext("localhost", webserver.getPort(), null);
+    }
+    
+    /**
+     * Stops the webserver.
+     */
+    @AfterClass
+    public static void stopServer() {
+        webserver.close();
+    }
+    
+    /**
+     * Creates an empty database for every test.
+     * @throws SQLException If the database cannot be created.
+     */
+    @Before
+    public void openDatabase() throws SQLException {
+        database = new TestDatabase("dbManager");
+        dbManager = new DBManager(database.newConnectionPool());
+    }
+    
+    /**
+     * Drops the database.
+     */
+    @After
+    public void closeDatabase() {
+        dbManager.close();
+        database.close();
+    }
+    
+    /**
+     * @return Two orders delivered to d0.x.y.
+     */
+    private static List<DeliveryOrder> getOrders() {
+        List<DeliveryOrder> orders = new ArrayList<>();
+        orders.add(new DeliveryOrder("00000001", DATE, "s0000000", "d0.x.y", List.of("i0a"),
+            context.menus, context.what3WordsManager));
+        orders.add(new DeliveryOrder("00000002", DATE, "s0000000", "d0.x.y",
+            List.of("i0b", "i1a"), context.menus, context.what3WordsManager));
+        return orders;
+    }
+    
+    /**
+     * @param orderNos The orderNo of every move, a hover where it changes.
+     * @param tag The value of the droneId and sortie of every move.
+     * @return The moves, each one step further east than the last.
+     */
+    private static List<Flightpath> getFlightpaths(String[] orderNos, int tag) {
+        List<Flightpath> flightpaths = new ArrayList<>();
+        LongLat from = START;
+        for (int i = 0; i < orderNos.length; i++) {
+            boolean hover = i + 1 < orderNos.length && !orderNos[i].equals(orderNos[i + 1]);
+            LongLat to = hover ? from : from.nextPosition(0);
+            flightpaths.add(new Flightpath(orderNos[i], from, hover ? -999 : 0, to, tag, tag));
+            from = to;
+        }
+        return flightpaths;
+    }
+    
+    /**
+     * @param expected The moves written.
+     * @param actual The moves read back.
+     * @param checkDroneId Whether the droneId was written.
+     * @param checkSortie Whether the sortie was written.
+     */
+    private static void assertSameFlightpaths(List<Flightpath> expected, List<Flightpath> actual,
+                                              boolean checkDroneId, boolean checkSortie) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Flightpath e = expected.get(i);
+            Flightpath a = actual.get(i);
+            assertEquals(e.orderNo, a.orderNo);
+            assertEquals(e.fromLng, a.fromLng, 0);
+            assertEquals(e.fromLat, a.fromLat, 0);
+            assertEquals(e.angle, a.angle);
+            assertEquals(e.toLng, a.toLng, 0);
+            assertEquals(e.toLat, a.toLat, 0);
+            assertEquals(checkDroneId ? e.droneId : 0, a.droneId);
+            assertEquals(checkSortie ? e.sortie : 0, a.sortie);
+        }
+    }
+    
+    @Test
+    public void bulkLoadedTablesEqualInsertedOnes() throws SQLException {
+        List<DeliveryOrder> orders = getOrders();
+        List<Flightpath> flightpaths = getFlightpaths(
+            new String[]{"00000001", "00000001", "00000002", "00000002", "00000002"}, 1);
+        dbManager.writeDeliveries(orders);
+        dbManager.writeSortieFlightpath(flightpaths);
+        int insertedCost = database.queryInt("select sum(costInPence) from deliveries");
+        assertSameFlightpaths(flightpaths, dbManager.readFlightpath(), false, true);
+        
+        dbManager.setBulkLoadDirectory(stagingDirectory.getRoot().toPath());
+        dbManager.writeDeliveries(orders);
+        dbManager.writeSortieFlightpath(flightpaths);
+        assertEquals(2, database.queryInt("select count(*) from deliveries"));
+        assertEquals(insertedCost, database.queryInt("select sum(costInPence) from deliveries"));
+        assertSameFlightpaths(flightpaths, dbManager.readFlightpath(), false, true);
+        dbManager.writeFlightpath(flightpaths);
+        assertSameFlightpaths(flightpaths, dbManager.readFlightpath(), false, false);
+        // the staged files are deleted once loaded
+        assertEquals(0, stagingDirectory.getRoot().list().length);
+    }
+    
+    @Test
+    public void unstageableRowsAreInsertedInstead() throws SQLException {
+        Path missingDirectory = stagingDirectory.getRoot().toPath().resolve("missing");
+        dbManager.setBulkLoadDirectory(missingDirectory);
+        dbManager.writeDeliveries(getOrders());
+        assertEquals(2, database.queryInt("select count(*) from deliveries"));
+    }
+    
+    @Test
+    public void failedBulkLoadThrowsAndLoadsNothing() throws SQLException {
+        dbManager.setBulkLoadDirectory(stagingDirectory.getRoot().toPath());
+        // the last orderNo does not fit the char(8) column
+        List<Flightpath> flightpaths = getFlightpaths(
+            new String[]{"00000001", "00000001", "000000002"}, 0);
+        try {
+            dbManager.writeFlightpath(flightpaths);
+            fail("expected the bulk load to fail");
+        }
+        catch (DatabaseException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("bulk load"));
+        }
+        assertEquals(0, database.queryInt("select count(*) from flightpath"));
+        assertEquals(0, stagingDirectory.getRoot().list().length);
+    }
+    
+    @Test
+    public void datedPlanReplacesOnlyItsDate() throws SQLException {
+        dbManager.usePartitionedTables();
+        // the tables, column and indexes are only created once
+        dbManager.usePartitionedTables();
+        List<DeliveryOrder> orders = getOrders();
+        List<Flightpath> flightpaths = getFlightpaths(
+            new String[]{"00000001", "00000001", "00000002", "00000002"}, 2);
+        List<Flightpath> otherFlightpaths = getFlightpaths(
+            new String[]{"00000003", "00000003", "00000003"}, 1);
+        dbManager.writeDatedPlan(DATE, orders, flightpaths);
+        dbManager.writeDatedPlan(OTHER_DATE, orders.subList(0, 1), otherFlightpaths);
+        assertSameFlightpaths(flightpaths, dbManager.readDatedFlightpath(DATE), true, true);
+        
+        List<Flightpath> newFlightpaths = flightpaths.subList(0, 2);
+        dbManager.writeDatedPlan(DATE, orders.subList(1, 2), newFlightpaths);
+        assertSameFlightpaths(newFlightpaths, dbManager.readDatedFlightpath(DATE), true, true);
+        assertSameFlightpaths(otherFlightpaths, dbManager.readDatedFlightpath(OTHER_DATE),
+            true, true);
+        assertEquals(1, database.queryInt(
+            "select count(*) from datedDeliveries where deliveryDate = '2022-01-02'"));
+        assertEquals(1, database.queryInt(
+            "select count(*) from datedDeliveries where deliveryDate = '2022-01-03'"));
+    }
+    
+    @Test
+    public void failedDatedPlanLeavesTablesAsTheyWere() {
+        dbManager.usePartitionedTables();
+        List<Flightpath> flightpaths = getFlightpaths(new String[]{"00000001", "00000002"}, 0);
+        dbManager.writeDatedPlan(DATE, getOrders(), flightpaths);
+        try {
+            // the orderNo does not fit the char(8) column
+            dbManager.writeDatedPlan(DATE, getOrders(),
+                getFlightpaths(new String[]{"000000001"}, 0));
+            fail("expected the plan to be rejected");
+        }
+        catch (DatabaseException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("2022-01-02"));
+        }
+        assertSameFlightpaths(flightpaths, dbManager.readDatedFlightpath(DATE), true, true);
+    }
+    
+    @Test
+    public void fleetAndSortieFlightpathsKeepTheirTag() {
+        List<Flightpath> flightpaths = getFlightpaths(new String[]{"00000001", "00000002"}, 3);
+        dbManager.writeFleetFlightpath(flightpaths);
+        assertSameFlightpaths(flightpaths, dbManager.readFlightpath(), true, false);
+        dbManager.writeSortieFlightpath(flightpaths);
+        assertSameFlightpaths(flightpaths, dbManager.readFlightpath(), false, true);
+    }
+    
+    @Test
+    public void datedFlightpathWithoutSortiesIsUpgraded() throws SQLException {
+        // as created before sorties were planned
+        database.execute("create table datedFlightpath(deliveryDate date, moveNo integer, " +
+            "orderNo char(8), fromLongitude double, fromLatitude double, angle integer, " +
+            "toLongitude double, toLatitude double, droneId integer)");
+        database.execute("insert into datedFlightpath values " +
+            "('2022-01-03', 0, '00000003', 0, 0, -999, 0, 0, 0)");
+        dbManager.usePartitionedTables();
+        assertEquals(0, dbManager.readDatedFlightpath(OTHER_DATE).get(0).sortie);
+        List<Flightpath> flightpaths = getFlightpaths(new String[]{"00000001", "00000002"}, 1);
+        dbManager.writeDatedPlan(DATE, getOrders(), flightpaths);
+        assertSameFlightpaths(flightpaths, dbManager.readDatedFlightpath(DATE), true, true);
+    }
+}
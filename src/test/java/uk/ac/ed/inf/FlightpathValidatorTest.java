@@ -0,0 +1,159 @@
+package uk.ac.ed.inf;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Validates flight logs with one kind of violation injected each, around APPLETON TOWER, in a
+ * small confinement area with a no fly zone just north east of the tower.
+ */
+public class FlightpathValidatorTest {
+    private static final double AT_LNG = Drone.APPLETON_TOWER.longitude;
+    private static final double AT_LAT = Drone.APPLETON_TOWER.latitude;
+    // a valid flight: two moves east, a hover to deliver the first order and back to the tower
+    private static final String[] ORDER_NOS = {"00000001", "00000001", "00000001", "00000002",
+        "00000002"};
+    private static final int[] ANGLES = {0, 0, -999, 180, 180};
+    
+    private FlightpathValidator validator;
+    
+    /**
+     * Creates the validator, with the no fly zone 1 to 2 moves east and north of the tower and
+     * the confinement area less than 4 moves away from it.
+     */
+    @Before
+    public void createValidator() {
+        double[] zone =
+            rectangle(AT_LNG + 0.0001, AT_LAT + 0.0001, AT_LNG + 0.0002, AT_LAT + 0.0002);
+        double[] confinement =
+            rectangle(AT_LNG - 0.0005, AT_LAT - 0.0005, AT_LNG + 0.0005, AT_LAT + 0.0005);
+        validator = new FlightpathValidator(new GeometryEngine(List.of(zone), confinement), 2);
+    }
+    
+    /**
+     * Stops the validator's threads.
+     */
+    @After
+    public void closeValidator() {
+        validator.close();
+    }
+    
+    /**
+     * @param minLng The west side.
+     * @param minLat The south side.
+     * @param maxLng The east side.
+     * @param maxLat The north side.
+     * @return The packed ring of the rectangle.
+     */
+    private static double[] rectangle(double minLng, double minLat, double maxLng, double maxLat) {
+        return new double[]{minLng, minLat, maxLng, minLat, maxLng, maxLat, minLng, maxLat,
+            minLng, minLat};
+    }
+    
+    /**
+     * @param droneId The drone flying the moves.
+     * @param orderNos The orderNo of every move.
+     * @param angles The angle of every move, the moves start at APPLETON TOWER.
+     * @return The moves, each going exactly where its angle takes it.
+     */
+    private static List<Flightpath> newFlight(int droneId, String[] orderNos, int[] angles) {
+        List<Flightpath> flight = new ArrayList<>();
+        LongLat from = Drone.APPLETON_TOWER;
+        for (int i = 0; i < angles.length; i++) {
+            LongLat to = from.nextPosition(angles[i]);
+            flight.add(new Flightpath(orderNos[i], from, angles[i], to, droneId));
+            from = to;
+        }
+        return flight;
+    }
+    
+    /**
+     * @param flight The flight log.
+     * @param moveIndexes The index of the move of every expected violation, in order.
+     * @param problems The problem of every expected violation.
+     */
+    private void assertViolations(List<Flightpath> flight, int[] moveIndexes,
+                                  String... problems) {
+        FlightpathValidator.Report report =
+            validator.validate(flight, FlightpathValidator.EXACT_TOLERANCE);
+        assertEquals(report.violations.toString(), problems.length, report.violations.size());
+        for (int i = 0; i < problems.length; i++) {
+            assertEquals(moveIndexes[i], report.violations.get(i).moveIndex);
+            assertEquals(problems[i], report.violations.get(i).problem);
+        }
+    }
+    
+    @Test
+    public void validFlightHasNoViolations() {
+        FlightpathValidator.Report report = validator.validate(newFlight(0, ORDER_NOS, ANGLES),
+            FlightpathValidator.EXACT_TOLERANCE);
+        assertTrue(report.violations.toString(), report.isValid());
+        assertEquals(5, report.moveCount);
+    }
+    
+    @Test
+    public void illegalAngleIsReported() {
+        List<Flightpath> flight = newFlight(0, ORDER_NOS, ANGLES);
+        Flightpath move = flight.get(1);
+        flight.set(1, new Flightpath(move.orderNo, move.getFromLongLat(), 15,
+            move.getToLongLat()));
+        assertViolations(flight, new int[]{1}, "illegal angle 15");
+    }
+    
+    @Test
+    public void brokenChainIsReported() {
+        List<Flightpath> flight = newFlight(0, ORDER_NOS, ANGLES);
+        flight.remove(1);  // the hover is now one move away from where the first move ended
+        assertViolations(flight, new int[]{1}, "does not start where the last move ended");
+    }
+    
+    @Test
+    public void noFlyZoneCrossingIsReported() {
+        // north into the zone after the first move east, and back out
+        List<Flightpath> flight = newFlight(0, ORDER_NOS, new int[]{0, 90, -999, 270, 180});
+        assertViolations(flight, new int[]{1, 2, 3}, "crosses a no fly zone",
+            "crosses a no fly zone", "crosses a no fly zone");
+    }
+    
+    @Test
+    public void leavingConfinementIsReported() {
+        String[] orderNos = new String[9];
+        Arrays.fill(orderNos, "00000001");
+        List<Flightpath> flight = newFlight(0, orderNos,
+            new int[]{0, 0, 0, 0, -999, 180, 180, 180, 180});
+        assertViolations(flight, new int[]{3, 4, 5}, "leaves the confinement area",
+            "leaves the confinement area", "leaves the confinement area");
+    }
+    
+    @Test
+    public void orderChangeWithoutHoverIsReported() {
+        String[] orderNos = {"00000001", "00000002", "00000002", "00000002", "00000002"};
+        assertViolations(newFlight(0, orderNos, ANGLES), new int[]{1},
+            "changes from order 00000001 to 00000002 without hovering");
+    }
+    
+    @Test
+    public void flightOverMaxMovesIsReported() {
+        // back and forth, spread over several chunks, then a short flight of another drone
+        int moveCount = Drone.MAX_MOVES + 2;
+        String[] orderNos = new String[moveCount];
+        int[] angles = new int[moveCount];
+        for (int i = 0; i < moveCount; i++) {
+            orderNos[i] = "00000001";
+            angles[i] = i % 2 == 0 ? 0 : 180;
+        }
+        List<Flightpath> flights = newFlight(0, orderNos, angles);
+        flights.addAll(newFlight(1, new String[]{"00000002", "00000002"}, new int[]{0, 180}));
+        assertViolations(flights, new int[]{moveCount - 1},
+            String.format("drone 0 sortie 0 makes %d moves, over %d", moveCount,
+                Drone.MAX_MOVES));
+    }
+}
@@ -0,0 +1,361 @@
+package uk.ac.ed.inf;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the grid-indexed checks of GeometryEngine against brute force over every edge, for
+ * the no fly zones and confinement area in testing/, with the scalar and the vector
+ * SegmentIntersectionKernel. The vector kernel is only available with the jdk.incubator.vector
+ * module, which the build adds to the test JVM.
+ */
+@RunWith(Parameterized.class)
+public class GeometryEngineTest {
+    // as GeometryEngine, points closer than this to a perimeter are on it
+    private static final double ON_PERIMETER_TOLERANCE = 1e-10;
+    private static final int RANDOM_COUNT = 20000;
+    
+    private static List<double[]> zoneRings;
+    private static double[] confinementRing;
+    private static double[] bounds;  // {minLng, minLat, maxLng, maxLat} of all rings, with margin
+    
+    private final boolean vectorKernel;
+    private GeometryEngine geometryEngine;
+    
+    /**
+     * @return The kernels to run with, by name and whether it is the vector one.
+     */
+    @Parameterized.Parameters(name = "{0} kernel")
+    public static Collection<Object[]> getKernels() {
+        return Arrays.asList(new Object[][]{{"scalar", false}, {"vector", true}});
+    }
+    
+    /**
+     * @param name The name of the kernel, for the test names.
+     * @param vectorKernel Whether to run with the vector kernel.
+     */
+    public GeometryEngineTest(String name, boolean vectorKernel) {
+        this.vectorKernel = vectorKernel;
+    }
+    
+    /**
+     * Reads the no fly zones from testing/all.geojson and the confinement area from
+     * testing/confinement-zone.geojson, the rings all.geojson has besides it are the zones.
+     * @throws IOException If the files cannot be read.
+     */
+    @BeforeClass
+    public static void readRings() throws IOException {
+        Path confinementPath = Path.of("testing", "confinement-zone.geojson");
+        try (Reader reader = Files.newBufferedReader(confinementPath)) {
+            confinementRing = GeojsonPolygonReader.readOuterRings(reader).get(0);
+        }
+        zoneRings = new ArrayList<>();
+        try (Reader reader = Files.newBufferedReader(Path.of("testing", "all.geojson"))) {
+            for (double[] ring : GeojsonPolygonReader.readOuterRings(reader)) {
+                if (!Arrays.equals(ring, confinementRing)) {
+                    zoneRings.add(ring);
+                }
+            }
+        }
+        bounds = new double[]{Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+            Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        List<double[]> rings = new ArrayList<>(zoneRings);
+        rings.add(confinementRing);
+        for (double[] ring : rings) {
+            for (int i = 0; i < ring.length; i += 2) {
+                bounds[0] = Math.min(bounds[0], ring[i]);
+                bounds[1] = Math.min(bounds[1], ring[i + 1]);
+                bounds[2] = Math.max(bounds[2], ring[i]);
+                bounds[3] = Math.max(bounds[3], ring[i + 1]);
+            }
+        }
+        double margin = 2 * LongLat.MOVE_DISTANCE;
+        bounds[0] -= margin;
+        bounds[1] -= margin;
+        bounds[2] += margin;
+        bounds[3] += margin;
+    }
+    
+    /**
+     * Builds the engine with the kernel of this run, skipping the vector run if the vector kernel
+     * is not available.
+     */
+    @Before
+    public void createEngine() {
+        String previous = System.getProperty("ilp.vectorKernel");
+        System.setProperty("ilp.vectorKernel", String.valueOf(vectorKernel));
+        try {
+            if (vectorKernel) {
+                Assume.assumeTrue("the vector kernel is not available",
+                    SegmentIntersectionKernel.create().getLaneCount() > 1);
+            }
+            geometryEngine = new GeometryEngine(zoneRings, confinementRing);
+        }
+        finally {
+            if (previous == null) {
+                System.clearProperty("ilp.vectorKernel");
+            }
+            else {
+                System.setProperty("ilp.vectorKernel", previous);
+            }
+        }
+    }
+    
+    /**
+     * @param lng Longitude of the point.
+     * @param lat Latitude of the point.
+     * @param ring A packed ring.
+     * @return Whether the point is within the tolerance of an edge of the ring.
+     */
+    private static boolean isOnRing(double lng, double lat, double[] ring) {
+        for (int i = 0; i + 3 < ring.length; i += 2) {
+            double sLng = ring[i + 2] - ring[i];
+            double sLat = ring[i + 3] - ring[i + 1];
+            double t = ((lng - ring[i]) * sLng + (lat - ring[i + 1]) * sLat) /
+                (sLng * sLng + sLat * sLat);
+            t = Math.max(0, Math.min(1, t));
+            if (Math.hypot(ring[i] + t * sLng - lng, ring[i + 1] + t * sLat - lat) <=
+                ON_PERIMETER_TOLERANCE) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Even-odd ray casting over every edge of the ring.
+     * @param lng Longitude of the point.
+     * @param lat Latitude of the point.
+     * @param ring A packed ring.
+     * @return Whether the point is strictly inside the ring.
+     */
+    private static boolean isStrictlyInside(double lng, double lat, double[] ring) {
+        if (isOnRing(lng, lat, ring)) {
+            return false;
+        }
+        boolean inside = false;
+        for (int i = 0; i + 3 < ring.length; i += 2) {
+            double lng1 = ring[i], lat1 = ring[i + 1], lng2 = ring[i + 2], lat2 = ring[i + 3];
+            if ((lat1 > lat) != (lat2 > lat) &&
+                lng < lng1 + (lat - lat1) * (lng2 - lng1) / (lat2 - lat1)) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+    
+    /**
+     * @param lng Longitude of the point.
+     * @param lat Latitude of the point.
+     * @return Whether the point is strictly inside a no fly zone, by brute force.
+     */
+    private static boolean isInNoFlyZone(double lng, double lat) {
+        for (double[] ring : zoneRings) {
+            if (isStrictlyInside(lng, lat, ring)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Splits the segment wherever it meets a zone edge, at crossings, at vertices on it and at
+     * the ends of stretches running along an edge, then checks the middle of every piece.
+     * @param from The start of the segment.
+     * @param to The end of the segment.
+     * @return Whether the segment goes through the inside of a no fly zone, by brute force.
+     */
+    private static boolean lineCrossesNoFlyZone(LongLat from, LongLat to) {
+        double rLng = to.longitude - from.longitude;
+        double rLat = to.latitude - from.latitude;
+        double length = Math.hypot(rLng, rLat);
+        if (length == 0) {
+            return isInNoFlyZone(from.longitude, from.latitude);
+        }
+        List<Double> splits = new ArrayList<>(List.of(0.0, 1.0));
+        for (double[] ring : zoneRings) {
+            for (int i = 0; i + 3 < ring.length; i += 2) {
+                double sLng = ring[i + 2] - ring[i];
+                double sLat = ring[i + 3] - ring[i + 1];
+                double qpLng = ring[i] - from.longitude;
+                double qpLat = ring[i + 1] - from.latitude;
+                double rsCross = rLng * sLat - rLat * sLng;
+                if (rsCross != 0) {
+                    double t = (qpLng * sLat - qpLat * sLng) / rsCross;
+                    double u = (qpLng * rLat - qpLat * rLng) / rsCross;
+                    if (t > 0 && t < 1 && u >= 0 && u <= 1) {
+                        splits.add(t);
+                    }
+                }
+                // both ends of the edge, in case they lie on the segment
+                for (int end = 0; end <= 2; end += 2) {
+                    double vLng = ring[i + end] - from.longitude;
+                    double vLat = ring[i + end + 1] - from.latitude;
+                    double t = (vLng * rLng + vLat * rLat) / (length * length);
+                    if (t > 0 && t < 1 &&
+                        Math.abs(vLng * rLat - vLat * rLng) / length <= ON_PERIMETER_TOLERANCE) {
+                        splits.add(t);
+                    }
+                }
+            }
+        }
+        splits.sort(null);
+        for (int i = 0; i + 1 < splits.size(); i++) {
+            double middle = (splits.get(i) + splits.get(i + 1)) / 2;
+            if (splits.get(i + 1) > splits.get(i) &&
+                isInNoFlyZone(from.longitude + middle * rLng, from.latitude + middle * rLat)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * @param from The start of the segment.
+     * @param to The end of the segment.
+     * @return Whether the segment properly intersects a zone edge, testing every edge.
+     */
+    private static boolean lineIntersectsNoFlyZonePerimeter(LongLat from, LongLat to) {
+        for (double[] ring : zoneRings) {
+            for (int i = 0; i + 3 < ring.length; i += 2) {
+                if (ScalarSegmentKernel.intersects(ring[i], ring[i + 1], ring[i + 2],
+                    ring[i + 3], from.longitude, from.latitude, to.longitude - from.longitude,
+                    to.latitude - from.latitude)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * @param from The start of the segment.
+     * @param to The end of the segment.
+     */
+    private void assertSameSegmentChecks(LongLat from, LongLat to) {
+        String segment = String.format("%s to %s", from, to);
+        assertEquals(segment, lineCrossesNoFlyZone(from, to),
+            geometryEngine.lineCrossesNoFlyZone(from, to));
+        assertEquals(segment, lineIntersectsNoFlyZonePerimeter(from, to),
+            geometryEngine.lineIntersectsNoFlyZonePerimeter(from, to));
+    }
+    
+    /**
+     * @param lng Longitude of the point.
+     * @param lat Latitude of the point.
+     */
+    private void assertSamePointChecks(double lng, double lat) {
+        LongLat point = new LongLat(lng, lat);
+        assertEquals(point.toString(), isInNoFlyZone(lng, lat),
+            geometryEngine.isInNoFlyZone(point));
+        assertEquals(point.toString(), isStrictlyInside(lng, lat, confinementRing),
+            geometryEngine.isConfined(point));
+    }
+    
+    @Test
+    public void randomPointsMatchBruteForce() {
+        Random random = new Random(30);
+        for (int i = 0; i < RANDOM_COUNT; i++) {
+            assertSamePointChecks(bounds[0] + random.nextDouble() * (bounds[2] - bounds[0]),
+                bounds[1] + random.nextDouble() * (bounds[3] - bounds[1]));
+        }
+    }
+    
+    @Test
+    public void pointsOnAndNextToPerimetersMatchBruteForce() {
+        List<double[]> rings = new ArrayList<>(zoneRings);
+        rings.add(confinementRing);
+        for (double[] ring : rings) {
+            for (int i = 0; i + 3 < ring.length; i += 2) {
+                double sLng = ring[i + 2] - ring[i];
+                double sLat = ring[i + 3] - ring[i + 1];
+                double length = Math.hypot(sLng, sLat);
+                assertSamePointChecks(ring[i], ring[i + 1]);
+                assertSamePointChecks(ring[i] + sLng / 2, ring[i + 1] + sLat / 2);
+                // either side of the middle of the edge, well outside the tolerance
+                for (double offset : new double[]{-1e-8, 1e-8}) {
+                    assertSamePointChecks(ring[i] + sLng / 2 - offset * sLat / length,
+                        ring[i + 1] + sLat / 2 + offset * sLng / length);
+                }
+            }
+        }
+    }
+    
+    @Test
+    public void randomMovesMatchBruteForce() {
+        Random random = new Random(30);
+        for (int i = 0; i < RANDOM_COUNT; i++) {
+            LongLat from = new LongLat(bounds[0] + random.nextDouble() * (bounds[2] - bounds[0]),
+                bounds[1] + random.nextDouble() * (bounds[3] - bounds[1]));
+            assertSameSegmentChecks(from, from.nextPosition(random.nextInt(36) * 10));
+        }
+    }
+    
+    @Test
+    public void randomLongSegmentsMatchBruteForce() {
+        Random random = new Random(30);
+        for (int i = 0; i < RANDOM_COUNT / 10; i++) {
+            assertSameSegmentChecks(
+                new LongLat(bounds[0] + random.nextDouble() * (bounds[2] - bounds[0]),
+                    bounds[1] + random.nextDouble() * (bounds[3] - bounds[1])),
+                new LongLat(bounds[0] + random.nextDouble() * (bounds[2] - bounds[0]),
+                    bounds[1] + random.nextDouble() * (bounds[3] - bounds[1])));
+        }
+    }
+    
+    @Test
+    public void segmentsTouchingVerticesMatchBruteForce() {
+        for (double[] ring : zoneRings) {
+            for (int i = 0; i + 1 < ring.length; i += 2) {
+                LongLat vertex = new LongLat(ring[i], ring[i + 1]);
+                for (int angle = 0; angle < 360; angle += 10) {
+                    LongLat other = vertex.nextPosition(angle);
+                    assertSameSegmentChecks(other, vertex);
+                    assertSameSegmentChecks(vertex, other);
+                    // through the vertex
+                    assertSameSegmentChecks(other, vertex.nextPosition((angle + 180) % 360));
+                }
+            }
+        }
+    }
+    
+    @Test
+    public void segmentsAlongEdgesMatchBruteForce() {
+        for (double[] ring : zoneRings) {
+            int vertexCount = ring.length / 2 - 1;
+            for (int i = 0; i < vertexCount; i++) {
+                double lng1 = ring[2 * i], lat1 = ring[2 * i + 1];
+                double sLng = ring[2 * i + 2] - lng1, sLat = ring[2 * i + 3] - lat1;
+                // the edge, part of it, and beyond both of its ends
+                for (double[] range : new double[][]{{0, 1}, {0.25, 0.75}, {-0.5, 1.5}}) {
+                    assertSameSegmentChecks(
+                        new LongLat(lng1 + range[0] * sLng, lat1 + range[0] * sLat),
+                        new LongLat(lng1 + range[1] * sLng, lat1 + range[1] * sLat));
+                }
+                // from the vertex to every other vertex of the zone, across it or along it
+                for (int j = 0; j < vertexCount; j++) {
+                    if (j != i) {
+                        assertSameSegmentChecks(new LongLat(lng1, lat1),
+                            new LongLat(ring[2 * j], ring[2 * j + 1]));
+                    }
+                }
+            }
+        }
+    }
+}
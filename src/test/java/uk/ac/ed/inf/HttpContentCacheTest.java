@@ -0,0 +1,140 @@
+package uk.ac.ed.inf;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs HttpContentCache against a local stub server that sends validators and answers 304 Not
+ * Modified to conditional requests that still match them.
+ */
+public class HttpContentCacheTest {
+    private static final String BODY = "{\"content\": 1}";
+    private static final String ETAG = "\"v1\"";
+    private static final String LAST_MODIFIED = "Sun, 02 Jan 2022 10:00:00 GMT";
+    
+    private HttpServer server;
+    private String port;
+    private String url;
+    // the If-None-Match and If-Modified-Since headers of every request, null if not sent
+    private final List<String> ifNoneMatches = new CopyOnWriteArrayList<>();
+    private final List<String> ifModifiedSinces = new CopyOnWriteArrayList<>();
+    // the status code to answer with when the content would otherwise be sent
+    private volatile int errorStatusCode = 200;
+    
+    /**
+     * Starts the stub server on a free port, serving a URL that has never been cached.
+     * @throws IOException If the server cannot be started.
+     */
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            try {
+                String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+                ifNoneMatches.add(ifNoneMatch);
+                ifModifiedSinces.add(exchange.getRequestHeaders().getFirst("If-Modified-Since"));
+                if (errorStatusCode != 200) {
+                    exchange.sendResponseHeaders(errorStatusCode, -1);
+                    return;
+                }
+                if (ETAG.equals(ifNoneMatch)) {
+                    exchange.sendResponseHeaders(304, -1);
+                    return;
+                }
+                byte[] body = BODY.getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("ETag", ETAG);
+                exchange.getResponseHeaders().set("Last-Modified", LAST_MODIFIED);
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream outputStream = exchange.getResponseBody()) {
+                    outputStream.write(body);
+                }
+            }
+            finally {
+                exchange.close();
+            }
+        });
+        server.start();
+        port = String.valueOf(server.getAddress().getPort());
+        // a new path every time, so nothing cached by an earlier test or run is revalidated
+        url = "http://localhost:" + port + "/content/" + UUID.randomUUID();
+    }
+    
+    /**
+     * Stops the stub server.
+     */
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+    
+    @Test
+    public void unchangedContentIsRevalidated() throws IOException {
+        HttpContentCache.Content first = HttpContentCache.fetch("localhost", port, url);
+        assertFalse(first.notModified);
+        assertEquals(BODY, Files.readString(first.bodyPath));
+        assertNull(ifNoneMatches.get(0));
+        assertNull(ifModifiedSinces.get(0));
+        
+        HttpContentCache.Content second = HttpContentCache.fetch("localhost", port, url);
+        assertEquals(ETAG, ifNoneMatches.get(1));
+        assertEquals(LAST_MODIFIED, ifModifiedSinces.get(1));
+        assertTrue(second.notModified);
+        assertEquals(first.version, second.version);
+        assertEquals(BODY, Files.readString(second.bodyPath));
+    }
+    
+    @Test
+    public void unchangedContentIsNotParsedAgain() {
+        AtomicInteger parseCount = new AtomicInteger();
+        HttpContentCache.StreamParser<Object> parser = reader -> {
+            parseCount.incrementAndGet();
+            return new Object();
+        };
+        Object first = HttpContentCache.fetchParsed("localhost", port, url, parser);
+        Object second = HttpContentCache.fetchParsed("localhost", port, url, parser);
+        assertEquals(2, ifNoneMatches.size());
+        assertEquals(ETAG, ifNoneMatches.get(1));
+        assertEquals(1, parseCount.get());
+        assertTrue(first == second);
+    }
+    
+    @Test
+    public void errorStatusIsNotHiddenByCache() {
+        HttpContentCache.fetch("localhost", port, url);
+        errorStatusCode = 404;
+        try {
+            HttpContentCache.fetch("localhost", port, url);
+            fail("expected the 404 to be thrown");
+        }
+        catch (HttpRequestException e) {
+            assertEquals(404, e.statusCode);
+        }
+    }
+    
+    @Test
+    public void cachedContentIsUsedIfServerIsUnreachable() {
+        HttpContentCache.Content first = HttpContentCache.fetch("localhost", port, url);
+        server.stop(0);
+        HttpContentCache.Content second = HttpContentCache.fetch("localhost", port, url);
+        assertTrue(second.notModified);
+        assertEquals(first.version, second.version);
+    }
+}
@@ -0,0 +1,65 @@
+package uk.ac.ed.inf;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Smooths paths between the waypoints of the no fly zones in the test resources, served by a
+ * local webserver.
+ */
+public class PathSmootherTest {
+    private static TestWebserver webserver;
+    private static PlanningContext context;
+    
+    /**
+     * Starts the webserver, and builds the context from it.
+     * @throws IOException If the server cannot be started.
+     */
+    @BeforeClass
+    public static void startServer() throws IOException {
+        webserver = new TestWebserver();
+        context = new PlanningContext("localhost", webserver.getPort(), null);
+    }
+    
+    /**
+     * Stops the webserver.
+     */
+    @AfterClass
+    public static void stopServer() {
+        webserver.close();
+    }
+    
+    @Test
+    public void waypointIsNotSkippedThroughGapPathfinderAvoids() {
+        // two waypoints in sight of each other that the graph does not connect, since the leg
+        // is hard to move along, and a waypoint the graph connects with both
+        List<LongLat> waypoints = context.geojsonManager.getWaypoints();
+        int pairCount = 0;
+        for (LongLat from : waypoints) {
+            for (LongLat to : waypoints) {
+                if (from.equals(to) || context.geojsonManager.lineCrossesNoFlyZone(from, to) ||
+                    context.pathfinder.isAdmissibleEdge(from, to)) {
+                    continue;
+                }
+                for (LongLat via : waypoints) {
+                    if (context.pathfinder.isAdmissibleEdge(from, via) &&
+                        context.pathfinder.isAdmissibleEdge(via, to)) {
+                        // via may be pushed out from its vertex, but it must be kept
+                        assertEquals(from + " to " + to, 2,
+                            context.pathSmoother.smooth(from, List.of(via, to)).size());
+                        pairCount++;
+                        break;
+                    }
+                }
+            }
+        }
+        assertTrue("expected waypoints in sight but not connected", pairCount > 0);
+    }
+}
@@ -0,0 +1,124 @@
+package uk.ac.ed.inf;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the planning service against the test webserver and an in-memory database whose writes
+ * can be made to fail.
+ */
+public class PlanningServiceTest {
+    private static final String DATE = "2022-01-02";
+    private static final Path GEOJSON_FILE = Path.of("drone-02-01-2022.geojson");
+    private static final String INSERT_REQUEST = "{\"orders\": [{\"orderNo\": \"00000002\", " +
+        "\"customer\": \"s0000000\", \"deliverTo\": \"d0.x.y\", \"items\": [\"i1a\"]}]}";
+    
+    private TestWebserver webserver;
+    private TestDatabase database;
+    private PlanningService service;
+    private volatile boolean failWrites = false;
+    private final HttpClient client = HttpClient.newHttpClient();
+    private int port;
+    
+    /**
+     * Starts the webserver, the database with an order for DATE and the service.
+     * @throws IOException If a server cannot be started.
+     * @throws SQLException If the database cannot be created.
+     */
+    @Before
+    public void startService() throws IOException, SQLException {
+        webserver = new TestWebserver();
+        database = new TestDatabase("planningService");
+        database.addOrder("00000001", DATE, "d0.x.y", "i0a");
+        DBManager dbManager = new DBManager(database.newConnectionPool()) {
+            @Override
+            public void writeDeliveries(List<DeliveryOrder> deliveredOrders) {
+                if (failWrites) {
+                    throw new DatabaseException("cannot insert into table deliveries",
+                        new SQLException("injected failure"));
+                }
+                super.writeDeliveries(deliveredOrders);
+            }
+        };
+        service = new PlanningService(new PlanningContext("localhost", webserver.getPort(),
+            dbManager), 1, GreedyMovePlanner::new, false);
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        service.start(port);
+    }
+    
+    /**
+     * Stops everything, and deletes the geojson file written by the service.
+     * @throws IOException If the file cannot be deleted.
+     */
+    @After
+    public void stopService() throws IOException {
+        service.stop();
+        database.close();
+        webserver.close();
+        Files.deleteIfExists(GEOJSON_FILE);
+    }
+    
+    /**
+     * @param request The request to send.
+     * @return The response.
+     * @throws IOException If the request cannot be sent.
+     * @throws InterruptedException If interrupted while waiting for the response.
+     */
+    private HttpResponse<String> send(HttpRequest.Builder request)
+        throws IOException, InterruptedException {
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+    
+    /**
+     * @param path The path and query of a request to the service.
+     * @return The request.
+     */
+    private HttpRequest.Builder newRequest(String path) {
+        return HttpRequest.newBuilder(URI.create("http://localhost:" + port + path));
+    }
+    
+    @Test
+    public void failedWriteOfInsertCanBeRetried() throws Exception {
+        HttpResponse<String> response = send(newRequest("/plan?date=" + DATE + "&write=false"));
+        assertEquals(response.body(), 200, response.statusCode());
+        
+        failWrites = true;
+        HttpRequest.Builder insert = newRequest("/plan/insert?date=" + DATE)
+            .POST(HttpRequest.BodyPublishers.ofString(INSERT_REQUEST));
+        response = send(insert);
+        assertEquals(response.body(), 503, response.statusCode());
+        
+        // the order was rolled back, so it is accepted, and written, on retry
+        failWrites = false;
+        response = send(insert);
+        assertEquals(response.body(), 200, response.statusCode());
+        assertTrue(response.body(), response.body().contains("\"accepted\":true"));
+        assertEquals(2, database.queryInt("select count(*) from deliveries"));
+        assertEquals(1, database.queryInt(
+            "select count(*) from deliveries where orderNo = '00000002'"));
+    }
+    
+    @Test
+    public void insertIntoUnplannedDateIsNotFound() throws Exception {
+        HttpResponse<String> response = send(newRequest("/plan/insert?date=" + DATE)
+            .POST(HttpRequest.BodyPublishers.ofString(INSERT_REQUEST)));
+        assertEquals(404, response.statusCode());
+    }
+}
@@ -0,0 +1,174 @@
+package uk.ac.ed.inf;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntUnaryOperator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs ResilientHttpClient against a local stub server that injects faults: error status codes
+ * and responses slower than the client's timeouts.
+ */
+public class ResilientHttpClientTest {
+    private static final long SLOW_MILLIS = 2000;  // well over the client's request timeout
+    private static final String BODY = "ok";
+    
+    private HttpServer server;
+    private ExecutorService executor;
+    private final AtomicInteger requestCount = new AtomicInteger();
+    // request number (from 1) -> the status code to answer with, or -1 to answer slowly with 200
+    private volatile IntUnaryOperator fault = request -> 200;
+    
+    /**
+     * Starts the stub server on a free port.
+     * @throws IOException If the server cannot be started.
+     */
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext("/", exchange -> {
+            int statusCode = fault.applyAsInt(requestCount.incrementAndGet());
+            if (statusCode == -1) {
+                try {
+                    Thread.sleep(SLOW_MILLIS);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                statusCode = 200;
+            }
+            byte[] body = BODY.getBytes(StandardCharsets.UTF_8);
+            try {
+                exchange.sendResponseHeaders(statusCode, body.length);
+                try (OutputStream outputStream = exchange.getResponseBody()) {
+                    outputStream.write(body);
+                }
+            }
+            catch (IOException e) {
+                // the client gave up on this request already
+            }
+            finally {
+                exchange.close();
+            }
+        });
+        server.start();
+    }
+    
+    /**
+     * Stops the stub server.
+     */
+    @After
+    public void stopServer() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+    
+    /**
+     * @param maxAttempts The maximum number of attempts per request.
+     * @param hedgeAfterMillis Send a hedged duplicate after this long, 0 to never hedge.
+     * @return A client with short timeouts and backoff, so the tests run quickly.
+     */
+    private ResilientHttpClient newClient(int maxAttempts, long hedgeAfterMillis) {
+        return new ResilientHttpClient(Duration.ofMillis(500), Duration.ofMillis(300),
+            maxAttempts, 10, 50, hedgeAfterMillis);
+    }
+    
+    /**
+     * @return A request to the stub server.
+     */
+    private HttpRequest.Builder newRequest() {
+        return HttpRequest.newBuilder().uri(URI.create(String.format("http://localhost:%d/menus",
+            server.getAddress().getPort())));
+    }
+    
+    @Test
+    public void retriesServerErrorsUntilSuccess() {
+        fault = request -> request <= 2 ? 503 : 200;
+        HttpResponse<String> response = newClient(4, 0).send(newRequest());
+        assertEquals(200, response.statusCode());
+        assertEquals(BODY, response.body());
+        assertEquals(3, requestCount.get());
+    }
+    
+    @Test
+    public void givesUpAfterMaxAttempts() {
+        fault = request -> 500;
+        try {
+            newClient(3, 0).send(newRequest());
+            fail("expected HttpRequestException");
+        }
+        catch (HttpRequestException e) {
+            assertEquals(500, e.statusCode);
+            assertTrue(e.getUrl().endsWith("/menus"));
+        }
+        assertEquals(3, requestCount.get());
+    }
+    
+    @Test
+    public void doesNotRetryClientErrors() {
+        fault = request -> 404;
+        try {
+            newClient(4, 0).send(newRequest());
+            fail("expected HttpRequestException");
+        }
+        catch (HttpRequestException e) {
+            assertEquals(404, e.statusCode);
+        }
+        assertEquals(1, requestCount.get());
+    }
+    
+    @Test
+    public void retriesTimedOutRequests() {
+        fault = request -> request == 1 ? -1 : 200;
+        long startTime = System.nanoTime();
+        HttpResponse<String> response = newClient(4, 0).send(newRequest());
+        long elapsedMillis = (System.nanoTime() - startTime) / 1_000_000;
+        assertEquals(200, response.statusCode());
+        assertEquals(2, requestCount.get());
+        assertTrue("took " + elapsedMillis + " ms", elapsedMillis < SLOW_MILLIS);
+    }
+    
+    @Test
+    public void timeoutsCountAsFailedAttempts() {
+        fault = request -> -1;
+        try {
+            newClient(2, 0).send(newRequest());
+            fail("expected HttpRequestException");
+        }
+        catch (HttpRequestException e) {
+            assertEquals(-1, e.statusCode);
+        }
+        assertEquals(2, requestCount.get());
+    }
+    
+    @Test
+    public void hedgedRequestAnswersBeforeSlowOne() {
+        fault = request -> request == 1 ? -1 : 200;
+        long startTime = System.nanoTime();
+        // a single attempt, so only the hedged duplicate can have answered in time
+        HttpResponse<String> response = newClient(1, 50).send(newRequest());
+        long elapsedMillis = (System.nanoTime() - startTime) / 1_000_000;
+        assertEquals(200, response.statusCode());
+        assertEquals(BODY, response.body());
+        assertTrue("took " + elapsedMillis + " ms", elapsedMillis < SLOW_MILLIS);
+    }
+}
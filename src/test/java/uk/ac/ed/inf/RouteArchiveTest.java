@@ -0,0 +1,175 @@
+package uk.ac.ed.inf;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+/**
+ * Appends flights to route archives in a temporary folder and reads them back.
+ */
+public class RouteArchiveTest {
+    private static final LongLat APPLETON_TOWER = new LongLat(-3.186874, 55.944494);
+    private static final LongLat FORREST_HILL = new LongLat(-3.192473, 55.946233);
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    /**
+     * @param start Where the flight starts.
+     * @param droneId The drone flying it.
+     * @param sortie The sortie of the drone it is.
+     * @param orderNos The orderNo of every move, a hover where it changes and at the end.
+     * @return The moves of the flight, at a different angle every move.
+     */
+    private static List<Flightpath> newFlight(LongLat start, int droneId, int sortie,
+                                              String... orderNos) {
+        List<Flightpath> flight = new ArrayList<>();
+        LongLat from = start;
+        for (int i = 0; i < orderNos.length; i++) {
+            boolean hover = i + 1 == orderNos.length || !orderNos[i].equals(orderNos[i + 1]);
+            int angle = hover ? -999 : i * 70 % 360;
+            LongLat to = from.nextPosition(angle);
+            flight.add(new Flightpath(orderNos[i], from, angle, to, droneId, sortie));
+            from = to;
+        }
+        return flight;
+    }
+    
+    /**
+     * @param expected The moves appended.
+     * @param actual The moves read back.
+     */
+    private static void assertSameFlightpaths(List<Flightpath> expected, List<Flightpath> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Flightpath e = expected.get(i);
+            Flightpath a = actual.get(i);
+            assertEquals(e.orderNo, a.orderNo);
+            assertEquals(e.fromLng, a.fromLng, 0);
+            assertEquals(e.fromLat, a.fromLat, 0);
+            assertEquals(e.angle, a.angle);
+            assertEquals(e.toLng, a.toLng, 0);
+            assertEquals(e.toLat, a.toLat, 0);
+            assertEquals(e.droneId, a.droneId);
+            assertEquals(e.sortie, a.sortie);
+        }
+    }
+    
+    @Test
+    public void appendedFlightsReadBackExactly() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("flights.routes");
+        List<Flightpath> firstSortie = newFlight(APPLETON_TOWER, 0, 0,
+            "00000001", "00000001", "00000001", "00000002", "00000002", "");
+        List<Flightpath> secondSortie = newFlight(APPLETON_TOWER, 0, 1,
+            "00000003", "00000003", "00000003", "");
+        List<Flightpath> otherDrone = newFlight(FORREST_HILL, 1, 0,
+            "00000004", "00000005", "00000005", "");
+        List<Flightpath> day = new ArrayList<>(firstSortie);
+        day.addAll(secondSortie);
+        day.addAll(otherDrone);
+        List<Flightpath> nextDay = newFlight(APPLETON_TOWER, 0, 0, "00000006", "00000006", "");
+        RouteArchive.append(path, 20220102, day);
+        RouteArchive.append(path, 20220103, nextDay);
+        
+        try (RouteArchive archive = new RouteArchive(path)) {
+            List<RouteArchive.ArchivedFlight> flights = archive.getFlights();
+            assertEquals(4, flights.size());
+            List<List<Flightpath>> expected =
+                List.of(firstSortie, secondSortie, otherDrone, nextDay);
+            int[] dates = {20220102, 20220102, 20220102, 20220103};
+            for (int i = 0; i < flights.size(); i++) {
+                RouteArchive.ArchivedFlight flight = flights.get(i);
+                assertEquals(dates[i], flight.date);
+                assertEquals(expected.get(i).get(0).droneId, flight.droneId);
+                assertEquals(expected.get(i).get(0).sortie, flight.sortie);
+                assertEquals(expected.get(i).size(), flight.moveCount);
+                assertSameFlightpaths(expected.get(i), flight.getFlightpaths());
+            }
+            assertEquals(List.of("00000001", "00000002", ""), flights.get(0).getOrderNos());
+            assertEquals(List.of("00000004", "00000005", ""), flights.get(2).getOrderNos());
+        }
+    }
+    
+    @Test
+    public void unreplayableMoveIsRejected() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("flights.routes");
+        List<Flightpath> day = newFlight(APPLETON_TOWER, 0, 0, "00000001", "00000001", "");
+        RouteArchive.append(path, 20220102, day);
+        byte[] archived = Files.readAllBytes(path);
+        
+        // a valid first flight, then one whose first move does not go anywhere
+        List<Flightpath> nextDay = new ArrayList<>(day);
+        List<Flightpath> badFlight = newFlight(FORREST_HILL, 1, 0, "00000002", "00000002", "");
+        Flightpath move = badFlight.get(0);
+        badFlight.set(0, new Flightpath(move.orderNo, move.getFromLongLat(), move.angle,
+            move.getFromLongLat(), move.droneId, move.sortie));
+        nextDay.addAll(badFlight);
+        try {
+            RouteArchive.append(path, 20220103, nextDay);
+            fail("expected the unreplayable move to be rejected");
+        }
+        catch (IllegalArgumentException e) {
+            assertEquals("move 0 cannot be replayed from the previous moves", e.getMessage());
+        }
+        assertArrayEquals(archived, Files.readAllBytes(path));
+        
+        Path newPath = folder.getRoot().toPath().resolve("new.routes");
+        try {
+            RouteArchive.append(newPath, 20220103, badFlight);
+            fail("expected the unreplayable move to be rejected");
+        }
+        catch (IllegalArgumentException e) {
+            assertFalse(Files.exists(newPath));
+        }
+    }
+    
+    @Test
+    public void version1ArchiveIsReadButNotAppendedTo() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("v1.routes");
+        List<Flightpath> flight = newFlight(APPLETON_TOWER, 2, 0, "00000001", "00000001", "");
+        // a version 1 record has no sortie after the droneId
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        buffer.put("ILPR".getBytes(StandardCharsets.US_ASCII)).put((byte) 1);
+        buffer.putInt(20220102).putInt(2);
+        buffer.putDouble(flight.get(0).fromLng).putDouble(flight.get(0).fromLat);
+        buffer.putInt(flight.size()).putInt(2);
+        buffer.putInt(0).put("00000001".getBytes(StandardCharsets.US_ASCII));
+        buffer.putInt(2).put("        ".getBytes(StandardCharsets.US_ASCII));
+        for (Flightpath move : flight) {
+            buffer.put(move.angle == -999 ? (byte) 255 : (byte) (move.angle / 10));
+        }
+        byte[] archived = new byte[buffer.flip().remaining()];
+        buffer.get(archived);
+        Files.write(path, archived);
+        
+        try (RouteArchive archive = new RouteArchive(path)) {
+            RouteArchive.ArchivedFlight archivedFlight = archive.getFlights().get(0);
+            assertEquals(2, archivedFlight.droneId);
+            assertEquals(0, archivedFlight.sortie);
+            assertSameFlightpaths(flight, archivedFlight.getFlightpaths());
+        }
+        try {
+            RouteArchive.append(path, 20220103, flight);
+            fail("expected appending to a version 1 archive to fail");
+        }
+        catch (IOException e) {
+            assertEquals(String.format(
+                "%s is not a version 2 route archive, cannot append to it", path),
+                e.getMessage());
+        }
+        assertArrayEquals(archived, Files.readAllBytes(path));
+    }
+}
@@ -0,0 +1,94 @@
+package uk.ac.ed.inf;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Plans orders sharing shops and a delivery location with stop consolidation, against a local
+ * webserver serving the menus, no fly zones and w3w locations from the test resources.
+ */
+public class StopConsolidatorTest {
+    private static TestWebserver webserver;
+    private static PlanningContext context;
+    
+    /**
+     * Starts the webserver, and builds the context from it.
+     * @throws IOException If the server cannot be started.
+     */
+    @BeforeClass
+    public static void startServer() throws IOException {
+        webserver = new TestWebserver();
+        // no orders are read from or written to the database
+        context = new PlanningContext("localhost", webserver.getPort(), null);
+    }
+    
+    /**
+     * Stops the webserver.
+     */
+    @AfterClass
+    public static void stopServer() {
+        webserver.close();
+    }
+    
+    /**
+     * @return Three orders delivered to the same location, from either or both shops.
+     */
+    private static List<DeliveryOrder> getOrdersToSameLocation() {
+        List<DeliveryOrder> orders = new ArrayList<>();
+        orders.add(newOrder("00000001", List.of("i0a")));
+        orders.add(newOrder("00000002", List.of("i1a")));
+        orders.add(newOrder("00000003", List.of("i0b", "i1b")));
+        return orders;
+    }
+    
+    /**
+     * @param orderNo The orderNo.
+     * @param items The items ordered.
+     * @return An order delivered to d0.x.y.
+     */
+    private static DeliveryOrder newOrder(String orderNo, List<String> items) {
+        return new DeliveryOrder(orderNo, Date.valueOf("2022-01-02"), "s0000000", "d0.x.y",
+            items, context.menus, context.what3WordsManager);
+    }
+    
+    @Test
+    public void consolidatesEveryOrderAtSharedLocation() {
+        List<DeliveryOrder> orders = getOrdersToSameLocation();
+        Drone drone = new Drone(context, "02", "01", "2022");
+        List<RouteStop> stops = new StopConsolidator(drone).consolidate(orders);
+        int deliveryStops = 0;
+        for (RouteStop stop : stops) {
+            if (stop.location.equals(orders.get(0).deliveryLngLat)) {
+                deliveryStops++;
+                assertEquals(orders, stop.orders);
+            }
+        }
+        assertEquals(1, deliveryStops);
+    }
+    
+    @Test
+    public void everyDeliveredOrderHoversAtItsDeliveryLocation() {
+        Drone drone = new Drone(context, "02", "01", "2022");
+        drone.setConsolidateStops(true);
+        DeliveryPlan plan = drone.planDeliveries(getOrdersToSameLocation());
+        assertEquals(3, plan.deliveredOrders.size());
+        for (DeliveryOrder order : plan.deliveredOrders) {
+            boolean hovered = false;
+            for (Flightpath flightpath : plan.flightpaths) {
+                hovered |= flightpath.angle == -999 && flightpath.orderNo.equals(order.orderNo) &&
+                    flightpath.getToLongLat().closeTo(order.deliveryLngLat);
+            }
+            assertTrue("no hover for order " + order.orderNo + " at its delivery location",
+                hovered);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package uk.ac.ed.inf;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * In-memory embedded Derby database with the orders and orderDetails tables of the coursework
+ * database, dropped when closed.
+ */
+class TestDatabase implements AutoCloseable {
+    private final String jdbcString;
+    private final Connection connection;
+    
+    /**
+     * Creates the database and its order tables, empty.
+     * @param name The name of the database, unique among the open test databases.
+     * @throws SQLException If the database cannot be created.
+     */
+    TestDatabase(String name) throws SQLException {
+        this.jdbcString = "jdbc:derby:memory:" + name;
+        this.connection = DriverManager.getConnection(jdbcString + ";create=true");
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("create table orders(orderNo char(8), deliveryDate date, " +
+                "customer char(8), deliverTo varchar(19))");
+            statement.execute("create table orderDetails(orderNo char(8), item varchar(58))");
+        }
+    }
+    
+    /**
+     * @param orderNo The orderNo.
+     * @param deliveryDate The delivery date, as yyyy-mm-dd.
+     * @param deliverTo The w3w location to deliver to.
+     * @param items The items ordered.
+     * @throws SQLException If the order cannot be inserted.
+     */
+    void addOrder(String orderNo, String deliveryDate, String deliverTo, String... items)
+        throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(
+            "insert into orders values (?, ?, 's0000000', ?)")) {
+            ps.setString(1, orderNo);
+            ps.setDate(2, Date.valueOf(deliveryDate));
+            ps.setString(3, deliverTo);
+            ps.execute();
+        }
+        try (PreparedStatement ps = connection.prepareStatement(
+            "insert into orderDetails values (?, ?)")) {
+            for (String item : items) {
+                ps.setString(1, orderNo);
+                ps.setString(2, item);
+                ps.execute();
+            }
+        }
+    }
+    
+    /**
+     * @return A new pool of connections to the database, for a DBManager.
+     */
+    DBConnectionPool newConnectionPool() {
+        return new DBConnectionPool(jdbcString, 2);
+    }
+    
+    /**
+     * @param sql A statement to run, e.g. to create a table as an older version of the code did.
+     * @throws SQLException If the statement fails.
+     */
+    void execute(String sql) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+    
+    /**
+     * @param query A query with a single int column, e.g. a count.
+     * @return The value of the first row.
+     * @throws SQLException If the query fails.
+     */
+    int queryInt(String query) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(query)) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+    
+    /**
+     * Drops the database.
+     */
+    @Override
+    public void close() {
+        try {
+            connection.close();
+            DriverManager.getConnection(jdbcString + ";drop=true");
+        }
+        catch (SQLException e) {
+            // dropping the database is reported as an exception
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package uk.ac.ed.inf;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+
+/**
+ * Local webserver serving the menus, no fly zones and w3w locations from the test resources, on
+ * a free port.
+ */
+class TestWebserver implements AutoCloseable {
+    private final HttpServer server;
+    
+    /**
+     * Starts the webserver.
+     * @throws IOException If the server cannot be started.
+     */
+    TestWebserver() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            try (InputStream resource = TestWebserver.class.getResourceAsStream(
+                "/webserver" + exchange.getRequestURI().getPath())) {
+                if (resource == null) {
+                    exchange.sendResponseHeaders(404, -1);
+                    return;
+                }
+                byte[] body = resource.readAllBytes();
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream outputStream = exchange.getResponseBody()) {
+                    outputStream.write(body);
+                }
+            }
+            finally {
+                exchange.close();
+            }
+        });
+        server.start();
+    }
+    
+    /**
+     * @return The port the webserver listens on, as PlanningContext takes it.
+     */
+    String getPort() {
+        return String.valueOf(server.getAddress().getPort());
+    }
+    
+    /**
+     * Stops the webserver.
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}